@@ -0,0 +1,65 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Decrypts payloads of the sizes of wireless telegrams with AES-CBC (security mode 5) and AES-CTR (security mode 7).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AesCryptBenchmark {
+
+    @Param({ "1", "3", "8" })
+    public int blocks;
+
+    private AesCrypt cbc;
+    private AesCrypt ctr;
+    private byte[] payload;
+
+    @Setup
+    public void setup() throws DecodingException {
+        Random random = new Random(0);
+        byte[] key = new byte[16];
+        byte[] iv = new byte[16];
+        random.nextBytes(key);
+        random.nextBytes(iv);
+
+        cbc = AesCrypt.newAesCrypt(key, iv);
+        ctr = AesCrypt.newAesCtrCrypt(key, iv);
+        payload = new byte[blocks * 16];
+        random.nextBytes(payload);
+    }
+
+    @Benchmark
+    public byte[] decryptCbc() throws DecodingException {
+        return cbc.decrypt(payload, payload.length);
+    }
+
+    @Benchmark
+    public byte[] decryptCtr() throws DecodingException {
+        return ctr.decrypt(payload, payload.length);
+    }
+
+}
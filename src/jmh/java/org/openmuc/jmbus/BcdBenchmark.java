@@ -0,0 +1,58 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Converts BCD numbers of the lengths of the DIF data fields to long.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BcdBenchmark {
+
+    @Param({ "1", "2", "3", "4", "6" })
+    public int length;
+
+    private byte[] bytes;
+    private Bcd bcd;
+
+    @Setup
+    public void setup() {
+        bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte) (0x10 * ((2 * i + 1) % 10) + (2 * i) % 10);
+        }
+        bcd = Bcd.from(bytes);
+    }
+
+    @Benchmark
+    public long longValue() {
+        return bcd.longValue();
+    }
+
+    @Benchmark
+    public long fromBytesLongValue() {
+        return Bcd.from(bytes).longValue();
+    }
+
+}
@@ -0,0 +1,55 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Computes the CRC of a block of a wireless frame, a full block sequence and a long frame.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class Crc16Benchmark {
+
+    @Param({ "10", "16", "128", "255" })
+    public int length;
+
+    private byte[] bytes;
+
+    @Setup
+    public void setup() {
+        bytes = new byte[length];
+        new Random(0).nextBytes(bytes);
+    }
+
+    @Benchmark
+    public int compute() {
+        return CRC16.compute(bytes, 0, length);
+    }
+
+    @Benchmark
+    public byte[] calculateCrc16() {
+        return CRC16.calculateCrc16(bytes, 0, length);
+    }
+
+}
@@ -0,0 +1,89 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Decodes a single data record with a volume VIF for every data field of the DIF.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DataRecordBenchmark {
+
+    /**
+     * The DIF data fields: no data, 8 to 64 bit integers, 32 bit real, 2 to 12 digit BCD and variable length.
+     */
+    @Param({ "00", "01", "02", "03", "04", "05", "06", "07", "08", "09", "0A", "0B", "0C", "0D", "0E" })
+    public String dataField;
+
+    private byte[] record;
+
+    @Setup
+    public void setup() {
+        int dif = Integer.parseInt(dataField, 16);
+        byte[] data = data(dif);
+
+        record = new byte[2 + data.length];
+        record[0] = (byte) dif;
+        record[1] = 0x13;
+        System.arraycopy(data, 0, record, 2, data.length);
+    }
+
+    @Benchmark
+    public DataRecord decode() throws DecodingException {
+        DataRecord dataRecord = new DataRecord();
+        dataRecord.decode(record, 0, record.length);
+        return dataRecord;
+    }
+
+    private static byte[] data(int dataField) {
+        switch (dataField) {
+        case 0x01:
+        case 0x09:
+            return new byte[] { 0x12 };
+        case 0x02:
+        case 0x0A:
+            return new byte[] { 0x34, 0x12 };
+        case 0x03:
+        case 0x0B:
+            return new byte[] { 0x56, 0x34, 0x12 };
+        case 0x04:
+        case 0x0C:
+            return new byte[] { 0x78, 0x56, 0x34, 0x12 };
+        case 0x05:
+            // 12.5f
+            return new byte[] { 0x00, 0x00, 0x48, 0x41 };
+        case 0x06:
+        case 0x0E:
+            return new byte[] { 0x12, (byte) 0x90, 0x78, 0x56, 0x34, 0x12 };
+        case 0x07:
+            return new byte[] { (byte) 0xF0, (byte) 0xDE, (byte) 0xBC, (byte) 0x9A, 0x78, 0x56, 0x34, 0x12 };
+        case 0x0D:
+            // LVAR of an eight character string
+            return new byte[] { 0x08, 'R', 'E', 'T', 'E', 'M', 'U', 'L', 'O' };
+        default:
+            return new byte[0];
+        }
+    }
+
+}
@@ -0,0 +1,58 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Decodes the wired telegrams of {@link MessagesData}, either only the frame or the frame and its data records.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MBusMessageBenchmark {
+
+    @Param({ "testMsg1", "testMsg2", "testMsg3", "testMsg4", "testMsg5", "testMsg6", "testMsg7",
+            "test_ABB_A41_Msg1", "test_ABB_A41_Msg2", "test_ABB_A41_Msg3", "test_ABB_A41_Msg4",
+            "test_ABB_A41_Msg5" })
+    public String message;
+
+    private byte[] telegram;
+
+    @Setup
+    public void setup() throws ReflectiveOperationException {
+        telegram = (byte[]) MessagesData.class.getDeclaredField(message).get(null);
+    }
+
+    @Benchmark
+    public MBusMessage decode() throws DecodingException {
+        return MBusMessage.decode(telegram, telegram.length);
+    }
+
+    @Benchmark
+    public void decodeRecords(Blackhole blackhole) throws DecodingException {
+        VariableDataStructure vds = MBusMessage.decode(telegram, telegram.length).getVariableDataResponse();
+        vds.decode();
+        blackhole.consume(vds.getDataRecords());
+    }
+
+}
@@ -0,0 +1,95 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus;
+
+import static javax.xml.bind.DatatypeConverter.parseHexBinary;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the overhead of the metrics: decoding a telegram with and without counting, and the events reported per
+ * received frame by four concurrent receivers sharing one instance.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MetricsBenchmark {
+
+    public enum Metrics {
+        NO_OP,
+        COUNTING
+    }
+
+    @Param
+    public Metrics metrics;
+
+    private MBusMetrics instance;
+
+    @Setup
+    public void setup() {
+        instance = metrics == Metrics.NO_OP ? MBusMetrics.NO_OP : new CountingMetrics();
+    }
+
+    @State(Scope.Thread)
+    public static class Telegram {
+
+        private final byte[] telegram = parseHexBinary(TelegramCorpus.ELL_FRAME);
+        private final byte[] buffer = new byte[telegram.length];
+        private final SecondaryAddress linkLayerSecondaryAddress = SecondaryAddress.newFromWMBusLlHeader(telegram, 2);
+
+    }
+
+    @Benchmark
+    public VariableDataStructure decode(Telegram t) throws DecodingException {
+        System.arraycopy(t.telegram, 0, t.buffer, 0, t.telegram.length);
+        VariableDataStructure vds = new VariableDataStructure(t.buffer, 10, (t.telegram[0] & 0xff) - 9,
+                t.linkLayerSecondaryAddress, Collections.<SecondaryAddress, byte[]> emptyMap(), instance);
+        vds.decode();
+        return vds;
+    }
+
+    /*
+     * The events of a frame passing a wireless receiver.
+     */
+    @Benchmark
+    @Threads(4)
+    public void receivedFrame() {
+        instance.bytesReceived(64);
+        instance.frameReceived();
+        instance.listenerQueueDepth(1);
+    }
+
+    /*
+     * The events of a wired request with response.
+     */
+    @Benchmark
+    @Threads(4)
+    public void request() {
+        instance.bytesSent(5);
+        instance.frameSent();
+        instance.bytesReceived(31);
+        instance.frameReceived();
+        instance.requestCompleted(1, 20000000L);
+    }
+
+}
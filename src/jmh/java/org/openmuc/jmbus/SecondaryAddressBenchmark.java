@@ -0,0 +1,63 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.bind.DatatypeConverter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Constructs secondary addresses from the headers of wired and wireless frames and from their fields.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SecondaryAddressBenchmark {
+
+    private byte[] wmBusFrame;
+    private byte[] mBusFrame;
+
+    @Setup
+    public void setup() {
+        wmBusFrame = DatatypeConverter.parseHexBinary(TelegramCorpus.ELL_FRAME);
+        mBusFrame = MessagesData.testMsg2;
+    }
+
+    @Benchmark
+    public SecondaryAddress newFromWMBusLlHeader() {
+        return SecondaryAddress.newFromWMBusLlHeader(wmBusFrame, 2);
+    }
+
+    @Benchmark
+    public SecondaryAddress newFromLongHeader() {
+        return SecondaryAddress.newFromLongHeader(mBusFrame, 7);
+    }
+
+    @Benchmark
+    public long pack() {
+        return SecondaryAddress.pack(wmBusFrame, 2);
+    }
+
+    @Benchmark
+    public SecondaryAddress from() {
+        return SecondaryAddress.from(12345678, "EMU", 1, DeviceType.WATER_METER);
+    }
+
+}
@@ -0,0 +1,32 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus;
+
+/**
+ * Wireless telegrams of the tests used by the benchmarks. The wired telegrams are taken from {@link MessagesData}.
+ */
+final class TelegramCorpus {
+
+    /**
+     * Variable data structure with short transport layer header and three AES-CBC encrypted blocks, see
+     * VariableDataStructureTest.
+     */
+    static final String SHORT_HEADER_VDS = "7ACB5030055E861434F34A14AE2B9973AEE9811E32578336455E9AC7E7EF960B2253CA7F2BB"
+            + "6632C35E3DD95D66FE96C699A298A53";
+    static final String SHORT_HEADER_LL_ADDRESS = "2423759468372507";
+    static final String SHORT_HEADER_KEY = "48616C6C6F576F726C64546573745057";
+
+    /**
+     * Kamstrup frame with extended link layer and a full format header carrying 13 records, see ShortTelegramTest.
+     */
+    static final String ELL_FRAME = "5C442D2C06357260190C8D207B70032F21271D7802F9FF15011104061765000004EEFF07BFA800"
+            + "0004EEFF08D24F00000414B1FB000002FD170000026CE919426CFF184406F76400004414E8FA0000043B0B0000000259DB11025D1C0B"
+            + "5B";
+
+    private TelegramCorpus() {
+    }
+
+}
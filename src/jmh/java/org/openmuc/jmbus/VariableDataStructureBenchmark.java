@@ -0,0 +1,95 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus;
+
+import static javax.xml.bind.DatatypeConverter.parseHexBinary;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Decodes the variable data structure of a wired telegram with long header, of an encrypted wireless telegram with
+ * short header and of a wireless telegram with extended link layer.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VariableDataStructureBenchmark {
+
+    public enum Header {
+        LONG,
+        SHORT,
+        ELL
+    }
+
+    @Param
+    public Header header;
+
+    private byte[] telegram;
+    private byte[] buffer;
+    private int offset;
+    private int length;
+    private SecondaryAddress linkLayerSecondaryAddress;
+    private Map<SecondaryAddress, byte[]> keyMap;
+
+    @Setup
+    public void setup() {
+        switch (header) {
+        case LONG:
+            telegram = MessagesData.testMsg2;
+            offset = 6;
+            length = telegram[1] & 0xff;
+            break;
+        case SHORT:
+            telegram = parseHexBinary(TelegramCorpus.SHORT_HEADER_VDS);
+            offset = 0;
+            length = telegram.length;
+            linkLayerSecondaryAddress = SecondaryAddress
+                    .newFromWMBusLlHeader(parseHexBinary(TelegramCorpus.SHORT_HEADER_LL_ADDRESS), 0);
+            keyMap = Collections.singletonMap(linkLayerSecondaryAddress,
+                    parseHexBinary(TelegramCorpus.SHORT_HEADER_KEY));
+            break;
+        case ELL:
+        default:
+            telegram = parseHexBinary(TelegramCorpus.ELL_FRAME);
+            offset = 10;
+            length = (telegram[0] & 0xff) - 9;
+            linkLayerSecondaryAddress = SecondaryAddress.newFromWMBusLlHeader(telegram, 2);
+            keyMap = Collections.emptyMap();
+            break;
+        }
+        buffer = new byte[telegram.length];
+    }
+
+    /*
+     * Decryption works in place, so every invocation decodes a fresh copy of the telegram.
+     */
+    @Benchmark
+    public VariableDataStructure decode() throws DecodingException {
+        System.arraycopy(telegram, 0, buffer, 0, telegram.length);
+        VariableDataStructure vds = new VariableDataStructure(buffer, offset, length, linkLayerSecondaryAddress,
+                keyMap);
+        vds.decode();
+        return vds;
+    }
+
+}
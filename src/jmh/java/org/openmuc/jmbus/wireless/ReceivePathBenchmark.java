@@ -0,0 +1,79 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus.wireless;
+
+import static javax.xml.bind.DatatypeConverter.parseHexBinary;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openmuc.jmbus.DecodingException;
+import org.openmuc.jmbus.MBusMetrics;
+import org.openmuc.jmbus.SecondaryAddress;
+
+/**
+ * The work of the receiver per frame: taking a frame buffer, copying the frame, decoding the message and releasing it
+ * when the listener returned, with and without buffer pool and with and without decoding the data records (decode
+ * workers or latest value store). Run with the GC profiler, gc.alloc.rate.norm is the number of bytes allocated per
+ * frame.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReceivePathBenchmark {
+
+    /**
+     * Kamstrup frame with extended link layer and a full format header carrying 13 records, see ShortTelegramTest.
+     */
+    private static final String ELL_FRAME = "5C442D2C06357260190C8D207B70032F21271D7802F9FF15011104061765000004EEFF07B"
+            + "FA8000004EEFF08D24F00000414B1FB000002FD170000026CE919426CFF184406F76400004414E8FA0000043B0B0000000259DB110"
+            + "25D1C0B5B";
+
+    @Param({ "false", "true" })
+    public boolean pooled;
+
+    @Param({ "false", "true" })
+    public boolean decodeRecords;
+
+    private final byte[] frame = parseHexBinary(ELL_FRAME);
+    private final Map<SecondaryAddress, byte[]> keyMap = Collections.emptyMap();
+    private final Integer rssi = -60;
+    private TelegramBufferPool pool;
+
+    @Setup
+    public void setup() {
+        pool = pooled ? new TelegramBufferPool(16) : null;
+    }
+
+    @Benchmark
+    public WMBusMessage receive() throws DecodingException {
+        byte[] buffer = pool == null ? new byte[frame.length] : pool.acquire();
+        System.arraycopy(frame, 0, buffer, 0, frame.length);
+
+        WMBusMessage message = WMBusMessage.decode(buffer, frame.length, rssi, keyMap, pool, MBusMetrics.NO_OP);
+        if (decodeRecords) {
+            message.getVariableDataResponse().decode();
+        }
+        message.release();
+        return message;
+    }
+
+}
@@ -0,0 +1,119 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus;
+
+import java.security.GeneralSecurityException;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * AES-CMAC according to RFC 4493 (NIST SP 800-38B).
+ * <p>
+ * The AES key schedule and the sub keys are computed once per instance. Instances are not thread safe.
+ * </p>
+ */
+class AesCmac {
+
+    private static final int BLOCK_SIZE = 16;
+    private static final int RB = 0x87;
+
+    private final Cipher cipher;
+    private final byte[] k1 = new byte[BLOCK_SIZE];
+    private final byte[] k2 = new byte[BLOCK_SIZE];
+
+    private final byte[] x = new byte[BLOCK_SIZE];
+    private final byte[] y = new byte[BLOCK_SIZE];
+
+    public AesCmac(byte[] key) throws DecodingException {
+        try {
+            this.cipher = Cipher.getInstance("AES/ECB/NoPadding");
+            this.cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, "AES"));
+
+            byte[] l = new byte[BLOCK_SIZE];
+            encryptBlock(new byte[BLOCK_SIZE], l);
+            shiftLeft(l, k1);
+            shiftLeft(k1, k2);
+        } catch (GeneralSecurityException e) {
+            throw new DecodingException(e);
+        }
+    }
+
+    /**
+     * Computes the MAC of the given message.
+     *
+     * @param message
+     *            the message.
+     * @param offset
+     *            the offset of the message in the array.
+     * @param length
+     *            the length of the message.
+     * @return the 16 byte MAC.
+     * @throws DecodingException
+     *             if the AES cipher fails.
+     */
+    public byte[] mac(byte[] message, int offset, int length) throws DecodingException {
+        int numberOfBlocks = (length + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        boolean lastBlockComplete = numberOfBlocks > 0 && length % BLOCK_SIZE == 0;
+        if (numberOfBlocks == 0) {
+            numberOfBlocks = 1;
+        }
+
+        try {
+            for (int i = 0; i < BLOCK_SIZE; i++) {
+                x[i] = 0;
+            }
+
+            int blockOffset = offset;
+            for (int n = 1; n < numberOfBlocks; n++, blockOffset += BLOCK_SIZE) {
+                for (int i = 0; i < BLOCK_SIZE; i++) {
+                    y[i] = (byte) (x[i] ^ message[blockOffset + i]);
+                }
+                encryptBlock(y, x);
+            }
+
+            int remaining = offset + length - blockOffset;
+            byte[] subKey = lastBlockComplete ? k1 : k2;
+            for (int i = 0; i < BLOCK_SIZE; i++) {
+                byte b;
+                if (i < remaining) {
+                    b = message[blockOffset + i];
+                }
+                else if (i == remaining) {
+                    b = (byte) 0x80;
+                }
+                else {
+                    b = 0;
+                }
+                y[i] = (byte) (x[i] ^ b ^ subKey[i]);
+            }
+
+            byte[] mac = new byte[BLOCK_SIZE];
+            encryptBlock(y, mac);
+            return mac;
+        } catch (GeneralSecurityException e) {
+            throw new DecodingException(e);
+        }
+    }
+
+    private void encryptBlock(byte[] input, byte[] output) throws GeneralSecurityException {
+        cipher.doFinal(input, 0, BLOCK_SIZE, output, 0);
+    }
+
+    private static void shiftLeft(byte[] input, byte[] output) {
+        int carry = 0;
+        for (int i = BLOCK_SIZE - 1; i >= 0; i--) {
+            int b = input[i] & 0xff;
+            output[i] = (byte) ((b << 1) | carry);
+            carry = b >>> 7;
+        }
+
+        if ((input[0] & 0x80) != 0) {
+            output[BLOCK_SIZE - 1] ^= RB;
+        }
+    }
+
+}
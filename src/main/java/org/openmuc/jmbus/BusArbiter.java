@@ -0,0 +1,262 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.PriorityQueue;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Shares one {@link MBusConnection} between several threads.
+ * <p>
+ * The connection keeps the frame count bits, the selected meter and its send buffers per connection and is not safe
+ * for concurrent use. The arbiter runs every {@link Transaction} exclusively on the connection, so a sequence like
+ * select and read cannot interleave with the requests of other threads. Waiting transactions are granted the
+ * bus by priority, transactions of equal priority in the order they arrived. The bus is handed over directly to the
+ * next waiting thread, a thread arriving in between does not overtake it.
+ * </p>
+ * <p>
+ * Once a connection is shared through an arbiter, all threads have to use the arbiter. A transaction may execute
+ * further transactions of the same arbiter, they run as part of the outer one.
+ * </p>
+ *
+ * <pre>
+ * BusArbiter arbiter = new BusArbiter(connection);
+ * VariableDataStructure vds = arbiter.read(secondaryAddress);
+ * MBusMessage answer = arbiter.execute(BusArbiter.HIGH_PRIORITY, new BusArbiter.Transaction&lt;MBusMessage&gt;() {
+ *     &#64;Override
+ *     public MBusMessage execute(MBusConnection connection) throws IOException {
+ *         return connection.sendShortMessage(5, 0x40, true);
+ *     }
+ * });
+ * </pre>
+ *
+ * @see CachingReader
+ */
+public class BusArbiter {
+
+    public static final int LOW_PRIORITY = -10;
+    public static final int NORMAL_PRIORITY = 0;
+    public static final int HIGH_PRIORITY = 10;
+
+    private final MBusConnection connection;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final PriorityQueue<Waiter> waiters = new PriorityQueue<>();
+    private long nextSequence;
+    private Thread owner;
+    private int holdCount;
+
+    /**
+     * A sequence of requests executed exclusively on the connection.
+     *
+     * @param <T>
+     *            the result of the transaction.
+     */
+    public interface Transaction<T> {
+
+        /**
+         * Executes the requests. The connection must not be used outside of this method.
+         *
+         * @param connection
+         *            the connection.
+         * @return the result.
+         * @throws IOException
+         *             if a request failed.
+         */
+        T execute(MBusConnection connection) throws IOException;
+
+    }
+
+    private static final class Waiter implements Comparable<Waiter> {
+        private final Thread thread;
+        private final int priority;
+        private final long sequence;
+        private final Condition condition;
+        private boolean granted;
+
+        private Waiter(Thread thread, int priority, long sequence, Condition condition) {
+            this.thread = thread;
+            this.priority = priority;
+            this.sequence = sequence;
+            this.condition = condition;
+        }
+
+        @Override
+        public int compareTo(Waiter other) {
+            if (priority != other.priority) {
+                return priority > other.priority ? -1 : 1;
+            }
+            return Long.compare(sequence, other.sequence);
+        }
+    }
+
+    /**
+     * Creates an arbiter of a connection.
+     *
+     * @param connection
+     *            the connection to share.
+     */
+    public BusArbiter(MBusConnection connection) {
+        this.connection = connection;
+    }
+
+    /**
+     * Executes a transaction with {@link #NORMAL_PRIORITY}.
+     *
+     * @param transaction
+     *            the transaction.
+     * @param <T>
+     *            the result of the transaction.
+     * @return the result of the transaction.
+     * @throws IOException
+     *             if the transaction failed.
+     * @throws InterruptedIOException
+     *             if the thread was interrupted while waiting for the bus.
+     */
+    public <T> T execute(Transaction<T> transaction) throws IOException {
+        return execute(NORMAL_PRIORITY, transaction);
+    }
+
+    /**
+     * Waits until the bus is granted and executes a transaction.
+     *
+     * @param priority
+     *            the priority, higher priorities are granted the bus first.
+     * @param transaction
+     *            the transaction.
+     * @param <T>
+     *            the result of the transaction.
+     * @return the result of the transaction.
+     * @throws IOException
+     *             if the transaction failed.
+     * @throws InterruptedIOException
+     *             if the thread was interrupted while waiting for the bus.
+     */
+    public <T> T execute(int priority, Transaction<T> transaction) throws IOException {
+        acquire(priority);
+        try {
+            return transaction.execute(connection);
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * Reads a meter by its primary address.
+     *
+     * @param primaryAddress
+     *            the primary address.
+     * @return the variable data structure of the answer.
+     * @throws IOException
+     *             if the read failed.
+     * @see MBusConnection#read(int)
+     */
+    public VariableDataStructure read(final int primaryAddress) throws IOException {
+        return execute(new Transaction<VariableDataStructure>() {
+            @Override
+            public VariableDataStructure execute(MBusConnection connection) throws IOException {
+                return connection.read(primaryAddress);
+            }
+        });
+    }
+
+    /**
+     * Reads a meter by its secondary address, the selection and the read are not interleaved with other requests.
+     *
+     * @param secondaryAddress
+     *            the secondary address.
+     * @return the variable data structure of the answer.
+     * @throws IOException
+     *             if the selection or the read failed.
+     * @see MBusConnection#read(SecondaryAddress)
+     */
+    public VariableDataStructure read(final SecondaryAddress secondaryAddress) throws IOException {
+        return execute(new Transaction<VariableDataStructure>() {
+            @Override
+            public VariableDataStructure execute(MBusConnection connection) throws IOException {
+                return connection.read(secondaryAddress);
+            }
+        });
+    }
+
+    /**
+     * Returns the number of threads waiting for the bus.
+     *
+     * @return the number of waiting threads.
+     */
+    public int getQueueLength() {
+        lock.lock();
+        try {
+            return waiters.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void acquire(int priority) throws InterruptedIOException {
+        Thread thread = Thread.currentThread();
+        lock.lock();
+        try {
+            if (owner == thread) {
+                holdCount++;
+                return;
+            }
+            if (owner == null && waiters.isEmpty()) {
+                owner = thread;
+                holdCount = 1;
+                return;
+            }
+
+            Waiter waiter = new Waiter(thread, priority, nextSequence++, lock.newCondition());
+            waiters.add(waiter);
+            try {
+                while (!waiter.granted) {
+                    waiter.condition.await();
+                }
+            } catch (InterruptedException e) {
+                if (waiter.granted) {
+                    // granted while being interrupted, pass the bus on
+                    handOver();
+                }
+                else {
+                    waiters.remove(waiter);
+                }
+                thread.interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the bus.");
+            }
+            holdCount = 1;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void release() {
+        lock.lock();
+        try {
+            if (--holdCount == 0) {
+                handOver();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void handOver() {
+        holdCount = 0;
+        Waiter next = waiters.poll();
+        if (next == null) {
+            owner = null;
+            return;
+        }
+        next.granted = true;
+        owner = next.thread;
+        next.condition.signal();
+    }
+
+}
@@ -6,52 +6,296 @@
 package org.openmuc.jmbus;
 
 import java.nio.ByteBuffer;
+import java.util.zip.Checksum;
 
 /**
- * 16 bit cyclic redundancy check implementation.
+ * 16 bit cyclic redundancy check according to EN 13757 (polynomial 0x3D65, initial value 0x0000, final xor 0xFFFF).
+ * <p>
+ * The CRC is table driven and processes eight bytes per step (slicing-by-8). Instances can be used to compute the CRC
+ * incrementally, the static methods compute the CRC of a single region. Instances are not thread safe.
+ * </p>
  */
-class CRC16 {
+public class CRC16 implements Checksum {
 
-    private static byte[] computeCrc(byte[] bytes, int poly, int initialValue, int xorValue) {
-        int i;
-        int crcVal = initialValue;
-        byte[] crc = new byte[2];
+    private static final int POLY = 0x3D65;
+    private static final int INITIAL_VALUE = 0x0000;
+    private static final int XOR_VALUE = 0xFFFF;
 
-        for (byte b : bytes) {
-            for (i = 0x80; i != 0; i >>= 1) {
-                if ((crcVal & 0x8000) != 0) {
-                    crcVal = (crcVal << 1) ^ poly;
-                }
-                else {
-                    crcVal = crcVal << 1;
-                }
-                if ((b & i) != 0) {
-                    crcVal ^= poly;
-                }
-            }
-        }
+    /* block sizes (without the CRC) of the wM-Bus frame formats */
+    private static final int FIRST_BLOCK_SIZE = 10;
+    private static final int BLOCK_SIZE = 16;
+    private static final int FORMAT_B_SECOND_BLOCK_END = 126;
+    private static final int CRC_SIZE = 2;
+
+    /**
+     * TABLE[k][n] is the CRC register after feeding byte n followed by k zero bytes into a zeroed register.
+     */
+    private static final int[][] TABLE = newTable();
 
-        byte[] tmpCrc = ByteBuffer.allocate(4).putInt(Integer.reverseBytes(crcVal & 0xffff ^ xorValue)).array();
-        crc[0] = tmpCrc[0];
-        crc[1] = tmpCrc[1];
+    private int crc = INITIAL_VALUE;
 
-        return crc;
+    /**
+     * Updates the CRC with the given byte.
+     *
+     * @param b
+     *            the byte to update the CRC with.
+     */
+    @Override
+    public void update(int b) {
+        crc = update(crc, b);
+    }
+
+    /**
+     * Updates the CRC with the given bytes.
+     *
+     * @param b
+     *            the byte array to update the CRC with.
+     * @param off
+     *            the start offset of the data.
+     * @param len
+     *            the number of bytes to use for the update.
+     */
+    @Override
+    public void update(byte[] b, int off, int len) {
+        crc = update(crc, b, off, len);
+    }
+
+    /**
+     * Updates the CRC with the remaining bytes of the given buffer. The position of the buffer is set to its limit.
+     *
+     * @param buffer
+     *            the byte buffer to update the CRC with.
+     */
+    public void update(ByteBuffer buffer) {
+        crc = update(crc, buffer);
+        buffer.position(buffer.limit());
+    }
+
+    /**
+     * Returns the current CRC value.
+     *
+     * @return the CRC16 (0x0000 - 0xFFFF).
+     */
+    @Override
+    public long getValue() {
+        return (crc ^ XOR_VALUE) & 0xFFFF;
+    }
+
+    /**
+     * Resets the CRC to its initial value.
+     */
+    @Override
+    public void reset() {
+        crc = INITIAL_VALUE;
     }
 
     /**
      * Computes the CRC16 according EN13757.
-     * 
+     *
      * @param bytes
      *            the data to be checked.
-     * @return the CRC16 result.
+     * @return the CRC16 result, low byte first.
      */
     public static byte[] calculateCrc16(byte[] bytes) {
-        return computeCrc(bytes, 0x3D65, 0x0000, 0xFFFF);
+        return calculateCrc16(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Computes the CRC16 according EN13757.
+     *
+     * @param bytes
+     *            the buffer holding the data to be checked.
+     * @param offset
+     *            the offset of the data.
+     * @param length
+     *            the length of the data.
+     * @return the CRC16 result, low byte first.
+     */
+    public static byte[] calculateCrc16(byte[] bytes, int offset, int length) {
+        int crcVal = compute(bytes, offset, length);
+        return new byte[] { (byte) crcVal, (byte) (crcVal >> 8) };
+    }
+
+    /**
+     * Computes the CRC16 according EN13757.
+     *
+     * @param bytes
+     *            the buffer holding the data to be checked.
+     * @param offset
+     *            the offset of the data.
+     * @param length
+     *            the length of the data.
+     * @return the CRC16 (0x0000 - 0xFFFF).
+     */
+    public static int compute(byte[] bytes, int offset, int length) {
+        return update(INITIAL_VALUE, bytes, offset, length) ^ XOR_VALUE;
+    }
+
+    /**
+     * Computes the CRC16 according EN13757 of the remaining bytes of the given buffer. The position of the buffer is
+     * not changed.
+     *
+     * @param buffer
+     *            the buffer holding the data to be checked.
+     * @return the CRC16 (0x0000 - 0xFFFF).
+     */
+    public static int compute(ByteBuffer buffer) {
+        return update(INITIAL_VALUE, buffer) ^ XOR_VALUE;
+    }
+
+    /**
+     * Validates the block CRCs of a wM-Bus frame in frame format A and removes them in place.
+     * <p>
+     * The first block holds 10 bytes, the following blocks 16 bytes and the last block the remaining bytes. Every block
+     * is followed by its CRC (high byte first). After a successful validation the frame starts at <code>offset</code>
+     * and contains the L-field and the L data bytes without the CRCs.
+     * </p>
+     *
+     * @param frame
+     *            the buffer holding the frame, starting with the L-field.
+     * @param offset
+     *            the offset of the L-field.
+     * @param length
+     *            the number of bytes of the frame available in the buffer (with the CRCs).
+     * @return the length of the frame without the CRCs, or -1 if the frame is incomplete or a CRC is wrong.
+     */
+    public static int validateAndStripFormatA(byte[] frame, int offset, int length) {
+        int lField = frame[offset] & 0xff;
+        int strippedLength = lField + 1;
+        if (strippedLength < FIRST_BLOCK_SIZE) {
+            return -1;
+        }
+
+        int numberOfBlocks = 1 + (strippedLength - FIRST_BLOCK_SIZE + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        if (length < strippedLength + numberOfBlocks * CRC_SIZE) {
+            return -1;
+        }
+
+        int src = offset;
+        int dst = offset;
+        int blockSize = FIRST_BLOCK_SIZE;
+        int remaining = strippedLength;
+        while (remaining > 0) {
+            int size = Math.min(blockSize, remaining);
+            if (compute(frame, src, size) != readCrc(frame, src + size)) {
+                return -1;
+            }
+            if (src != dst) {
+                System.arraycopy(frame, src, frame, dst, size);
+            }
+            src += size + CRC_SIZE;
+            dst += size;
+            remaining -= size;
+            blockSize = BLOCK_SIZE;
+        }
+
+        return strippedLength;
     }
 
     /**
-     * Do not let this class be instantiated.
+     * Validates the CRCs of a wM-Bus frame in frame format B and removes them in place.
+     * <p>
+     * In frame format B the L-field includes the CRCs. The first CRC follows at the latest after 126 bytes and covers
+     * the frame from the L-field on, an optional second CRC covers the rest of the frame. After a successful validation
+     * the frame starts at <code>offset</code> and the L-field is corrected to exclude the CRCs, as in frame format A.
+     * </p>
+     *
+     * @param frame
+     *            the buffer holding the frame, starting with the L-field.
+     * @param offset
+     *            the offset of the L-field.
+     * @param length
+     *            the number of bytes of the frame available in the buffer (with the CRCs).
+     * @return the length of the frame without the CRCs, or -1 if the frame is incomplete or a CRC is wrong.
      */
-    private CRC16() {
+    public static int validateAndStripFormatB(byte[] frame, int offset, int length) {
+        int lField = frame[offset] & 0xff;
+        int frameLength = lField + 1;
+        if (frameLength < FIRST_BLOCK_SIZE + CRC_SIZE || length < frameLength) {
+            return -1;
+        }
+
+        int firstCrcEnd = Math.min(frameLength - CRC_SIZE, FORMAT_B_SECOND_BLOCK_END);
+        if (compute(frame, offset, firstCrcEnd) != readCrc(frame, offset + firstCrcEnd)) {
+            return -1;
+        }
+
+        int strippedLength = firstCrcEnd;
+        int thirdBlockStart = firstCrcEnd + CRC_SIZE;
+        if (thirdBlockStart < frameLength) {
+            int size = frameLength - thirdBlockStart - CRC_SIZE;
+            if (size <= 0 || compute(frame, offset + thirdBlockStart, size) != readCrc(frame,
+                    offset + thirdBlockStart + size)) {
+                return -1;
+            }
+            System.arraycopy(frame, offset + thirdBlockStart, frame, offset + strippedLength, size);
+            strippedLength += size;
+        }
+
+        frame[offset] = (byte) (strippedLength - 1);
+        return strippedLength;
+    }
+
+    private static int readCrc(byte[] frame, int offset) {
+        return ((frame[offset] & 0xff) << 8) | (frame[offset + 1] & 0xff);
+    }
+
+    private static int update(int crc, int b) {
+        return ((crc << 8) ^ TABLE[0][((crc >>> 8) ^ b) & 0xff]) & 0xffff;
+    }
+
+    private static int update(int crc, byte[] bytes, int offset, int length) {
+        int[] t0 = TABLE[0], t1 = TABLE[1], t2 = TABLE[2], t3 = TABLE[3];
+        int[] t4 = TABLE[4], t5 = TABLE[5], t6 = TABLE[6], t7 = TABLE[7];
+
+        int i = offset;
+        int end = offset + length;
+        for (int blockEnd = end - 7; i < blockEnd; i += 8) {
+            crc = t7[((crc >>> 8) ^ bytes[i]) & 0xff] ^ t6[(crc ^ bytes[i + 1]) & 0xff] ^ t5[bytes[i + 2] & 0xff]
+                    ^ t4[bytes[i + 3] & 0xff] ^ t3[bytes[i + 4] & 0xff] ^ t2[bytes[i + 5] & 0xff]
+                    ^ t1[bytes[i + 6] & 0xff] ^ t0[bytes[i + 7] & 0xff];
+        }
+        for (; i < end; i++) {
+            crc = ((crc << 8) ^ t0[((crc >>> 8) ^ bytes[i]) & 0xff]) & 0xffff;
+        }
+        return crc;
+    }
+
+    private static int update(int crc, ByteBuffer buffer) {
+        if (buffer.hasArray()) {
+            return update(crc, buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+        }
+
+        for (int i = buffer.position(); i < buffer.limit(); i++) {
+            crc = update(crc, buffer.get(i));
+        }
+        return crc;
+    }
+
+    private static int[][] newTable() {
+        int[][] table = new int[8][256];
+
+        for (int n = 0; n < 256; n++) {
+            int crcVal = n << 8;
+            for (int bit = 0; bit < 8; bit++) {
+                if ((crcVal & 0x8000) != 0) {
+                    crcVal = (crcVal << 1) ^ POLY;
+                }
+                else {
+                    crcVal = crcVal << 1;
+                }
+            }
+            table[0][n] = crcVal & 0xffff;
+        }
+
+        for (int k = 1; k < table.length; k++) {
+            for (int n = 0; n < 256; n++) {
+                int prev = table[k - 1][n];
+                table[k][n] = ((prev << 8) & 0xffff) ^ table[0][prev >>> 8];
+            }
+        }
+
+        return table;
     }
+
 }
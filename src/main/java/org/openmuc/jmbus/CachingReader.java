@@ -0,0 +1,445 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads meters through a {@link BusArbiter} and keeps the answers for a time to live.
+ * <p>
+ * A read of a meter whose answer is younger than its time to live is served from the cache without using the bus.
+ * Concurrent reads of the same meter are coalesced, only the first one sends a request and the others wait for its
+ * answer. With a stale while revalidate window, an answer older than its time to live but still within the window is
+ * returned immediately and the meter is read again in the background with {@link BusArbiter#LOW_PRIORITY}.
+ * </p>
+ * <p>
+ * Meters are cached by primary or by secondary address, the two are independent. The returned variable data
+ * structures are shared between all callers and must not be modified.
+ * </p>
+ *
+ * <pre>
+ * CachingReader reader = new CachingReader.ReaderBuilder(arbiter).setTimeToLive(5, TimeUnit.MINUTES)
+ *         .setStaleWhileRevalidate(1, TimeUnit.MINUTES)
+ *         .build();
+ * VariableDataStructure vds = reader.read(secondaryAddress);
+ * </pre>
+ */
+public class CachingReader implements Closeable {
+
+    private final BusArbiter arbiter;
+    private final long defaultTimeToLiveNanos;
+    private final Map<Object, Long> timeToLiveNanos;
+    private final long staleNanos;
+    private final ExecutorService revalidator;
+
+    private final Map<Object, Entry> entries = new HashMap<>();
+    private long hits;
+    private long staleHits;
+    private long misses;
+    private long coalesced;
+    private boolean closed;
+
+    private static final class Entry {
+        private VariableDataStructure variableDataStructure;
+        private long expiresAt;
+        private long staleUntil;
+        private Read pending;
+    }
+
+    /*
+     * A read on the bus, waited for by all coalesced callers.
+     */
+    private static final class Read {
+        private final CountDownLatch done = new CountDownLatch(1);
+        private VariableDataStructure variableDataStructure;
+        private IOException failure;
+
+        private VariableDataStructure await(boolean owner) throws IOException {
+            try {
+                done.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for a coalesced read.");
+            }
+            if (failure == null) {
+                return variableDataStructure;
+            }
+            if (owner) {
+                throw failure;
+            }
+            throw new IOException("Coalesced read failed.", failure);
+        }
+    }
+
+    /**
+     * Builder of a caching reader.
+     */
+    public static class ReaderBuilder {
+
+        private final BusArbiter arbiter;
+        private long defaultTimeToLiveNanos = TimeUnit.MINUTES.toNanos(1);
+        private final Map<Object, Long> timeToLiveNanos = new HashMap<>();
+        private long staleNanos;
+
+        /**
+         * Creates a builder.
+         *
+         * @param arbiter
+         *            the arbiter of the connection the meters are read through.
+         */
+        public ReaderBuilder(BusArbiter arbiter) {
+            this.arbiter = arbiter;
+        }
+
+        /**
+         * Sets the time to live of all meters without an own time to live. Default is one minute.
+         *
+         * @param timeToLive
+         *            the time to live, 0 disables caching but still coalesces concurrent reads.
+         * @param unit
+         *            the unit of the time to live.
+         * @return the builder.
+         */
+        public ReaderBuilder setTimeToLive(long timeToLive, TimeUnit unit) {
+            defaultTimeToLiveNanos = toNanos(timeToLive, unit, "Time to live");
+            return this;
+        }
+
+        /**
+         * Sets the time to live of a meter read by primary address.
+         *
+         * @param primaryAddress
+         *            the primary address.
+         * @param timeToLive
+         *            the time to live.
+         * @param unit
+         *            the unit of the time to live.
+         * @return the builder.
+         */
+        public ReaderBuilder setTimeToLive(int primaryAddress, long timeToLive, TimeUnit unit) {
+            timeToLiveNanos.put(checkPrimaryAddress(primaryAddress), toNanos(timeToLive, unit, "Time to live"));
+            return this;
+        }
+
+        /**
+         * Sets the time to live of a meter read by secondary address.
+         *
+         * @param secondaryAddress
+         *            the secondary address.
+         * @param timeToLive
+         *            the time to live.
+         * @param unit
+         *            the unit of the time to live.
+         * @return the builder.
+         */
+        public ReaderBuilder setTimeToLive(SecondaryAddress secondaryAddress, long timeToLive, TimeUnit unit) {
+            timeToLiveNanos.put(secondaryAddress, toNanos(timeToLive, unit, "Time to live"));
+            return this;
+        }
+
+        /**
+         * Sets the time after the time to live in which an outdated answer is still returned while the meter is read
+         * again in the background. Default is 0, outdated answers are never returned.
+         *
+         * @param window
+         *            the stale while revalidate window.
+         * @param unit
+         *            the unit of the window.
+         * @return the builder.
+         */
+        public ReaderBuilder setStaleWhileRevalidate(long window, TimeUnit unit) {
+            staleNanos = toNanos(window, unit, "Stale while revalidate window");
+            return this;
+        }
+
+        /**
+         * Builds the reader.
+         *
+         * @return the reader.
+         */
+        public CachingReader build() {
+            return new CachingReader(this);
+        }
+
+        private static long toNanos(long duration, TimeUnit unit, String name) {
+            if (duration < 0) {
+                throw new IllegalArgumentException(name + " (" + duration + ") may not be negative");
+            }
+            return unit.toNanos(duration);
+        }
+    }
+
+    private CachingReader(ReaderBuilder builder) {
+        this.arbiter = builder.arbiter;
+        this.defaultTimeToLiveNanos = builder.defaultTimeToLiveNanos;
+        this.timeToLiveNanos = new HashMap<>(builder.timeToLiveNanos);
+        this.staleNanos = builder.staleNanos;
+
+        if (staleNanos > 0) {
+            this.revalidator = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "jmbus-cache-revalidator");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        else {
+            this.revalidator = null;
+        }
+    }
+
+    /**
+     * Reads a meter by its primary address.
+     *
+     * @param primaryAddress
+     *            the primary address between 0 and 250.
+     * @return the variable data structure of the cached or received answer.
+     * @throws IOException
+     *             if the read failed. Callers that were coalesced with the failed read get an IOException caused by
+     *             the original one.
+     * @throws IllegalStateException
+     *             if the reader is closed.
+     * @see MBusConnection#read(int)
+     */
+    public VariableDataStructure read(int primaryAddress) throws IOException {
+        return readCached(checkPrimaryAddress(primaryAddress));
+    }
+
+    /**
+     * Reads a meter by its secondary address.
+     *
+     * @param secondaryAddress
+     *            the secondary address, without wildcards.
+     * @return the variable data structure of the cached or received answer.
+     * @throws IOException
+     *             if the read failed. Callers that were coalesced with the failed read get an IOException caused by
+     *             the original one.
+     * @throws IllegalStateException
+     *             if the reader is closed.
+     * @see MBusConnection#read(SecondaryAddress)
+     */
+    public VariableDataStructure read(SecondaryAddress secondaryAddress) throws IOException {
+        return readCached(secondaryAddress);
+    }
+
+    /**
+     * Removes the answer of a meter read by primary address, the next read uses the bus.
+     *
+     * @param primaryAddress
+     *            the primary address.
+     */
+    public synchronized void invalidate(int primaryAddress) {
+        entries.remove(primaryAddress);
+    }
+
+    /**
+     * Removes the answer of a meter read by secondary address, the next read uses the bus.
+     *
+     * @param secondaryAddress
+     *            the secondary address.
+     */
+    public synchronized void invalidate(SecondaryAddress secondaryAddress) {
+        entries.remove(secondaryAddress);
+    }
+
+    /**
+     * Removes all answers.
+     */
+    public synchronized void invalidateAll() {
+        entries.clear();
+    }
+
+    /**
+     * Returns the number of reads served from the cache, including the stale hits.
+     *
+     * @return the number of hits.
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * Returns the number of reads served with an answer older than its time to live while the meter was read again.
+     *
+     * @return the number of stale hits.
+     */
+    public synchronized long getStaleHits() {
+        return staleHits;
+    }
+
+    /**
+     * Returns the number of reads that sent a request.
+     *
+     * @return the number of misses.
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Returns the number of reads that waited for the request of a concurrent read of the same meter.
+     *
+     * @return the number of coalesced reads.
+     */
+    public synchronized long getCoalesced() {
+        return coalesced;
+    }
+
+    /**
+     * Stops the background reads. Reads already waiting for the bus are completed.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+        }
+        if (revalidator != null) {
+            revalidator.shutdown();
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return new StringBuilder().append("hits: ")
+                .append(hits)
+                .append(", stale hits: ")
+                .append(staleHits)
+                .append(", misses: ")
+                .append(misses)
+                .append(", coalesced: ")
+                .append(coalesced)
+                .append(", cached meters: ")
+                .append(entries.size())
+                .toString();
+    }
+
+    private VariableDataStructure readCached(Object key) throws IOException {
+        Read read;
+        boolean owner = false;
+        synchronized (this) {
+            if (closed) {
+                throw new IllegalStateException("Reader is closed.");
+            }
+            long now = System.nanoTime();
+            Entry entry = entries.get(key);
+            if (entry == null) {
+                entry = new Entry();
+                entries.put(key, entry);
+            }
+            else if (entry.variableDataStructure != null) {
+                if (now - entry.expiresAt < 0) {
+                    hits++;
+                    return entry.variableDataStructure;
+                }
+                if (now - entry.staleUntil < 0) {
+                    hits++;
+                    staleHits++;
+                    if (entry.pending == null) {
+                        revalidate(key, entry);
+                    }
+                    return entry.variableDataStructure;
+                }
+            }
+
+            if (entry.pending != null) {
+                coalesced++;
+                read = entry.pending;
+            }
+            else {
+                misses++;
+                read = entry.pending = new Read();
+                owner = true;
+            }
+        }
+
+        if (owner) {
+            readFromBus(key, read, BusArbiter.NORMAL_PRIORITY);
+        }
+        return read.await(owner);
+    }
+
+    private void revalidate(final Object key, Entry entry) {
+        final Read read = entry.pending = new Read();
+        try {
+            revalidator.execute(new Runnable() {
+                @Override
+                public void run() {
+                    readFromBus(key, read, BusArbiter.LOW_PRIORITY);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            entry.pending = null;
+        }
+    }
+
+    private void readFromBus(final Object key, Read read, int priority) {
+        VariableDataStructure variableDataStructure = null;
+        IOException failure = null;
+        try {
+            variableDataStructure = arbiter.execute(priority, new BusArbiter.Transaction<VariableDataStructure>() {
+                @Override
+                public VariableDataStructure execute(MBusConnection connection) throws IOException {
+                    if (key instanceof Integer) {
+                        return connection.read((Integer) key);
+                    }
+                    else {
+                        return connection.read((SecondaryAddress) key);
+                    }
+                }
+            });
+        } catch (IOException e) {
+            failure = e;
+        } catch (RuntimeException e) {
+            failure = new IOException("Unexpected error reading meter.", e);
+        }
+
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            // the entry may have been invalidated in the meantime
+            if (entry != null && entry.pending == read) {
+                entry.pending = null;
+                if (failure == null) {
+                    long now = System.nanoTime();
+                    entry.variableDataStructure = variableDataStructure;
+                    entry.expiresAt = now + timeToLive(key);
+                    entry.staleUntil = entry.expiresAt + staleNanos;
+                }
+                else if (entry.variableDataStructure == null) {
+                    entries.remove(key);
+                }
+            }
+        }
+
+        read.variableDataStructure = variableDataStructure;
+        read.failure = failure;
+        read.done.countDown();
+    }
+
+    private long timeToLive(Object key) {
+        Long timeToLive = timeToLiveNanos.get(key);
+        return timeToLive == null ? defaultTimeToLiveNanos : timeToLive;
+    }
+
+    private static Integer checkPrimaryAddress(int primaryAddress) {
+        if (primaryAddress < 0 || primaryAddress > 250) {
+            throw new IllegalArgumentException("Primary address (" + primaryAddress + ") must be between 0 and 250");
+        }
+        return primaryAddress;
+    }
+
+}
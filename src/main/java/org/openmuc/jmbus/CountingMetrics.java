@@ -0,0 +1,285 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Metrics which count all events without locks.
+ * <p>
+ * The counters are striped {@link LongAdder}s, so concurrent receivers do not contend on a single cache line. Only
+ * the first request to an address allocates its latency histogram. One instance may be shared by several connections
+ * to get the totals.
+ * </p>
+ *
+ * <pre>
+ * CountingMetrics metrics = new CountingMetrics();
+ * connection.setMetrics(metrics);
+ * ...
+ * System.out.println(metrics);
+ * </pre>
+ */
+public class CountingMetrics implements MBusMetrics {
+
+    private final LongAdder bytesSent = new LongAdder();
+    private final LongAdder bytesReceived = new LongAdder();
+    private final LongAdder framesSent = new LongAdder();
+    private final LongAdder framesReceived = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder collisions = new LongAdder();
+    private final LongAdder partialMessages = new LongAdder();
+    private final LongAdder decryptionFailures = new LongAdder();
+    private final LongAdder inventoryUpdateFailures = new LongAdder();
+
+    /*
+     * Index 256 counts the failures of frames too short to hold a CI field.
+     */
+    private final AtomicLongArray decodingFailures = new AtomicLongArray(257);
+
+    private volatile int listenerQueueDepth;
+    private final AtomicInteger maxListenerQueueDepth = new AtomicInteger();
+
+    private final ConcurrentMap<Integer, LatencyHistogram> requestLatencies = new ConcurrentHashMap<>();
+    private final ConcurrentMap<SecondaryAddress, LatencyHistogram> selectedLatencies = new ConcurrentHashMap<>();
+
+    @Override
+    public void bytesSent(int count) {
+        bytesSent.add(count);
+    }
+
+    @Override
+    public void bytesReceived(int count) {
+        bytesReceived.add(count);
+    }
+
+    @Override
+    public void frameSent() {
+        framesSent.increment();
+    }
+
+    @Override
+    public void frameReceived() {
+        framesReceived.increment();
+    }
+
+    @Override
+    public void timeout() {
+        timeouts.increment();
+    }
+
+    @Override
+    public void collision() {
+        collisions.increment();
+    }
+
+    @Override
+    public void partialMessage() {
+        partialMessages.increment();
+    }
+
+    @Override
+    public void decodingFailed(int ciField) {
+        decodingFailures.incrementAndGet(ciField < 0 || ciField > 0xff ? 256 : ciField);
+    }
+
+    @Override
+    public void decryptionFailed() {
+        decryptionFailures.increment();
+    }
+
+    @Override
+    public void inventoryUpdateFailed(IOException cause) {
+        inventoryUpdateFailures.increment();
+    }
+
+    @Override
+    public void listenerQueueDepth(int depth) {
+        listenerQueueDepth = depth;
+        int max = maxListenerQueueDepth.get();
+        while (depth > max && !maxListenerQueueDepth.compareAndSet(max, depth)) {
+            max = maxListenerQueueDepth.get();
+        }
+    }
+
+    @Override
+    public void requestCompleted(int primaryAddress, long latencyNanos) {
+        histogramOf(requestLatencies, primaryAddress).record(latencyNanos);
+    }
+
+    @Override
+    public void requestCompleted(SecondaryAddress secondaryAddress, long latencyNanos) {
+        histogramOf(selectedLatencies, secondaryAddress).record(latencyNanos);
+    }
+
+    private static <K> LatencyHistogram histogramOf(ConcurrentMap<K, LatencyHistogram> latencies, K address) {
+        LatencyHistogram histogram = latencies.get(address);
+        if (histogram == null) {
+            LatencyHistogram newHistogram = new LatencyHistogram();
+            histogram = latencies.putIfAbsent(address, newHistogram);
+            if (histogram == null) {
+                histogram = newHistogram;
+            }
+        }
+        return histogram;
+    }
+
+    public long getBytesSent() {
+        return bytesSent.sum();
+    }
+
+    public long getBytesReceived() {
+        return bytesReceived.sum();
+    }
+
+    public long getFramesSent() {
+        return framesSent.sum();
+    }
+
+    public long getFramesReceived() {
+        return framesReceived.sum();
+    }
+
+    public long getTimeouts() {
+        return timeouts.sum();
+    }
+
+    public long getCollisions() {
+        return collisions.sum();
+    }
+
+    public long getPartialMessages() {
+        return partialMessages.sum();
+    }
+
+    public long getDecryptionFailures() {
+        return decryptionFailures.sum();
+    }
+
+    public long getInventoryUpdateFailures() {
+        return inventoryUpdateFailures.sum();
+    }
+
+    /**
+     * Returns the number of decoding failures of frames or variable data structures with the given CI field.
+     *
+     * @param ciField
+     *            the CI field, -1 for frames too short to hold a CI field.
+     * @return the number of failures.
+     */
+    public long getDecodingFailures(int ciField) {
+        return decodingFailures.get(ciField < 0 || ciField > 0xff ? 256 : ciField);
+    }
+
+    /**
+     * Returns the number of decoding failures of all CI fields.
+     *
+     * @return the number of failures.
+     */
+    public long getDecodingFailures() {
+        long sum = 0;
+        for (int i = 0; i < decodingFailures.length(); i++) {
+            sum += decodingFailures.get(i);
+        }
+        return sum;
+    }
+
+    /**
+     * Returns the depth of the listener queue after the last queued event.
+     *
+     * @return the queue depth.
+     */
+    public int getListenerQueueDepth() {
+        return listenerQueueDepth;
+    }
+
+    public int getMaxListenerQueueDepth() {
+        return maxListenerQueueDepth.get();
+    }
+
+    /**
+     * Returns the latencies of the requests to the given primary address.
+     *
+     * @param primaryAddress
+     *            the primary address, 0xfd for the selections and for slaves selected with wildcards.
+     * @return the histogram or <code>null</code> if the address was never requested.
+     */
+    public LatencyHistogram getRequestLatencies(int primaryAddress) {
+        return requestLatencies.get(primaryAddress);
+    }
+
+    /**
+     * Returns the latencies of the requests to 0xfd answered by the slave selected with the given secondary address.
+     *
+     * @param secondaryAddress
+     *            the secondary address.
+     * @return the histogram or <code>null</code> if the slave was never requested.
+     */
+    public LatencyHistogram getRequestLatencies(SecondaryAddress secondaryAddress) {
+        return selectedLatencies.get(secondaryAddress);
+    }
+
+    /**
+     * Returns the latencies of the requests by primary address.
+     *
+     * @return an unmodifiable view of the histograms.
+     */
+    public Map<Integer, LatencyHistogram> getRequestLatencies() {
+        return Collections.unmodifiableMap(requestLatencies);
+    }
+
+    /**
+     * Returns the latencies of the requests to selected slaves by secondary address.
+     *
+     * @return an unmodifiable view of the histograms.
+     */
+    public Map<SecondaryAddress, LatencyHistogram> getSecondaryRequestLatencies() {
+        return Collections.unmodifiableMap(selectedLatencies);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder().append("bytes sent: ")
+                .append(getBytesSent())
+                .append(", bytes received: ")
+                .append(getBytesReceived())
+                .append(", frames sent: ")
+                .append(getFramesSent())
+                .append(", frames received: ")
+                .append(getFramesReceived())
+                .append(", timeouts: ")
+                .append(getTimeouts())
+                .append(", collisions: ")
+                .append(getCollisions())
+                .append(", partial messages: ")
+                .append(getPartialMessages())
+                .append(", decoding failures: ")
+                .append(getDecodingFailures())
+                .append(", decryption failures: ")
+                .append(getDecryptionFailures())
+                .append(", inventory update failures: ")
+                .append(getInventoryUpdateFailures())
+                .append(", listener queue depth: ")
+                .append(getListenerQueueDepth())
+                .append(" (max ")
+                .append(getMaxListenerQueueDepth())
+                .append(')');
+        for (Map.Entry<Integer, LatencyHistogram> entry : requestLatencies.entrySet()) {
+            sb.append(String.format("%naddress %d: ", entry.getKey())).append(entry.getValue());
+        }
+        for (Map.Entry<SecondaryAddress, LatencyHistogram> entry : selectedLatencies.entrySet()) {
+            sb.append(String.format("%naddress %016X: ", entry.getKey().asLong())).append(entry.getValue());
+        }
+        return sb.toString();
+    }
+
+}
@@ -5,6 +5,11 @@
  */
 package org.openmuc.jmbus;
 
+import java.util.Collections;
+import java.util.List;
+
+import org.openmuc.jmbus.FrameRecorder.RecordedFrame;
+
 /**
  * Signals that a M-Bus message could not be decoded.
  */
@@ -12,6 +17,8 @@ public class DecodingException extends Exception {
 
     private static final long serialVersionUID = 1735527302166708223L;
 
+    private transient List<RecordedFrame> recordedFrames;
+
     public DecodingException(String msg) {
         super(msg);
     }
@@ -24,4 +31,18 @@ public class DecodingException extends Exception {
         super(msg, cause);
     }
 
+    /**
+     * Returns the frames the connection recorded up to the failure, the oldest first.
+     * 
+     * @return the recorded frames, empty if the exception was not thrown by a connection with a {@link FrameRecorder}.
+     * @see MBusConnection#setFrameRecorder(FrameRecorder)
+     */
+    public List<RecordedFrame> getRecordedFrames() {
+        return recordedFrames == null ? Collections.<RecordedFrame>emptyList() : recordedFrames;
+    }
+
+    void setRecordedFrames(List<RecordedFrame> recordedFrames) {
+        this.recordedFrames = recordedFrames;
+    }
+
 }
@@ -38,8 +38,9 @@ public enum EncryptionMode {
     RESERVED_06(6),
     /**
      * AES 128 with Cipher Block Chaining Mode (CBC) and dynamic key and Initial Vector with 0.<br>
-     * TR-03109-1 Anlage Feinspezifikation Drahtlose LMN Schnittstelle-Teil2<br>
-     * Not supported yet.
+     * The message keys are derived with AES-CMAC from the master key and the message counter of the authentication and
+     * fragmentation layer (OMS KDF-A).<br>
+     * TR-03109-1 Anlage Feinspezifikation Drahtlose LMN Schnittstelle-Teil2
      */
     AES_CBC_IV_0(7),
     RESERVED_08(8),
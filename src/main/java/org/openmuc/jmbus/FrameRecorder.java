@@ -0,0 +1,209 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import javax.xml.bind.DatatypeConverter;
+
+import org.openmuc.jmbus.VerboseMessage.MessageDirection;
+
+/**
+ * Records the last frames sent and received by a connection in a preallocated ring buffer.
+ * <p>
+ * Every slot holds up to {@link MBusMessage#MAX_MESSAGE_SIZE} bytes, the footprint is fixed when the recorder is
+ * created. Recording a frame copies its bytes into the oldest slot and takes the time, nothing is allocated. Unlike a
+ * {@link VerboseMessageListener} the recorder can therefore stay on all the time, the recorded frames are copied out
+ * only if they are needed: they are attached to the {@link PartialMessageException}, {@link MessageCollisionException}
+ * and {@link DecodingException} thrown by the connection and can be taken at any time with {@link #getFrames()}.
+ * </p>
+ *
+ * @see MBusConnection#setFrameRecorder(FrameRecorder)
+ */
+public class FrameRecorder {
+
+    /**
+     * The number of frames recorded by default.
+     */
+    public static final int DEFAULT_CAPACITY = 16;
+
+    private static final int SLOT_SIZE = MBusMessage.MAX_MESSAGE_SIZE;
+
+    private final byte[] slots;
+    private final int[] lengths;
+    private final int[] addresses;
+    private final boolean[] sent;
+    private final long[] timestamps;
+    private final int capacity;
+
+    private int next;
+    private int size;
+
+    /**
+     * A recorded frame.
+     */
+    public static final class RecordedFrame {
+
+        private final long timestamp;
+        private final MessageDirection direction;
+        private final int primaryAddress;
+        private final byte[] frame;
+
+        private RecordedFrame(long timestamp, MessageDirection direction, int primaryAddress, byte[] frame) {
+            this.timestamp = timestamp;
+            this.direction = direction;
+            this.primaryAddress = primaryAddress;
+            this.frame = frame;
+        }
+
+        /**
+         * Returns the time the frame was sent or received.
+         *
+         * @return the time in milliseconds since the epoch.
+         */
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        public MessageDirection getDirection() {
+            return direction;
+        }
+
+        /**
+         * Returns the primary address of the request the frame belongs to.
+         *
+         * @return the primary address.
+         */
+        public int getPrimaryAddress() {
+            return primaryAddress;
+        }
+
+        /**
+         * Returns the bytes of the frame. Received frames might be incomplete, e.g. if the frame is part of a
+         * {@link PartialMessageException}.
+         *
+         * @return the frame.
+         */
+        public byte[] getFrame() {
+            return frame;
+        }
+
+        @Override
+        public String toString() {
+            return new SimpleDateFormat("HH:mm:ss.SSS").format(new Date(timestamp)) + ' ' + direction + ' '
+                    + primaryAddress + ": " + DatatypeConverter.printHexBinary(frame);
+        }
+
+    }
+
+    /**
+     * Creates a recorder of the last {@link #DEFAULT_CAPACITY} frames.
+     */
+    public FrameRecorder() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates a recorder.
+     *
+     * @param capacity
+     *            the number of frames recorded.
+     */
+    public FrameRecorder(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be at least 1.");
+        }
+        this.capacity = capacity;
+        this.slots = new byte[capacity * SLOT_SIZE];
+        this.lengths = new int[capacity];
+        this.addresses = new int[capacity];
+        this.sent = new boolean[capacity];
+        this.timestamps = new long[capacity];
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Records a frame. Frames longer than {@link MBusMessage#MAX_MESSAGE_SIZE} are truncated.
+     */
+    synchronized void record(MessageDirection direction, int primaryAddress, byte[] buffer, int offset, int length) {
+        int slot = next;
+        int copied = Math.min(length, SLOT_SIZE);
+        System.arraycopy(buffer, offset, slots, slot * SLOT_SIZE, copied);
+        lengths[slot] = copied;
+        addresses[slot] = primaryAddress;
+        sent[slot] = direction == MessageDirection.SEND;
+        timestamps[slot] = System.currentTimeMillis();
+
+        next = slot + 1 == capacity ? 0 : slot + 1;
+        if (size < capacity) {
+            size++;
+        }
+    }
+
+    /**
+     * Returns the recorded frames, the oldest first.
+     *
+     * @return a copy of the recorded frames.
+     */
+    public List<RecordedFrame> getFrames() {
+        return getFrames(-1);
+    }
+
+    /**
+     * Returns the recorded frames exchanged with one primary address, the oldest first.
+     *
+     * @param primaryAddress
+     *            the primary address, 0xfd for meters selected by their secondary address.
+     * @return a copy of the recorded frames.
+     */
+    public synchronized List<RecordedFrame> getFrames(int primaryAddress) {
+        if (size == 0) {
+            return Collections.emptyList();
+        }
+
+        List<RecordedFrame> frames = new ArrayList<>(size);
+        int slot = next - size < 0 ? next - size + capacity : next - size;
+        for (int i = 0; i < size; i++) {
+            if (primaryAddress < 0 || addresses[slot] == primaryAddress) {
+                int from = slot * SLOT_SIZE;
+                MessageDirection direction = sent[slot] ? MessageDirection.SEND : MessageDirection.RECEIVE;
+                frames.add(new RecordedFrame(timestamps[slot], direction, addresses[slot],
+                        Arrays.copyOfRange(slots, from, from + lengths[slot])));
+            }
+            slot = slot + 1 == capacity ? 0 : slot + 1;
+        }
+        return frames;
+    }
+
+    /**
+     * Forgets all recorded frames.
+     */
+    public synchronized void clear() {
+        next = 0;
+        size = 0;
+    }
+
+    /**
+     * Returns the recorded frames one per line, the oldest first.
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (RecordedFrame frame : getFrames()) {
+            sb.append(frame).append('\n');
+        }
+        return sb.toString();
+    }
+
+}
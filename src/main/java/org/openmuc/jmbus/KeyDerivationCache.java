@@ -0,0 +1,190 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus;
+
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Derives the message keys of security mode 7 (OMS KDF-A) and caches them per meter.
+ * <p>
+ * The AES-CMAC of the master key is set up once per meter. The derived encryption and MAC keys of the last few message
+ * counters are kept together with the cipher and the AES-CMAC set up for them, so that repeated receptions of the same
+ * telegram (repeaters, several receivers) neither derive the keys nor set up the AES key schedules again.
+ * </p>
+ */
+class KeyDerivationCache {
+
+    private static final int COUNTER_WINDOW = 4;
+
+    private static final byte ENCRYPTION_KEY_CONSTANT = 0x00;
+    private static final byte MAC_KEY_CONSTANT = 0x01;
+    private static final byte PADDING = 0x07;
+
+    private final MeterRegistry meterRegistry;
+    private final MeterRegistry.Slot<MeterKeys> meterKeys;
+
+    KeyDerivationCache() {
+        this(MeterRegistry.getDefault());
+    }
+
+    KeyDerivationCache(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+        this.meterKeys = meterRegistry.newSlot("meterKeys");
+    }
+
+    /**
+     * Returns the keys derived from the master key for the given message counter.
+     *
+     * @param address
+     *            the address the master key is registered for.
+     * @param masterKey
+     *            the master key of the meter.
+     * @param meterId
+     *            the buffer holding the 4 byte identification number of the meter (LSB first).
+     * @param meterIdOffset
+     *            the offset of the identification number.
+     * @param messageCounter
+     *            the message counter of the telegram.
+     * @return the derived keys.
+     * @throws DecodingException
+     *             if the key derivation failed.
+     */
+    public DerivedKeys deriveKeys(SecondaryAddress address, byte[] masterKey, byte[] meterId, int meterIdOffset,
+            int messageCounter) throws DecodingException {
+        MeterKeys keys = meterRegistry.get(address.asLong(), meterKeys);
+        if (keys == null || !keys.hasMasterKey(masterKey)) {
+            keys = new MeterKeys(masterKey);
+            meterRegistry.put(address.asLong(), meterKeys, keys);
+        }
+
+        return keys.deriveKeys(meterId, meterIdOffset, messageCounter);
+    }
+
+    /**
+     * The encryption key and the MAC key derived for one message counter, with the AES-CBC cipher (IV 0) and the
+     * AES-CMAC set up for them.
+     */
+    static class DerivedKeys {
+        private final int messageCounter;
+        private final byte[] encryptionKey;
+        private final byte[] macKey;
+
+        private final AesCmac macCmac;
+        private final Cipher decryptCipher;
+
+        private DerivedKeys(int messageCounter, byte[] encryptionKey, byte[] macKey) throws DecodingException {
+            this.messageCounter = messageCounter;
+            this.encryptionKey = encryptionKey;
+            this.macKey = macKey;
+
+            this.macCmac = new AesCmac(macKey);
+            try {
+                this.decryptCipher = Cipher.getInstance("AES/CBC/NoPadding");
+                this.decryptCipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(encryptionKey, "AES"),
+                        new IvParameterSpec(new byte[16]));
+            } catch (GeneralSecurityException e) {
+                throw new DecodingException(e);
+            }
+        }
+
+        public byte[] getEncryptionKey() {
+            return encryptionKey;
+        }
+
+        public byte[] getMacKey() {
+            return macKey;
+        }
+
+        /**
+         * Computes the AES-CMAC with the MAC key.
+         *
+         * @param message
+         *            the message.
+         * @param offset
+         *            the offset of the message in the array.
+         * @param length
+         *            the length of the message.
+         * @return the 16 byte MAC.
+         * @throws DecodingException
+         *             if the AES cipher fails.
+         */
+        public synchronized byte[] mac(byte[] message, int offset, int length) throws DecodingException {
+            return macCmac.mac(message, offset, length);
+        }
+
+        /**
+         * Decrypts with the encryption key in CBC mode with an IV of 0. The cipher returns to its initial state after
+         * each call.
+         *
+         * @param data
+         *            the encrypted data starting at index 0.
+         * @param length
+         *            the length of the encrypted data, a multiple of 16.
+         * @return the decrypted data.
+         * @throws DecodingException
+         *             if the AES cipher fails.
+         */
+        public synchronized byte[] decrypt(byte[] data, int length) throws DecodingException {
+            try {
+                return decryptCipher.doFinal(data, 0, length);
+            } catch (GeneralSecurityException e) {
+                throw new DecodingException(e);
+            }
+        }
+    }
+
+    private static class MeterKeys {
+        private final byte[] masterKey;
+        private final AesCmac masterCmac;
+        private final byte[] input = new byte[16];
+
+        private final DerivedKeys[] window = new DerivedKeys[COUNTER_WINDOW];
+        private int next;
+
+        MeterKeys(byte[] masterKey) throws DecodingException {
+            this.masterKey = Arrays.copyOf(masterKey, masterKey.length);
+            this.masterCmac = new AesCmac(masterKey);
+        }
+
+        boolean hasMasterKey(byte[] key) {
+            return Arrays.equals(masterKey, key);
+        }
+
+        synchronized DerivedKeys deriveKeys(byte[] meterId, int meterIdOffset, int messageCounter)
+                throws DecodingException {
+            for (DerivedKeys keys : window) {
+                if (keys != null && keys.messageCounter == messageCounter) {
+                    return keys;
+                }
+            }
+
+            int i = 1;
+            input[i++] = (byte) messageCounter;
+            input[i++] = (byte) (messageCounter >> 8);
+            input[i++] = (byte) (messageCounter >> 16);
+            input[i++] = (byte) (messageCounter >> 24);
+            System.arraycopy(meterId, meterIdOffset, input, i, 4);
+            i += 4;
+            Arrays.fill(input, i, input.length, PADDING);
+
+            input[0] = ENCRYPTION_KEY_CONSTANT;
+            byte[] encryptionKey = masterCmac.mac(input, 0, input.length);
+            input[0] = MAC_KEY_CONSTANT;
+            byte[] macKey = masterCmac.mac(input, 0, input.length);
+
+            DerivedKeys keys = new DerivedKeys(messageCounter, encryptionKey, macKey);
+            window[next] = keys;
+            next = (next + 1) % COUNTER_WINDOW;
+            return keys;
+        }
+    }
+
+}
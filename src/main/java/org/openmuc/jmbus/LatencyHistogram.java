@@ -0,0 +1,126 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram of latencies with a bucket per power of two nanoseconds.
+ * <p>
+ * Recording a latency increments a single bucket and does not allocate. Percentiles are therefore only exact up to a
+ * factor of two, which is enough to tell a slow meter from a fast one.
+ * </p>
+ */
+public class LatencyHistogram {
+
+    private static final int NUMBER_OF_BUCKETS = 64;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(NUMBER_OF_BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sumNanos = new LongAdder();
+
+    /**
+     * Records a latency.
+     *
+     * @param latencyNanos
+     *            the latency in nanoseconds. Negative values are recorded as 0.
+     */
+    public void record(long latencyNanos) {
+        long nanos = Math.max(0, latencyNanos);
+        buckets.incrementAndGet(bucketOf(nanos));
+        count.increment();
+        sumNanos.add(nanos);
+    }
+
+    /**
+     * Returns the number of recorded latencies.
+     *
+     * @return the count.
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * Returns the mean of the recorded latencies.
+     *
+     * @return the mean in nanoseconds, 0 if nothing was recorded.
+     */
+    public long getMeanNanos() {
+        long n = count.sum();
+        return n == 0 ? 0 : sumNanos.sum() / n;
+    }
+
+    /**
+     * Returns the upper bound of the bucket holding the given percentile.
+     *
+     * @param percentile
+     *            the percentile between 0 and 100.
+     * @return the latency in nanoseconds, 0 if nothing was recorded.
+     */
+    public long getPercentileNanos(double percentile) {
+        if (!(percentile >= 0 && percentile <= 100)) {
+            throw new IllegalArgumentException("Percentile must be between 0 and 100.");
+        }
+
+        long[] snapshot = getBuckets();
+        long total = 0;
+        for (long bucket : snapshot) {
+            total += bucket;
+        }
+        if (total == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return upperBoundOf(i);
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+
+    /**
+     * Returns a copy of the buckets. Bucket 0 counts latencies of 0 ns, bucket <code>i</code> counts latencies from
+     * 2<sup>i-1</sup> up to 2<sup>i</sup>-1 ns.
+     *
+     * @return the counts per bucket.
+     */
+    public long[] getBuckets() {
+        long[] snapshot = new long[NUMBER_OF_BUCKETS];
+        for (int i = 0; i < snapshot.length; i++) {
+            snapshot[i] = buckets.get(i);
+        }
+        return snapshot;
+    }
+
+    private static int bucketOf(long nanos) {
+        return Math.min(NUMBER_OF_BUCKETS - 1, 64 - Long.numberOfLeadingZeros(nanos));
+    }
+
+    private static long upperBoundOf(int bucket) {
+        return bucket == NUMBER_OF_BUCKETS - 1 ? Long.MAX_VALUE : (1L << bucket) - 1;
+    }
+
+    @Override
+    public String toString() {
+        return new StringBuilder().append("count: ")
+                .append(getCount())
+                .append(", mean: ")
+                .append(getMeanNanos() / 1000)
+                .append(" us, p50: ")
+                .append(getPercentileNanos(50) / 1000)
+                .append(" us, p99: ")
+                .append(getPercentileNanos(99) / 1000)
+                .append(" us")
+                .toString();
+    }
+
+}
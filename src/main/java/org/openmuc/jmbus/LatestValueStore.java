@@ -0,0 +1,533 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.StampedLock;
+
+import org.openmuc.jmbus.DataRecord.DataValueType;
+import org.openmuc.jmbus.DataRecord.Description;
+import org.openmuc.jmbus.DataRecord.FunctionField;
+
+/**
+ * Keeps the latest numeric values of every meter in a preallocated slab.
+ * <p>
+ * Each meter occupies one fixed size record of (descriptor ID, raw value) pairs plus the time of the last update. A
+ * descriptor identifies a kind of data record (DIB, VIB and value type) and is shared by all meters. The slab is a
+ * heap or direct {@link ByteBuffer}, the footprint is fixed when the store is created. Records are looked up through a
+ * {@link MeterRegistry} by the packed address in link layer order, so wired and wireless readings of the same meter
+ * end up in the same record.
+ * </p>
+ * <p>
+ * Readers do not lock. A read is validated against the stamp of the record stripe and only retried under the read
+ * lock if an update of the same stripe interfered. Updates write straight into the slab and do not allocate once the
+ * descriptors of their data records are known. String and manufacturer specific values are not stored.
+ * </p>
+ *
+ * @see MBusConnection#setLatestValueStore(LatestValueStore)
+ */
+public class LatestValueStore {
+
+    private static final int NUMBER_OF_LOCKS = 64;
+
+    private static final int ADDRESS_OFFSET = 0;
+    private static final int TIMESTAMP_OFFSET = 8;
+    private static final int COUNT_OFFSET = 16;
+    private static final int HEADER_SIZE = 24;
+    private static final int VALUE_SIZE = 12;
+    private static final int MAX_FIELD_SIZE = 11;
+
+    private final ByteBuffer slab;
+    private final int maxMeters;
+    private final int valuesPerMeter;
+    private final int recordSize;
+
+    private final MeterRegistry meterRegistry;
+    private final MeterRegistry.IntSlot recordSlot;
+    private final StampedLock[] locks = new StampedLock[NUMBER_OF_LOCKS];
+    private int numberOfRecords;
+
+    private final ConcurrentHashMap<ByteBuffer, Integer> descriptorIds = new ConcurrentHashMap<>();
+    private final ThreadLocal<ByteBuffer> descriptorKeys = new ThreadLocal<ByteBuffer>() {
+        @Override
+        protected ByteBuffer initialValue() {
+            // value type, DIB and VIB of usually at most 11 bytes each
+            return ByteBuffer.allocate(1 + 2 * MAX_FIELD_SIZE);
+        }
+    };
+    private volatile ValueDescriptor[] descriptors = new ValueDescriptor[0];
+
+    /**
+     * Describes the values stored under one descriptor ID.
+     */
+    public static final class ValueDescriptor {
+
+        private final int id;
+        private final byte[] dib;
+        private final byte[] vib;
+        private final DataValueType dataValueType;
+        private final Description description;
+        private final DlmsUnit unit;
+        private final int multiplierExponent;
+        private final FunctionField functionField;
+        private final long storageNumber;
+        private final int tariff;
+        private final short subunit;
+
+        private ValueDescriptor(int id, DataRecord dataRecord) {
+            this.id = id;
+            this.dib = dataRecord.getDib();
+            this.vib = dataRecord.getVib();
+            this.dataValueType = dataRecord.getDataValueType();
+            this.description = dataRecord.getDescription();
+            this.unit = dataRecord.getUnit();
+            this.multiplierExponent = dataRecord.getMultiplierExponent();
+            this.functionField = dataRecord.getFunctionField();
+            this.storageNumber = dataRecord.getStorageNumber();
+            this.tariff = dataRecord.getTariff();
+            this.subunit = dataRecord.getSubunit();
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public byte[] getDib() {
+            return Arrays.copyOf(dib, dib.length);
+        }
+
+        public byte[] getVib() {
+            return Arrays.copyOf(vib, vib.length);
+        }
+
+        public DataValueType getDataValueType() {
+            return dataValueType;
+        }
+
+        public Description getDescription() {
+            return description;
+        }
+
+        public DlmsUnit getUnit() {
+            return unit;
+        }
+
+        public int getMultiplierExponent() {
+            return multiplierExponent;
+        }
+
+        public FunctionField getFunctionField() {
+            return functionField;
+        }
+
+        public long getStorageNumber() {
+            return storageNumber;
+        }
+
+        public int getTariff() {
+            return tariff;
+        }
+
+        public short getSubunit() {
+            return subunit;
+        }
+
+        /**
+         * Converts a raw value to the type of the data record: <code>Long</code> for integer and BCD values,
+         * <code>Double</code> and <code>Date</code>.
+         *
+         * @param rawValue
+         *            the raw value.
+         * @return the value.
+         */
+        public Object toValue(long rawValue) {
+            switch (dataValueType) {
+            case DOUBLE:
+                return Double.longBitsToDouble(rawValue);
+            case DATE:
+                return new Date(rawValue);
+            default:
+                return rawValue;
+            }
+        }
+
+        /**
+         * Returns the raw value multiplied by the multiplier, <code>null</code> for dates.
+         *
+         * @param rawValue
+         *            the raw value.
+         * @return the scaled value.
+         */
+        public Double toScaledValue(long rawValue) {
+            switch (dataValueType) {
+            case DOUBLE:
+                return Double.longBitsToDouble(rawValue) * Math.pow(10, multiplierExponent);
+            case DATE:
+                return null;
+            default:
+                return rawValue * Math.pow(10, multiplierExponent);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return new StringBuilder().append("description: ")
+                    .append(description)
+                    .append(", unit: ")
+                    .append(unit)
+                    .append(", scaler: ")
+                    .append(multiplierExponent)
+                    .append(", storage number: ")
+                    .append(storageNumber)
+                    .append(", tariff: ")
+                    .append(tariff)
+                    .toString();
+        }
+    }
+
+    /**
+     * Reusable copy of the record of one meter.
+     *
+     * @see LatestValueStore#newSnapshot()
+     */
+    public static final class Snapshot {
+
+        private final LatestValueStore store;
+        private final int[] descriptorIds;
+        private final long[] rawValues;
+        private long timestamp;
+        private int count;
+
+        private Snapshot(LatestValueStore store) {
+            this.store = store;
+            this.descriptorIds = new int[store.valuesPerMeter];
+            this.rawValues = new long[store.valuesPerMeter];
+        }
+
+        /**
+         * Returns the time of the reading in milliseconds since the epoch.
+         *
+         * @return the timestamp.
+         */
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        /**
+         * Returns the number of values.
+         *
+         * @return the number of values.
+         */
+        public int getCount() {
+            return count;
+        }
+
+        public int getDescriptorId(int index) {
+            checkIndex(index);
+            return descriptorIds[index];
+        }
+
+        public ValueDescriptor getDescriptor(int index) {
+            return store.getDescriptor(getDescriptorId(index));
+        }
+
+        public long getRawValue(int index) {
+            checkIndex(index);
+            return rawValues[index];
+        }
+
+        public Object getValue(int index) {
+            return getDescriptor(index).toValue(getRawValue(index));
+        }
+
+        public Double getScaledValue(int index) {
+            return getDescriptor(index).toScaledValue(getRawValue(index));
+        }
+
+        private void checkIndex(int index) {
+            if (index < 0 || index >= count) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", count: " + count);
+            }
+        }
+    }
+
+    private LatestValueStore(ByteBuffer slab, int maxMeters, int valuesPerMeter) {
+        this.slab = slab;
+        this.maxMeters = maxMeters;
+        this.valuesPerMeter = valuesPerMeter;
+        this.recordSize = HEADER_SIZE + valuesPerMeter * VALUE_SIZE;
+
+        this.meterRegistry = new MeterRegistry(maxMeters);
+        this.recordSlot = meterRegistry.newIntSlot("latestValueRecord");
+        for (int i = 0; i < NUMBER_OF_LOCKS; i++) {
+            locks[i] = new StampedLock();
+        }
+    }
+
+    /**
+     * Creates a store holding its slab on the heap.
+     *
+     * @param maxMeters
+     *            the maximal number of meters.
+     * @param valuesPerMeter
+     *            the maximal number of values per meter, further values of a reading are ignored.
+     * @return the store.
+     */
+    public static LatestValueStore onHeap(int maxMeters, int valuesPerMeter) {
+        return new LatestValueStore(ByteBuffer.allocate(slabSize(maxMeters, valuesPerMeter)), maxMeters,
+                valuesPerMeter);
+    }
+
+    /**
+     * Creates a store holding its slab in direct memory, outside of the Java heap.
+     *
+     * @param maxMeters
+     *            the maximal number of meters.
+     * @param valuesPerMeter
+     *            the maximal number of values per meter, further values of a reading are ignored.
+     * @return the store.
+     */
+    public static LatestValueStore offHeap(int maxMeters, int valuesPerMeter) {
+        return new LatestValueStore(ByteBuffer.allocateDirect(slabSize(maxMeters, valuesPerMeter)), maxMeters,
+                valuesPerMeter);
+    }
+
+    private static int slabSize(int maxMeters, int valuesPerMeter) {
+        if (maxMeters <= 0 || valuesPerMeter <= 0) {
+            throw new IllegalArgumentException("Number of meters and values per meter must be positive.");
+        }
+        long size = (long) maxMeters * (HEADER_SIZE + valuesPerMeter * VALUE_SIZE);
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Slab of " + size + " bytes exceeds the maximal buffer size.");
+        }
+        return (int) size;
+    }
+
+    /**
+     * Stores the numeric values of a decoded variable data structure as latest reading of a meter.
+     *
+     * @param address
+     *            the secondary address of the meter.
+     * @param variableDataStructure
+     *            the decoded variable data structure.
+     * @param timestamp
+     *            the time of the reading in milliseconds since the epoch.
+     * @return <code>false</code> if the meter is new and the store is full.
+     */
+    public boolean update(SecondaryAddress address, VariableDataStructure variableDataStructure, long timestamp) {
+        long key = address.asWMBusLlHeaderLong();
+        int record = recordOf(key);
+        if (record < 0) {
+            return false;
+        }
+
+        List<DataRecord> dataRecords = variableDataStructure.getDataRecords();
+
+        // the values are written straight into the record, readers retry until the update is complete
+        int base = record * recordSize;
+        StampedLock lock = locks[record & (NUMBER_OF_LOCKS - 1)];
+        long stamp = lock.writeLock();
+        try {
+            slab.putLong(base + ADDRESS_OFFSET, key);
+            slab.putLong(base + TIMESTAMP_OFFSET, timestamp);
+            int count = 0;
+            int position = base + HEADER_SIZE;
+            for (DataRecord dataRecord : dataRecords) {
+                if (count == valuesPerMeter) {
+                    break;
+                }
+                if (!isNumeric(dataRecord)) {
+                    continue;
+                }
+                slab.putInt(position, descriptorIdOf(dataRecord));
+                slab.putLong(position + 4, rawValueOf(dataRecord));
+                position += VALUE_SIZE;
+                count++;
+            }
+            slab.putInt(base + COUNT_OFFSET, count);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+        return true;
+    }
+
+    /**
+     * Copies the latest reading of a meter into a snapshot.
+     *
+     * @param address
+     *            the secondary address of the meter.
+     * @param snapshot
+     *            the snapshot to fill, created by {@link #newSnapshot()} of this store.
+     * @return <code>false</code> if there is no reading of the meter.
+     */
+    public boolean read(SecondaryAddress address, Snapshot snapshot) {
+        return read(address.asWMBusLlHeaderLong(), snapshot);
+    }
+
+    /**
+     * Copies the latest reading of a meter into a snapshot.
+     *
+     * @param address
+     *            the packed secondary address of the meter in link layer order.
+     * @param snapshot
+     *            the snapshot to fill, created by {@link #newSnapshot()} of this store.
+     * @return <code>false</code> if there is no reading of the meter.
+     * @see SecondaryAddress#asWMBusLlHeaderLong()
+     */
+    public boolean read(long address, Snapshot snapshot) {
+        if (snapshot.store != this) {
+            throw new IllegalArgumentException("Snapshot belongs to another store.");
+        }
+
+        int record = meterRegistry.getInt(address, recordSlot, -1);
+        if (record < 0) {
+            return false;
+        }
+
+        StampedLock lock = locks[record & (NUMBER_OF_LOCKS - 1)];
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            copy(record, snapshot);
+            if (lock.validate(stamp)) {
+                return true;
+            }
+        }
+
+        stamp = lock.readLock();
+        try {
+            copy(record, snapshot);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+        return true;
+    }
+
+    /**
+     * Creates a snapshot which can be filled repeatedly by {@link #read(long, Snapshot)}.
+     *
+     * @return a new snapshot.
+     */
+    public Snapshot newSnapshot() {
+        return new Snapshot(this);
+    }
+
+    /**
+     * Returns the descriptor of a descriptor ID.
+     *
+     * @param id
+     *            the descriptor ID.
+     * @return the descriptor.
+     */
+    public ValueDescriptor getDescriptor(int id) {
+        return descriptors[id];
+    }
+
+    /**
+     * Returns the number of meters in the store.
+     *
+     * @return the number of meters.
+     */
+    public synchronized int size() {
+        return numberOfRecords;
+    }
+
+    public int getMaxMeters() {
+        return maxMeters;
+    }
+
+    private int recordOf(long key) {
+        int record = meterRegistry.getInt(key, recordSlot, -1);
+        if (record >= 0) {
+            return record;
+        }
+
+        synchronized (this) {
+            record = meterRegistry.getInt(key, recordSlot, -1);
+            if (record < 0 && numberOfRecords < maxMeters) {
+                record = numberOfRecords++;
+                meterRegistry.putInt(key, recordSlot, record);
+            }
+            return record;
+        }
+    }
+
+    /*
+     * A concurrent update may change the record, the count is clamped so the copy stays within the record.
+     */
+    private void copy(int record, Snapshot snapshot) {
+        int base = record * recordSize;
+        snapshot.timestamp = slab.getLong(base + TIMESTAMP_OFFSET);
+        int count = Math.max(0, Math.min(slab.getInt(base + COUNT_OFFSET), valuesPerMeter));
+        for (int i = 0, position = base + HEADER_SIZE; i < count; i++, position += VALUE_SIZE) {
+            snapshot.descriptorIds[i] = slab.getInt(position);
+            snapshot.rawValues[i] = slab.getLong(position + 4);
+        }
+        snapshot.count = count;
+    }
+
+    /*
+     * Looks the descriptor up with the scratch key of the writer, the key is only copied for a new descriptor.
+     */
+    private int descriptorIdOf(DataRecord dataRecord) {
+        byte[] dib = dataRecord.getDib();
+        byte[] vib = dataRecord.getVib();
+        ByteBuffer scratch = descriptorKeys.get();
+        if (scratch.capacity() < 1 + dib.length + vib.length) {
+            scratch = ByteBuffer.allocate(1 + dib.length + vib.length);
+            descriptorKeys.set(scratch);
+        }
+        scratch.clear();
+        scratch.put((byte) dataRecord.getDataValueType().ordinal()).put(dib).put(vib).flip();
+
+        Integer id = descriptorIds.get(scratch);
+        if (id != null) {
+            return id;
+        }
+
+        synchronized (descriptorIds) {
+            id = descriptorIds.get(scratch);
+            if (id == null) {
+                ByteBuffer key = ByteBuffer.allocate(scratch.remaining()).put(scratch);
+                key.flip();
+                ValueDescriptor[] newDescriptors = Arrays.copyOf(descriptors, descriptors.length + 1);
+                id = descriptors.length;
+                newDescriptors[id] = new ValueDescriptor(id, dataRecord);
+                descriptors = newDescriptors;
+                descriptorIds.put(key, id);
+            }
+            return id;
+        }
+    }
+
+    private static boolean isNumeric(DataRecord dataRecord) {
+        switch (dataRecord.getDataValueType()) {
+        case LONG:
+        case BCD:
+        case DOUBLE:
+        case DATE:
+            return dataRecord.getDataValue() != null;
+        default:
+            return false;
+        }
+    }
+
+    private static long rawValueOf(DataRecord dataRecord) {
+        Object value = dataRecord.getDataValue();
+        switch (dataRecord.getDataValueType()) {
+        case DOUBLE:
+            return Double.doubleToRawLongBits(((Number) value).doubleValue());
+        case DATE:
+            return ((Date) value).getTime();
+        default:
+            return ((Number) value).longValue();
+        }
+    }
+
+}
@@ -16,7 +16,10 @@ import java.util.List;
 
 import org.openmuc.jmbus.MBusMessage.MessageType;
 import org.openmuc.jmbus.VerboseMessage.MessageDirection;
+import org.openmuc.jmbus.jfr.Events;
 import org.openmuc.jmbus.transportlayer.SerialBuilder;
+import org.openmuc.jmbus.transportlayer.SimulatedBus;
+import org.openmuc.jmbus.transportlayer.SimulatedBusBuilder;
 import org.openmuc.jmbus.transportlayer.TcpBuilder;
 import org.openmuc.jmbus.transportlayer.TransportLayer;
 
@@ -25,9 +28,14 @@ import org.openmuc.jmbus.transportlayer.TransportLayer;
  * <p>
  * Use this access point to communicate using the M-Bus wired protocol.
  * </p>
+ * <p>
+ * A connection is not thread safe. Threads sharing a bus run their requests through a {@link BusArbiter}.
+ * </p>
  *
  * @see MBusConnection#newSerialBuilder(String)
  * @see MBusConnection#newTcpBuilder(String, int)
+ * @see MBusConnection#newSimulatedBuilder(SimulatedBus)
+ * @see BusArbiter
  */
 public class MBusConnection implements AutoCloseable {
 
@@ -41,19 +49,41 @@ public class MBusConnection implements AutoCloseable {
     private DataInputStream is;
 
     private SecondaryAddress secondaryAddress;
+    /*
+     * The meter known to be selected on the bus, null if unknown or none.
+     */
+    private SecondaryAddress selectedAddress;
 
     private VerboseMessageListener verboseMessageListener;
+    private LatestValueStore latestValueStore;
+    private MBusMetrics metrics = MBusMetrics.NO_OP;
+    private FrameRecorder frameRecorder = new FrameRecorder();
+    private MeterInventory meterInventory;
+
+    private int requestAddress;
+    private int requestControlField;
+    private int requestCiField;
+    private int requestLength;
+    private long requestStartNanos;
+    private long responseLatencyNanos;
+    private Object roundTripEvent;
 
     private final TransportLayer transportLayer;
+    private final String busName;
+    private final int baudrate;
 
     /**
      * Creates an M-Bus Service Access Point that is used to read meters.
      *
      * @param transportLayer Underlying transport layer
+     * @param busName        the name of the bus, e.g. the serial port
+     * @param baudrate       the baud rate of the bus, 0 if unknown
      * @see MBusConnection#open()
      */
-    private MBusConnection(TransportLayer transportLayer) {
+    private MBusConnection(TransportLayer transportLayer, String busName, int baudrate) {
         this.transportLayer = transportLayer;
+        this.busName = busName;
+        this.baudrate = baudrate;
 
         // set all frame bits to true
         this.frameCountBits = new boolean[254];
@@ -91,6 +121,76 @@ public class MBusConnection implements AutoCloseable {
         this.verboseMessageListener = verboseMessageListener;
     }
 
+    /**
+     * Stores the values of every variable data structure read from a meter which reports its secondary address.
+     *
+     * @param latestValueStore the store, may be shared with other connections. <code>null</code> to stop storing.
+     */
+    public void setLatestValueStore(LatestValueStore latestValueStore) {
+        this.latestValueStore = latestValueStore;
+    }
+
+    /**
+     * Reports the traffic, the errors and the latency of the requests of this connection to the given metrics.
+     *
+     * @param metrics the metrics, may be shared with other connections. <code>null</code> to stop reporting.
+     * @see CountingMetrics
+     */
+    public void setMetrics(MBusMetrics metrics) {
+        this.metrics = metrics == null ? MBusMetrics.NO_OP : metrics;
+    }
+
+    /**
+     * Replaces the recorder of the frames sent and received by this connection. By default the last
+     * {@link FrameRecorder#DEFAULT_CAPACITY} frames are recorded.
+     *
+     * @param frameRecorder the recorder, <code>null</code> to stop recording.
+     */
+    public void setFrameRecorder(FrameRecorder frameRecorder) {
+        this.frameRecorder = frameRecorder;
+    }
+
+    /**
+     * Returns the recorder of the frames sent and received by this connection, e.g. to dump the last frames on demand.
+     *
+     * @return the recorder or <code>null</code> if the frames are not recorded.
+     */
+    public FrameRecorder getFrameRecorder() {
+        return frameRecorder;
+    }
+
+    /**
+     * Keeps the primary address, the frame count bit and the response latency of every meter read by this connection
+     * in the given inventory. The frame count bits of the meters the inventory knows on this bus are restored, so the
+     * meters can be read right away after a restart.
+     *
+     * @param meterInventory the inventory, may be shared with other connections. <code>null</code> to stop updating.
+     * @see #getBusName()
+     */
+    public void setMeterInventory(MeterInventory meterInventory) {
+        this.meterInventory = meterInventory;
+        if (meterInventory == null) {
+            return;
+        }
+
+        for (MeterInventory.Entry meter : meterInventory.getMeters(busName)) {
+            int primaryAddress = meter.getPrimaryAddress();
+            if (primaryAddress >= 0 && primaryAddress < frameCountBits.length) {
+                frameCountBits[primaryAddress] = !meter.getFrameCountBit();
+            }
+        }
+    }
+
+    /**
+     * Returns the name under which the meters of this connection are kept in a {@link MeterInventory}: the serial port
+     * name, <code>host:port</code> for TCP connections and <code>simulated</code> for a simulated bus.
+     *
+     * @return the bus name.
+     */
+    public String getBusName() {
+        return busName;
+    }
+
     /**
      * Scans for secondary addresses and returns all detected devices in a list and if SecondaryAddressListener not null
      * to the listen listener.
@@ -107,6 +207,45 @@ public class MBusConnection implements AutoCloseable {
         return ScanSecondaryAddress.scan(this, wildcardMask, secondaryAddressListener);
     }
 
+    /**
+     * Reads a meter using secondary addressing. The meter is selected unless it is still selected from the previous
+     * read, then a data request (REQ_UD2) is sent to primary address 0xfd. Selecting a meter deselects the previously
+     * selected one, so no deselection is sent when switching between meters. Reading the meters of a bus one after the
+     * other costs two round trips per meter, reading the same meter again one.
+     * <p>
+     * The selection is assumed to be lost after a failed request, a deselection, a link reset of all meters and a raw
+     * message sent with {@link #sendShortMessage(int, int, boolean)} or
+     * {@link #sendLongMessage(int, int, int, byte[], boolean)}, the next read selects the meter again.
+     * </p>
+     *
+     * @param secondaryAddress the secondary address of the meter, without wildcards.
+     * @return the variable data structure from the received RSP_UD frame
+     * @throws InterruptedIOException if no response at all (not even a single byte) was received from the meter within the timeout span.
+     * @throws IOException            if any kind of error (including timeout) occurs while trying to read the remote device,
+     *                                or if a different meter answered. Note that the connection is not closed when an
+     *                                IOException is thrown.
+     */
+    public VariableDataStructure read(SecondaryAddress secondaryAddress) throws IOException {
+        if (!secondaryAddress.equals(selectedAddress)) {
+            selectComponent(secondaryAddress);
+        }
+
+        VariableDataStructure variableDataStructure;
+        try {
+            variableDataStructure = read(0xfd);
+        } catch (IOException e) {
+            selectedAddress = null;
+            throw e;
+        }
+
+        SecondaryAddress answered = variableDataStructure.getSecondaryAddress();
+        if (answered != null && answered.asWMBusLlHeaderLong() != secondaryAddress.asWMBusLlHeaderLong()) {
+            selectedAddress = null;
+            throw new IOException("Selected meter " + secondaryAddress + " but " + answered + " answered.");
+        }
+        return variableDataStructure;
+    }
+
     /**
      * Reads a meter using primary addressing. Sends a data request (REQ_UD2) to the remote device and returns the
      * variable data structure from the received RSP_UD frame.
@@ -145,10 +284,27 @@ public class MBusConnection implements AutoCloseable {
         try {
             mBusMessage.getVariableDataResponse().decode();
         } catch (DecodingException e) {
+            e.setRecordedFrames(recordedFrames());
             throw new IOException("Error decoding incoming RSP_UD message.", e);
         }
 
-        return mBusMessage.getVariableDataResponse();
+        VariableDataStructure variableDataStructure = mBusMessage.getVariableDataResponse();
+        if (latestValueStore != null && variableDataStructure.getSecondaryAddress() != null) {
+            latestValueStore.update(variableDataStructure.getSecondaryAddress(), variableDataStructure,
+                    System.currentTimeMillis());
+        }
+        if (meterInventory != null && variableDataStructure.getSecondaryAddress() != null) {
+            try {
+                // the frame count bit of the request is the inverse of the next one
+                meterInventory.update(variableDataStructure.getSecondaryAddress(), busName,
+                        primaryAddress == 0xfd ? -1 : primaryAddress, !frameCountBits[primaryAddress], baudrate,
+                        responseLatencyNanos, MeterInventory.layoutFingerprint(variableDataStructure));
+            } catch (IOException e) {
+                // the reading itself succeeded
+                metrics.inventoryUpdateFailed(e);
+            }
+        }
+        return variableDataStructure;
     }
 
     /**
@@ -172,6 +328,7 @@ public class MBusConnection implements AutoCloseable {
             throws IOException {
         MBusMessage mBusMessage = null;
 
+        selectedAddress = null;
         sendLongMessage(primaryAddr, controlField, ci, data.length, data);
 
         if (responseExpected) {
@@ -199,6 +356,7 @@ public class MBusConnection implements AutoCloseable {
     public MBusMessage sendShortMessage(int primaryAddr, int cmd, boolean responseExpected) throws IOException {
         MBusMessage mBusMessage = null;
 
+        selectedAddress = null;
         sendShortMessage(primaryAddr, cmd);
 
         if (responseExpected) {
@@ -241,7 +399,9 @@ public class MBusConnection implements AutoCloseable {
      */
     public void selectComponent(SecondaryAddress secondaryAddress) throws IOException, InterruptedIOException {
         this.secondaryAddress = secondaryAddress;
+        selectedAddress = null;
         componentSelection(false);
+        selectedAddress = secondaryAddress;
     }
 
     /**
@@ -255,6 +415,7 @@ public class MBusConnection implements AutoCloseable {
         if (secondaryAddress == null) {
             return;
         }
+        selectedAddress = null;
         componentSelection(true);
         secondaryAddress = null;
     }
@@ -308,6 +469,10 @@ public class MBusConnection implements AutoCloseable {
      * @throws InterruptedIOException if the slave does not answer with an 0xe5 message within the configured timeout span.
      */
     public void linkReset(int primaryAddress) throws IOException, InterruptedIOException {
+        if (primaryAddress == 0xfd || primaryAddress == 0xff) {
+            // resets the selection
+            selectedAddress = null;
+        }
         sendShortMessage(primaryAddress, 0x40);
         MBusMessage mBusMessage = receiveMessage();
 
@@ -355,7 +520,11 @@ public class MBusConnection implements AutoCloseable {
 
             verboseMessage(MessageDirection.SEND, outputBuffer, 0, 5);
 
+            startRequest(slaveAddr, cmd, -1, 5);
+            record(MessageDirection.SEND, outputBuffer, 5);
             os.write(outputBuffer, 0, 5);
+            metrics.frameSent();
+            metrics.bytesSent(5);
         }
     }
 
@@ -379,7 +548,28 @@ public class MBusConnection implements AutoCloseable {
 
             verboseMessage(MessageDirection.SEND, outputBuffer, 0, length + 9);
 
+            startRequest(slaveAddr, controlField, ci, length + 9);
+            record(MessageDirection.SEND, outputBuffer, length + 9);
             os.write(outputBuffer, 0, length + 9);
+            metrics.frameSent();
+            metrics.bytesSent(length + 9);
+        }
+    }
+
+    private void startRequest(int slaveAddr, int controlField, int ciField, int length) {
+        requestAddress = slaveAddr & 0xff;
+        requestControlField = controlField & 0xff;
+        requestCiField = ciField;
+        requestLength = length;
+        requestStartNanos = System.nanoTime();
+        roundTripEvent = Events.beginRoundTrip();
+    }
+
+    private void endRoundTrip(int bytesReceived, String outcome) {
+        if (roundTripEvent != null) {
+            Events.endRoundTrip(roundTripEvent, requestAddress, requestControlField, requestCiField, requestLength,
+                    bytesReceived, outcome);
+            roundTripEvent = null;
         }
     }
 
@@ -418,14 +608,14 @@ public class MBusConnection implements AutoCloseable {
                                 final int length1 = Byte.toUnsignedInt(inputBuffer[1]);
                                 final int length2 = Byte.toUnsignedInt(inputBuffer[2]);
                                 if (length1 != length2) {
-                                    probableCollision();
+                                    probableCollision(inputBuffer, numBytesReadTotal);
                                 }
                                 messageLength = length1 + MBusMessage.RSP_UD_HEADER_LENGTH;
                                 numBytesReadTotal += is.read(inputBuffer, numBytesReadTotal, messageLength - numBytesReadTotal);
                             }
                             break;
                         default:
-                            probableCollision();
+                            probableCollision(inputBuffer, numBytesReadTotal);
                     }
                 } else {
                     numBytesReadTotal += is.read(inputBuffer, numBytesReadTotal, messageLength - numBytesReadTotal);
@@ -438,13 +628,21 @@ public class MBusConnection implements AutoCloseable {
 
             if (timePassedTotal > transportLayer.getTimeout()) {
                 if (numBytesReadTotal == 0) {
+                    metrics.timeout();
+                    endRoundTrip(0, "TIMEOUT");
                     throw new NoMessageException();
                 } else {
+                    metrics.bytesReceived(numBytesReadTotal);
+                    metrics.partialMessage();
+                    endRoundTrip(numBytesReadTotal, "PARTIAL");
+                    record(MessageDirection.RECEIVE, inputBuffer, numBytesReadTotal);
                     final String msg = formatFailedReceiveMessageInputBuffer(inputBuffer, numBytesReadTotal, messageLength);
-                    throw new PartialMessageException(String.format(
+                    PartialMessageException e = new PartialMessageException(String.format(
                             "Incomplete message:\n" +
                             "%s\n" +
                             "Try to increase timeout.", msg));
+                    e.setRecordedFrames(recordedFrames());
+                    throw e;
                 }
             } else {
                 timePassedTotal += sleep(transportLayer.getTimeout() / 4);
@@ -452,18 +650,59 @@ public class MBusConnection implements AutoCloseable {
 
         }
 
+        metrics.bytesReceived(messageLength);
+        metrics.frameReceived();
+        responseLatencyNanos = System.nanoTime() - requestStartNanos;
+        SecondaryAddress selected = selectedAddress;
+        if (requestAddress == 0xfd && selected != null) {
+            metrics.requestCompleted(selected, responseLatencyNanos);
+        } else {
+            metrics.requestCompleted(requestAddress, responseLatencyNanos);
+        }
+        record(MessageDirection.RECEIVE, inputBuffer, messageLength);
+
         try {
-            return MBusMessage.decode(inputBuffer, messageLength);
+            MBusMessage message = MBusMessage.decode(inputBuffer, messageLength, metrics);
+            endRoundTrip(messageLength, "OK");
+            return message;
         } catch (final DecodingException e) {
-            throw new IOException("Error decoding incoming M-Bus message.");
+            metrics.decodingFailed(messageLength > MBusMessage.RSP_UD_HEADER_LENGTH
+                    ? Byte.toUnsignedInt(inputBuffer[MBusMessage.RSP_UD_HEADER_LENGTH]) : -1);
+            endRoundTrip(messageLength, "DECODING_FAILED");
+            e.setRecordedFrames(recordedFrames());
+            throw new IOException("Error decoding incoming M-Bus message.", e);
         }
 
     }
 
-    private void probableCollision() throws IOException {
+    private void probableCollision(final byte[] inputBuffer, final int numBytesRead) throws IOException {
         final byte[] bytes = new byte[is.available()];
         is.readFully(bytes);
-        throw new MessageCollisionException(bytes);
+        metrics.bytesReceived(bytes.length);
+        metrics.collision();
+        endRoundTrip(bytes.length, "COLLISION");
+
+        if (frameRecorder != null) {
+            // the garbled frame as received, i.e. the bytes read so far followed by the skipped bytes
+            int length = Math.min(bytes.length, inputBuffer.length - numBytesRead);
+            System.arraycopy(bytes, 0, inputBuffer, numBytesRead, length);
+            record(MessageDirection.RECEIVE, inputBuffer, numBytesRead + length);
+        }
+        MessageCollisionException e = new MessageCollisionException(bytes);
+        e.setRecordedFrames(recordedFrames());
+        throw e;
+    }
+
+    private void record(MessageDirection direction, byte[] buffer, int length) {
+        FrameRecorder recorder = this.frameRecorder;
+        if (recorder != null) {
+            recorder.record(direction, requestAddress, buffer, 0, length);
+        }
+    }
+
+    private List<FrameRecorder.RecordedFrame> recordedFrames() {
+        FrameRecorder recorder = this.frameRecorder;
+        return recorder == null ? null : recorder.getFrames();
     }
 
     private int sleep(final int millis) {
@@ -512,7 +751,8 @@ public class MBusConnection implements AutoCloseable {
 
         @Override
         public MBusConnection build() throws IOException {
-            MBusConnection mBusConnection = new MBusConnection(buildTransportLayer());
+            String busName = getHostAddress() + ':' + getPort();
+            MBusConnection mBusConnection = new MBusConnection(buildTransportLayer(), busName, 0);
             mBusConnection.open();
             return mBusConnection;
         }
@@ -537,7 +777,34 @@ public class MBusConnection implements AutoCloseable {
 
         @Override
         public MBusConnection build() throws IOException {
-            MBusConnection mBusConnection = new MBusConnection(buildTransportLayer());
+            MBusConnection mBusConnection = new MBusConnection(buildTransportLayer(), getSerialPortName(),
+                    getBaudrate());
+            mBusConnection.open();
+            return mBusConnection;
+        }
+
+    }
+
+    /**
+     * Create a new builder to connect to a simulated bus, e.g. to test or benchmark without hardware.
+     *
+     * @param bus the simulated bus.
+     * @return a new connection builder.
+     */
+    public static MBusSimulatedBuilder newSimulatedBuilder(SimulatedBus bus) {
+        return new MBusSimulatedBuilder(bus);
+    }
+
+    public static class MBusSimulatedBuilder extends SimulatedBusBuilder<MBusConnection, MBusSimulatedBuilder> {
+
+        protected MBusSimulatedBuilder(SimulatedBus bus) {
+            super(bus);
+        }
+
+        @Override
+        public MBusConnection build() throws IOException {
+            MBusConnection mBusConnection = new MBusConnection(buildTransportLayer(), "simulated",
+                    getBus().getBaudrate());
             mBusConnection.open();
             return mBusConnection;
         }
@@ -64,6 +64,13 @@ public class MBusMessage {
     }
 
     public static MBusMessage decode(byte[] buffer, int length) throws DecodingException {
+        return decode(buffer, length, MBusMetrics.NO_OP);
+    }
+
+    /*
+     * The variable data structure reports to the given metrics when it is decoded.
+     */
+    static MBusMessage decode(byte[] buffer, int length, MBusMetrics metrics) throws DecodingException {
         final MessageType messageType = MessageType.messageTypeFor(buffer[0]);
         final int addressField;
         final VariableDataStructure variableDataStructure;
@@ -77,7 +84,8 @@ public class MBusMessage {
             int messageLength = getLongFrameMessageLength(buffer, length);
             checkLongFrameFields(buffer);
             addressField = buffer[5] & 0xff;
-            variableDataStructure = new VariableDataStructure(buffer, RSP_UD_HEADER_LENGTH, messageLength, null, null);
+            variableDataStructure = new VariableDataStructure(buffer, RSP_UD_HEADER_LENGTH, messageLength, null, null,
+                    metrics);
             break;
         default:
             // should not occur.
@@ -0,0 +1,138 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus;
+
+import java.io.IOException;
+
+/**
+ * Receives the counters of wired and wireless connections and of the decoding of variable data structures.
+ * <p>
+ * The methods are called on the hot paths of the receivers, often from several threads at a time. Implementations
+ * must be thread safe and must neither block nor throw. All methods do nothing by default, so an implementation only
+ * overrides the counters it is interested in.
+ * </p>
+ *
+ * @see #NO_OP
+ * @see CountingMetrics
+ * @see MBusConnection#setMetrics(MBusMetrics)
+ * @see VariableDataStructure#VariableDataStructure(byte[], int, int, SecondaryAddress, java.util.Map, MBusMetrics)
+ */
+public interface MBusMetrics {
+
+    /**
+     * Metrics which ignore all counters. Used if no metrics are set.
+     */
+    MBusMetrics NO_OP = new MBusMetrics() {
+    };
+
+    /**
+     * Called for bytes written to the transport layer.
+     *
+     * @param count
+     *            the number of bytes.
+     */
+    default void bytesSent(int count) {
+    }
+
+    /**
+     * Called for bytes read from the transport layer, including bytes which are later discarded.
+     *
+     * @param count
+     *            the number of bytes.
+     */
+    default void bytesReceived(int count) {
+    }
+
+    /**
+     * Called for a frame written to the transport layer.
+     */
+    default void frameSent() {
+    }
+
+    /**
+     * Called for a complete frame read from the transport layer.
+     */
+    default void frameReceived() {
+    }
+
+    /**
+     * Called if a slave did not answer at all within the timeout.
+     */
+    default void timeout() {
+    }
+
+    /**
+     * Called if the answer of a slave was garbled by a collision on the bus.
+     */
+    default void collision() {
+    }
+
+    /**
+     * Called if only a part of a frame was received within the timeout.
+     */
+    default void partialMessage() {
+    }
+
+    /**
+     * Called if a frame or a variable data structure could not be decoded. Failed decryptions are reported here as
+     * well.
+     *
+     * @param ciField
+     *            the CI field of the frame or the variable data structure, -1 if the frame is too short.
+     */
+    default void decodingFailed(int ciField) {
+    }
+
+    /**
+     * Called if an encrypted variable data structure could not be decrypted, because the key is missing or wrong.
+     */
+    default void decryptionFailed() {
+    }
+
+    /**
+     * Called after an event has been queued for the listener of a wireless connection.
+     *
+     * @param depth
+     *            the number of events waiting for the listener.
+     */
+    default void listenerQueueDepth(int depth) {
+    }
+
+    /**
+     * Called if a slave answered a request.
+     *
+     * @param primaryAddress
+     *            the primary address the request was sent to, 0xfd for the selected slave.
+     * @param latencyNanos
+     *            the time from sending the request until the complete answer was received.
+     */
+    default void requestCompleted(int primaryAddress, long latencyNanos) {
+    }
+
+    /**
+     * Called instead of {@link #requestCompleted(int, long)} if a request to 0xfd was answered by a slave selected by
+     * its secondary address. By default reported as request to 0xfd.
+     *
+     * @param secondaryAddress
+     *            the secondary address of the selected slave.
+     * @param latencyNanos
+     *            the time from sending the request until the complete answer was received.
+     */
+    default void requestCompleted(SecondaryAddress secondaryAddress, long latencyNanos) {
+        requestCompleted(0xfd, latencyNanos);
+    }
+
+    /**
+     * Called if the meter inventory could not be updated after a successful read, e.g. because its file could not be
+     * extended. The read still returns the answer of the meter.
+     *
+     * @param cause
+     *            the failure.
+     */
+    default void inventoryUpdateFailed(IOException cause) {
+    }
+
+}
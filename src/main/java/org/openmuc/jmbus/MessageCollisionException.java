@@ -1,10 +1,15 @@
 package org.openmuc.jmbus;
 
 import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+import org.openmuc.jmbus.FrameRecorder.RecordedFrame;
 
 public class MessageCollisionException extends IOException {
 
     private final byte[] skipBytes;
+    private transient List<RecordedFrame> recordedFrames;
 
     public MessageCollisionException(final byte[] skipedBytes) {
         super("skipped " + skipedBytes.length + " bytes");
@@ -15,4 +20,18 @@ public class MessageCollisionException extends IOException {
         return skipBytes;
     }
 
+    /**
+     * Returns the frames the connection recorded up to the failure, the oldest first.
+     * 
+     * @return the recorded frames, empty if the exception was not thrown by a connection with a {@link FrameRecorder}.
+     * @see MBusConnection#setFrameRecorder(FrameRecorder)
+     */
+    public List<RecordedFrame> getRecordedFrames() {
+        return recordedFrames == null ? Collections.<RecordedFrame>emptyList() : recordedFrames;
+    }
+
+    void setRecordedFrames(List<RecordedFrame> recordedFrames) {
+        this.recordedFrames = recordedFrames;
+    }
+
 }
@@ -0,0 +1,526 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Persistent inventory of the wired meters known to the connections, kept in a memory mapped file.
+ * <p>
+ * For every meter the inventory keeps the secondary address, the bus and the primary address it answered on, the
+ * last frame count bit, the baud rate, the latency of the last response and a fingerprint of the data record layout.
+ * A connection with an inventory updates the entry of a meter after every successful read and restores the frame
+ * count bits of its bus when the inventory is set. After a restart the meters can therefore be read right away,
+ * without scanning for secondary addresses first.
+ * </p>
+ * <p>
+ * The file starts with a 64 byte header (magic, version, number of entries) followed by fixed size entries of 128
+ * bytes:
+ * </p>
+ * <ul>
+ * <li>packed secondary address in long header order (long), see {@link SecondaryAddress#asLong()}</li>
+ * <li>time of the last update (long)</li>
+ * <li>layout fingerprint (long)</li>
+ * <li>latency of the last response in nanoseconds (long)</li>
+ * <li>baud rate (int)</li>
+ * <li>primary address (short), -1 if unknown</li>
+ * <li>frame count bit (byte)</li>
+ * <li>1 reserved byte</li>
+ * <li>length of the bus name (byte) and up to 87 bytes of the UTF-8 encoded bus name</li>
+ * </ul>
+ * <p>
+ * Entries are looked up through a {@link MeterRegistry} which is rebuilt when the inventory is opened. The file grows
+ * when it is full. Changes reach the file when the operating system writes the mapped pages back, {@link #flush()}
+ * forces them.
+ * </p>
+ *
+ * <pre>
+ * MeterInventory inventory = new MeterInventory.InventoryBuilder(Paths.get("meters.inv")).build();
+ * MBusConnection connection = MBusConnection.newSerialBuilder("/dev/ttyUSB0").build();
+ * connection.setMeterInventory(inventory);
+ * for (MeterInventory.Entry meter : inventory.getMeters(connection.getBusName())) {
+ *     ...
+ * }
+ * </pre>
+ *
+ * @see MBusConnection#setMeterInventory(MeterInventory)
+ */
+public class MeterInventory implements Closeable {
+
+    private static final int MAGIC = 0x4A4D4249;
+    private static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = 64;
+    private static final int MAGIC_OFFSET = 0;
+    private static final int VERSION_OFFSET = 4;
+    private static final int COUNT_OFFSET = 8;
+
+    private static final int ENTRY_SIZE = 128;
+    private static final int ADDRESS_OFFSET = 0;
+    private static final int TIMESTAMP_OFFSET = 8;
+    private static final int FINGERPRINT_OFFSET = 16;
+    private static final int LATENCY_OFFSET = 24;
+    private static final int BAUDRATE_OFFSET = 32;
+    private static final int PRIMARY_ADDRESS_OFFSET = 36;
+    private static final int FCB_OFFSET = 38;
+    private static final int BUS_NAME_OFFSET = 40;
+    private static final int MAX_BUS_NAME_LENGTH = ENTRY_SIZE - BUS_NAME_OFFSET - 1;
+
+    private final Path path;
+    private MappedByteBuffer buffer;
+    private int capacity;
+    private int count;
+    private boolean closed;
+
+    private final MeterRegistry index = new MeterRegistry();
+    private final MeterRegistry.IntSlot entrySlot = index.newIntSlot("inventoryEntry");
+
+    /**
+     * The state of one meter.
+     */
+    public static final class Entry {
+
+        private final SecondaryAddress secondaryAddress;
+        private final String busName;
+        private final int primaryAddress;
+        private final boolean frameCountBit;
+        private final int baudrate;
+        private final long latencyNanos;
+        private final long layoutFingerprint;
+        private final long timestamp;
+
+        private Entry(SecondaryAddress secondaryAddress, String busName, int primaryAddress, boolean frameCountBit,
+                int baudrate, long latencyNanos, long layoutFingerprint, long timestamp) {
+            this.secondaryAddress = secondaryAddress;
+            this.busName = busName;
+            this.primaryAddress = primaryAddress;
+            this.frameCountBit = frameCountBit;
+            this.baudrate = baudrate;
+            this.latencyNanos = latencyNanos;
+            this.layoutFingerprint = layoutFingerprint;
+            this.timestamp = timestamp;
+        }
+
+        public SecondaryAddress getSecondaryAddress() {
+            return secondaryAddress;
+        }
+
+        /**
+         * Returns the name of the bus the meter was read on, see {@link MBusConnection#getBusName()}.
+         *
+         * @return the bus name.
+         */
+        public String getBusName() {
+            return busName;
+        }
+
+        /**
+         * Returns the primary address the meter answered on.
+         *
+         * @return the primary address, -1 if the meter was only read by its secondary address.
+         */
+        public int getPrimaryAddress() {
+            return primaryAddress;
+        }
+
+        /**
+         * Returns the frame count bit of the last request to the meter.
+         *
+         * @return the frame count bit.
+         */
+        public boolean getFrameCountBit() {
+            return frameCountBit;
+        }
+
+        /**
+         * Returns the baud rate of the bus, 0 if unknown.
+         *
+         * @return the baud rate.
+         */
+        public int getBaudrate() {
+            return baudrate;
+        }
+
+        /**
+         * Returns the time between the last request and the response of the meter.
+         *
+         * @return the latency in nanoseconds.
+         */
+        public long getLatencyNanos() {
+            return latencyNanos;
+        }
+
+        /**
+         * Returns the fingerprint of the data record layout of the last response, see
+         * {@link MeterInventory#layoutFingerprint(VariableDataStructure)}.
+         *
+         * @return the fingerprint.
+         */
+        public long getLayoutFingerprint() {
+            return layoutFingerprint;
+        }
+
+        /**
+         * Returns the time of the last update.
+         *
+         * @return the time in milliseconds since the epoch.
+         */
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        @Override
+        public String toString() {
+            return secondaryAddress + ", bus: " + busName + ", primary address: " + primaryAddress + ", baud rate: "
+                    + baudrate;
+        }
+
+    }
+
+    /**
+     * Builder of a meter inventory.
+     */
+    public static class InventoryBuilder {
+
+        private final Path path;
+        private int initialCapacity = 1024;
+
+        /**
+         * Creates a builder for an inventory in the given file. An existing inventory is opened.
+         *
+         * @param path
+         *            the file of the inventory, created if it does not exist.
+         */
+        public InventoryBuilder(Path path) {
+            this.path = path;
+        }
+
+        /**
+         * Sets the number of entries a new inventory file has room for. Default is 1024, the file grows if needed.
+         *
+         * @param initialCapacity
+         *            the number of entries.
+         * @return the builder.
+         */
+        public InventoryBuilder setInitialCapacity(int initialCapacity) {
+            if (initialCapacity < 1) {
+                throw new IllegalArgumentException("Initial capacity must be at least 1.");
+            }
+            this.initialCapacity = initialCapacity;
+            return this;
+        }
+
+        /**
+         * Opens the inventory.
+         *
+         * @return the inventory.
+         * @throws IOException
+         *             if the file could not be opened or is not a meter inventory.
+         */
+        public MeterInventory build() throws IOException {
+            MeterInventory inventory = new MeterInventory(path);
+            inventory.open(initialCapacity);
+            return inventory;
+        }
+    }
+
+    private MeterInventory(Path path) {
+        this.path = path;
+    }
+
+    private void open(int initialCapacity) throws IOException {
+        if (!Files.exists(path) || Files.size(path) == 0) {
+            map(HEADER_SIZE + (long) initialCapacity * ENTRY_SIZE);
+            buffer.putInt(MAGIC_OFFSET, MAGIC);
+            buffer.putInt(VERSION_OFFSET, VERSION);
+            buffer.putInt(COUNT_OFFSET, 0);
+            return;
+        }
+
+        if (Files.size(path) < HEADER_SIZE) {
+            throw new IOException("Not a meter inventory: " + path);
+        }
+        map(Files.size(path));
+        if (buffer.getInt(MAGIC_OFFSET) != MAGIC) {
+            throw new IOException("Not a meter inventory: " + path);
+        }
+        if (buffer.getInt(VERSION_OFFSET) != VERSION) {
+            throw new IOException("Unsupported meter inventory version " + buffer.getInt(VERSION_OFFSET) + ".");
+        }
+
+        count = Math.min(buffer.getInt(COUNT_OFFSET), capacity);
+        for (int i = 0; i < count; i++) {
+            index.putInt(buffer.getLong(position(i) + ADDRESS_OFFSET), entrySlot, i);
+        }
+    }
+
+    /*
+     * Maps the file with the given size, the file is extended if it is smaller.
+     */
+    private void map(long size) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            buffer = channel.map(MapMode.READ_WRITE, 0, size);
+        }
+        capacity = (int) ((size - HEADER_SIZE) / ENTRY_SIZE);
+    }
+
+    /**
+     * Returns the entry of a meter.
+     *
+     * @param secondaryAddress
+     *            the secondary address of the meter.
+     * @return the entry or <code>null</code> if the meter is not in the inventory.
+     */
+    public synchronized Entry get(SecondaryAddress secondaryAddress) {
+        checkOpen();
+        int i = index.getInt(longHeaderOrder(secondaryAddress), entrySlot, -1);
+        return i < 0 ? null : read(i);
+    }
+
+    /**
+     * Returns the entries of all meters.
+     *
+     * @return the entries in the order they were added.
+     */
+    public List<Entry> getMeters() {
+        return getMeters(null);
+    }
+
+    /**
+     * Returns the entries of the meters read on one bus.
+     *
+     * @param busName
+     *            the name of the bus, see {@link MBusConnection#getBusName()}.
+     * @return the entries.
+     */
+    public synchronized List<Entry> getMeters(String busName) {
+        checkOpen();
+        List<Entry> entries = new ArrayList<>(count);
+        byte[] name = busName == null ? null : encode(busName);
+        for (int i = 0; i < count; i++) {
+            if (name == null || isOnBus(i, name)) {
+                entries.add(read(i));
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Adds or updates the entry of a meter.
+     *
+     * @param secondaryAddress
+     *            the secondary address of the meter.
+     * @param busName
+     *            the name of the bus, truncated to 87 UTF-8 bytes.
+     * @param primaryAddress
+     *            the primary address, -1 if unknown. An unknown primary address keeps the one of an existing entry.
+     * @param frameCountBit
+     *            the frame count bit of the last request to the primary address. Ignored if the primary address is
+     *            unknown, an existing entry keeps its frame count bit.
+     * @param baudrate
+     *            the baud rate, 0 if unknown.
+     * @param latencyNanos
+     *            the latency of the last response.
+     * @param layoutFingerprint
+     *            the fingerprint of the data record layout.
+     * @throws IOException
+     *             if the file could not be extended.
+     */
+    public synchronized void update(SecondaryAddress secondaryAddress, String busName, int primaryAddress,
+            boolean frameCountBit, int baudrate, long latencyNanos, long layoutFingerprint) throws IOException {
+        checkOpen();
+        long address = longHeaderOrder(secondaryAddress);
+        int i = index.getInt(address, entrySlot, -1);
+        if (i < 0) {
+            if (count == capacity) {
+                map(HEADER_SIZE + (long) capacity * 2 * ENTRY_SIZE);
+            }
+            i = count;
+        }
+        else if (primaryAddress < 0) {
+            // e.g. a read of the selected slave, its frame count bit belongs to 0xfd
+            primaryAddress = buffer.getShort(position(i) + PRIMARY_ADDRESS_OFFSET);
+            frameCountBit = buffer.get(position(i) + FCB_OFFSET) != 0;
+        }
+
+        int position = position(i);
+        buffer.putLong(position + ADDRESS_OFFSET, address);
+        buffer.putLong(position + TIMESTAMP_OFFSET, System.currentTimeMillis());
+        buffer.putLong(position + FINGERPRINT_OFFSET, layoutFingerprint);
+        buffer.putLong(position + LATENCY_OFFSET, latencyNanos);
+        buffer.putInt(position + BAUDRATE_OFFSET, baudrate);
+        buffer.putShort(position + PRIMARY_ADDRESS_OFFSET, (short) primaryAddress);
+        buffer.put(position + FCB_OFFSET, (byte) (frameCountBit ? 1 : 0));
+        byte[] name = encode(busName);
+        buffer.put(position + BUS_NAME_OFFSET, (byte) name.length);
+        for (int j = 0; j < name.length; j++) {
+            buffer.put(position + BUS_NAME_OFFSET + 1 + j, name[j]);
+        }
+
+        if (i == count) {
+            // the entry is complete before it is counted
+            buffer.putInt(COUNT_OFFSET, ++count);
+            index.putInt(address, entrySlot, i);
+        }
+    }
+
+    /**
+     * Removes a meter, e.g. if it has been replaced.
+     *
+     * @param secondaryAddress
+     *            the secondary address of the meter.
+     * @return <code>true</code> if the meter was in the inventory.
+     */
+    public synchronized boolean remove(SecondaryAddress secondaryAddress) {
+        checkOpen();
+        long address = longHeaderOrder(secondaryAddress);
+        int i = index.getInt(address, entrySlot, -1);
+        if (i < 0) {
+            return false;
+        }
+
+        // the last entry takes the place of the removed one
+        int last = count - 1;
+        if (i != last) {
+            int from = position(last);
+            int to = position(i);
+            for (int j = 0; j < ENTRY_SIZE; j++) {
+                buffer.put(to + j, buffer.get(from + j));
+            }
+            index.putInt(buffer.getLong(to + ADDRESS_OFFSET), entrySlot, i);
+        }
+        buffer.putInt(COUNT_OFFSET, --count);
+        index.remove(address);
+        return true;
+    }
+
+    /**
+     * Returns the number of meters in the inventory.
+     *
+     * @return the number of meters.
+     */
+    public synchronized int size() {
+        return count;
+    }
+
+    /**
+     * Forces the changes to the file.
+     */
+    public synchronized void flush() {
+        if (!closed) {
+            buffer.force();
+        }
+    }
+
+    /**
+     * Flushes and closes the inventory.
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        flush();
+        closed = true;
+    }
+
+    /**
+     * Computes a fingerprint of the data record layout of a decoded variable data structure, i.e. of the DIBs and VIBs
+     * of its data records in their order. Equal layouts have equal fingerprints, a different fingerprint hints at a
+     * reconfigured or replaced meter.
+     *
+     * @param variableDataStructure
+     *            the decoded variable data structure.
+     * @return the fingerprint.
+     */
+    public static long layoutFingerprint(VariableDataStructure variableDataStructure) {
+        long hash = 0xCBF29CE484222325L;
+        for (DataRecord dataRecord : variableDataStructure.getDataRecords()) {
+            hash = fnv(hash, dataRecord.getDib());
+            hash = fnv(hash, dataRecord.getVib());
+            hash ^= 0xff;
+            hash *= 0x100000001B3L;
+        }
+        return hash;
+    }
+
+    private static long fnv(long hash, byte[] bytes) {
+        for (byte b : bytes) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001B3L;
+        }
+        return hash;
+    }
+
+    /*
+     * Entries are keyed by the address in long header order, the order in which a meter is selected.
+     */
+    private static long longHeaderOrder(SecondaryAddress secondaryAddress) {
+        long packed = secondaryAddress.asLong();
+        if (secondaryAddress.isLongHeader()) {
+            return packed;
+        }
+        long manufacturer = packed >>> 48;
+        long id = (packed >>> 16) & 0xffffffffL;
+        return id << 32 | manufacturer << 16 | (packed & 0xffff);
+    }
+
+    private Entry read(int i) {
+        int position = position(i);
+        int nameLength = buffer.get(position + BUS_NAME_OFFSET) & 0xff;
+        byte[] name = new byte[nameLength];
+        for (int j = 0; j < nameLength; j++) {
+            name[j] = buffer.get(position + BUS_NAME_OFFSET + 1 + j);
+        }
+
+        return new Entry(SecondaryAddress.newFromLong(buffer.getLong(position + ADDRESS_OFFSET), true),
+                new String(name, StandardCharsets.UTF_8), buffer.getShort(position + PRIMARY_ADDRESS_OFFSET),
+                buffer.get(position + FCB_OFFSET) != 0, buffer.getInt(position + BAUDRATE_OFFSET),
+                buffer.getLong(position + LATENCY_OFFSET), buffer.getLong(position + FINGERPRINT_OFFSET),
+                buffer.getLong(position + TIMESTAMP_OFFSET));
+    }
+
+    private boolean isOnBus(int i, byte[] name) {
+        int position = position(i);
+        if ((buffer.get(position + BUS_NAME_OFFSET) & 0xff) != name.length) {
+            return false;
+        }
+        for (int j = 0; j < name.length; j++) {
+            if (buffer.get(position + BUS_NAME_OFFSET + 1 + j) != name[j]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte[] encode(String busName) {
+        byte[] name = busName.getBytes(StandardCharsets.UTF_8);
+        return name.length <= MAX_BUS_NAME_LENGTH ? name : Arrays.copyOf(name, MAX_BUS_NAME_LENGTH);
+    }
+
+    private static int position(int i) {
+        return HEADER_SIZE + i * ENTRY_SIZE;
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("Inventory is closed.");
+        }
+    }
+
+}
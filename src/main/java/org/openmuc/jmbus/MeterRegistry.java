@@ -0,0 +1,461 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Concurrent store of per meter state keyed by the packed secondary address.
+ * <p>
+ * The state of a meter is held in slots which are registered by the components using the registry, e.g. the data
+ * record history of the variable data structure. A meter occupies one entry of an open addressing table of primitive
+ * <code>long</code> keys plus one array for its object slots and one for its <code>int</code> slots. Keys are not
+ * boxed and no entry objects are created.
+ * </p>
+ * <p>
+ * The table is split into stripes, each guarded by a {@link StampedLock}. Reads are optimistic and only take the read
+ * lock if a write to the same stripe interfered.
+ * </p>
+ *
+ * @see SecondaryAddress#asLong()
+ */
+public class MeterRegistry {
+
+    private static final MeterRegistry DEFAULT = new MeterRegistry();
+
+    private static final int NUMBER_OF_STRIPES = 16;
+    private static final int MIN_STRIPE_CAPACITY = 16;
+
+    private static final Object[] NO_VALUES = new Object[0];
+    private static final int[] NO_INTS = new int[0];
+
+    private final Stripe[] stripes = new Stripe[NUMBER_OF_STRIPES];
+    private final AtomicInteger numberOfSlots = new AtomicInteger();
+    private final AtomicInteger numberOfIntSlots = new AtomicInteger();
+
+    /**
+     * Handle of an object slot.
+     *
+     * @param <T>
+     *            the type of the state.
+     */
+    public static final class Slot<T> {
+        private final String name;
+        private final int index;
+
+        private Slot(String name, int index) {
+            this.name = name;
+            this.index = index;
+        }
+
+        public String getName() {
+            return name;
+        }
+    }
+
+    /**
+     * Handle of an <code>int</code> slot.
+     */
+    public static final class IntSlot {
+        private final String name;
+        private final int index;
+
+        private IntSlot(String name, int index) {
+            this.name = name;
+            this.index = index;
+        }
+
+        public String getName() {
+            return name;
+        }
+    }
+
+    /*
+     * Replaced as a whole on resize, so an optimistic reader always sees arrays of the same length. An entry is in use
+     * if its values array is not null.
+     */
+    private static class Table {
+        final long[] keys;
+        final Object[][] values;
+        final int[][] ints;
+
+        Table(int capacity) {
+            keys = new long[capacity];
+            values = new Object[capacity][];
+            ints = new int[capacity][];
+        }
+    }
+
+    private static class Stripe {
+        final StampedLock lock = new StampedLock();
+        volatile Table table;
+        int size;
+
+        Stripe(int capacity) {
+            table = new Table(capacity);
+        }
+    }
+
+    /**
+     * Creates an empty registry.
+     */
+    public MeterRegistry() {
+        this(0);
+    }
+
+    /**
+     * Creates an empty registry sized for the given number of meters.
+     *
+     * @param expectedMeters
+     *            the expected number of meters.
+     */
+    public MeterRegistry(int expectedMeters) {
+        int capacity = MIN_STRIPE_CAPACITY;
+        while (capacity / 4 * 3 < expectedMeters / NUMBER_OF_STRIPES + 1) {
+            capacity <<= 1;
+        }
+        for (int i = 0; i < NUMBER_OF_STRIPES; i++) {
+            stripes[i] = new Stripe(capacity);
+        }
+    }
+
+    /**
+     * Returns the registry shared by the jmbus components.
+     *
+     * @return the default registry.
+     */
+    public static MeterRegistry getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Registers a new object slot.
+     *
+     * @param name
+     *            the name of the slot, for diagnostics only.
+     * @param <T>
+     *            the type of the state.
+     * @return the slot handle.
+     */
+    public <T> Slot<T> newSlot(String name) {
+        return new Slot<>(name, numberOfSlots.getAndIncrement());
+    }
+
+    /**
+     * Registers a new <code>int</code> slot.
+     *
+     * @param name
+     *            the name of the slot, for diagnostics only.
+     * @return the slot handle.
+     */
+    public IntSlot newIntSlot(String name) {
+        return new IntSlot(name, numberOfIntSlots.getAndIncrement());
+    }
+
+    /**
+     * Returns the state of a meter.
+     *
+     * @param address
+     *            the packed secondary address of the meter.
+     * @param slot
+     *            the slot.
+     * @param <T>
+     *            the type of the state.
+     * @return the state or <code>null</code> if not set.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T get(long address, Slot<T> slot) {
+        long hash = hash(address);
+        Stripe stripe = stripeFor(hash);
+        StampedLock lock = stripe.lock;
+
+        long stamp = lock.tryOptimisticRead();
+        Object value = read(stripe.table, address, hash, slot.index);
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                value = read(stripe.table, address, hash, slot.index);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        return (T) value;
+    }
+
+    /**
+     * Sets the state of a meter. The meter is added if it is not yet registered.
+     *
+     * @param address
+     *            the packed secondary address of the meter.
+     * @param slot
+     *            the slot.
+     * @param value
+     *            the state, <code>null</code> clears the slot.
+     * @param <T>
+     *            the type of the state.
+     */
+    public <T> void put(long address, Slot<T> slot, T value) {
+        long hash = hash(address);
+        Stripe stripe = stripeFor(hash);
+
+        long stamp = stripe.lock.writeLock();
+        try {
+            int i = findOrInsert(stripe, address, hash);
+            Table table = stripe.table;
+            Object[] values = table.values[i];
+            if (slot.index >= values.length) {
+                values = Arrays.copyOf(values, numberOfSlots.get());
+                table.values[i] = values;
+            }
+            values[slot.index] = value;
+        } finally {
+            stripe.lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Returns an <code>int</code> state of a meter.
+     *
+     * @param address
+     *            the packed secondary address of the meter.
+     * @param slot
+     *            the slot.
+     * @param defaultValue
+     *            the value returned if the meter or the state is not registered.
+     * @return the state.
+     */
+    public int getInt(long address, IntSlot slot, int defaultValue) {
+        long hash = hash(address);
+        Stripe stripe = stripeFor(hash);
+        StampedLock lock = stripe.lock;
+
+        long stamp = lock.tryOptimisticRead();
+        int value = readInt(stripe.table, address, hash, slot.index, defaultValue);
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                value = readInt(stripe.table, address, hash, slot.index, defaultValue);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Sets an <code>int</code> state of a meter. The meter is added if it is not yet registered.
+     *
+     * @param address
+     *            the packed secondary address of the meter.
+     * @param slot
+     *            the slot.
+     * @param value
+     *            the state.
+     */
+    public void putInt(long address, IntSlot slot, int value) {
+        long hash = hash(address);
+        Stripe stripe = stripeFor(hash);
+
+        long stamp = stripe.lock.writeLock();
+        try {
+            int i = findOrInsert(stripe, address, hash);
+            Table table = stripe.table;
+            int[] ints = table.ints[i];
+            if (slot.index >= ints.length) {
+                ints = Arrays.copyOf(ints, numberOfIntSlots.get());
+                table.ints[i] = ints;
+            }
+            ints[slot.index] = value;
+        } finally {
+            stripe.lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Checks if a meter is registered.
+     *
+     * @param address
+     *            the packed secondary address of the meter.
+     * @return <code>true</code> if any state of the meter has been set.
+     */
+    public boolean contains(long address) {
+        long hash = hash(address);
+        Stripe stripe = stripeFor(hash);
+        StampedLock lock = stripe.lock;
+
+        long stamp = lock.tryOptimisticRead();
+        boolean contains = find(stripe.table, address, hash) >= 0;
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                contains = find(stripe.table, address, hash) >= 0;
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        return contains;
+    }
+
+    /**
+     * Removes a meter with all its state.
+     *
+     * @param address
+     *            the packed secondary address of the meter.
+     * @return <code>true</code> if the meter was registered.
+     */
+    public boolean remove(long address) {
+        long hash = hash(address);
+        Stripe stripe = stripeFor(hash);
+
+        long stamp = stripe.lock.writeLock();
+        try {
+            Table table = stripe.table;
+            int i = find(table, address, hash);
+            if (i < 0) {
+                return false;
+            }
+            removeAt(table, i);
+            stripe.size--;
+            return true;
+        } finally {
+            stripe.lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Returns the number of registered meters.
+     *
+     * @return the number of meters.
+     */
+    public int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            long stamp = stripe.lock.readLock();
+            try {
+                size += stripe.size;
+            } finally {
+                stripe.lock.unlockRead(stamp);
+            }
+        }
+        return size;
+    }
+
+    private Stripe stripeFor(long hash) {
+        return stripes[(int) (hash >>> 40) & (NUMBER_OF_STRIPES - 1)];
+    }
+
+    private static long hash(long address) {
+        long h = address * 0x9E3779B97F4A7C15L;
+        return h ^ (h >>> 29);
+    }
+
+    private static Object read(Table table, long address, long hash, int slotIndex) {
+        int i = find(table, address, hash);
+        if (i < 0) {
+            return null;
+        }
+        Object[] values = table.values[i];
+        return values != null && slotIndex < values.length ? values[slotIndex] : null;
+    }
+
+    private static int readInt(Table table, long address, long hash, int slotIndex, int defaultValue) {
+        int i = find(table, address, hash);
+        if (i < 0) {
+            return defaultValue;
+        }
+        int[] ints = table.ints[i];
+        return ints != null && slotIndex < ints.length ? ints[slotIndex] : defaultValue;
+    }
+
+    /*
+     * Bounded by the capacity, an optimistic reader may see a table which is modified concurrently.
+     */
+    private static int find(Table table, long address, long hash) {
+        int mask = table.keys.length - 1;
+        int i = (int) hash & mask;
+        for (int probes = 0; probes <= mask; probes++) {
+            if (table.values[i] == null) {
+                return -1;
+            }
+            if (table.keys[i] == address) {
+                return i;
+            }
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+
+    /*
+     * Must hold the write lock.
+     */
+    private int findOrInsert(Stripe stripe, long address, long hash) {
+        Table table = stripe.table;
+        int i = find(table, address, hash);
+        if (i >= 0) {
+            return i;
+        }
+
+        if (stripe.size + 1 > table.keys.length / 4 * 3) {
+            table = resize(table);
+            stripe.table = table;
+        }
+
+        stripe.size++;
+        return insert(table, address, hash, NO_VALUES, NO_INTS);
+    }
+
+    private static int insert(Table table, long address, long hash, Object[] values, int[] ints) {
+        int mask = table.keys.length - 1;
+        int i = (int) hash & mask;
+        while (table.values[i] != null) {
+            i = (i + 1) & mask;
+        }
+        table.keys[i] = address;
+        table.ints[i] = ints;
+        table.values[i] = values;
+        return i;
+    }
+
+    private static Table resize(Table table) {
+        Table resized = new Table(table.keys.length * 2);
+        for (int i = 0; i < table.keys.length; i++) {
+            if (table.values[i] != null) {
+                long address = table.keys[i];
+                insert(resized, address, hash(address), table.values[i], table.ints[i]);
+            }
+        }
+        return resized;
+    }
+
+    /*
+     * Backward shift deletion, keeps the probe sequences intact without tombstones.
+     */
+    private static void removeAt(Table table, int index) {
+        int mask = table.keys.length - 1;
+        int free = index;
+        int i = index;
+        while (true) {
+            i = (i + 1) & mask;
+            if (table.values[i] == null) {
+                break;
+            }
+            int home = (int) hash(table.keys[i]) & mask;
+            boolean movable = free <= i ? (home <= free || home > i) : (home <= free && home > i);
+            if (movable) {
+                table.keys[free] = table.keys[i];
+                table.ints[free] = table.ints[i];
+                table.values[free] = table.values[i];
+                free = i;
+            }
+        }
+        table.values[free] = null;
+        table.ints[free] = null;
+        table.keys[free] = 0;
+    }
+
+}
@@ -1,9 +1,31 @@
 package org.openmuc.jmbus;
 
 import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+import org.openmuc.jmbus.FrameRecorder.RecordedFrame;
 
 public class PartialMessageException extends IOException {
+
+    private transient List<RecordedFrame> recordedFrames;
+
     public PartialMessageException(final String s) {
         super(s);
     }
+
+    /**
+     * Returns the frames the connection recorded up to the failure, the oldest first.
+     * 
+     * @return the recorded frames, empty if the exception was not thrown by a connection with a {@link FrameRecorder}.
+     * @see MBusConnection#setFrameRecorder(FrameRecorder)
+     */
+    public List<RecordedFrame> getRecordedFrames() {
+        return recordedFrames == null ? Collections.<RecordedFrame>emptyList() : recordedFrames;
+    }
+
+    void setRecordedFrames(List<RecordedFrame> recordedFrames) {
+        this.recordedFrames = recordedFrames;
+    }
+
 }
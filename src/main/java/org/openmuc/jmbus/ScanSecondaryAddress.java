@@ -16,6 +16,7 @@ import java.util.LinkedList;
 import java.util.List;
 
 import org.openmuc.jmbus.MBusMessage.MessageType;
+import org.openmuc.jmbus.jfr.Events;
 
 class ScanSecondaryAddress {
 
@@ -45,22 +46,29 @@ class ScanSecondaryAddress {
         value[pos] = 0;
 
         while (!stop) {
-            String msg = MessageFormat.format("scan with wildcard: {0}", printHexBinary(toSendByteArray(value)));
+            Object event = Events.beginScanStep();
+            String outcome;
+
+            String wildcard = printHexBinary(toSendByteArray(value));
+            String msg = MessageFormat.format("scan with wildcard: {0}", wildcard);
             notifyScanMsg(secondaryAddressListener, msg);
 
             SecondaryAddress secondaryAddessesWildCard = SecondaryAddress.newFromLongHeader(toSendByteArray(value), 0);
             SecondaryAddress readSecondaryAddress = null;
 
             if (scanSelection(mBusConnection, secondaryAddessesWildCard)) {
+                outcome = "UNDECODABLE";
 
                 try {
                     readSecondaryAddress = mBusConnection.read(0xfd).getSecondaryAddress();
 
                 } catch (final NoMessageException e) {
                     notifyScanMsg(secondaryAddressListener, "Read (REQ_UD2) Timeout");
+                    outcome = "TIMEOUT";
                     collision = false;
                 } catch (final MessageCollisionException | PartialMessageException e) {
                     notifyScanMsg(secondaryAddressListener, "Read (REQ_UD2) Collision");
+                    outcome = "COLLISION";
                     collision = true;
                 }
 
@@ -76,6 +84,7 @@ class ScanSecondaryAddress {
                 }
                 else {
                     if (readSecondaryAddress != null) {
+                        outcome = "FOUND";
                         String message = "Detected Device:\n" + readSecondaryAddress.toString();
                         notifyScanMsg(secondaryAddressListener, message);
                         secondaryAddresses.add(readSecondaryAddress);
@@ -100,8 +109,13 @@ class ScanSecondaryAddress {
                 }
             }
             else {
+                outcome = "NONE";
                 stop = handler();
             }
+
+            if (event != null) {
+                Events.endScanStep(event, wildcard, outcome);
+            }
         }
         if (mBusConnection != null) {
             mBusConnection.close();
@@ -137,7 +151,7 @@ class ScanSecondaryAddress {
             MBusMessage mBusMessage = mBusConnection.receiveMessage();
 
             return mBusMessage.getMessageType() == MessageType.SINGLE_CHARACTER;
-        } catch (InterruptedIOException e) {
+        } catch (InterruptedIOException | NoMessageException e) {
             return false;
         } catch (IOException e) {
             return true;
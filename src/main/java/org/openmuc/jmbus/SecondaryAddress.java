@@ -9,22 +9,22 @@ import org.openmuc.jmbus.util.FiveBitString;
 
 import javax.xml.bind.DatatypeConverter;
 import java.nio.ByteBuffer;
-import java.util.Arrays;
 
 /**
  * This class represents a secondary address. Use the static initalizer to initialize the
+ * <p>
+ * The eight address bytes are held packed into a <code>long</code>, see {@link #asLong()}. The packed value can be
+ * read directly from a frame with {@link #pack(byte[], int)} and used as key without creating a secondary address.
+ * </p>
  */
 public class SecondaryAddress implements Comparable<SecondaryAddress> {
 
     private static final int SECONDARY_ADDRESS_LENGTH = 8;
 
-    private final String manufacturerId;
-    private final Bcd deviceId;
-    private final int version;
-    private final DeviceType deviceType;
-    private final byte[] bytes;
-    private final int hashCode;
+    private final long packed;
     private final boolean isLongHeader;
+    private final String manufacturerId;
+    private Bcd deviceId;
 
     public static SecondaryAddress from(final int deviceId, final String manufacturerId, final int version, final DeviceType deviceType) {
         return from(Bcd.from(deviceId), manufacturerId, version, deviceType);
@@ -66,6 +66,53 @@ public class SecondaryAddress implements Comparable<SecondaryAddress> {
         return new SecondaryAddress(buffer, offset, false);
     }
 
+    /**
+     * Instantiate a secondary address from its packed representation.
+     * 
+     * @param packed
+     *            the address bytes packed as returned by {@link #asLong()}.
+     * @param longHeader
+     *            <code>true</code> if the bytes are ordered as in a long header, <code>false</code> if ordered as in a
+     *            wireless M-Bus link layer header.
+     * @return a new secondary address.
+     */
+    public static SecondaryAddress newFromLong(long packed, boolean longHeader) {
+        return new SecondaryAddress(packed, longHeader);
+    }
+
+    /**
+     * Packs the eight address bytes at the given offset into a <code>long</code>, the first byte becoming the most
+     * significant one. Does not allocate, the result equals {@link #asLong()} of an address created from the same
+     * bytes.
+     * 
+     * @param buffer
+     *            the byte buffer.
+     * @param offset
+     *            the offset of the address.
+     * @return the packed address.
+     */
+    public static long pack(byte[] buffer, int offset) {
+        long packed = 0;
+        for (int i = offset; i < offset + SECONDARY_ADDRESS_LENGTH; i++) {
+            packed = (packed << 8) | (buffer[i] & 0xff);
+        }
+        return packed;
+    }
+
+    /**
+     * Converts a packed address from long header byte order (ID, manufacturer, version, device type) to wireless
+     * M-Bus link layer header order (manufacturer, ID, version, device type).
+     * 
+     * @param packed
+     *            the packed address in long header order.
+     * @return the packed address in link layer header order.
+     */
+    public static long longHeaderToWMBusLlHeader(long packed) {
+        long id = packed >>> 32;
+        long manufacturer = (packed >>> 16) & 0xffff;
+        return manufacturer << 48 | id << 16 | (packed & 0xffff);
+    }
+
     /**
      * Instantiate a new secondary address for a manufacturer ID.
      * 
@@ -100,12 +147,37 @@ public class SecondaryAddress implements Comparable<SecondaryAddress> {
     /**
      * The {@link SecondaryAddress} as byte array.
      * 
-     * @return the byte array (octet string) representation.
+     * @return a new byte array holding the byte array (octet string) representation.
      */
     public byte[] asByteArray() {
+        byte[] bytes = new byte[SECONDARY_ADDRESS_LENGTH];
+        for (int i = SECONDARY_ADDRESS_LENGTH - 1, shift = 0; i >= 0; i--, shift += 8) {
+            bytes[i] = (byte) (packed >>> shift);
+        }
         return bytes;
     }
 
+    /**
+     * The {@link SecondaryAddress} packed into a <code>long</code>. The bytes are in the order of the header the
+     * address was read from, the first byte being the most significant one.
+     * 
+     * @return the packed representation.
+     * @see #pack(byte[], int)
+     */
+    public long asLong() {
+        return packed;
+    }
+
+    /**
+     * The {@link SecondaryAddress} packed into a <code>long</code> in wireless M-Bus link layer header order,
+     * independent of the header the address was read from.
+     * 
+     * @return the packed representation in link layer header order.
+     */
+    public long asWMBusLlHeaderLong() {
+        return isLongHeader ? longHeaderToWMBusLlHeader(packed) : packed;
+    }
+
     /**
      * Get the manufacturer ID.
      * 
@@ -121,6 +193,12 @@ public class SecondaryAddress implements Comparable<SecondaryAddress> {
      * @return the device ID
      */
     public Bcd getDeviceId() {
+        // benign race, Bcd is immutable
+        Bcd deviceId = this.deviceId;
+        if (deviceId == null) {
+            deviceId = Bcd.from(asByteArray(), isLongHeader ? 0 : 2);
+            this.deviceId = deviceId;
+        }
         return deviceId;
     }
 
@@ -130,7 +208,7 @@ public class SecondaryAddress implements Comparable<SecondaryAddress> {
      * @return the device type
      */
     public DeviceType getDeviceType() {
-        return deviceType;
+        return DeviceType.getInstance((byte) packed);
     }
 
     /**
@@ -139,7 +217,7 @@ public class SecondaryAddress implements Comparable<SecondaryAddress> {
      * @return the version.
      */
     public int getVersion() {
-        return version;
+        return (int) (packed >>> 8) & 0xff;
     }
 
     public boolean isLongHeader() {
@@ -151,19 +229,19 @@ public class SecondaryAddress implements Comparable<SecondaryAddress> {
         return new StringBuilder().append("manufacturer ID: ")
                 .append(manufacturerId)
                 .append(", device ID: ")
-                .append(deviceId)
+                .append(getDeviceId())
                 .append(", device version: ")
-                .append(version)
+                .append(getVersion())
                 .append(", device type: ")
-                .append(deviceType)
+                .append(getDeviceType())
                 .append(", as bytes: ")
-                .append(DatatypeConverter.printHexBinary(bytes))
+                .append(DatatypeConverter.printHexBinary(asByteArray()))
                 .toString();
     }
 
     @Override
     public int hashCode() {
-        return this.hashCode;
+        return Long.hashCode(packed);
     }
 
     @Override
@@ -174,29 +252,29 @@ public class SecondaryAddress implements Comparable<SecondaryAddress> {
 
         SecondaryAddress other = (SecondaryAddress) obj;
 
-        return Arrays.equals(this.bytes, other.bytes);
+        return this.packed == other.packed;
     }
 
+    /**
+     * Orders the addresses by their bytes, consistent with {@link #equals(Object)}.
+     */
     @Override
     public int compareTo(SecondaryAddress sa) {
-        return Integer.compare(hashCode(), sa.hashCode());
+        return Long.compareUnsigned(packed, sa.packed);
     }
 
     private SecondaryAddress(byte[] buffer, int offset, boolean longHeader) {
-        this.bytes = Arrays.copyOfRange(buffer, offset, offset + SECONDARY_ADDRESS_LENGTH);
+        this(pack(buffer, offset), longHeader);
+    }
 
-        this.hashCode = Arrays.hashCode(this.bytes);
+    private SecondaryAddress(long packed, boolean longHeader) {
+        this.packed = packed;
         this.isLongHeader = longHeader;
 
-        if (longHeader) {
-            deviceId = Bcd.from(bytes, 0);
-            manufacturerId = FiveBitString.decodeManufacturerId(bytes, 4);
-        } else {
-            manufacturerId = FiveBitString.decodeManufacturerId(bytes, 0);
-            deviceId = Bcd.from(bytes, 2);
-        }
-        version = Byte.toUnsignedInt(bytes[6]);
-        deviceType = DeviceType.getInstance(bytes[7]);
+        long manufacturerBytes = longHeader ? packed >>> 16 : packed >>> 48;
+        // little endian
+        int manufacturerIdAsInt = (int) ((manufacturerBytes >>> 8) & 0xff | (manufacturerBytes & 0xff) << 8);
+        this.manufacturerId = FiveBitString.decodeManufacturerId(manufacturerIdAsInt);
     }
 
     private static byte[] encodeManufacturerId(String manufactureId) {
@@ -11,14 +11,16 @@ import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.text.MessageFormat;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.ListIterator;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 
 import javax.xml.bind.DatatypeConverter;
 
+import org.openmuc.jmbus.KeyDerivationCache.DerivedKeys;
+import org.openmuc.jmbus.jfr.Events;
+
 /**
  * Representation of the data transmitted in RESP-UD (M-Bus) and SND-NR (wM-Bus) messages.
  * 
@@ -26,14 +28,26 @@ import javax.xml.bind.DatatypeConverter;
  */
 public class VariableDataStructure {
 
-    private static final ConcurrentHashMap<SecondaryAddress, List<DataRecord>> deviceHistory = new ConcurrentHashMap<>();
-
-    private final byte[] buffer;
-    private final int offset;
-    private final int length;
-    private byte[] header = new byte[0];
-    private final SecondaryAddress linkLayerSecondaryAddress;
-    private final Map<SecondaryAddress, byte[]> keyMap;
+    private static final MeterRegistry.Slot<List<DataRecord>> DEVICE_HISTORY = MeterRegistry.getDefault()
+            .newSlot("deviceHistory");
+    private static final KeyDerivationCache keyDerivationCache = new KeyDerivationCache();
+    private static final byte[] NO_BYTES = new byte[0];
+
+    /* Fragmentation control field of the AFL */
+    private static final int FCL_MORE_FRAGMENTS = 0x4000;
+    private static final int FCL_MESSAGE_CONTROL_PRESENT = 0x2000;
+    private static final int FCL_MESSAGE_LENGTH_PRESENT = 0x1000;
+    private static final int FCL_MESSAGE_COUNTER_PRESENT = 0x0800;
+    private static final int FCL_MAC_PRESENT = 0x0400;
+    private static final int FCL_KEY_INFORMATION_PRESENT = 0x0200;
+
+    private byte[] buffer;
+    private int offset;
+    private int length;
+    private byte[] header = NO_BYTES;
+    private SecondaryAddress linkLayerSecondaryAddress;
+    private Map<SecondaryAddress, byte[]> keyMap;
+    private MBusMetrics metrics;
 
     private SecondaryAddress secondaryAddress;
     private int accessNumber;
@@ -45,10 +59,17 @@ public class VariableDataStructure {
     private byte[] checksum;
     /* End of ELL specific */
 
+    /* Authentication and Fragmentation Layer (AFL) (0x90) specific */
+    private int messageControl;
+    private long messageCounter = -1;
+    private byte[] mac;
+    private byte[] macInput;
+    /* End of AFL specific */
+
     private EncryptionMode encryptionMode;
     private int numberOfEncryptedBlocks;
-    private byte[] manufacturerData = new byte[0];
-    private byte[] vdr = new byte[0];
+    private byte[] manufacturerData = NO_BYTES;
+    private byte[] vdr = NO_BYTES;
     private boolean moreRecordsFollow = false;
 
     private boolean decoded = false;
@@ -57,91 +78,261 @@ public class VariableDataStructure {
 
     public VariableDataStructure(byte[] buffer, int offset, int length, SecondaryAddress linkLayerSecondaryAddress,
             Map<SecondaryAddress, byte[]> keyMap) {
+        this(buffer, offset, length, linkLayerSecondaryAddress, keyMap, MBusMetrics.NO_OP);
+    }
+
+    /**
+     * Creates a variable data structure which reports failed decodings and decryptions to the given metrics.
+     * 
+     * @param buffer
+     *            the buffer holding the variable data structure.
+     * @param offset
+     *            the offset of the CI field.
+     * @param length
+     *            the length of the variable data structure.
+     * @param linkLayerSecondaryAddress
+     *            the link layer address of a wireless telegram, <code>null</code> for wired telegrams.
+     * @param keyMap
+     *            the keys of encrypted telegrams.
+     * @param metrics
+     *            the metrics.
+     */
+    public VariableDataStructure(byte[] buffer, int offset, int length, SecondaryAddress linkLayerSecondaryAddress,
+            Map<SecondaryAddress, byte[]> keyMap, MBusMetrics metrics) {
+        this.buffer = buffer;
+        this.offset = offset;
+        this.length = length;
+        this.linkLayerSecondaryAddress = linkLayerSecondaryAddress;
+        this.keyMap = keyMap;
+        this.metrics = metrics;
+        this.dataRecords = Collections.emptyList();
+    }
+
+    /**
+     * Reuses this structure for another telegram, all decoded state is cleared. Used by pooled messages of the
+     * wireless connections, the structure must no longer be referenced by anyone else.
+     * 
+     * @param buffer
+     *            the buffer holding the variable data structure.
+     * @param offset
+     *            the offset of the CI field.
+     * @param length
+     *            the length of the variable data structure.
+     * @param linkLayerSecondaryAddress
+     *            the link layer address of a wireless telegram.
+     * @param keyMap
+     *            the keys of encrypted telegrams.
+     * @param metrics
+     *            the metrics.
+     */
+    protected synchronized void reuse(byte[] buffer, int offset, int length,
+            SecondaryAddress linkLayerSecondaryAddress, Map<SecondaryAddress, byte[]> keyMap, MBusMetrics metrics) {
         this.buffer = buffer;
         this.offset = offset;
         this.length = length;
         this.linkLayerSecondaryAddress = linkLayerSecondaryAddress;
         this.keyMap = keyMap;
-        this.dataRecords = new LinkedList<>();
+        this.metrics = metrics;
+
+        header = NO_BYTES;
+        secondaryAddress = null;
+        accessNumber = 0;
+        status = 0;
+        communicationControl = 0;
+        sessionNumber = null;
+        checksum = null;
+        messageControl = 0;
+        messageCounter = -1;
+        mac = null;
+        macInput = null;
+        encryptionMode = null;
+        numberOfEncryptedBlocks = 0;
+        manufacturerData = NO_BYTES;
+        vdr = NO_BYTES;
+        moreRecordsFollow = false;
+        decoded = false;
+        dataRecords = Collections.emptyList();
     }
 
     /**
-     * This method is used to
+     * Decodes the data records. Decoding an already decoded structure has no effect, so a listener may call this
+     * method even if the connection decoded the structure before delivery.
      * 
      * @throws DecodingException
+     *             if the structure could not be decoded.
      */
-    public void decode() throws DecodingException {
+    public synchronized void decode() throws DecodingException {
+        if (decoded) {
+            return;
+        }
+        // a new list, the records of a previous attempt may be shared as device history
+        dataRecords = new LinkedList<>();
+
+        Object event = Events.beginDecode();
         try {
-            int ciField = readUnsignedByte(buffer, offset);
-
-            switch (ciField) {
-            case 0x72:
-                decodeLongHeaderData();
-                break;
-            case 0x78: /* no header */
-                encryptionMode = EncryptionMode.NONE;
-                decodeDataRecords(buffer, offset + 1, length - 1);
-                break;
-            case 0x7a: /* short header */
-                decodeWithShortHeader();
-                break;
-            case 0x8d: /* ELL */
-                decodeExtendedLinkLayer(buffer, offset + 1); // 6 bytes header + CRC
-                header = Arrays.copyOfRange(buffer, offset, offset + 7); // don't include CRC
-                vdr = new byte[length - 7];
-                System.arraycopy(buffer, offset + 7, vdr, 0, length - 7);
-                if (encryptionMode.equals(EncryptionMode.AES_128)) {
-                    decryptMessage(getKey());
-                }
-
-                if ((vdr[2] & 0xff) == 0x78) {
-                    decodeDataRecords(vdr, 3, length - 10);
-                }
-                else if ((vdr[2] & 0xff) == 0x79) {
-                    decodeShortFrame(vdr, 3, length - 10);
-                }
-                break;
-            case 0x33:
-                String msg = String.format(
-                        "Received telegram with CI 0x33. Decoding not implemented. Device Serial: %s, Manufacturer: %s.",
-                        linkLayerSecondaryAddress.getDeviceId().toString(),
-                        linkLayerSecondaryAddress.getManufacturerId());
-                throw new DecodingException(msg);
-            default:
-                String strFormat = "Unable to decode message with this CI Field: 0x%02X.";
-                if ((ciField >= 0xA0) && (ciField <= 0xB7)) {
-                    strFormat = "Manufacturer specific CI: 0x%02X.";
-                }
-
-                throw new DecodingException(String.format(strFormat, ciField));
-            }
+            decodeTransportLayer(offset, length);
+        } catch (DecodingException e) {
+            decodingFailed(event);
+            throw e;
         } catch (RuntimeException e) {
+            decodingFailed(event);
             throw new DecodingException(e);
         }
 
         decoded = true;
+        if (event != null) {
+            Events.endDecode(event, ciField(), encryptionMode, dataRecords.size(), true);
+        }
+    }
+
+    private void decodingFailed(Object event) {
+        metrics.decodingFailed(ciField());
+        if (event != null) {
+            Events.endDecode(event, ciField(), encryptionMode, dataRecords.size(), false);
+        }
+    }
+
+    private int ciField() {
+        return length > 0 && offset < buffer.length ? buffer[offset] & 0xff : -1;
+    }
+
+    private void decodeTransportLayer(int offset, int length) throws DecodingException {
+        int ciField = readUnsignedByte(buffer, offset);
+
+        switch (ciField) {
+        case 0x72:
+            decodeLongHeaderData(offset, length);
+            break;
+        case 0x78: /* no header */
+            encryptionMode = EncryptionMode.NONE;
+            decodeDataRecords(buffer, offset + 1, length - 1);
+            break;
+        case 0x7a: /* short header */
+            decodeWithShortHeader(offset, length);
+            break;
+        case 0x8d: /* ELL */
+            decodeExtendedLinkLayer(buffer, offset + 1); // 6 bytes header + CRC
+            header = Arrays.copyOfRange(buffer, offset, offset + 7); // don't include CRC
+            vdr = new byte[length - 7];
+            System.arraycopy(buffer, offset + 7, vdr, 0, length - 7);
+            if (encryptionMode.equals(EncryptionMode.AES_128)) {
+                decryptMessage(getKey());
+            }
+
+            if ((vdr[2] & 0xff) == 0x78) {
+                decodeDataRecords(vdr, 3, length - 10);
+            }
+            else if ((vdr[2] & 0xff) == 0x79) {
+                decodeShortFrame(vdr, 3, length - 10);
+            }
+            break;
+        case 0x90: /* AFL */
+            decodeAuthenticationAndFragmentationLayer(offset, length);
+            break;
+        case 0x33:
+            String msg = String.format(
+                    "Received telegram with CI 0x33. Decoding not implemented. Device Serial: %s, Manufacturer: %s.",
+                    linkLayerSecondaryAddress.getDeviceId().toString(),
+                    linkLayerSecondaryAddress.getManufacturerId());
+            throw new DecodingException(msg);
+        default:
+            String strFormat = "Unable to decode message with this CI Field: 0x%02X.";
+            if ((ciField >= 0xA0) && (ciField <= 0xB7)) {
+                strFormat = "Manufacturer specific CI: 0x%02X.";
+            }
+
+            throw new DecodingException(String.format(strFormat, ciField));
+        }
+    }
+
+    private void decodeAuthenticationAndFragmentationLayer(int offset, int length) throws DecodingException {
+        int i = offset + 1;
+        int aflLength = readUnsignedByte(buffer, i++);
+        int fragmentationControl = readUnsignedByte(buffer, i++) | (readUnsignedByte(buffer, i++) << 8);
+
+        if ((fragmentationControl & FCL_MORE_FRAGMENTS) == FCL_MORE_FRAGMENTS) {
+            throw new DecodingException("Fragmented messages are not supported.");
+        }
+
+        int macInputStart = i;
+        if ((fragmentationControl & FCL_MESSAGE_CONTROL_PRESENT) == FCL_MESSAGE_CONTROL_PRESENT) {
+            messageControl = readUnsignedByte(buffer, i++);
+        }
+        if ((fragmentationControl & FCL_KEY_INFORMATION_PRESENT) == FCL_KEY_INFORMATION_PRESENT) {
+            i += 2;
+        }
+        if ((fragmentationControl & FCL_MESSAGE_COUNTER_PRESENT) == FCL_MESSAGE_COUNTER_PRESENT) {
+            messageCounter = readUnsignedInt(buffer, i);
+            i += 4;
+        }
+        int macStart = i;
+        if ((fragmentationControl & FCL_MAC_PRESENT) == FCL_MAC_PRESENT) {
+            int macLength = macLengthFor(messageControl & 0x0f);
+            mac = Arrays.copyOfRange(buffer, i, i + macLength);
+            i += macLength;
+        }
+        int macEnd = i;
+        int messageLength = -1;
+        if ((fragmentationControl & FCL_MESSAGE_LENGTH_PRESENT) == FCL_MESSAGE_LENGTH_PRESENT) {
+            messageLength = readUnsignedByte(buffer, i++) | (readUnsignedByte(buffer, i++) << 8);
+        }
+
+        int tplOffset = offset + 2 + aflLength;
+        int tplLength = offset + length - tplOffset;
+        if (i > tplOffset) {
+            throw new DecodingException("AFL fields exceed the AFL length of " + aflLength + ".");
+        }
+        if (messageLength >= 0 && messageLength != tplLength) {
+            throw new DecodingException(String.format("AFL message length %d does not match the %d bytes received.",
+                    messageLength, tplLength));
+        }
+
+        if (mac != null) {
+            // the MAC covers the AFL fields following the FCL (without the MAC itself), the TPL and the APL
+            int macStartLength = macStart - macInputStart;
+            int macEndLength = tplOffset - macEnd;
+            macInput = new byte[macStartLength + macEndLength + tplLength];
+            System.arraycopy(buffer, macInputStart, macInput, 0, macStartLength);
+            System.arraycopy(buffer, macEnd, macInput, macStartLength, macEndLength + tplLength);
+        }
+
+        decodeTransportLayer(tplOffset, tplLength);
+    }
+
+    private static int macLengthFor(int authenticationType) throws DecodingException {
+        switch (authenticationType) {
+        case 5: /* AES-CMAC-128, 8 bytes */
+            return 8;
+        case 6: /* AES-CMAC-128, 12 bytes */
+            return 12;
+        case 7: /* AES-CMAC-128, 16 bytes */
+            return 16;
+        default:
+            throw new DecodingException("Unsupported AFL authentication type: " + authenticationType);
+        }
     }
 
-    private void decodeWithShortHeader() throws DecodingException {
-        decodeShortHeader(buffer, offset + 1);
+    private void decodeWithShortHeader(int offset, int length) throws DecodingException {
+        int dataOffset = decodeShortHeader(buffer, offset + 1);
+        int dataLength = offset + length - dataOffset;
         if (encryptionMode == EncryptionMode.NONE) {
-            decodeDataRecords(buffer, offset + 5, length - 5);
+            decodeDataRecords(buffer, dataOffset, dataLength);
         }
-        else if (encryptionMode == EncryptionMode.AES_CBC_IV) {
-            decryptAesCbcIv(buffer, offset + 5, numberOfEncryptedBlocks * 16);
+        else if (encryptionMode == EncryptionMode.AES_CBC_IV || encryptionMode == EncryptionMode.AES_CBC_IV_0) {
+            decryptAesCbc(buffer, dataOffset, dataLength);
         }
         else {
             throw new DecodingException("Unsupported encryption mode used: " + encryptionMode);
         }
     }
 
-    private void decryptAesCbcIv(byte[] buffer, int offset, int encryptedDataLength) throws DecodingException {
-        final int len = length - 5;
+    private void decryptAesCbc(byte[] buffer, int offset, int len) throws DecodingException {
         vdr = new byte[len];
-        System.arraycopy(buffer, offset, vdr, 0, encryptedDataLength);
+        System.arraycopy(buffer, offset, vdr, 0, len);
 
         byte[] key = keyMap.get(linkLayerSecondaryAddress);
         if (key == null) {
+            metrics.decryptionFailed();
             String msg = MessageFormat.format(
                     "Unable to decode encrypted payload. \nSecondary address key was not registered: \n{0}",
                     linkLayerSecondaryAddress);
@@ -151,18 +342,16 @@ public class VariableDataStructure {
         decodeDataRecords(decryptMessage(key), 0, len);
     }
 
-    private void decodeLongHeaderData() throws DecodingException {
-        final int headerLength = 13;
-        header = Arrays.copyOfRange(buffer, offset, offset + headerLength);
-
+    private void decodeLongHeaderData(int offset, int length) throws DecodingException {
         secondaryAddress = SecondaryAddress.newFromLongHeader(buffer, offset + 1);
 
-        decodeShortHeader(buffer, offset + 1 + 8);
+        final int headerLength = decodeShortHeader(buffer, offset + 1 + 8) - offset;
+        header = Arrays.copyOfRange(buffer, offset, offset + headerLength);
 
         vdr = new byte[length - headerLength];
         System.arraycopy(buffer, offset + headerLength, vdr, 0, length - headerLength);
 
-        if (encryptionMode == EncryptionMode.AES_CBC_IV) {
+        if (encryptionMode == EncryptionMode.AES_CBC_IV || encryptionMode == EncryptionMode.AES_CBC_IV_0) {
             decryptMessage(getKey());
         }
         else if (encryptionMode != EncryptionMode.NONE) {
@@ -212,13 +401,14 @@ public class VariableDataStructure {
         encryptionMode = EncryptionMode.getInstance(sessionNumber[3] >> 5);
         checksum = new byte[] { buffer[i++], buffer[i++] };
 
-        byte[] crc = CRC16.calculateCrc16(Arrays.copyOfRange(buffer, i, buffer.length - 1));
+        // up to the end of the structure, the buffer may be larger, e.g. a pooled receive buffer
+        byte[] crc = CRC16.calculateCrc16(buffer, i, this.offset + this.length - i);
         if (checksum[0] == crc[0] && checksum[1] == crc[1]) {
             encryptionMode = EncryptionMode.NONE;
         }
     }
 
-    private void decodeShortHeader(byte[] buffer, int offset) {
+    private int decodeShortHeader(byte[] buffer, int offset) {
         int i = offset;
 
         accessNumber = readUnsignedByte(buffer, i++);
@@ -226,9 +416,16 @@ public class VariableDataStructure {
         numberOfEncryptedBlocks = (buffer[i++] & 0xf0) >> 4;
         encryptionMode = EncryptionMode.getInstance(buffer[i++] & 0x0f);
 
+        if (encryptionMode == EncryptionMode.AES_CBC_IV_0) {
+            // skip the configuration field extension
+            i++;
+        }
+
         if (msgIsNotEnc(buffer, i)) {
             encryptionMode = EncryptionMode.NONE;
         }
+
+        return i;
     }
 
     private static boolean msgIsNotEnc(byte[] buffer, int i) {
@@ -241,6 +438,11 @@ public class VariableDataStructure {
         return msg[i] & 0xff;
     }
 
+    private static long readUnsignedInt(byte[] msg, int i) {
+        return (readUnsignedByte(msg, i) | (readUnsignedByte(msg, i + 1) << 8) | (readUnsignedByte(msg, i + 2) << 16)
+                | ((long) readUnsignedByte(msg, i + 3) << 24));
+    }
+
     public byte[] getHeader() {
         return this.header;
     }
@@ -272,13 +474,16 @@ public class VariableDataStructure {
         }
 
         if (linkLayerSecondaryAddress != null) {
-            deviceHistory.put(linkLayerSecondaryAddress, dataRecords);
+            MeterRegistry.getDefault().put(linkLayerSecondaryAddress.asLong(), DEVICE_HISTORY, dataRecords);
         }
     }
 
     private void decodeShortFrame(byte[] data, int offset, int length) throws DecodingException {
-        if (!deviceHistory.containsKey(linkLayerSecondaryAddress)) {
-            deviceHistory.put(linkLayerSecondaryAddress, new LinkedList<DataRecord>());
+        MeterRegistry meterRegistry = MeterRegistry.getDefault();
+        long address = linkLayerSecondaryAddress.asLong();
+        List<DataRecord> history = meterRegistry.get(address, DEVICE_HISTORY);
+        if (history == null) {
+            history = Collections.emptyList();
         }
 
         ByteBuffer buf = ByteBuffer.wrap(data, offset, length);
@@ -287,11 +492,9 @@ public class VariableDataStructure {
         // skip checksum data
         buf.position(4);
 
-        this.dataRecords = deviceHistory.get(linkLayerSecondaryAddress);
-
-        ListIterator<DataRecord> iter = this.dataRecords.listIterator();
-        while (iter.hasNext()) {
-            DataRecord dr = iter.next();
+        // the history is never modified, it may be decoded concurrently and belongs to earlier messages as well
+        List<DataRecord> records = new LinkedList<>();
+        for (DataRecord dr : history) {
             try (ByteArrayOutputStream os = new ByteArrayOutputStream()) {
                 os.write(dr.getDib());
                 os.write(dr.getVib());
@@ -306,16 +509,35 @@ public class VariableDataStructure {
 
                 DataRecord newDataRecord = new DataRecord();
                 newDataRecord.decode(os.toByteArray(), 0, dataLegth);
-                iter.set(newDataRecord);
+                records.add(newDataRecord);
             } catch (IOException e) {
                 // ignore
             }
 
         }
+
+        this.dataRecords = records;
+        meterRegistry.put(address, DEVICE_HISTORY, records);
     }
 
     public byte[] decryptMessage(byte[] key) throws DecodingException {
+        Object event = encryptionMode == EncryptionMode.NONE ? null : Events.beginDecrypt();
+        try {
+            byte[] result = decrypt(key);
+            if (event != null) {
+                Events.endDecrypt(event, encryptionMode, numberOfEncryptedBlocks * 16, true);
+            }
+            return result;
+        } catch (DecodingException e) {
+            metrics.decryptionFailed();
+            if (event != null) {
+                Events.endDecrypt(event, encryptionMode, numberOfEncryptedBlocks * 16, false);
+            }
+            throw e;
+        }
+    }
 
+    private byte[] decrypt(byte[] key) throws DecodingException {
         if (encryptionMode == EncryptionMode.NONE) {
             return vdr;
         }
@@ -337,6 +559,9 @@ public class VariableDataStructure {
         case AES_128:
             decryptAes128(key, len);
             break;
+        case AES_CBC_IV_0:
+            decryptAesCbcIv0(key, len);
+            break;
         default:
             throw new DecodingException("Unsupported encryption mode: " + encryptionMode);
         }
@@ -348,7 +573,7 @@ public class VariableDataStructure {
         byte[] iv = createIvKamstrup();
         byte[] result = AesCrypt.newAesCtrCrypt(key, iv).decrypt(vdr, len);
 
-        byte[] crc = CRC16.calculateCrc16(Arrays.copyOfRange(result, 2, result.length));
+        byte[] crc = CRC16.calculateCrc16(result, 2, result.length - 2);
 
         if (result[0] != crc[0] || result[1] != crc[1]) {
             throw new DecodingException(newDecyptionExceptionMsg());
@@ -365,6 +590,50 @@ public class VariableDataStructure {
         System.arraycopy(result, 0, vdr, 0, len);
     }
 
+    private void decryptAesCbcIv0(byte[] masterKey, final int len) throws DecodingException {
+        if (messageCounter < 0) {
+            throw new DecodingException(
+                    "Security mode 7 requires the message counter of the authentication and fragmentation layer.");
+        }
+
+        DerivedKeys keys;
+        if (secondaryAddress != null) {
+            keys = keyDerivationCache.deriveKeys(linkLayerSecondaryAddress, masterKey, secondaryAddress.asByteArray(),
+                    0, (int) messageCounter);
+        }
+        else {
+            int meterIdOffset = linkLayerSecondaryAddress.isLongHeader() ? 0 : 2;
+            keys = keyDerivationCache.deriveKeys(linkLayerSecondaryAddress, masterKey,
+                    linkLayerSecondaryAddress.asByteArray(), meterIdOffset, (int) messageCounter);
+        }
+
+        if (mac == null) {
+            throw new DecodingException(
+                    "Security mode 7 requires the MAC of the authentication and fragmentation layer.");
+        }
+        verifyMac(keys);
+
+        byte[] result = keys.decrypt(this.vdr, len);
+        if (!(result[0] == 0x2f && result[1] == 0x2f)) {
+            throw new DecodingException(newDecyptionExceptionMsg());
+        }
+        System.arraycopy(result, 0, vdr, 0, len);
+    }
+
+    private void verifyMac(DerivedKeys keys) throws DecodingException {
+        byte[] expectedMac = keys.mac(macInput, 0, macInput.length);
+
+        int diff = 0;
+        for (int i = 0; i < mac.length; i++) {
+            diff |= expectedMac[i] ^ mac[i];
+        }
+        if (diff != 0) {
+            String deviceId = linkLayerSecondaryAddress.getDeviceId().toString();
+            String manId = linkLayerSecondaryAddress.getManufacturerId();
+            throw new DecodingException(String.format("%s - %s - MAC verification failed!", deviceId, manId));
+        }
+    }
+
     private String newDecyptionExceptionMsg() {
         String deviceId = linkLayerSecondaryAddress.getDeviceId().toString();
         String manId = linkLayerSecondaryAddress.getManufacturerId();
@@ -412,6 +681,7 @@ public class VariableDataStructure {
             return key;
         }
 
+        metrics.decryptionFailed();
         String msg = "Unable to decode encrypted payload because no key for the following secondary address was registered: "
                 + linkLayerSecondaryAddress;
         throw new DecodingException(msg);
@@ -0,0 +1,97 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus.archive;
+
+import java.nio.ByteBuffer;
+
+import javax.xml.bind.DatatypeConverter;
+
+/**
+ * A frame read from a {@link TelegramArchive}.
+ * <p>
+ * The frame is a read only view of the memory mapped segment, it is not copied. The view stays valid after the segment
+ * has been removed by the retention.
+ * </p>
+ */
+public class ArchivedTelegram {
+
+    private final long timestamp;
+    private final long address;
+    private final Integer rssi;
+    private final boolean wired;
+    private final ByteBuffer frame;
+
+    ArchivedTelegram(long timestamp, long address, Integer rssi, boolean wired, ByteBuffer frame) {
+        this.timestamp = timestamp;
+        this.address = address;
+        this.rssi = rssi;
+        this.wired = wired;
+        this.frame = frame;
+    }
+
+    /**
+     * Returns the time the frame was archived with.
+     *
+     * @return the timestamp in milliseconds since the epoch.
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Returns the packed secondary address in link layer order.
+     *
+     * @return the packed address.
+     * @see org.openmuc.jmbus.SecondaryAddress#asWMBusLlHeaderLong()
+     */
+    public long getAddress() {
+        return address;
+    }
+
+    /**
+     * Returns the received signal strength indication (RSSI) in dBm.
+     *
+     * @return the RSSI or <code>null</code> for wired frames or if not reported by the transceiver.
+     */
+    public Integer getRssi() {
+        return rssi;
+    }
+
+    /**
+     * Returns if the frame is a wired M-Bus frame.
+     *
+     * @return <code>true</code> for wired, <code>false</code> for wireless frames.
+     */
+    public boolean isWired() {
+        return wired;
+    }
+
+    /**
+     * Returns the frame as read only view of the archive.
+     *
+     * @return the frame, positioned at 0.
+     */
+    public ByteBuffer getFrame() {
+        return frame.duplicate();
+    }
+
+    @Override
+    public String toString() {
+        byte[] bytes = new byte[frame.remaining()];
+        frame.duplicate().get(bytes);
+        return new StringBuilder().append("timestamp: ")
+                .append(timestamp)
+                .append(", address: ")
+                .append(String.format("%016X", address))
+                .append(", rssi: ")
+                .append(rssi)
+                .append(wired ? ", wired" : ", wireless")
+                .append(", frame: ")
+                .append(DatatypeConverter.printHexBinary(bytes))
+                .toString();
+    }
+
+}
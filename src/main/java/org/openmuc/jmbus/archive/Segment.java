@@ -0,0 +1,250 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus.archive;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import org.openmuc.jmbus.MeterRegistry;
+
+/**
+ * One memory mapped file of the archive.
+ * <p>
+ * Records are 8 byte aligned and consist of a 32 byte header followed by the frame:
+ * </p>
+ * <ul>
+ * <li>frame length (int), 0 marks the end of the segment</li>
+ * <li>offset of the previous record of the same address (int), -1 if none</li>
+ * <li>timestamp (long)</li>
+ * <li>packed address (long)</li>
+ * <li>RSSI (short), {@link Short#MIN_VALUE} if unknown</li>
+ * <li>flags (byte), 1 for wired frames</li>
+ * <li>5 reserved bytes</li>
+ * </ul>
+ * <p>
+ * The records of one address are chained backwards, the segment keeps the offset of the last record per address and
+ * the offset of the first record in every index interval. Both indexes are rebuilt when a segment is opened. Appending
+ * is done by a single thread, readers only see records below the committed end.
+ * </p>
+ */
+class Segment {
+
+    static final int HEADER_SIZE = 32;
+    static final int INDEX_INTERVAL = 4096;
+
+    private static final int LENGTH_OFFSET = 0;
+    private static final int PREVIOUS_OFFSET = 4;
+    private static final int TIMESTAMP_OFFSET = 8;
+    private static final int ADDRESS_OFFSET = 16;
+    private static final int RSSI_OFFSET = 24;
+    private static final int FLAGS_OFFSET = 26;
+
+    private static final byte FLAG_WIRED = 1;
+    private static final short NO_RSSI = Short.MIN_VALUE;
+
+    private final Path path;
+    private final long sequence;
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+
+    private final MeterRegistry addressIndex;
+    private final MeterRegistry.IntSlot lastOffset;
+    private final long[] indexTimestamps;
+    private final int[] indexOffsets;
+    private volatile int indexSize;
+
+    private volatile int end;
+    private volatile long firstTimestamp = Long.MAX_VALUE;
+    private volatile long lastTimestamp = Long.MIN_VALUE;
+
+    private Segment(Path path, long sequence, MappedByteBuffer buffer) {
+        this.path = path;
+        this.sequence = sequence;
+        this.buffer = buffer;
+        this.capacity = buffer.capacity();
+
+        this.addressIndex = new MeterRegistry();
+        this.lastOffset = addressIndex.newIntSlot("lastOffset");
+        this.indexTimestamps = new long[capacity / INDEX_INTERVAL + 1];
+        this.indexOffsets = new int[indexTimestamps.length];
+    }
+
+    static Segment create(Path path, long sequence, int capacity) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            return new Segment(path, sequence, channel.map(MapMode.READ_WRITE, 0, capacity));
+        }
+    }
+
+    static Segment open(Path path, long sequence) throws IOException {
+        Segment segment;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            segment = new Segment(path, sequence, channel.map(MapMode.READ_WRITE, 0, channel.size()));
+        }
+        segment.recover();
+        return segment;
+    }
+
+    static int recordSize(int frameLength) {
+        return (HEADER_SIZE + frameLength + 7) & ~7;
+    }
+
+    boolean hasSpace(int frameLength) {
+        return end + recordSize(frameLength) <= capacity;
+    }
+
+    void append(long timestamp, long address, Integer rssi, boolean wired, byte[] frame, int offset, int length) {
+        int position = end;
+        int previous = addressIndex.getInt(address, lastOffset, -1);
+
+        buffer.putInt(position + PREVIOUS_OFFSET, previous);
+        buffer.putLong(position + TIMESTAMP_OFFSET, timestamp);
+        buffer.putLong(position + ADDRESS_OFFSET, address);
+        buffer.putShort(position + RSSI_OFFSET, rssi == null ? NO_RSSI : rssi.shortValue());
+        buffer.put(position + FLAGS_OFFSET, wired ? FLAG_WIRED : 0);
+        ByteBuffer target = buffer.duplicate();
+        target.position(position + HEADER_SIZE);
+        target.put(frame, offset, length);
+        buffer.putInt(position + LENGTH_OFFSET, length);
+
+        index(position, timestamp, address);
+        end = position + recordSize(length);
+    }
+
+    /*
+     * Scans the records of a reopened segment.
+     */
+    private void recover() {
+        int position = 0;
+        while (position + HEADER_SIZE <= capacity) {
+            int length = buffer.getInt(position + LENGTH_OFFSET);
+            if (length <= 0 || position + recordSize(length) > capacity) {
+                break;
+            }
+            index(position, buffer.getLong(position + TIMESTAMP_OFFSET), buffer.getLong(position + ADDRESS_OFFSET));
+            position += recordSize(length);
+        }
+        end = position;
+    }
+
+    private void index(int position, long timestamp, long address) {
+        int size = indexSize;
+        if (size == 0 || position / INDEX_INTERVAL > indexOffsets[size - 1] / INDEX_INTERVAL) {
+            indexTimestamps[size] = timestamp;
+            indexOffsets[size] = position;
+            indexSize = size + 1;
+        }
+
+        addressIndex.putInt(address, lastOffset, position);
+        if (firstTimestamp == Long.MAX_VALUE) {
+            firstTimestamp = timestamp;
+        }
+        lastTimestamp = timestamp;
+    }
+
+    void scan(long from, long to, List<ArchivedTelegram> result) {
+        int limit = end;
+        int size = indexSize;
+
+        // last index entry before the range
+        int low = 0;
+        int high = size - 1;
+        int start = 0;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (indexTimestamps[mid] < from) {
+                start = indexOffsets[mid];
+                low = mid + 1;
+            }
+            else {
+                high = mid - 1;
+            }
+        }
+
+        int position = start;
+        while (position < limit) {
+            long timestamp = buffer.getLong(position + TIMESTAMP_OFFSET);
+            if (timestamp > to) {
+                return;
+            }
+            int length = buffer.getInt(position + LENGTH_OFFSET);
+            if (timestamp >= from) {
+                result.add(read(position, length));
+            }
+            position += recordSize(length);
+        }
+    }
+
+    void scan(long address, long from, long to, List<ArchivedTelegram> result) {
+        int position = addressIndex.getInt(address, lastOffset, -1);
+        int first = result.size();
+
+        while (position >= 0) {
+            long timestamp = buffer.getLong(position + TIMESTAMP_OFFSET);
+            if (timestamp < from) {
+                break;
+            }
+            if (timestamp <= to) {
+                result.add(read(position, buffer.getInt(position + LENGTH_OFFSET)));
+            }
+            position = buffer.getInt(position + PREVIOUS_OFFSET);
+        }
+
+        // chronological order
+        for (int i = first, j = result.size() - 1; i < j; i++, j--) {
+            result.set(i, result.set(j, result.get(i)));
+        }
+    }
+
+    private ArchivedTelegram read(int position, int length) {
+        short rssi = buffer.getShort(position + RSSI_OFFSET);
+        boolean wired = (buffer.get(position + FLAGS_OFFSET) & FLAG_WIRED) != 0;
+
+        ByteBuffer frame = buffer.duplicate();
+        frame.position(position + HEADER_SIZE);
+        frame.limit(position + HEADER_SIZE + length);
+
+        return new ArchivedTelegram(buffer.getLong(position + TIMESTAMP_OFFSET),
+                buffer.getLong(position + ADDRESS_OFFSET), rssi == NO_RSSI ? null : (int) rssi, wired,
+                frame.slice().asReadOnlyBuffer());
+    }
+
+    boolean overlaps(long from, long to) {
+        return end > 0 && firstTimestamp <= to && lastTimestamp >= from;
+    }
+
+    boolean isEmpty() {
+        return end == 0;
+    }
+
+    void force() {
+        buffer.force();
+    }
+
+    void delete() throws IOException {
+        Files.deleteIfExists(path);
+    }
+
+    long getSequence() {
+        return sequence;
+    }
+
+    long getLastTimestamp() {
+        return lastTimestamp;
+    }
+
+    int getEnd() {
+        return end;
+    }
+
+}
@@ -0,0 +1,346 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus.archive;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openmuc.jmbus.SecondaryAddress;
+import org.openmuc.jmbus.wireless.WMBusMessage;
+
+/**
+ * Append only archive of raw wired and wireless M-Bus frames.
+ * <p>
+ * The frames are appended with timestamp, RSSI and packed secondary address to memory mapped segment files of fixed
+ * size. A new segment is started when the current one is full, segments older than the retention time are deleted.
+ * Each segment keeps a sparse time index and a per address index, so a range scan reads only the records of the
+ * range. The scanned frames are read only views of the mapped files.
+ * </p>
+ * <p>
+ * Frames are appended by one thread at a time and their timestamps must not decrease. Scans may run concurrently with
+ * appends and see all frames appended before the scan started.
+ * </p>
+ *
+ * <pre>
+ * TelegramArchive archive = new TelegramArchive.ArchiveBuilder(Paths.get("archive")).setRetention(30, TimeUnit.DAYS)
+ *         .build();
+ * archive.append(wmBusMessage);
+ * List&lt;ArchivedTelegram&gt; telegrams = archive.scan(address.asWMBusLlHeaderLong(), from, to);
+ * </pre>
+ */
+public class TelegramArchive implements Closeable {
+
+    private static final String SEGMENT_PREFIX = "telegrams-";
+    private static final String SEGMENT_SUFFIX = ".seg";
+
+    private final Path directory;
+    private final int segmentSize;
+    private final long retentionMillis;
+
+    private final CopyOnWriteArrayList<Segment> segments = new CopyOnWriteArrayList<>();
+    private Segment activeSegment;
+    private long nextSequence;
+    private long lastTimestamp = Long.MIN_VALUE;
+    private volatile boolean closed;
+
+    /**
+     * Builder of a telegram archive.
+     */
+    public static class ArchiveBuilder {
+
+        private final Path directory;
+        private int segmentSize = 64 * 1024 * 1024;
+        private long retentionMillis = Long.MAX_VALUE;
+
+        /**
+         * Creates a builder for an archive in the given directory. Segments already in the directory are opened.
+         *
+         * @param directory
+         *            the directory of the segment files, created if it does not exist.
+         */
+        public ArchiveBuilder(Path directory) {
+            this.directory = directory;
+        }
+
+        /**
+         * Sets the size of new segment files. Default is 64 MiB.
+         *
+         * @param segmentSize
+         *            the size in bytes.
+         * @return the builder.
+         */
+        public ArchiveBuilder setSegmentSize(int segmentSize) {
+            if (segmentSize < Segment.INDEX_INTERVAL) {
+                throw new IllegalArgumentException("Segment size must be at least " + Segment.INDEX_INTERVAL + ".");
+            }
+            this.segmentSize = segmentSize;
+            return this;
+        }
+
+        /**
+         * Sets the time segments are kept. A segment is deleted when its newest frame is older than the retention time,
+         * measured from the newest archived frame. By default segments are kept forever.
+         *
+         * @param retention
+         *            the retention time.
+         * @param unit
+         *            the unit of the retention time.
+         * @return the builder.
+         */
+        public ArchiveBuilder setRetention(long retention, TimeUnit unit) {
+            if (retention <= 0) {
+                throw new IllegalArgumentException("Retention must be positive.");
+            }
+            this.retentionMillis = unit.toMillis(retention);
+            return this;
+        }
+
+        /**
+         * Opens the archive.
+         *
+         * @return the archive.
+         * @throws IOException
+         *             if the directory or a segment could not be opened.
+         */
+        public TelegramArchive build() throws IOException {
+            TelegramArchive archive = new TelegramArchive(directory, segmentSize, retentionMillis);
+            archive.open();
+            return archive;
+        }
+    }
+
+    private TelegramArchive(Path directory, int segmentSize, long retentionMillis) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.retentionMillis = retentionMillis;
+    }
+
+    private void open() throws IOException {
+        Files.createDirectories(directory);
+
+        List<Path> paths = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory,
+                SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path path : stream) {
+                paths.add(path);
+            }
+        }
+        Collections.sort(paths);
+
+        for (Path path : paths) {
+            Segment segment = Segment.open(path, sequenceOf(path));
+            segments.add(segment);
+            nextSequence = segment.getSequence() + 1;
+            if (!segment.isEmpty()) {
+                lastTimestamp = segment.getLastTimestamp();
+            }
+        }
+        if (!segments.isEmpty()) {
+            activeSegment = segments.get(segments.size() - 1);
+        }
+    }
+
+    /**
+     * Appends a received wireless M-Bus message with the current time. If the clock was set back, the time of the last
+     * appended frame is used instead.
+     *
+     * @param message
+     *            the message.
+     * @throws IOException
+     *             if a new segment could not be created.
+     */
+    public void append(WMBusMessage message) throws IOException {
+        byte[] frame = message.asBlob();
+        appendNow(message.getSecondaryAddress().asWMBusLlHeaderLong(), message.getRssi(), false, frame, 0,
+                frame.length);
+    }
+
+    /**
+     * Appends a wired M-Bus RSP_UD frame with the current time. If the clock was set back, the time of the last
+     * appended frame is used instead.
+     *
+     * @param address
+     *            the secondary address of the meter.
+     * @param frame
+     *            the buffer holding the frame.
+     * @param offset
+     *            the offset of the frame.
+     * @param length
+     *            the length of the frame.
+     * @throws IOException
+     *             if a new segment could not be created.
+     */
+    public void appendWired(SecondaryAddress address, byte[] frame, int offset, int length) throws IOException {
+        appendNow(address.asWMBusLlHeaderLong(), null, true, frame, offset, length);
+    }
+
+    /*
+     * A step of the system clock back, e.g. by NTP, must not fail the receiving thread.
+     */
+    private synchronized void appendNow(long address, Integer rssi, boolean wired, byte[] frame, int offset,
+            int length) throws IOException {
+        append(Math.max(System.currentTimeMillis(), lastTimestamp), address, rssi, wired, frame, offset, length);
+    }
+
+    /**
+     * Appends a frame.
+     *
+     * @param timestamp
+     *            the time of the reception in milliseconds since the epoch, must not be before the last appended one.
+     * @param address
+     *            the packed secondary address in link layer order.
+     * @param rssi
+     *            the RSSI in dBm or <code>null</code>.
+     * @param wired
+     *            <code>true</code> for a wired, <code>false</code> for a wireless frame.
+     * @param frame
+     *            the buffer holding the frame.
+     * @param offset
+     *            the offset of the frame.
+     * @param length
+     *            the length of the frame.
+     * @throws IOException
+     *             if a new segment could not be created.
+     * @see SecondaryAddress#asWMBusLlHeaderLong()
+     */
+    public synchronized void append(long timestamp, long address, Integer rssi, boolean wired, byte[] frame,
+            int offset, int length) throws IOException {
+        if (closed) {
+            throw new IOException("Archive is closed.");
+        }
+        if (length <= 0 || Segment.recordSize(length) > segmentSize) {
+            throw new IllegalArgumentException("Invalid frame length: " + length);
+        }
+        if (timestamp < lastTimestamp) {
+            throw new IllegalArgumentException("Timestamp " + timestamp + " is before the last one " + lastTimestamp);
+        }
+
+        if (activeSegment == null || !activeSegment.hasSpace(length)) {
+            roll();
+        }
+
+        activeSegment.append(timestamp, address, rssi, wired, frame, offset, length);
+        lastTimestamp = timestamp;
+    }
+
+    /**
+     * Returns the frames archived within a time range, in the order they were appended.
+     *
+     * @param from
+     *            the start of the range in milliseconds since the epoch, inclusive.
+     * @param to
+     *            the end of the range in milliseconds since the epoch, inclusive.
+     * @return the frames.
+     */
+    public List<ArchivedTelegram> scan(long from, long to) {
+        List<ArchivedTelegram> result = new ArrayList<>();
+        for (Segment segment : segments) {
+            if (segment.overlaps(from, to)) {
+                segment.scan(from, to, result);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the frames of one meter archived within a time range, in the order they were appended.
+     *
+     * @param address
+     *            the packed secondary address in link layer order.
+     * @param from
+     *            the start of the range in milliseconds since the epoch, inclusive.
+     * @param to
+     *            the end of the range in milliseconds since the epoch, inclusive.
+     * @return the frames.
+     * @see SecondaryAddress#asWMBusLlHeaderLong()
+     */
+    public List<ArchivedTelegram> scan(long address, long from, long to) {
+        List<ArchivedTelegram> result = new ArrayList<>();
+        for (Segment segment : segments) {
+            if (segment.overlaps(from, to)) {
+                segment.scan(address, from, to, result);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Deletes the segments whose newest frame is older than the retention time. Called whenever a new segment is
+     * started.
+     *
+     * @throws IOException
+     *             if a segment could not be deleted.
+     */
+    public synchronized void applyRetention() throws IOException {
+        if (retentionMillis == Long.MAX_VALUE || lastTimestamp == Long.MIN_VALUE) {
+            return;
+        }
+
+        long limit = lastTimestamp - retentionMillis;
+        for (Segment segment : segments) {
+            if (segment != activeSegment && (segment.isEmpty() || segment.getLastTimestamp() < limit)) {
+                segments.remove(segment);
+                segment.delete();
+            }
+        }
+    }
+
+    /**
+     * Writes the appended frames to the storage device.
+     */
+    public synchronized void flush() {
+        if (activeSegment != null) {
+            activeSegment.force();
+        }
+    }
+
+    /**
+     * Returns the number of segment files.
+     *
+     * @return the number of segments.
+     */
+    public int getNumberOfSegments() {
+        return segments.size();
+    }
+
+    /**
+     * Flushes and closes the archive. Views returned by scans stay readable.
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        flush();
+        closed = true;
+    }
+
+    private void roll() throws IOException {
+        if (activeSegment != null) {
+            activeSegment.force();
+        }
+
+        Path path = directory.resolve(String.format("%s%019d%s", SEGMENT_PREFIX, nextSequence, SEGMENT_SUFFIX));
+        activeSegment = Segment.create(path, nextSequence++, segmentSize);
+        segments.add(activeSegment);
+
+        applyRetention();
+    }
+
+    private static long sequenceOf(Path path) {
+        String name = path.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+}
@@ -0,0 +1,11 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+/**
+ * This package contains an append only archive of raw wired and wireless M-Bus frames.
+ * 
+ * @see org.openmuc.jmbus.archive.TelegramArchive
+ */
+package org.openmuc.jmbus.archive;
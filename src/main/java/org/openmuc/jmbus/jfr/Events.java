@@ -0,0 +1,159 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus.jfr;
+
+import org.openmuc.jmbus.EncryptionMode;
+
+/**
+ * Emits the JDK Flight Recorder events of jmbus. Used by the connections and the variable data structure.
+ * <p>
+ * This is the Java 8 version, which records nothing. The Java 11 version in <code>META-INF/versions/11</code> of the
+ * jar records the events if they are enabled in the running recording. The <code>begin</code> methods return
+ * <code>null</code> if the event is disabled, callers skip everything else in that case:
+ * </p>
+ *
+ * <pre>
+ * Object event = Events.beginDecode();
+ * ...
+ * if (event != null) {
+ *     Events.endDecode(event, ciField, encryptionMode, dataRecords, success);
+ * }
+ * </pre>
+ */
+public final class Events {
+
+    private Events() {
+    }
+
+    /**
+     * Starts a wired request and response round trip.
+     *
+     * @return the event or <code>null</code> if disabled.
+     */
+    public static Object beginRoundTrip() {
+        return null;
+    }
+
+    /**
+     * Commits a wired round trip.
+     *
+     * @param event
+     *            the event returned by {@link #beginRoundTrip()}.
+     * @param primaryAddress
+     *            the primary address of the request.
+     * @param controlField
+     *            the C-field of the request.
+     * @param ciField
+     *            the CI-field of the request, -1 for short frames.
+     * @param bytesSent
+     *            the length of the request.
+     * @param bytesReceived
+     *            the number of bytes of the response.
+     * @param outcome
+     *            OK, TIMEOUT, PARTIAL, COLLISION or DECODING_FAILED.
+     */
+    public static void endRoundTrip(Object event, int primaryAddress, int controlField, int ciField, int bytesSent,
+            int bytesReceived, String outcome) {
+    }
+
+    /**
+     * Checks if the reception of wireless frames is recorded.
+     *
+     * @return <code>true</code> if enabled.
+     */
+    public static boolean isFrameReceptionEnabled() {
+        return false;
+    }
+
+    /**
+     * Commits the reception of a wireless frame when it is passed to the listener.
+     *
+     * @param vendor
+     *            the manufacturer of the stick.
+     * @param length
+     *            the length of the frame.
+     * @param signalStrengthInDBm
+     *            the RSSI of the frame, may be <code>null</code>.
+     * @param queueWaitNanos
+     *            the time from the reception until the listener was called.
+     */
+    public static void frameReceived(String vendor, int length, Integer signalStrengthInDBm, long queueWaitNanos) {
+    }
+
+    /**
+     * Starts the decoding of a variable data structure.
+     *
+     * @return the event or <code>null</code> if disabled.
+     */
+    public static Object beginDecode() {
+        return null;
+    }
+
+    /**
+     * Commits the decoding of a variable data structure.
+     *
+     * @param event
+     *            the event returned by {@link #beginDecode()}.
+     * @param ciField
+     *            the CI-field, -1 if missing.
+     * @param encryptionMode
+     *            the encryption mode, <code>null</code> if the header could not be decoded.
+     * @param dataRecords
+     *            the number of decoded data records.
+     * @param success
+     *            <code>false</code> if the decoding failed.
+     */
+    public static void endDecode(Object event, int ciField, EncryptionMode encryptionMode, int dataRecords,
+            boolean success) {
+    }
+
+    /**
+     * Starts the decryption of a variable data structure.
+     *
+     * @return the event or <code>null</code> if disabled.
+     */
+    public static Object beginDecrypt() {
+        return null;
+    }
+
+    /**
+     * Commits the decryption of a variable data structure.
+     *
+     * @param event
+     *            the event returned by {@link #beginDecrypt()}.
+     * @param encryptionMode
+     *            the encryption mode.
+     * @param length
+     *            the number of encrypted bytes.
+     * @param success
+     *            <code>false</code> if the key is missing or wrong.
+     */
+    public static void endDecrypt(Object event, EncryptionMode encryptionMode, int length, boolean success) {
+    }
+
+    /**
+     * Starts a step of a secondary address scan.
+     *
+     * @return the event or <code>null</code> if disabled.
+     */
+    public static Object beginScanStep() {
+        return null;
+    }
+
+    /**
+     * Commits a step of a secondary address scan.
+     *
+     * @param event
+     *            the event returned by {@link #beginScanStep()}.
+     * @param wildcard
+     *            the selected wildcard address as hex string.
+     * @param outcome
+     *            NONE, FOUND, COLLISION, TIMEOUT or UNDECODABLE.
+     */
+    public static void endScanStep(Object event, String wildcard, String outcome) {
+    }
+
+}
@@ -0,0 +1,12 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+/**
+ * This package contains the JDK Flight Recorder events of the connections and of the decoding. The events are only
+ * recorded on Java 11 or newer, the jar is a multi-release jar with a Java 8 version which records nothing.
+ * 
+ * @see org.openmuc.jmbus.jfr.Events
+ */
+package org.openmuc.jmbus.jfr;
@@ -102,6 +102,14 @@ public abstract class SerialBuilder<T, S extends SerialBuilder<T, S>> extends Bu
         return self();
     }
 
+    protected String getSerialPortName() {
+        return serialPortName;
+    }
+
+    protected int getBaudrate() {
+        return baudrate;
+    }
+
     @Override
     protected TransportLayer buildTransportLayer() {
         SerialPortBuilder serialPortBuilder = SerialPortBuilder.newBuilder(serialPortName)
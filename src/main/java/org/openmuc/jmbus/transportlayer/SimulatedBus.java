@@ -0,0 +1,298 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus.transportlayer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openmuc.jmbus.Bcd;
+import org.openmuc.jmbus.DeviceType;
+import org.openmuc.jmbus.SecondaryAddress;
+
+/**
+ * In memory wired M-Bus with simulated slaves, e.g. to test or benchmark polling and scanning without hardware.
+ * <p>
+ * The slaves answer SND_NKE, REQ_UD2, the selection and deselection by secondary address including wildcards, the
+ * application reset and the selection for readout. Requests are addressed by primary address, to the selected slaves
+ * (0xFD) or to all slaves (0xFE, 0xFF without answer). If several slaves answer, their answers collide: identical
+ * answers, e.g. the single character 0xE5, are received once, bytes in which the answers differ are lost by framing
+ * errors.
+ * </p>
+ * <p>
+ * The answers are delayed by the response latency and arrive with the byte timing of the baud rate (11 bits per byte).
+ * </p>
+ *
+ * <pre>
+ * SimulatedBus bus = new SimulatedBus().setBaudrate(9600);
+ * bus.addSlaves(300, 10000000, "ABC", DeviceType.WATER_METER, dataRecords);
+ * MBusConnection connection = MBusConnection.newSimulatedBuilder(bus).setTimeout(100).build();
+ * </pre>
+ */
+public class SimulatedBus {
+
+    static final int SINGLE_CHARACTER = 0xE5;
+
+    private static final int ADDRESS_SELECTED = 0xFD;
+    private static final int ADDRESS_BROADCAST = 0xFE;
+    private static final int ADDRESS_BROADCAST_NO_REPLY = 0xFF;
+
+    private static final int C_SND_NKE = 0x40;
+    private static final int C_REQ_UD2 = 0x4B;
+    private static final int C_SND_UD = 0x43;
+
+    private static final int CI_APPLICATION_RESET = 0x50;
+    private static final int CI_DATA_SEND = 0x51;
+    private static final int CI_SELECTION = 0x52;
+    private static final int CI_DESELECTION = 0x56;
+
+    private final List<SimulatedSlave> slaves = new CopyOnWriteArrayList<>();
+    private volatile int baudrate = 2400;
+    private volatile long responseLatencyNanos = TimeUnit.MILLISECONDS.toNanos(10);
+
+    /**
+     * Sets the baud rate the bytes are transmitted with. Default is 2400, 0 transmits without delay.
+     *
+     * @param baudrate
+     *            the baud rate.
+     * @return the bus.
+     */
+    public SimulatedBus setBaudrate(int baudrate) {
+        if (baudrate < 0) {
+            throw new IllegalArgumentException("Baud rate must not be negative.");
+        }
+        this.baudrate = baudrate;
+        return this;
+    }
+
+    /**
+     * Returns the baud rate the bytes are transmitted with.
+     *
+     * @return the baud rate, 0 if the bytes are transmitted without delay.
+     */
+    public int getBaudrate() {
+        return baudrate;
+    }
+
+    /**
+     * Sets the time between the end of a request and the first byte of the answer. Default is 10 ms.
+     *
+     * @param latency
+     *            the latency.
+     * @param unit
+     *            the unit of the latency.
+     * @return the bus.
+     */
+    public SimulatedBus setResponseLatency(long latency, TimeUnit unit) {
+        if (latency < 0) {
+            throw new IllegalArgumentException("Latency must not be negative.");
+        }
+        this.responseLatencyNanos = unit.toNanos(latency);
+        return this;
+    }
+
+    /**
+     * Connects a slave to the bus.
+     *
+     * @param slave
+     *            the slave.
+     * @return the bus.
+     */
+    public SimulatedBus addSlave(SimulatedSlave slave) {
+        slaves.add(slave);
+        return this;
+    }
+
+    /**
+     * Connects slaves with consecutive identification numbers. The first 250 slaves get the primary addresses 1 to
+     * 250, the others 0.
+     *
+     * @param count
+     *            the number of slaves.
+     * @param firstIdentificationNumber
+     *            the identification number of the first slave.
+     * @param manufacturerId
+     *            the manufacturer ID of the slaves.
+     * @param deviceType
+     *            the device type of the slaves.
+     * @param dataRecords
+     *            the template of the data records of the RSP_UD.
+     * @return the bus.
+     */
+    public SimulatedBus addSlaves(int count, int firstIdentificationNumber, String manufacturerId,
+            DeviceType deviceType, byte[] dataRecords) {
+        for (int i = 0; i < count; i++) {
+            SecondaryAddress secondaryAddress = SecondaryAddress.from(Bcd.from(firstIdentificationNumber + i),
+                    manufacturerId, 1, deviceType);
+            addSlave(new SimulatedSlave(i < 250 ? i + 1 : 0, secondaryAddress, dataRecords));
+        }
+        return this;
+    }
+
+    /**
+     * Disconnects a slave from the bus.
+     *
+     * @param slave
+     *            the slave.
+     */
+    public void removeSlave(SimulatedSlave slave) {
+        slaves.remove(slave);
+    }
+
+    /**
+     * Returns the slaves connected to the bus.
+     *
+     * @return the slaves.
+     */
+    public List<SimulatedSlave> getSlaves() {
+        return Collections.unmodifiableList(slaves);
+    }
+
+    long getResponseLatencyNanos() {
+        return responseLatencyNanos;
+    }
+
+    /**
+     * Returns the time to transmit a byte, 0 if the bytes are transmitted without delay.
+     */
+    long getByteNanos() {
+        int baudrate = this.baudrate;
+        return baudrate == 0 ? 0 : 11 * 1000000000L / baudrate;
+    }
+
+    /**
+     * Passes a frame of the master to the slaves.
+     *
+     * @param frame
+     *            the buffer holding a complete short or long frame.
+     * @param offset
+     *            the offset of the frame.
+     * @return the bytes the master receives, empty if no slave answers.
+     */
+    byte[] transmit(byte[] frame, int offset) {
+        List<byte[]> answers = new ArrayList<>(1);
+
+        if ((frame[offset] & 0xff) == 0x10) {
+            int controlField = frame[offset + 1] & 0xff;
+            int address = frame[offset + 2] & 0xff;
+            for (SimulatedSlave slave : slaves) {
+                if (isAddressed(slave, address)) {
+                    shortFrame(slave, controlField, address, answers);
+                }
+            }
+        }
+        else {
+            int controlField = frame[offset + 4] & 0xff;
+            int address = frame[offset + 5] & 0xff;
+            int ci = frame[offset + 6] & 0xff;
+            int dataLength = (frame[offset + 1] & 0xff) - 3;
+            for (SimulatedSlave slave : slaves) {
+                longFrame(slave, controlField, address, ci, frame, offset + 7, dataLength, answers);
+            }
+        }
+
+        if (address(frame, offset) == ADDRESS_BROADCAST_NO_REPLY) {
+            return new byte[0];
+        }
+        return collide(answers);
+    }
+
+    private static int address(byte[] frame, int offset) {
+        return frame[offset + ((frame[offset] & 0xff) == 0x10 ? 2 : 5)] & 0xff;
+    }
+
+    private static boolean isAddressed(SimulatedSlave slave, int address) {
+        switch (address) {
+        case ADDRESS_SELECTED:
+            return slave.isSelected();
+        case ADDRESS_BROADCAST:
+        case ADDRESS_BROADCAST_NO_REPLY:
+            return true;
+        default:
+            return slave.getPrimaryAddress() == address;
+        }
+    }
+
+    private static void shortFrame(SimulatedSlave slave, int controlField, int address, List<byte[]> answers) {
+        if (controlField == C_SND_NKE) {
+            slave.resetLink();
+            if (address == ADDRESS_BROADCAST_NO_REPLY) {
+                slave.setSelected(false);
+            }
+            answers.add(new byte[] { (byte) SINGLE_CHARACTER });
+        }
+        else if ((controlField & 0xCF) == C_REQ_UD2) {
+            answers.add(slave.requestUserData(controlField));
+        }
+    }
+
+    private static void longFrame(SimulatedSlave slave, int controlField, int address, int ci, byte[] frame,
+            int dataOffset, int dataLength, List<byte[]> answers) {
+        if ((controlField & 0xCF) != C_SND_UD) {
+            return;
+        }
+
+        if (address == ADDRESS_SELECTED && (ci == CI_SELECTION || ci == CI_DESELECTION) && dataLength >= 8) {
+            boolean matches = slave.matches(frame, dataOffset);
+            if (ci == CI_SELECTION) {
+                slave.setSelected(matches);
+            }
+            else if (matches) {
+                slave.setSelected(false);
+            }
+            if (matches) {
+                answers.add(new byte[] { (byte) SINGLE_CHARACTER });
+            }
+        }
+        else if ((ci == CI_APPLICATION_RESET || ci == CI_DATA_SEND) && isAddressed(slave, address)) {
+            answers.add(new byte[] { (byte) SINGLE_CHARACTER });
+        }
+    }
+
+    /*
+     * Superimposes the answers, bytes in which they differ are lost.
+     */
+    private static byte[] collide(List<byte[]> answers) {
+        if (answers.isEmpty()) {
+            return new byte[0];
+        }
+        byte[] first = answers.get(0);
+        boolean identical = true;
+        int maxLength = 0;
+        for (byte[] answer : answers) {
+            identical &= Arrays.equals(first, answer);
+            maxLength = Math.max(maxLength, answer.length);
+        }
+        if (identical) {
+            return first;
+        }
+
+        byte[] received = new byte[maxLength];
+        int length = 0;
+        for (int i = 0; i < maxLength; i++) {
+            int value = -1;
+            boolean collision = false;
+            for (byte[] answer : answers) {
+                if (i < answer.length) {
+                    if (value == -1) {
+                        value = answer[i] & 0xff;
+                    }
+                    else if (value != (answer[i] & 0xff)) {
+                        collision = true;
+                    }
+                }
+            }
+            if (!collision) {
+                received[length++] = (byte) value;
+            }
+        }
+        return Arrays.copyOf(received, length);
+    }
+
+}
@@ -0,0 +1,33 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus.transportlayer;
+
+/**
+ * Connection builder for connections to a {@link SimulatedBus}.
+ */
+public abstract class SimulatedBusBuilder<T, S extends SimulatedBusBuilder<T, S>> extends Builder<T, S> {
+
+    private final SimulatedBus bus;
+
+    /**
+     * Constructor of the simulated bus builder.
+     * 
+     * @param bus
+     *            the bus to connect to.
+     */
+    protected SimulatedBusBuilder(SimulatedBus bus) {
+        this.bus = bus;
+    }
+
+    protected SimulatedBus getBus() {
+        return bus;
+    }
+
+    @Override
+    protected TransportLayer buildTransportLayer() {
+        return new SimulatedBusLayer(bus, getTimeout());
+    }
+}
@@ -0,0 +1,279 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus.transportlayer;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+
+/**
+ * Transport layer of a master connected to a {@link SimulatedBus}.
+ * <p>
+ * Complete frames written by the master are passed to the slaves, the answers become readable byte by byte according
+ * to the timing of the bus.
+ * </p>
+ */
+class SimulatedBusLayer implements TransportLayer {
+
+    private static final int MAX_FRAME_LENGTH = 255 + 6;
+
+    private final SimulatedBus bus;
+    private volatile int timeout;
+    private volatile boolean closed = true;
+
+    private final DataInputStream is = new DataInputStream(new BusInputStream());
+    private final DataOutputStream os = new DataOutputStream(new BusOutputStream());
+
+    private final byte[] request = new byte[MAX_FRAME_LENGTH];
+    private int requestLength;
+
+    private final ArrayDeque<Answer> answers = new ArrayDeque<>();
+    private long busIdleNanos;
+
+    private static class Answer {
+        final byte[] bytes;
+        final long firstByteNanos;
+        final long byteNanos;
+        int position;
+
+        Answer(byte[] bytes, long firstByteNanos, long byteNanos) {
+            this.bytes = bytes;
+            this.firstByteNanos = firstByteNanos;
+            this.byteNanos = byteNanos;
+        }
+
+        /**
+         * Returns the number of bytes received until the given time which have not been read.
+         */
+        int available(long now) {
+            if (now < firstByteNanos) {
+                return 0;
+            }
+            long received = byteNanos == 0 ? bytes.length : (now - firstByteNanos) / byteNanos + 1;
+            return (int) Math.min(bytes.length, received) - position;
+        }
+
+        long nextByteNanos() {
+            return firstByteNanos + position * byteNanos;
+        }
+    }
+
+    SimulatedBusLayer(SimulatedBus bus, int timeout) {
+        this.bus = bus;
+        this.timeout = timeout;
+    }
+
+    @Override
+    public void open() {
+        closed = false;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+    }
+
+    @Override
+    public DataOutputStream getOutputStream() {
+        return os;
+    }
+
+    @Override
+    public DataInputStream getInputStream() {
+        return is;
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closed;
+    }
+
+    @Override
+    public void setTimeout(int timeout) {
+        this.timeout = timeout;
+    }
+
+    @Override
+    public int getTimeout() {
+        return timeout;
+    }
+
+    /*
+     * Called with the lock held for every written byte.
+     */
+    private void requestByte(int b) {
+        if (requestLength == 0 && b != 0x10 && b != 0x68) {
+            // noise, no slave would answer
+            return;
+        }
+        request[requestLength++] = (byte) b;
+
+        int frameLength = frameLength();
+        if (frameLength < 0 || requestLength < frameLength) {
+            return;
+        }
+
+        if (isValid(frameLength)) {
+            long byteNanos = bus.getByteNanos();
+            long now = System.nanoTime();
+            long requestEndNanos = Math.max(now, busIdleNanos) + frameLength * byteNanos;
+
+            byte[] answer = bus.transmit(request, 0);
+            if (answer.length > 0) {
+                long firstByteNanos = requestEndNanos + bus.getResponseLatencyNanos();
+                answers.add(new Answer(answer, firstByteNanos, byteNanos));
+                busIdleNanos = firstByteNanos + answer.length * byteNanos;
+            }
+            else {
+                busIdleNanos = requestEndNanos;
+            }
+        }
+        requestLength = 0;
+    }
+
+    /**
+     * Returns the length of the frame in the request buffer, -1 if not yet known.
+     */
+    private int frameLength() {
+        if ((request[0] & 0xff) == 0x10) {
+            return 5;
+        }
+        if (requestLength < 2) {
+            return -1;
+        }
+        return (request[1] & 0xff) + 6;
+    }
+
+    private boolean isValid(int frameLength) {
+        int checksumOffset = frameLength - 2;
+        int start = frameLength == 5 ? 1 : 4;
+        if (frameLength != 5 && (request[2] != request[1] || (request[3] & 0xff) != 0x68)) {
+            return false;
+        }
+
+        int checksum = 0;
+        for (int i = start; i < checksumOffset; i++) {
+            checksum += request[i];
+        }
+        return request[checksumOffset] == (byte) checksum && (request[frameLength - 1] & 0xff) == 0x16;
+    }
+
+    private int available(long now) {
+        int available = 0;
+        for (Answer answer : answers) {
+            int n = answer.available(now);
+            if (n <= 0) {
+                break;
+            }
+            available += n;
+        }
+        return available;
+    }
+
+    private class BusOutputStream extends OutputStream {
+
+        @Override
+        public void write(int b) throws IOException {
+            synchronized (SimulatedBusLayer.this) {
+                requestByte(b & 0xff);
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            synchronized (SimulatedBusLayer.this) {
+                for (int i = off; i < off + len; i++) {
+                    requestByte(b[i] & 0xff);
+                }
+            }
+        }
+
+    }
+
+    private class BusInputStream extends InputStream {
+
+        @Override
+        public int available() {
+            synchronized (SimulatedBusLayer.this) {
+                return SimulatedBusLayer.this.available(System.nanoTime());
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+        }
+
+        /*
+         * Waits up to the timeout for the first byte, then returns the bytes received so far.
+         */
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+
+            int timeout = SimulatedBusLayer.this.timeout;
+            long deadline = System.nanoTime() + timeout * 1000000L;
+            while (true) {
+                long now = System.nanoTime();
+                long waitNanos;
+                synchronized (SimulatedBusLayer.this) {
+                    if (closed) {
+                        throw new IOException("Transport layer is closed.");
+                    }
+                    if (SimulatedBusLayer.this.available(now) > 0) {
+                        return take(b, off, len, now);
+                    }
+                    Answer next = answers.peek();
+                    waitNanos = next == null ? Long.MAX_VALUE : next.nextByteNanos() - now;
+                }
+
+                if (timeout > 0) {
+                    if (now >= deadline) {
+                        throw new InterruptedIOException("Timeout.");
+                    }
+                    waitNanos = Math.min(waitNanos, deadline - now);
+                }
+                sleep(Math.min(waitNanos, 10000000L));
+            }
+        }
+
+        private int take(byte[] b, int off, int len, long now) {
+            int n = 0;
+            while (n < len && !answers.isEmpty()) {
+                Answer answer = answers.peek();
+                int count = Math.min(len - n, answer.available(now));
+                if (count <= 0) {
+                    break;
+                }
+                System.arraycopy(answer.bytes, answer.position, b, off + n, count);
+                answer.position += count;
+                n += count;
+                if (answer.position == answer.bytes.length) {
+                    answers.poll();
+                }
+            }
+            return n;
+        }
+
+        private void sleep(long nanos) throws InterruptedIOException {
+            try {
+                Thread.sleep(nanos / 1000000L, (int) (nanos % 1000000L));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted.");
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,174 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus.transportlayer;
+
+import org.openmuc.jmbus.SecondaryAddress;
+
+/**
+ * A meter on a {@link SimulatedBus}.
+ * <p>
+ * The slave answers a REQ_UD2 with an RSP_UD built from its secondary address and a template of data records. The
+ * access number is incremented with every new response, a REQ_UD2 with unchanged frame count bit gets the last
+ * response again.
+ * </p>
+ */
+public class SimulatedSlave {
+
+    private static final int CI_RSP_UD_LONG_HEADER = 0x72;
+    private static final int C_RSP_UD = 0x08;
+
+    private final int primaryAddress;
+    private final SecondaryAddress secondaryAddress;
+    private final byte[] address;
+    private volatile byte[] dataRecords;
+
+    private boolean selected;
+    private int accessNumber;
+    private int lastFrameCountBit = -1;
+    private byte[] lastResponse;
+
+    /**
+     * Creates a slave.
+     *
+     * @param primaryAddress
+     *            the primary address between 0 and 250.
+     * @param secondaryAddress
+     *            the secondary address.
+     * @param dataRecords
+     *            the data records of the RSP_UD, without the header.
+     */
+    public SimulatedSlave(int primaryAddress, SecondaryAddress secondaryAddress, byte[] dataRecords) {
+        if (primaryAddress < 0 || primaryAddress > 250) {
+            throw new IllegalArgumentException("Primary address must be between 0 and 250.");
+        }
+        this.primaryAddress = primaryAddress;
+        this.secondaryAddress = secondaryAddress;
+        this.address = longHeaderBytes(secondaryAddress);
+        setDataRecords(dataRecords);
+    }
+
+    public int getPrimaryAddress() {
+        return primaryAddress;
+    }
+
+    public SecondaryAddress getSecondaryAddress() {
+        return secondaryAddress;
+    }
+
+    /**
+     * Replaces the data records of the following responses.
+     *
+     * @param dataRecords
+     *            the data records of the RSP_UD, without the header.
+     */
+    public void setDataRecords(byte[] dataRecords) {
+        if (dataRecords.length > 255 - 15) {
+            throw new IllegalArgumentException("Data records do not fit into an RSP_UD.");
+        }
+        this.dataRecords = dataRecords.clone();
+    }
+
+    /**
+     * Checks if the slave is selected for secondary addressing.
+     *
+     * @return <code>true</code> if selected.
+     */
+    public synchronized boolean isSelected() {
+        return selected;
+    }
+
+    synchronized void setSelected(boolean selected) {
+        this.selected = selected;
+    }
+
+    /**
+     * Checks the address of a selection. Nibbles of the identification number and bytes of the other fields which are
+     * 0xF, respectively 0xFF, are wildcards.
+     */
+    boolean matches(byte[] selection, int offset) {
+        for (int i = 0; i < 4; i++) {
+            int wanted = selection[offset + i] & 0xff;
+            int actual = address[i] & 0xff;
+            if ((wanted & 0x0f) != 0x0f && (wanted & 0x0f) != (actual & 0x0f)) {
+                return false;
+            }
+            if ((wanted & 0xf0) != 0xf0 && (wanted & 0xf0) != (actual & 0xf0)) {
+                return false;
+            }
+        }
+
+        boolean anyManufacturer = selection[offset + 4] == (byte) 0xff && selection[offset + 5] == (byte) 0xff;
+        if (!anyManufacturer && (selection[offset + 4] != address[4] || selection[offset + 5] != address[5])) {
+            return false;
+        }
+        for (int i = 6; i < 8; i++) {
+            if (selection[offset + i] != (byte) 0xff && selection[offset + i] != address[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Resets the frame count bit after a SND_NKE.
+     */
+    synchronized void resetLink() {
+        lastFrameCountBit = -1;
+    }
+
+    /**
+     * Answers a REQ_UD2.
+     */
+    synchronized byte[] requestUserData(int controlField) {
+        boolean frameCountValid = (controlField & 0x10) != 0;
+        int frameCountBit = (controlField >> 5) & 0x01;
+        if (frameCountValid && frameCountBit == lastFrameCountBit && lastResponse != null) {
+            return lastResponse;
+        }
+        lastFrameCountBit = frameCountValid ? frameCountBit : -1;
+
+        byte[] records = dataRecords;
+        int lField = 3 + 12 + records.length;
+        byte[] frame = new byte[lField + 6];
+        frame[0] = 0x68;
+        frame[1] = (byte) lField;
+        frame[2] = (byte) lField;
+        frame[3] = 0x68;
+        frame[4] = C_RSP_UD;
+        frame[5] = (byte) primaryAddress;
+        frame[6] = (byte) CI_RSP_UD_LONG_HEADER;
+        System.arraycopy(address, 0, frame, 7, address.length);
+        frame[15] = (byte) accessNumber++;
+        // status and signature are 0
+        System.arraycopy(records, 0, frame, 19, records.length);
+
+        int checksum = 0;
+        for (int i = 4; i < lField + 4; i++) {
+            checksum += frame[i];
+        }
+        frame[lField + 4] = (byte) checksum;
+        frame[lField + 5] = 0x16;
+
+        lastResponse = frame;
+        return frame;
+    }
+
+    /*
+     * Identification number, manufacturer, version, device type.
+     */
+    private static byte[] longHeaderBytes(SecondaryAddress secondaryAddress) {
+        byte[] bytes = secondaryAddress.asByteArray();
+        if (secondaryAddress.isLongHeader()) {
+            return bytes;
+        }
+        byte[] reordered = new byte[8];
+        System.arraycopy(bytes, 2, reordered, 0, 4);
+        System.arraycopy(bytes, 0, reordered, 4, 2);
+        System.arraycopy(bytes, 6, reordered, 6, 2);
+        return reordered;
+    }
+
+}
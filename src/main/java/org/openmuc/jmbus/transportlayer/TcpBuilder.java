@@ -52,6 +52,14 @@ public abstract class TcpBuilder<T, S extends TcpBuilder<T, S>> extends Builder<
         return self();
     }
 
+    protected String getHostAddress() {
+        return hostAddress;
+    }
+
+    protected int getPort() {
+        return port;
+    }
+
     @Override
     protected TransportLayer buildTransportLayer() {
         TcpLayer tcpTransportlayer = new TcpLayer(hostAddress, port, getTimeout());
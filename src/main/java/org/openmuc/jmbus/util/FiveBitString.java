@@ -6,6 +6,12 @@ public final class FiveBitString {
 
     private static final int START_OF_LETTERS = 'A' - 1;
 
+    /*
+     * Interned manufacturer IDs indexed by their 15 bit code, filled on first use. Racy but safe, strings are
+     * immutable.
+     */
+    private static final String[] MANUFACTURER_IDS = new String[1 << 15];
+
     private FiveBitString() {
     }
 
@@ -14,11 +20,30 @@ public final class FiveBitString {
     }
 
     public static String decodeManufacturerId(final byte[] buffer, final int offset) {
-        final int manufacturerIdAsInt = Byte.toUnsignedInt(buffer[offset]) + (buffer[offset + 1] << 8);
+        return decodeManufacturerId(Byte.toUnsignedInt(buffer[offset]) | (Byte.toUnsignedInt(buffer[offset + 1]) << 8));
+    }
+
+    /**
+     * Decodes a manufacturer ID. Returns the same string instance for the same code.
+     *
+     * @param manufacturerIdAsInt the two bytes of the manufacturer ID as little endian int
+     * @return the three letter manufacturer ID
+     */
+    public static String decodeManufacturerId(final int manufacturerIdAsInt) {
+        final int index = manufacturerIdAsInt & 0x7fff;
+        String manufacturerId = MANUFACTURER_IDS[index];
+        if (manufacturerId == null) {
+            manufacturerId = decode(index);
+            MANUFACTURER_IDS[index] = manufacturerId;
+        }
+        return manufacturerId;
+    }
+
+    private static String decode(final int manufacturerIdAsInt) {
         final char c2 = (char) (((manufacturerIdAsInt) & 0x1f) + START_OF_LETTERS);
         final char c1 = (char) (((manufacturerIdAsInt >>> 5) & 0x1f) + START_OF_LETTERS);
         final char c0 = (char) (((manufacturerIdAsInt >>> 10) & 0x1f) + START_OF_LETTERS);
-        return "" + c0 + c1 + c2;
+        return new String(new char[] { c0, c1, c2 });
     }
 
     public static byte[] encodeManufacturerIdString(final String manufactureId) {
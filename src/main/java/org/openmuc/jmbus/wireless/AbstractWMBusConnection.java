@@ -13,6 +13,8 @@ import java.util.HashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
+import org.openmuc.jmbus.LatestValueStore;
+import org.openmuc.jmbus.MBusMetrics;
 import org.openmuc.jmbus.SecondaryAddress;
 import org.openmuc.jmbus.transportlayer.TransportLayer;
 
@@ -23,6 +25,8 @@ abstract class AbstractWMBusConnection implements WMBusConnection {
     protected static final int BUFFER_LENGTH = 1000;
     protected static final int MESSAGE_FRAGEMENT_TIMEOUT = 1000;
 
+    static final int DEFAULT_DISPATCH_QUEUE_CAPACITY = 1024;
+
     private TransportLayer transportLayer;
 
     private final WMBusMode mode;
@@ -30,6 +34,20 @@ abstract class AbstractWMBusConnection implements WMBusConnection {
 
     final HashMap<SecondaryAddress, byte[]> keyMap = new HashMap<>();
 
+    private TelegramBufferPool bufferPool;
+    private int dispatchQueueCapacity = DEFAULT_DISPATCH_QUEUE_CAPACITY;
+    private DispatchPolicy dispatchPolicy = DispatchPolicy.BLOCK;
+    private volatile DispatchQueue dispatchQueue;
+    private int decodeWorkers;
+    private boolean orderedDelivery = true;
+    private int maxBatchSize = 1;
+    private long maxLingerMillis;
+    private TelegramDeduplicator deduplicator;
+    private volatile WMBusAddressFilter addressFilter;
+    private volatile long filteredMessages;
+    private LatestValueStore latestValueStore;
+    private MBusMetrics metrics = MBusMetrics.NO_OP;
+
     private volatile boolean closed;
     private final ExecutorService receiverService;
 
@@ -82,9 +100,133 @@ abstract class AbstractWMBusConnection implements WMBusConnection {
 
             throw e;
         }
+        this.dispatchQueue = new DispatchQueue(dispatchQueueCapacity, dispatchPolicy);
+        this.closed = false;
+
         this.receiverService.execute(newMessageReceiver(this.transportLayer, this.listener));
+    }
 
-        this.closed = false;
+    /**
+     * Enables pooled receive buffers. Has to be called before {@link #open()}.
+     */
+    void setBufferPool(TelegramBufferPool bufferPool) {
+        this.bufferPool = bufferPool;
+    }
+
+    TelegramBufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    /**
+     * Sets the capacity and the policy of the queue between receiver and listener. Has to be called before
+     * {@link #open()}.
+     */
+    void setDispatchQueue(int capacity, DispatchPolicy policy) {
+        this.dispatchQueueCapacity = capacity;
+        this.dispatchPolicy = policy;
+    }
+
+    /**
+     * Decodes the received messages on the given number of worker threads. Has to be called before {@link #open()}.
+     */
+    void setDecodeWorkers(int decodeWorkers, boolean orderedDelivery) {
+        this.decodeWorkers = decodeWorkers;
+        this.orderedDelivery = orderedDelivery;
+    }
+
+    int getDecodeWorkers() {
+        return decodeWorkers;
+    }
+
+    boolean isOrderedDelivery() {
+        return orderedDelivery;
+    }
+
+    /**
+     * Passes the messages in batches to a {@link WMBusBatchListener}. Has to be called before {@link #open()}.
+     */
+    void setBatching(int maxBatchSize, long maxLingerMillis) {
+        this.maxBatchSize = maxBatchSize;
+        this.maxLingerMillis = maxLingerMillis;
+    }
+
+    int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    long getMaxLingerMillis() {
+        return maxLingerMillis;
+    }
+
+    /**
+     * Drops repeated receptions of a telegram within the given window. Has to be called before {@link #open()}.
+     */
+    void setDeduplicationWindow(long windowMillis) {
+        this.deduplicator = windowMillis > 0 ? new TelegramDeduplicator(windowMillis) : null;
+    }
+
+    TelegramDeduplicator getDeduplicator() {
+        return deduplicator;
+    }
+
+    @Override
+    public void setAddressFilter(WMBusAddressFilter addressFilter) {
+        this.addressFilter = addressFilter;
+    }
+
+    WMBusAddressFilter getAddressFilter() {
+        return addressFilter;
+    }
+
+    /*
+     * Only called by the receiver thread.
+     */
+    void countFilteredMessage() {
+        filteredMessages++;
+    }
+
+    /**
+     * Stores the values of every received message. Has to be called before {@link #open()}.
+     */
+    void setLatestValueStore(LatestValueStore latestValueStore) {
+        this.latestValueStore = latestValueStore;
+    }
+
+    LatestValueStore getLatestValueStore() {
+        return latestValueStore;
+    }
+
+    /**
+     * Reports the traffic and the errors of the receiver to the given metrics. Has to be called before
+     * {@link #open()}.
+     */
+    void setMetrics(MBusMetrics metrics) {
+        this.metrics = metrics == null ? MBusMetrics.NO_OP : metrics;
+    }
+
+    MBusMetrics getMetrics() {
+        return metrics;
+    }
+
+    DispatchQueue getDispatchQueue() {
+        return dispatchQueue;
+    }
+
+    @Override
+    public WMBusStatistics getStatistics() {
+        long duplicateHits = 0;
+        long duplicateMisses = 0;
+        if (deduplicator != null) {
+            duplicateHits = deduplicator.getHits();
+            duplicateMisses = deduplicator.getMisses();
+        }
+
+        DispatchQueue queue = this.dispatchQueue;
+        if (queue == null) {
+            return new WMBusStatistics(dispatchQueueCapacity, 0, 0, 0, 0, 0, duplicateHits, duplicateMisses,
+                    filteredMessages);
+        }
+        return queue.statistics(duplicateHits, duplicateMisses, filteredMessages);
     }
 
     protected abstract MessageReceiver newMessageReceiver(TransportLayer transportLayer, WMBusListener listener);
@@ -0,0 +1,200 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus.wireless;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Decodes received frames on a pool of worker threads.
+ * <p>
+ * The receiver thread only frames the bytes and submits them. The workers decode the message and its variable data
+ * structure, including the decryption, and pass the messages on in the order of reception or as soon as they are
+ * decoded. The frames are held in a ring of preallocated slots. If all slots are in use the receiver waits.
+ * </p>
+ */
+class DecodePipeline {
+
+    private static final int SLOTS_PER_WORKER = 16;
+    private static final long POLL_TIMEOUT = 100;
+
+    private static final int FREE = 0;
+    private static final int PENDING = 1;
+    private static final int DONE = 2;
+
+    private final FramingMessageReceiver receiver;
+    private final boolean ordered;
+
+    private final Slot[] slots;
+    private final ArrayBlockingQueue<Slot> work;
+    private final Thread[] workers;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition slotFreed = lock.newCondition();
+
+    private long nextSubmit;
+    private long nextDelivery;
+    private volatile boolean closed;
+
+    private static class Slot {
+        int state = FREE;
+        byte[] frameBuffer;
+        int length;
+        Integer signalStrengthInDBm;
+        WMBusMessage message;
+    }
+
+    DecodePipeline(FramingMessageReceiver receiver, int numberOfWorkers, boolean ordered) {
+        this.receiver = receiver;
+        this.ordered = ordered;
+
+        this.slots = new Slot[numberOfWorkers * SLOTS_PER_WORKER];
+        for (int i = 0; i < slots.length; i++) {
+            slots[i] = new Slot();
+        }
+        this.work = new ArrayBlockingQueue<>(slots.length);
+
+        this.workers = new Thread[numberOfWorkers];
+        for (int i = 0; i < numberOfWorkers; i++) {
+            workers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    work();
+                }
+            }, "jmbus-wmbus-decoder-" + i);
+        }
+    }
+
+    void start() {
+        for (Thread worker : workers) {
+            worker.start();
+        }
+    }
+
+    /**
+     * Submits a frame for decoding. Must only be called by the receiver thread.
+     *
+     * @param frameBuffer
+     *            the buffer holding the frame.
+     * @param length
+     *            the length of the frame.
+     * @param signalStrengthInDBm
+     *            the RSSI of the frame.
+     */
+    void submit(byte[] frameBuffer, int length, Integer signalStrengthInDBm) {
+        Slot slot = slots[(int) (nextSubmit % slots.length)];
+
+        lock.lock();
+        try {
+            while (slot.state != FREE) {
+                slotFreed.awaitUninterruptibly();
+            }
+            slot.state = PENDING;
+        } finally {
+            lock.unlock();
+        }
+
+        slot.frameBuffer = frameBuffer;
+        slot.length = length;
+        slot.signalStrengthInDBm = signalStrengthInDBm;
+        nextSubmit++;
+
+        // never blocks, there are not more pending slots than the queue can hold
+        work.offer(slot);
+    }
+
+    /**
+     * Decodes and delivers the submitted frames and stops the workers.
+     */
+    void close() {
+        closed = true;
+        for (Thread worker : workers) {
+            boolean interrupted = false;
+            while (worker.isAlive()) {
+                try {
+                    worker.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void work() {
+        try {
+            while (true) {
+                Slot slot = work.poll(POLL_TIMEOUT, TimeUnit.MILLISECONDS);
+                if (slot == null) {
+                    if (closed) {
+                        return;
+                    }
+                    continue;
+                }
+
+                try {
+                    slot.message = receiver.decodeFrame(slot.frameBuffer, slot.length, slot.signalStrengthInDBm,
+                            true);
+                } catch (RuntimeException e) {
+                    // the slot is completed anyway, a pending slot would stop the delivery of all later frames
+                    slot.message = null;
+                    receiver.discardFrame(slot.frameBuffer, slot.length);
+                }
+                slot.frameBuffer = null;
+
+                if (ordered) {
+                    deliverInOrder(slot);
+                }
+                else {
+                    deliver(slot);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void deliverInOrder(Slot slot) {
+        lock.lock();
+        try {
+            slot.state = DONE;
+            Slot next = slots[(int) (nextDelivery % slots.length)];
+            while (next.state == DONE) {
+                if (next.message != null) {
+                    receiver.deliver(next.message);
+                    next.message = null;
+                }
+                next.state = FREE;
+                nextDelivery++;
+                next = slots[(int) (nextDelivery % slots.length)];
+            }
+            slotFreed.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void deliver(Slot slot) {
+        WMBusMessage message = slot.message;
+        slot.message = null;
+        if (message != null) {
+            receiver.deliver(message);
+        }
+
+        lock.lock();
+        try {
+            slot.state = FREE;
+            slotFreed.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+}
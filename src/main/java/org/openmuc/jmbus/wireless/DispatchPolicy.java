@@ -0,0 +1,33 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus.wireless;
+
+/**
+ * Defines what happens to received messages if the listener can not keep up and the dispatch queue of a connection
+ * runs full.
+ *
+ * @see WMBusConnection.WMBusSerialBuilder#setDispatchPolicy(DispatchPolicy)
+ */
+public enum DispatchPolicy {
+    /**
+     * The receiver waits until the listener has taken a message from the queue. Further bytes queue up in the transport
+     * layer and may be lost there.
+     */
+    BLOCK,
+    /**
+     * The oldest queued message is dropped in favor of the new one.
+     */
+    DROP_OLDEST,
+    /**
+     * The new message is dropped.
+     */
+    DROP_NEWEST,
+    /**
+     * If the queue is filled more than three quarters, only every fourth new message is queued. New messages are
+     * dropped if the queue is full.
+     */
+    SAMPLE
+}
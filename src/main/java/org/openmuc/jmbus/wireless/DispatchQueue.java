@@ -0,0 +1,246 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus.wireless;
+
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded ring buffer between a message receiver and the thread notifying the listener.
+ * <p>
+ * The slots are preallocated, queuing an event does not allocate. If the queue is full, the {@link DispatchPolicy}
+ * decides which message is dropped. Dropped messages are released. A stopped listening event is never dropped.
+ * </p>
+ */
+class DispatchQueue {
+
+    static final int NEW_MESSAGE = 0;
+    static final int DISCARDED_BYTES = 1;
+    static final int STOPPED_LISTENING = 2;
+
+    static final int EVENT_TAKEN = 0;
+    static final int TIMED_OUT = 1;
+    static final int CLOSED = 2;
+
+    private static final int SAMPLE_INTERVAL = 4;
+
+    private final DispatchPolicy policy;
+    private final int[] types;
+    private final Object[] payloads;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+
+    private int head;
+    private int count;
+    private boolean closed;
+
+    private int maxCount;
+    private long sampleCounter;
+    private long receivedMessages;
+    private long deliveredMessages;
+    private long droppedMessages;
+
+    /**
+     * Consumer side copy of a queued event.
+     */
+    static class Event {
+        int type;
+        Object payload;
+    }
+
+    DispatchQueue(int capacity, DispatchPolicy policy) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Dispatch queue capacity must be positive.");
+        }
+        this.policy = policy;
+        this.types = new int[capacity];
+        this.payloads = new Object[capacity];
+    }
+
+    /**
+     * Queues an event. Depending on the policy the event or the oldest queued event may be dropped.
+     *
+     * @param type
+     *            the event type.
+     * @param payload
+     *            the message, the discarded bytes or the exception.
+     * @return the number of queued events after the put.
+     */
+    int put(int type, Object payload) {
+        Object dropped = null;
+
+        lock.lock();
+        try {
+            if (type == NEW_MESSAGE) {
+                receivedMessages++;
+            }
+
+            if (closed) {
+                dropped = drop(type, payload);
+                return count;
+            }
+
+            int capacity = types.length;
+            if (type == STOPPED_LISTENING) {
+                if (count == capacity && policy != DispatchPolicy.BLOCK) {
+                    dropped = dropOldest();
+                }
+            }
+            else {
+                switch (policy) {
+                case DROP_NEWEST:
+                    if (count == capacity) {
+                        dropped = drop(type, payload);
+                        return count;
+                    }
+                    break;
+                case DROP_OLDEST:
+                    if (count == capacity) {
+                        dropped = dropOldest();
+                    }
+                    break;
+                case SAMPLE:
+                    if (count >= capacity - capacity / 4 && (sampleCounter++ % SAMPLE_INTERVAL != 0
+                            || count == capacity)) {
+                        dropped = drop(type, payload);
+                        return count;
+                    }
+                    break;
+                case BLOCK:
+                default:
+                    break;
+                }
+            }
+
+            while (count == capacity && !closed) {
+                notFull.awaitUninterruptibly();
+            }
+            if (closed) {
+                dropped = drop(type, payload);
+                return count;
+            }
+
+            int tail = (head + count) % capacity;
+            types[tail] = type;
+            payloads[tail] = payload;
+            count++;
+            if (count > maxCount) {
+                maxCount = count;
+            }
+            notEmpty.signal();
+            return count;
+        } finally {
+            lock.unlock();
+            release(dropped);
+        }
+    }
+
+    /**
+     * Takes the next event. Waits until an event is available or the queue is closed.
+     *
+     * @param event
+     *            the event to fill.
+     * @return <code>false</code> if the queue is closed and empty.
+     * @throws InterruptedException
+     *             if interrupted while waiting.
+     */
+    boolean take(Event event) throws InterruptedException {
+        return poll(event, Long.MAX_VALUE) == EVENT_TAKEN;
+    }
+
+    /**
+     * Takes the next event. Waits until an event is available, the queue is closed or the timeout elapsed.
+     *
+     * @param event
+     *            the event to fill.
+     * @param timeoutNanos
+     *            the maximal time to wait in nanoseconds, {@link Long#MAX_VALUE} waits without timeout.
+     * @return {@link #EVENT_TAKEN}, {@link #TIMED_OUT} or {@link #CLOSED}.
+     * @throws InterruptedException
+     *             if interrupted while waiting.
+     */
+    int poll(Event event, long timeoutNanos) throws InterruptedException {
+        long nanos = timeoutNanos;
+        lock.lock();
+        try {
+            while (count == 0) {
+                if (closed) {
+                    return CLOSED;
+                }
+                if (timeoutNanos == Long.MAX_VALUE) {
+                    notEmpty.await();
+                }
+                else {
+                    if (nanos <= 0) {
+                        return TIMED_OUT;
+                    }
+                    nanos = notEmpty.awaitNanos(nanos);
+                }
+            }
+
+            event.type = types[head];
+            event.payload = payloads[head];
+            payloads[head] = null;
+            head = (head + 1) % types.length;
+            count--;
+            if (event.type == NEW_MESSAGE) {
+                deliveredMessages++;
+            }
+            notFull.signal();
+            return EVENT_TAKEN;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Closes the queue. Queued events are still delivered, new events are dropped.
+     */
+    void close() {
+        lock.lock();
+        try {
+            closed = true;
+            notEmpty.signalAll();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    WMBusStatistics statistics(long duplicateHits, long duplicateMisses, long filteredMessages) {
+        lock.lock();
+        try {
+            return new WMBusStatistics(types.length, count, maxCount, receivedMessages, deliveredMessages,
+                    droppedMessages, duplicateHits, duplicateMisses, filteredMessages);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Object dropOldest() {
+        Object payload = drop(types[head], payloads[head]);
+        payloads[head] = null;
+        head = (head + 1) % types.length;
+        count--;
+        return payload;
+    }
+
+    private Object drop(int type, Object payload) {
+        if (type == NEW_MESSAGE) {
+            droppedMessages++;
+        }
+        return payload;
+    }
+
+    private static void release(Object dropped) {
+        if (dropped instanceof WMBusMessage) {
+            ((WMBusMessage) dropped).release();
+        }
+    }
+
+}
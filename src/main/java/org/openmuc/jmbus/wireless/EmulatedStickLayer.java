@@ -0,0 +1,371 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus.wireless;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.openmuc.jmbus.transportlayer.TransportLayer;
+
+/**
+ * Transport layer which emulates a stick passing frames to the host.
+ * <p>
+ * Commands written by the connection are passed to the stick format, which answers like the stick. Frames are passed
+ * on once the connection has configured the stick, either as fast as the receiver reads them or when they are due.
+ * The stream starts with the first read after the configuration and ends after the last frame.
+ * </p>
+ * <p>
+ * The latency of every emitted frame is measured up to the delivery of the message with the same link and transport
+ * layer header.
+ * </p>
+ */
+abstract class EmulatedStickLayer implements TransportLayer {
+
+    private static final int CHUNK_SIZE = 16 * 1024;
+
+    final StickFormat format;
+
+    private final DataInputStream is;
+    private final DataOutputStream os;
+
+    private long[] emitNanos = new long[64];
+    private final Map<Long, ArrayDeque<Integer>> pendingByKey = new HashMap<>();
+    private long[] latencies = new long[64];
+    private int numberOfLatencies;
+
+    private volatile boolean closed = true;
+    private volatile int timeout;
+    private volatile int emittedFrames;
+    private volatile long startNanos;
+    private volatile boolean exhausted;
+
+    /*
+     * Answers of the stick to the commands of the connection.
+     */
+    private final ArrayDeque<Byte> answers = new ArrayDeque<>();
+
+    EmulatedStickLayer(StickFormat format) {
+        this.format = format;
+        this.is = new DataInputStream(new StickInputStream());
+        this.os = new DataOutputStream(new CommandOutputStream());
+    }
+
+    /**
+     * Checks if there are frames left.
+     */
+    abstract boolean hasNextFrame();
+
+    /**
+     * Returns the time the next frame is due, relative to the start of the stream. Negative if the frames are passed
+     * on as fast as possible.
+     */
+    abstract long nextFrameDueNanos();
+
+    /**
+     * Encodes the next frame into the destination buffer, which has room for at least {@link #maxEncodedLength()}
+     * bytes. Calls {@link #emitted(byte[], int, long)} for a passed on frame.
+     *
+     * @return the number of bytes written, 0 if the frame was skipped.
+     */
+    abstract int encodeNextFrame(byte[] destination, int offset, long now);
+
+    /**
+     * Returns the maximal number of bytes written by {@link #encodeNextFrame(byte[], int, long)}.
+     */
+    int maxEncodedLength() {
+        return format.maxEncodedLength();
+    }
+
+    @Override
+    public void open() {
+        closed = false;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+    }
+
+    @Override
+    public DataOutputStream getOutputStream() {
+        return os;
+    }
+
+    @Override
+    public DataInputStream getInputStream() {
+        return is;
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closed;
+    }
+
+    @Override
+    public void setTimeout(int timeout) {
+        this.timeout = timeout;
+    }
+
+    @Override
+    public int getTimeout() {
+        return timeout;
+    }
+
+    int getEmittedFrames() {
+        return emittedFrames;
+    }
+
+    long getStartNanos() {
+        return startNanos;
+    }
+
+    /**
+     * Checks if all frames have been passed to the receiver.
+     */
+    boolean isExhausted() {
+        return exhausted;
+    }
+
+    /**
+     * Checks if the connection has configured the stick.
+     */
+    synchronized boolean isConfigured() {
+        return format.isConfigured();
+    }
+
+    /**
+     * Records the latency of a delivered message. The message is matched to the earliest emitted frame with the same
+     * link and transport layer header.
+     */
+    synchronized void delivered(WMBusMessage message, long nanos) {
+        byte[] frame = message.buffer();
+        ArrayDeque<Integer> pending = pendingByKey.get(headerKey(frame, (frame[0] & 0xff) + 1));
+        if (pending == null || pending.isEmpty()) {
+            return;
+        }
+
+        long emitted = emitNanos[pending.poll()];
+        if (numberOfLatencies == latencies.length) {
+            latencies = Arrays.copyOf(latencies, latencies.length * 2);
+        }
+        latencies[numberOfLatencies++] = nanos - emitted;
+    }
+
+    synchronized long[] getLatencies() {
+        return Arrays.copyOf(latencies, numberOfLatencies);
+    }
+
+    /**
+     * Records a frame passed on to the receiver.
+     */
+    synchronized void emitted(byte[] frame, int length, long nanos) {
+        int index = emittedFrames;
+        if (index == emitNanos.length) {
+            emitNanos = Arrays.copyOf(emitNanos, emitNanos.length * 2);
+        }
+        emitNanos[index] = nanos;
+
+        Long key = headerKey(frame, length);
+        ArrayDeque<Integer> pending = pendingByKey.get(key);
+        if (pending == null) {
+            pending = new ArrayDeque<>();
+            pendingByKey.put(key, pending);
+        }
+        pending.add(index);
+        emittedFrames = index + 1;
+    }
+
+    /*
+     * Hash of the length and the header up to the access number. The rest of the frame might be decrypted in place.
+     */
+    private static long headerKey(byte[] frame, int length) {
+        int headerLength = 11;
+        if (length > 10) {
+            switch (frame[10] & 0xff) {
+            case 0x7A:
+                headerLength = 15;
+                break;
+            case 0x72:
+                headerLength = 23;
+                break;
+            case 0x8C:
+            case 0x8D:
+                headerLength = 13;
+                break;
+            default:
+                break;
+            }
+        }
+        headerLength = Math.min(length, headerLength);
+
+        long hash = 0xCBF29CE484222325L;
+        for (int i = 0; i < headerLength; i++) {
+            hash ^= frame[i] & 0xff;
+            hash *= 0x100000001B3L;
+        }
+        return hash ^ length;
+    }
+
+    private class CommandOutputStream extends OutputStream {
+
+        @Override
+        public void write(int b) {
+            synchronized (EmulatedStickLayer.this) {
+                byte[] answer = format.command(b & 0xff);
+                if (answer != null) {
+                    for (byte a : answer) {
+                        answers.add(a);
+                    }
+                }
+            }
+        }
+
+    }
+
+    private class StickInputStream extends InputStream {
+
+        private final byte[] chunk = new byte[CHUNK_SIZE];
+        private int position;
+        private int limit;
+
+        @Override
+        public int available() {
+            synchronized (EmulatedStickLayer.this) {
+                return limit - position + answers.size();
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+
+            if (position == limit && !nextChunk()) {
+                return -1;
+            }
+
+            int n = Math.min(len, limit - position);
+            System.arraycopy(chunk, position, b, off, n);
+            position += n;
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long remaining = Math.min(n, available());
+            long skipped = 0;
+            byte[] buffer = new byte[256];
+            while (skipped < remaining) {
+                int read = read(buffer, 0, (int) Math.min(buffer.length, remaining - skipped));
+                if (read <= 0) {
+                    break;
+                }
+                skipped += read;
+            }
+            return skipped;
+        }
+
+        /*
+         * Encodes the frames which are due into the chunk, waits up to the timeout for the next frame if none is due.
+         */
+        private boolean nextChunk() throws IOException {
+            position = 0;
+            limit = 0;
+
+            while (limit == 0) {
+                if (closed) {
+                    throw new IOException("Stick is closed.");
+                }
+                if (takeAnswers()) {
+                    return true;
+                }
+                if (!isConfigured()) {
+                    waitFor(Long.MAX_VALUE);
+                    continue;
+                }
+                if (!hasNextFrame()) {
+                    exhausted = true;
+                    return false;
+                }
+
+                long now = System.nanoTime();
+                if (startNanos == 0) {
+                    startNanos = now;
+                }
+                else {
+                    long waitNanos = startNanos + nextFrameDueNanos() - now;
+                    if (nextFrameDueNanos() >= 0 && waitNanos > 0) {
+                        waitFor(waitNanos);
+                        continue;
+                    }
+                }
+
+                encodeDueFrames(now);
+            }
+            return true;
+        }
+
+        /*
+         * The answers of the stick are passed on between the chunks of frames.
+         */
+        private boolean takeAnswers() {
+            synchronized (EmulatedStickLayer.this) {
+                while (!answers.isEmpty() && limit < chunk.length) {
+                    chunk[limit++] = answers.poll();
+                }
+            }
+            return limit > 0;
+        }
+
+        private void encodeDueFrames(long now) {
+            int maxLength = maxEncodedLength();
+
+            while (hasNextFrame() && limit + maxLength <= chunk.length) {
+                long due = nextFrameDueNanos();
+                if (due >= 0 && startNanos + due > now) {
+                    return;
+                }
+                limit += encodeNextFrame(chunk, limit, now);
+            }
+        }
+
+        private void waitFor(long nanos) throws InterruptedIOException {
+            int timeout = EmulatedStickLayer.this.timeout;
+            boolean timedOut = timeout > 0 && nanos > timeout * 1000000L;
+            long sleepNanos = timedOut ? timeout * 1000000L : nanos;
+            if (sleepNanos == Long.MAX_VALUE) {
+                // no timeout, poll the configuration
+                sleepNanos = 10000000L;
+            }
+            try {
+                Thread.sleep(sleepNanos / 1000000L, (int) (sleepNanos % 1000000L));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Stick interrupted.");
+            }
+            if (timedOut) {
+                throw new InterruptedIOException("timeout");
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,331 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus.wireless;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+
+import org.openmuc.jmbus.DecodingException;
+import org.openmuc.jmbus.LatestValueStore;
+import org.openmuc.jmbus.MBusMetrics;
+import org.openmuc.jmbus.VariableDataStructure;
+import org.openmuc.jmbus.jfr.Events;
+import org.openmuc.jmbus.transportlayer.TransportLayer;
+
+/**
+ * Message receiver which reads the transport layer in large chunks and splits the received bytes into frames.
+ * <p>
+ * The timeout of the transport layer is set once to {@link AbstractWMBusConnection#MESSAGE_FRAGEMENT_TIMEOUT}. A
+ * timeout with a partial frame in the buffer discards the partial frame. If the bytes at the current position can not
+ * start a frame, the window slides by a single byte until a valid header is found. The skipped bytes are reported as
+ * discarded in one piece.
+ * </p>
+ * <p>
+ * Subclasses only define the layout of the frames of their stick.
+ * </p>
+ */
+abstract class FramingMessageReceiver extends MessageReceiver {
+
+    /**
+     * Return value of {@link #frameLength(byte[], int)} if the header at the given position is not valid.
+     */
+    protected static final int INVALID_HEADER = -1;
+
+    private static final int BUFFER_SIZE = 4096;
+
+    private final AbstractWMBusConnection connection;
+    private final TransportLayer transportLayer;
+    private final MBusMetrics metrics;
+
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int start;
+    private int end;
+
+    private final DecodePipeline decodePipeline;
+
+    private final byte[] discardBuffer = new byte[AbstractWMBusConnection.BUFFER_LENGTH];
+    private int discardLength;
+
+    protected FramingMessageReceiver(AbstractWMBusConnection connection, TransportLayer transportLayer,
+            WMBusListener listener) {
+        super(listener, connection.getDispatchQueue(), connection.getMaxBatchSize(), connection.getMaxLingerMillis(),
+                connection.getMetrics());
+        this.connection = connection;
+        this.transportLayer = transportLayer;
+        this.metrics = connection.getMetrics();
+
+        int decodeWorkers = connection.getDecodeWorkers();
+        if (decodeWorkers > 0) {
+            this.decodePipeline = new DecodePipeline(this, decodeWorkers, connection.isOrderedDelivery());
+        }
+        else {
+            this.decodePipeline = null;
+        }
+    }
+
+    /**
+     * Returns the number of bytes needed by {@link #frameLength(byte[], int)} to determine the length of a frame.
+     *
+     * @return the header length.
+     */
+    protected abstract int headerLength();
+
+    /**
+     * Checks the header at the given position and returns the length of the frame.
+     *
+     * @param buffer
+     *            the receive buffer.
+     * @param offset
+     *            the position of the header. At least {@link #headerLength()} bytes are available.
+     * @return the length of the complete frame including header and trailer, or {@link #INVALID_HEADER}.
+     */
+    protected abstract int frameLength(byte[] buffer, int offset);
+
+    /**
+     * Handles a complete frame. The bytes are only valid during this call.
+     *
+     * @param buffer
+     *            the receive buffer.
+     * @param offset
+     *            the position of the frame.
+     * @param length
+     *            the length of the frame as returned by {@link #frameLength(byte[], int)}.
+     */
+    protected abstract void handleFrame(byte[] buffer, int offset, int length);
+
+    @Override
+    protected void receive() {
+        if (decodePipeline != null) {
+            decodePipeline.start();
+        }
+
+        IOException stopCause = null;
+        try {
+            transportLayer.setTimeout(AbstractWMBusConnection.MESSAGE_FRAGEMENT_TIMEOUT);
+
+            while (!connection.isClosed()) {
+                try {
+                    fill();
+                } catch (InterruptedIOException e) {
+                    discardPartialFrame();
+                    continue;
+                }
+                extractFrames();
+            }
+
+        } catch (IOException e) {
+            if (!connection.isClosed()) {
+                stopCause = e;
+            }
+        } finally {
+            connection.close();
+            if (decodePipeline != null) {
+                // the frames still being decoded are delivered before the stop
+                decodePipeline.close();
+            }
+            if (stopCause != null) {
+                super.notifyStoppedListening(stopCause);
+            }
+            super.shutdown();
+        }
+    }
+
+    /**
+     * Returns a buffer for a received frame. The buffer is taken from the pool of the connection, if pooling is
+     * enabled, and has at least the given length.
+     *
+     * @param length
+     *            the length of the frame.
+     * @return the buffer.
+     */
+    protected byte[] newFrameBuffer(int length) {
+        TelegramBufferPool pool = connection.getBufferPool();
+        return pool == null ? new byte[length] : pool.acquire();
+    }
+
+    /**
+     * Decodes a wireless M-Bus frame copied to a buffer from {@link #newFrameBuffer(int)} and notifies the listener.
+     * Frames which can not be decoded are reported as discarded. Telegrams rejected by the address filter and repeated
+     * receptions of a telegram are dropped. If the connection uses decode workers, the frame is handed over to them.
+     *
+     * @param frameBuffer
+     *            the buffer holding the frame starting with the L-field.
+     * @param length
+     *            the length of the frame.
+     * @param signalStrengthInDBm
+     *            the RSSI of the frame.
+     */
+    protected void notifyNewFrame(byte[] frameBuffer, int length, Integer signalStrengthInDBm) {
+        WMBusAddressFilter addressFilter = connection.getAddressFilter();
+        if (addressFilter != null && !addressFilter.accepts(frameBuffer, length)) {
+            connection.countFilteredMessage();
+            releaseFrameBuffer(frameBuffer);
+            return;
+        }
+
+        TelegramDeduplicator deduplicator = connection.getDeduplicator();
+        if (deduplicator != null && deduplicator.isDuplicate(frameBuffer, length)) {
+            releaseFrameBuffer(frameBuffer);
+            return;
+        }
+
+        if (decodePipeline != null) {
+            decodePipeline.submit(frameBuffer, length, signalStrengthInDBm);
+            return;
+        }
+
+        WMBusMessage message;
+        try {
+            message = decodeFrame(frameBuffer, length, signalStrengthInDBm, false);
+        } catch (RuntimeException e) {
+            // a malformed frame must not stop the receiver
+            discardFrame(frameBuffer, length);
+            return;
+        }
+        if (message != null) {
+            deliver(message);
+        }
+    }
+
+    private void releaseFrameBuffer(byte[] frameBuffer) {
+        TelegramBufferPool pool = connection.getBufferPool();
+        if (pool != null) {
+            pool.release(frameBuffer);
+        }
+    }
+
+    /**
+     * Decodes a frame. Frames which can not be decoded are reported as discarded and their buffer is released. The
+     * variable data structure is decoded as well if requested or if the latest values are stored.
+     * <p>
+     * With a buffer pool the message and its variable data structure are recycled with the frame buffer.
+     * </p>
+     *
+     * @return the message or <code>null</code> if the frame could not be decoded.
+     */
+    WMBusMessage decodeFrame(byte[] frameBuffer, int length, Integer signalStrengthInDBm,
+            boolean decodeVariableData) {
+        TelegramBufferPool pool = connection.getBufferPool();
+        WMBusMessage message;
+        try {
+            message = WMBusMessage.decode(frameBuffer, length, signalStrengthInDBm, connection.keyMap, pool, metrics);
+        } catch (DecodingException e) {
+            metrics.decodingFailed(length > 10 ? frameBuffer[10] & 0xff : -1);
+            discardFrame(frameBuffer, length);
+            return null;
+        }
+
+        LatestValueStore latestValueStore = connection.getLatestValueStore();
+        if (decodeVariableData || latestValueStore != null) {
+            try {
+                VariableDataStructure vdr = message.getVariableDataResponse();
+                vdr.decode();
+                if (latestValueStore != null) {
+                    latestValueStore.update(message.getSecondaryAddress(), vdr, System.currentTimeMillis());
+                }
+            } catch (DecodingException e) {
+                // the listener gets the message undecoded, e.g. if the key is missing
+            }
+        }
+        if (Events.isFrameReceptionEnabled()) {
+            message.setQueuedNanos(System.nanoTime());
+        }
+        return message;
+    }
+
+    /**
+     * Reports a frame which could not be decoded as discarded and releases its buffer.
+     */
+    void discardFrame(byte[] frameBuffer, int length) {
+        super.notifyDiscarded(Arrays.copyOf(frameBuffer, length));
+        releaseFrameBuffer(frameBuffer);
+    }
+
+    void deliver(WMBusMessage message) {
+        super.notifyNewMessage(message);
+    }
+
+    /**
+     * Notifies the listener about discarded bytes.
+     *
+     * @param data
+     *            the buffer holding the discarded bytes.
+     * @param offset
+     *            the offset of the discarded bytes.
+     * @param length
+     *            the number of discarded bytes.
+     */
+    protected void discard(byte[] data, int offset, int length) {
+        super.notifyDiscarded(Arrays.copyOfRange(data, offset, offset + length));
+    }
+
+    private void fill() throws IOException {
+        if (start > 0) {
+            System.arraycopy(buffer, start, buffer, 0, end - start);
+            end -= start;
+            start = 0;
+        }
+
+        DataInputStream is = transportLayer.getInputStream();
+        int available = is.available();
+        int numBytes = is.read(buffer, end, Math.max(1, Math.min(available, buffer.length - end)));
+        if (numBytes < 0) {
+            throw new EOFException("Transport layer reached end of stream.");
+        }
+        end += numBytes;
+        metrics.bytesReceived(numBytes);
+    }
+
+    private void extractFrames() {
+        int headerLength = headerLength();
+
+        while (end - start >= headerLength) {
+            int frameLength = frameLength(buffer, start);
+
+            if (frameLength == INVALID_HEADER || frameLength > buffer.length) {
+                skipByte();
+                continue;
+            }
+
+            if (end - start < frameLength) {
+                return;
+            }
+
+            flushDiscarded();
+            metrics.frameReceived();
+            handleFrame(buffer, start, frameLength);
+            start += frameLength;
+        }
+    }
+
+    private void skipByte() {
+        if (discardLength == discardBuffer.length) {
+            flushDiscarded();
+        }
+        discardBuffer[discardLength++] = buffer[start++];
+    }
+
+    private void discardPartialFrame() {
+        if (start < end) {
+            metrics.partialMessage();
+        }
+        while (start < end) {
+            skipByte();
+        }
+        flushDiscarded();
+    }
+
+    private void flushDiscarded() {
+        if (discardLength > 0) {
+            discard(discardBuffer, 0, discardLength);
+            discardLength = 0;
+        }
+    }
+
+}
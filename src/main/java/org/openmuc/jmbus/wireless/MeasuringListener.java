@@ -0,0 +1,105 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus.wireless;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the latency of the messages of an emulated stick before passing them on. Implements the batch listener
+ * interface in order to keep the batching of the connection, single messages are passed on as such if the listener
+ * does not take batches.
+ */
+class MeasuringListener implements WMBusBatchListener {
+
+    private final WMBusListener listener;
+    private final CountDownLatch completed = new CountDownLatch(1);
+    private volatile EmulatedStickLayer layer;
+    private volatile long deliveredMessages;
+    private volatile long discardedBytes;
+    private volatile long completedNanos;
+
+    MeasuringListener(WMBusListener listener) {
+        this.listener = listener;
+    }
+
+    void setLayer(EmulatedStickLayer layer) {
+        this.layer = layer;
+    }
+
+    /**
+     * Waits until the listener has been notified about the end of the stream after the last frame.
+     */
+    boolean awaitCompletion(long timeout, TimeUnit unit) throws InterruptedException {
+        return completed.await(timeout, unit);
+    }
+
+    /**
+     * Returns the report of the messages delivered so far.
+     */
+    WMBusReplayReport report(int skippedFrames) {
+        long startNanos = layer.getStartNanos();
+        long endNanos = completedNanos;
+        if (endNanos == 0) {
+            endNanos = System.nanoTime();
+        }
+        long elapsedNanos = startNanos == 0 ? 0 : endNanos - startNanos;
+
+        return new WMBusReplayReport(layer.getEmittedFrames(), skippedFrames, deliveredMessages, discardedBytes,
+                elapsedNanos, layer.getLatencies());
+    }
+
+    @Override
+    public void newMessage(WMBusMessage message) {
+        layer.delivered(message, System.nanoTime());
+        deliveredMessages++;
+        if (listener != null) {
+            listener.newMessage(message);
+        }
+    }
+
+    @Override
+    public void newMessages(List<WMBusMessage> messages) {
+        long now = System.nanoTime();
+        for (int i = 0; i < messages.size(); i++) {
+            layer.delivered(messages.get(i), now);
+        }
+        deliveredMessages += messages.size();
+
+        if (listener instanceof WMBusBatchListener) {
+            ((WMBusBatchListener) listener).newMessages(messages);
+        }
+        else if (listener != null) {
+            for (int i = 0; i < messages.size(); i++) {
+                listener.newMessage(messages.get(i));
+            }
+        }
+    }
+
+    @Override
+    public void discardedBytes(byte[] bytes) {
+        discardedBytes += bytes.length;
+        if (listener != null) {
+            listener.discardedBytes(bytes);
+        }
+    }
+
+    @Override
+    public void stoppedListening(IOException cause) {
+        long now = System.nanoTime();
+        if (listener != null) {
+            listener.stoppedListening(cause);
+        }
+        if (layer.isExhausted() && cause instanceof EOFException) {
+            completedNanos = now;
+            completed.countDown();
+        }
+    }
+
+}
@@ -6,48 +6,226 @@
 package org.openmuc.jmbus.wireless;
 
 import java.io.IOException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.openmuc.jmbus.MBusMetrics;
+import org.openmuc.jmbus.jfr.Events;
 
 abstract class MessageReceiver implements Runnable {
 
-    private final ExecutorService executor;
     private final WMBusListener listener;
+    private final DispatchQueue queue;
+    private final Thread dispatcher;
+    private final MBusMetrics metrics;
 
-    public MessageReceiver(WMBusListener listener) {
-        this.listener = listener;
-        this.executor = Executors.newSingleThreadExecutor();
+    private final WMBusBatchListener batchListener;
+    private final int maxBatchSize;
+    private final long maxLingerNanos;
+    private final ArrayList<WMBusMessage> batch;
+    private final List<WMBusMessage> batchView;
+
+    public MessageReceiver(WMBusListener listener, DispatchQueue queue) {
+        this(listener, queue, 0, 0);
     }
 
-    protected void shutdown() {
-        this.executor.shutdown();
+    /**
+     * Creates a receiver which passes the messages in batches to a {@link WMBusBatchListener}. Other listeners get
+     * single messages.
+     */
+    public MessageReceiver(WMBusListener listener, DispatchQueue queue, int maxBatchSize, long maxLingerMillis) {
+        this(listener, queue, maxBatchSize, maxLingerMillis, MBusMetrics.NO_OP);
     }
 
-    protected void notifyStoppedListening(final IOException ioException) {
-        executor.execute(new Runnable() {
+    /**
+     * Creates a receiver which additionally reports the depth of the dispatch queue to the given metrics.
+     */
+    public MessageReceiver(WMBusListener listener, DispatchQueue queue, int maxBatchSize, long maxLingerMillis,
+            MBusMetrics metrics) {
+        this.listener = listener;
+        this.queue = queue;
+        this.metrics = metrics;
+
+        if (maxBatchSize > 1 && listener instanceof WMBusBatchListener) {
+            this.batchListener = (WMBusBatchListener) listener;
+            this.maxBatchSize = maxBatchSize;
+            this.maxLingerNanos = maxLingerMillis * 1000000L;
+            this.batch = new ArrayList<>(maxBatchSize);
+            this.batchView = Collections.unmodifiableList(batch);
+        }
+        else {
+            this.batchListener = null;
+            this.maxBatchSize = 1;
+            this.maxLingerNanos = 0;
+            this.batch = null;
+            this.batchView = null;
+        }
+
+        this.dispatcher = new Thread(new Runnable() {
             @Override
             public void run() {
-                listener.stoppedListening(ioException);
+                dispatch();
             }
-        });
+        }, "jmbus-wmbus-dispatcher");
+    }
+
+    @Override
+    public final void run() {
+        dispatcher.start();
+        receive();
+    }
+
+    /**
+     * Receives messages until the connection is closed. Called on the receiver thread.
+     */
+    protected abstract void receive();
+
+    /**
+     * Returns the manufacturer of the stick, recorded with the received frames.
+     */
+    protected abstract String vendor();
+
+    protected void shutdown() {
+        this.queue.close();
+    }
+
+    protected void notifyStoppedListening(final IOException ioException) {
+        queue.put(DispatchQueue.STOPPED_LISTENING, ioException);
     }
 
     protected void notifyNewMessage(final WMBusMessage wmBusMessage) {
-        executor.execute(new Runnable() {
-            @Override
-            public void run() {
-                listener.newMessage(wmBusMessage);
+        metrics.listenerQueueDepth(queue.put(DispatchQueue.NEW_MESSAGE, wmBusMessage));
+    }
+
+    protected void notifyDiscarded(final byte[] discardedBytes) {
+        metrics.listenerQueueDepth(queue.put(DispatchQueue.DISCARDED_BYTES, discardedBytes));
+    }
+
+    private void dispatch() {
+        DispatchQueue.Event event = new DispatchQueue.Event();
+        try {
+            if (batchListener != null) {
+                dispatchBatches(event);
+                return;
             }
-        });
 
+            while (queue.take(event)) {
+                Object payload = event.payload;
+                event.payload = null;
+
+                try {
+                    dispatch(event.type, payload);
+                } catch (RuntimeException e) {
+                    handleListenerException(e);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
     }
 
-    protected void notifyDiscarded(final byte[] discardedBytes) {
-        executor.execute(new Runnable() {
-            @Override
-            public void run() {
-                listener.discardedBytes(discardedBytes);
+    private void dispatchBatches(DispatchQueue.Event event) throws InterruptedException {
+        long deadline = 0;
+        while (true) {
+            int result;
+            if (batch.isEmpty()) {
+                result = queue.poll(event, Long.MAX_VALUE);
+            }
+            else {
+                result = queue.poll(event, deadline - System.nanoTime());
+            }
+
+            if (result == DispatchQueue.CLOSED) {
+                flushBatch();
+                return;
+            }
+            if (result == DispatchQueue.TIMED_OUT) {
+                flushBatch();
+                continue;
+            }
+
+            Object payload = event.payload;
+            event.payload = null;
+
+            if (event.type == DispatchQueue.NEW_MESSAGE) {
+                if (batch.isEmpty()) {
+                    deadline = System.nanoTime() + maxLingerNanos;
+                }
+                batch.add((WMBusMessage) payload);
+                if (batch.size() >= maxBatchSize) {
+                    flushBatch();
+                }
+            }
+            else {
+                flushBatch();
+                try {
+                    dispatch(event.type, payload);
+                } catch (RuntimeException e) {
+                    handleListenerException(e);
+                }
+            }
+        }
+    }
+
+    private void flushBatch() {
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        for (int i = 0; i < batch.size(); i++) {
+            recordReception(batch.get(i));
+        }
+
+        try {
+            batchListener.newMessages(batchView);
+        } catch (RuntimeException e) {
+            handleListenerException(e);
+        } finally {
+            for (int i = 0; i < batch.size(); i++) {
+                batch.get(i).release();
             }
-        });
+            batch.clear();
+        }
     }
+
+    /*
+     * The frame reception is recorded when the message is passed to the listener, so it includes the wait in the
+     * queue.
+     */
+    private void recordReception(WMBusMessage message) {
+        long queuedNanos = message.getQueuedNanos();
+        if (queuedNanos != 0) {
+            int length = (message.buffer()[0] & 0xff) + 1;
+            Events.frameReceived(vendor(), length, message.getRssi(), System.nanoTime() - queuedNanos);
+        }
+    }
+
+    private static void handleListenerException(RuntimeException e) {
+        Thread thread = Thread.currentThread();
+        thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+    }
+
+    private void dispatch(int type, Object payload) {
+        switch (type) {
+        case DispatchQueue.NEW_MESSAGE:
+            WMBusMessage wmBusMessage = (WMBusMessage) payload;
+            recordReception(wmBusMessage);
+            try {
+                listener.newMessage(wmBusMessage);
+            } finally {
+                wmBusMessage.release();
+            }
+            break;
+        case DispatchQueue.DISCARDED_BYTES:
+            listener.discardedBytes((byte[]) payload);
+            break;
+        case DispatchQueue.STOPPED_LISTENING:
+            listener.stoppedListening((IOException) payload);
+            break;
+        default:
+            break;
+        }
+    }
+
 }
@@ -0,0 +1,79 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus.wireless;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import org.openmuc.jmbus.archive.ArchivedTelegram;
+
+/**
+ * Transport layer which plays back archived wireless frames in the serial format of a stick.
+ * <p>
+ * The frames are passed on in the order of the list, either as fast as the receiver reads them or with the original
+ * gaps between their timestamps divided by the speed. Wired frames and frames the stick could not pass on are skipped.
+ * </p>
+ */
+class ReplayLayer extends EmulatedStickLayer {
+
+    private final List<ArchivedTelegram> telegrams;
+    private final double speed;
+
+    private final byte[] frame = new byte[256];
+    private int next;
+    private volatile int skippedFrames;
+
+    ReplayLayer(List<ArchivedTelegram> telegrams, StickFormat format, double speed) {
+        super(format);
+        this.telegrams = telegrams;
+        this.speed = speed;
+    }
+
+    int getSkippedFrames() {
+        return skippedFrames;
+    }
+
+    @Override
+    boolean hasNextFrame() {
+        return next < telegrams.size();
+    }
+
+    @Override
+    long nextFrameDueNanos() {
+        if (speed == 0) {
+            return -1;
+        }
+        long gap = telegrams.get(next).getTimestamp() - telegrams.get(0).getTimestamp();
+        return (long) (gap * 1e6 / speed);
+    }
+
+    @Override
+    int encodeNextFrame(byte[] destination, int offset, long now) {
+        ArchivedTelegram telegram = telegrams.get(next);
+        ByteBuffer buffer = telegram.getFrame();
+        int length = buffer.remaining();
+        if (telegram.isWired() || length > frame.length) {
+            skip();
+            return 0;
+        }
+        buffer.get(frame, 0, length);
+        if (!format.canEncode(frame, 0, length)) {
+            skip();
+            return 0;
+        }
+
+        int encodedLength = format.encode(frame, 0, length, telegram.getRssi(), destination, offset);
+        emitted(frame, length, now);
+        next++;
+        return encodedLength;
+    }
+
+    private void skip() {
+        next++;
+        skippedFrames++;
+    }
+
+}
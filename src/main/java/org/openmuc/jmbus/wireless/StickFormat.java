@@ -0,0 +1,384 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus.wireless;
+
+import java.util.Arrays;
+
+import org.openmuc.jmbus.wireless.WMBusConnection.WMBusSerialBuilder.WMBusManufacturer;
+
+/**
+ * The serial format in which a stick passes a received wireless M-Bus frame to the host and the stick side of the
+ * configuration handshake. Used to feed frames through the receivers of the connections without a stick.
+ * <p>
+ * A format keeps the state of the handshake, so every emulated stick needs its own instance.
+ * </p>
+ */
+abstract class StickFormat {
+
+    static final int ACK = 0x3E;
+
+    /**
+     * Returns the format of the given stick.
+     *
+     * @param manufacturer
+     *            the manufacturer of the stick.
+     * @return the format.
+     */
+    static StickFormat forManufacturer(WMBusManufacturer manufacturer) {
+        switch (manufacturer) {
+        case AMBER:
+            return new Amber();
+        case IMST:
+            return new Imst();
+        case RADIO_CRAFTS:
+            return new RadioCrafts();
+        default:
+            // should not occur.
+            throw new RuntimeException("Unknown Manufacturer.");
+        }
+    }
+
+    /**
+     * Returns the maximal length of an encoded frame.
+     *
+     * @return the length in bytes.
+     */
+    abstract int maxEncodedLength();
+
+    /**
+     * Checks if a frame can be passed on by the stick. The L-field of the frame has to match its length.
+     *
+     * @param frame
+     *            the buffer holding the frame starting with the L-field.
+     * @param offset
+     *            the offset of the frame.
+     * @param length
+     *            the length of the frame.
+     * @return <code>true</code> if the frame can be encoded.
+     */
+    boolean canEncode(byte[] frame, int offset, int length) {
+        return length >= 12 && length <= 255 && (frame[offset] & 0xff) == length - 1;
+    }
+
+    /**
+     * Encodes a frame as sent by the stick.
+     *
+     * @param frame
+     *            the buffer holding the frame starting with the L-field.
+     * @param offset
+     *            the offset of the frame.
+     * @param length
+     *            the length of the frame.
+     * @param signalStrengthInDBm
+     *            the RSSI of the frame or <code>null</code>.
+     * @param destination
+     *            the buffer to encode the frame to.
+     * @param destinationOffset
+     *            the offset in the destination buffer.
+     * @return the number of bytes written.
+     */
+    abstract int encode(byte[] frame, int offset, int length, Integer signalStrengthInDBm, byte[] destination,
+            int destinationOffset);
+
+    /**
+     * Passes a byte written by the connection to the stick.
+     *
+     * @param b
+     *            the byte.
+     * @return the answer of the stick, <code>null</code> if the stick does not answer (yet).
+     */
+    abstract byte[] command(int b);
+
+    /**
+     * Checks if the connection has configured the stick to receive frames in a wireless M-Bus mode with the RSSI
+     * attached.
+     *
+     * @return <code>true</code> if the stick passes on received frames.
+     */
+    abstract boolean isConfigured();
+
+    private static int clamp(int value) {
+        return Math.max(0, Math.min(255, value));
+    }
+
+    /*
+     * L-field incremented by one, RSSI byte attached.
+     */
+    private static int encodeWithRssiByte(byte[] frame, int offset, int length, int rssi, byte[] destination,
+            int destinationOffset) {
+        System.arraycopy(frame, offset, destination, destinationOffset, length);
+        destination[destinationOffset] = (byte) length;
+        destination[destinationOffset + length] = (byte) rssi;
+        return length + 1;
+    }
+
+    /*
+     * Commands start with 0xFF, the command and the length of the data and end with an XOR checksum. The stick
+     * confirms every command with the command ORed with 0x80 and a status byte.
+     */
+    private static class Amber extends StickFormat {
+
+        private static final int START_OF_COMMAND = 0xFF;
+        private static final int CMD_SET_REQ = 0x09;
+        private static final int REGISTER_MODE = 0x46;
+        private static final int REGISTER_RSSI = 0x45;
+        private static final int MODE_S = 0x03;
+        private static final int MODE_T = 0x08;
+
+        private final byte[] command = new byte[3 + 255 + 1];
+        private int commandLength;
+        private final int[] registers = new int[256];
+
+        @Override
+        int maxEncodedLength() {
+            return 256;
+        }
+
+        @Override
+        byte[] command(int b) {
+            if (commandLength == 0 && b != START_OF_COMMAND) {
+                return null;
+            }
+            command[commandLength++] = (byte) b;
+            if (commandLength < 3 || commandLength < 4 + (command[2] & 0xff)) {
+                return null;
+            }
+
+            int length = commandLength;
+            commandLength = 0;
+
+            int checksum = 0;
+            for (int i = 0; i < length - 1; i++) {
+                checksum ^= command[i];
+            }
+            if ((byte) checksum != command[length - 1]) {
+                return null;
+            }
+
+            int cmd = command[1] & 0xff;
+            if (cmd == CMD_SET_REQ && length >= 6) {
+                int register = command[3] & 0xff;
+                int count = Math.min(command[4] & 0xff, length - 6);
+                for (int i = 0; i < count && register + i < registers.length; i++) {
+                    registers[register + i] = command[5 + i] & 0xff;
+                }
+            }
+
+            byte[] confirm = new byte[] { (byte) START_OF_COMMAND, (byte) (cmd | 0x80), 0x01, 0x00, 0 };
+            confirm[4] = (byte) (confirm[0] ^ confirm[1] ^ confirm[2] ^ confirm[3]);
+            return confirm;
+        }
+
+        @Override
+        boolean isConfigured() {
+            int mode = registers[REGISTER_MODE];
+            return (mode == MODE_S || mode == MODE_T) && registers[REGISTER_RSSI] == 1;
+        }
+
+        @Override
+        int encode(byte[] frame, int offset, int length, Integer signalStrengthInDBm, byte[] destination,
+                int destinationOffset) {
+            int rssi = 0;
+            if (signalStrengthInDBm != null) {
+                rssi = Math.max(-128, Math.min(127, (signalStrengthInDBm + 74) * 2)) & 0xff;
+            }
+            return encodeWithRssiByte(frame, offset, length, rssi, destination, destinationOffset);
+        }
+
+    }
+
+    /*
+     * 0x00 enters the configuration mode, 'M' the memory configuration which takes pairs of register and value up to
+     * 0xFF, 'X' leaves the configuration mode. The stick prompts with '>' when it is ready for the next command.
+     */
+    private static class RadioCrafts extends StickFormat {
+
+        private static final int ENTER_CONFIG_MODE = 0x00;
+        private static final int MEMORY_CONFIGURATION = 0x4D;
+        private static final int END_OF_MEMORY_CONFIGURATION = 0xFF;
+        private static final int LEAVE_CONFIG_MODE = 0x58;
+        private static final int REGISTER_MODE = 0x03;
+        private static final int REGISTER_RSSI = 0x05;
+
+        private static final int NORMAL = 0;
+        private static final int CONFIG = 1;
+        private static final int MEMORY = 2;
+
+        private int state = NORMAL;
+        private int register = -1;
+        private final int[] registers = newRegisters();
+
+        private static int[] newRegisters() {
+            int[] registers = new int[256];
+            Arrays.fill(registers, -1);
+            return registers;
+        }
+
+        @Override
+        int maxEncodedLength() {
+            return 256;
+        }
+
+        @Override
+        byte[] command(int b) {
+            switch (state) {
+            case NORMAL:
+                if (b != ENTER_CONFIG_MODE) {
+                    // transmitted over the air
+                    return null;
+                }
+                state = CONFIG;
+                return prompt();
+            case CONFIG:
+                if (b == LEAVE_CONFIG_MODE) {
+                    state = NORMAL;
+                    return null;
+                }
+                if (b == MEMORY_CONFIGURATION) {
+                    state = MEMORY;
+                    register = -1;
+                }
+                return prompt();
+            default:
+                if (register < 0) {
+                    if (b == END_OF_MEMORY_CONFIGURATION) {
+                        state = CONFIG;
+                        return prompt();
+                    }
+                    register = b;
+                }
+                else {
+                    registers[register] = b;
+                    register = -1;
+                }
+                return null;
+            }
+        }
+
+        private static byte[] prompt() {
+            return new byte[] { ACK };
+        }
+
+        @Override
+        boolean isConfigured() {
+            int mode = registers[REGISTER_MODE];
+            return state == NORMAL && (mode == WMBusMode.S.getFlag() || mode == WMBusMode.T.getFlag())
+                    && registers[REGISTER_RSSI] == 1;
+        }
+
+        @Override
+        int encode(byte[] frame, int offset, int length, Integer signalStrengthInDBm, byte[] destination,
+                int destinationOffset) {
+            int rssi = signalStrengthInDBm == null ? 0 : clamp(-signalStrengthInDBm * 2);
+            return encodeWithRssiByte(frame, offset, length, rssi, destination, destinationOffset);
+        }
+
+    }
+
+    /*
+     * HCI message of the radio link endpoint, payload without L-field, RSSI attached if known. The stick answers the
+     * requests of the device management endpoint with a response carrying a status byte.
+     */
+    private static class Imst extends StickFormat {
+
+        private static final double RSSI_SLOPE = 80.0 / 150.0;
+        private static final double RSSI_OFFSET = -100.0 - (4000.0 / 150.0);
+
+        private final byte[] command = new byte[WMBusConnectionImst.Const.HCI_HEADER_LENGTH + 255 + 2];
+        private int commandLength;
+        private boolean linkModeSet;
+        private boolean rssiAttached;
+
+        @Override
+        int maxEncodedLength() {
+            return WMBusConnectionImst.Const.HCI_HEADER_LENGTH + 255 + 1;
+        }
+
+        @Override
+        byte[] command(int b) {
+            if (commandLength == 0 && (byte) b != WMBusConnectionImst.Const.START_OF_FRAME) {
+                return null;
+            }
+            command[commandLength++] = (byte) b;
+            if (commandLength < WMBusConnectionImst.Const.HCI_HEADER_LENGTH) {
+                return null;
+            }
+
+            int controlField = (command[1] >> 4) & 0x0f;
+            int length = WMBusConnectionImst.Const.HCI_HEADER_LENGTH + (command[3] & 0xff);
+            if ((controlField & WMBusConnectionImst.Const.CRC16_ATTACHED) != 0) {
+                length += 2;
+            }
+            if (commandLength < length) {
+                return null;
+            }
+            commandLength = 0;
+
+            int endpointId = command[1] & 0x0f;
+            int msgId = command[2];
+            if (endpointId != WMBusConnectionImst.Const.DEVMGMT_ID || (msgId & 0x01) == 0) {
+                return null;
+            }
+            if (msgId == WMBusConnectionImst.Const.DEVMGMT_MSG_SET_CONFIG_REQ) {
+                configure(command[3] & 0xff);
+            }
+            return new byte[] { WMBusConnectionImst.Const.START_OF_FRAME, WMBusConnectionImst.Const.DEVMGMT_ID,
+                    (byte) (msgId + 1), 0x01, 0x00 };
+        }
+
+        /*
+         * NVM flag, IIFlag 1 with device mode (bit 0) and link mode (bit 1), IIFlag 2 with the RSSI attachment (bit
+         * 4).
+         */
+        private void configure(int payloadLength) {
+            int i = WMBusConnectionImst.Const.HCI_HEADER_LENGTH;
+            int end = i + payloadLength;
+            if (payloadLength < 2) {
+                return;
+            }
+            i++;
+            int flags1 = command[i++];
+            if ((flags1 & 0x01) != 0) {
+                i++;
+            }
+            if ((flags1 & 0x02) != 0 && i < end) {
+                int linkMode = command[i++];
+                linkModeSet = linkMode == 0x01 || linkMode == 0x04;
+            }
+            if (i + 1 < end && (command[i] & 0x10) != 0) {
+                rssiAttached = command[i + 1] == 0x01;
+            }
+        }
+
+        @Override
+        boolean isConfigured() {
+            return linkModeSet && rssiAttached;
+        }
+
+        @Override
+        int encode(byte[] frame, int offset, int length, Integer signalStrengthInDBm, byte[] destination,
+                int destinationOffset) {
+            int controlField = signalStrengthInDBm == null ? 0 : WMBusConnectionImst.Const.RSSI_ATTACHED;
+            int payloadLength = length - 1;
+
+            int i = destinationOffset;
+            destination[i++] = WMBusConnectionImst.Const.START_OF_FRAME;
+            destination[i++] = (byte) (controlField << 4 | WMBusConnectionImst.Const.RADIOLINK_ID);
+            destination[i++] = WMBusConnectionImst.Const.RADIOLINK_MSG_WMBUSMSG_IND;
+            destination[i++] = (byte) payloadLength;
+            System.arraycopy(frame, offset + 1, destination, i, payloadLength);
+            i += payloadLength;
+
+            if (signalStrengthInDBm != null) {
+                // the receiver truncates, so round down to get the same value back
+                destination[i++] = (byte) clamp((int) Math.floor((signalStrengthInDBm - RSSI_OFFSET) / RSSI_SLOPE));
+            }
+            return i - destinationOffset;
+        }
+
+    }
+
+}
@@ -0,0 +1,271 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus.wireless;
+
+import java.security.GeneralSecurityException;
+import java.util.Random;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.openmuc.jmbus.DeviceType;
+import org.openmuc.jmbus.SecondaryAddress;
+
+/**
+ * Transport layer of a stick receiving synthetic telegrams from a population of meters.
+ * <p>
+ * The meters send in turn, every meter once per send interval. A telegram has a short transport layer header and
+ * carries a volume, which increases with every telegram, and a flow temperature. Encrypted telegrams use AES-CBC with
+ * a dynamic IV (security mode 5) and a key per meter. Noise bytes are inserted between the frames and bits of the
+ * encoded frames are flipped at random, as a disturbed radio link would do.
+ * </p>
+ */
+class SyntheticStickLayer extends EmulatedStickLayer {
+
+    private static final String MANUFACTURER_ID = "EMU";
+    private static final int FIRST_IDENTIFICATION_NUMBER = 10000000;
+    private static final int MAX_NOISE_LENGTH = 16;
+
+    private static final int SHORT_HEADER_LENGTH = 15;
+    private static final int RECORDS_LENGTH = 10;
+    private static final int ENCRYPTED_PAYLOAD_LENGTH = 16;
+
+    private final byte[][] addresses;
+    private final byte[][] keys;
+    private final int[] accessNumbers;
+    private final int[] volumes;
+
+    private final int numberOfTelegrams;
+    private final long gapNanos;
+    private final double noiseProbability;
+    private final double bitErrorRate;
+    private final Random random;
+    private final Cipher cipher;
+
+    private final byte[] frame = new byte[SHORT_HEADER_LENGTH + ENCRYPTED_PAYLOAD_LENGTH];
+    private int next;
+    private long bitsToNextError;
+    private volatile int corruptedFrames;
+
+    /**
+     * Creates the layer.
+     *
+     * @param format
+     *            the format of the stick.
+     * @param population
+     *            the number of meters.
+     * @param numberOfTelegrams
+     *            the number of telegrams after which the stream ends.
+     * @param sendIntervalNanos
+     *            the interval in which every meter sends, 0 to send as fast as the receiver reads.
+     * @param encrypted
+     *            <code>true</code> to encrypt the telegrams.
+     * @param noiseProbability
+     *            the probability of noise before a frame.
+     * @param bitErrorRate
+     *            the probability of a flipped bit.
+     * @param seed
+     *            the seed of the random generator.
+     */
+    SyntheticStickLayer(StickFormat format, int population, int numberOfTelegrams, long sendIntervalNanos,
+            boolean encrypted, double noiseProbability, double bitErrorRate, long seed) {
+        super(format);
+        this.numberOfTelegrams = numberOfTelegrams;
+        this.gapNanos = sendIntervalNanos == 0 ? -1 : sendIntervalNanos / population;
+        this.noiseProbability = noiseProbability;
+        this.bitErrorRate = bitErrorRate;
+        this.random = new Random(seed);
+
+        this.addresses = new byte[population][];
+        this.keys = encrypted ? new byte[population][] : null;
+        this.accessNumbers = new int[population];
+        this.volumes = new int[population];
+        for (int i = 0; i < population; i++) {
+            addresses[i] = linkLayerAddress(FIRST_IDENTIFICATION_NUMBER + i);
+            accessNumbers[i] = random.nextInt(256);
+            volumes[i] = random.nextInt(1000000);
+            if (encrypted) {
+                keys[i] = new byte[16];
+                random.nextBytes(keys[i]);
+            }
+        }
+
+        try {
+            this.cipher = encrypted ? Cipher.getInstance("AES/CBC/NoPadding") : null;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+        this.bitsToNextError = nextBitError();
+    }
+
+    int getPopulation() {
+        return addresses.length;
+    }
+
+    /**
+     * Returns the link layer address of a meter.
+     */
+    SecondaryAddress getAddress(int meter) {
+        return SecondaryAddress.newFromWMBusLlHeader(addresses[meter], 0);
+    }
+
+    /**
+     * Returns the key of a meter, <code>null</code> if the telegrams are not encrypted.
+     */
+    byte[] getKey(int meter) {
+        return keys == null ? null : keys[meter].clone();
+    }
+
+    int getCorruptedFrames() {
+        return corruptedFrames;
+    }
+
+    @Override
+    boolean hasNextFrame() {
+        return next < numberOfTelegrams;
+    }
+
+    @Override
+    long nextFrameDueNanos() {
+        return gapNanos < 0 ? -1 : next * gapNanos;
+    }
+
+    @Override
+    int maxEncodedLength() {
+        return MAX_NOISE_LENGTH + super.maxEncodedLength();
+    }
+
+    @Override
+    int encodeNextFrame(byte[] destination, int offset, long now) {
+        int i = offset;
+        if (noiseProbability > 0 && random.nextDouble() < noiseProbability) {
+            int noiseLength = 1 + random.nextInt(MAX_NOISE_LENGTH);
+            for (int end = i + noiseLength; i < end; i++) {
+                destination[i] = (byte) random.nextInt(256);
+            }
+        }
+
+        int length = nextTelegram(next++ % addresses.length);
+        int encodedLength = format.encode(frame, 0, length, -50 - random.nextInt(50), destination, i);
+        emitted(frame, length, now);
+
+        if (flipBits(destination, i, encodedLength)) {
+            corruptedFrames++;
+        }
+        return i + encodedLength - offset;
+    }
+
+    /*
+     * L-field, C-field, address, CI 0x7A, access number, status, configuration word and the payload.
+     */
+    private int nextTelegram(int meter) {
+        int accessNumber = accessNumbers[meter];
+        accessNumbers[meter] = (accessNumber + 1) & 0xff;
+        int volume = volumes[meter]++;
+
+        int payloadLength = keys == null ? RECORDS_LENGTH : ENCRYPTED_PAYLOAD_LENGTH;
+        int length = SHORT_HEADER_LENGTH + payloadLength;
+
+        int i = 0;
+        frame[i++] = (byte) (length - 1);
+        frame[i++] = 0x44;
+        System.arraycopy(addresses[meter], 0, frame, i, 8);
+        i += 8;
+        frame[i++] = 0x7A;
+        frame[i++] = (byte) accessNumber;
+        frame[i++] = 0x00;
+        frame[i++] = (byte) (keys == null ? 0x00 : 0x10);
+        frame[i++] = (byte) (keys == null ? 0x00 : 0x05);
+
+        int payloadOffset = i;
+        if (keys != null) {
+            frame[i++] = 0x2F;
+            frame[i++] = 0x2F;
+        }
+        frame[i++] = 0x04;
+        frame[i++] = 0x13;
+        frame[i++] = (byte) volume;
+        frame[i++] = (byte) (volume >> 8);
+        frame[i++] = (byte) (volume >> 16);
+        frame[i++] = (byte) (volume >> 24);
+        frame[i++] = 0x02;
+        frame[i++] = 0x5B;
+        frame[i++] = (byte) (15 + meter % 60);
+        frame[i++] = 0x00;
+        while (i < length) {
+            frame[i++] = 0x2F;
+        }
+
+        if (keys != null) {
+            encrypt(meter, accessNumber, payloadOffset, payloadLength);
+        }
+        return length;
+    }
+
+    /*
+     * The IV consists of the link layer address and eight times the access number.
+     */
+    private void encrypt(int meter, int accessNumber, int offset, int length) {
+        byte[] iv = new byte[16];
+        System.arraycopy(addresses[meter], 0, iv, 0, 8);
+        for (int i = 8; i < iv.length; i++) {
+            iv[i] = (byte) accessNumber;
+        }
+
+        try {
+            cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(keys[meter], "AES"), new IvParameterSpec(iv));
+            cipher.doFinal(frame, offset, length, frame, offset);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /*
+     * The distances between the bit errors are geometrically distributed, so only the errors cost random numbers.
+     */
+    private boolean flipBits(byte[] buffer, int offset, int length) {
+        if (bitErrorRate <= 0) {
+            return false;
+        }
+
+        long bits = length * 8L;
+        boolean flipped = false;
+        while (bitsToNextError < bits) {
+            int bit = (int) bitsToNextError;
+            buffer[offset + bit / 8] ^= 1 << (bit % 8);
+            flipped = true;
+            bitsToNextError += 1 + nextBitError();
+        }
+        bitsToNextError -= bits;
+        return flipped;
+    }
+
+    private long nextBitError() {
+        if (bitErrorRate <= 0) {
+            return Long.MAX_VALUE;
+        }
+        if (bitErrorRate >= 1) {
+            return 0;
+        }
+        return (long) (Math.log(1 - random.nextDouble()) / Math.log(1 - bitErrorRate));
+    }
+
+    /*
+     * Manufacturer, identification number, version and device type.
+     */
+    private static byte[] linkLayerAddress(int identificationNumber) {
+        byte[] longHeader = SecondaryAddress
+                .from(identificationNumber, MANUFACTURER_ID, 1, DeviceType.WATER_METER)
+                .asByteArray();
+        byte[] address = new byte[8];
+        System.arraycopy(longHeader, 4, address, 0, 2);
+        System.arraycopy(longHeader, 0, address, 2, 4);
+        System.arraycopy(longHeader, 6, address, 6, 2);
+        return address;
+    }
+
+}
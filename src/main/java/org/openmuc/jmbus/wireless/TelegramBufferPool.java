@@ -0,0 +1,82 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus.wireless;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of fixed size buffers for received wireless M-Bus frames.
+ * <p>
+ * A buffer is large enough for any frame (L-field 255). If the pool is empty a new buffer is allocated, buffers
+ * returned to a full pool are left to the garbage collector.
+ * </p>
+ * <p>
+ * The messages decoded from the buffers are pooled as well, including their variable data structure, and recycled
+ * when they are released. Their secondary addresses are shared by all messages of a meter. Receiving a telegram thus
+ * allocates nothing once the pool and the addresses are warm, only decoding the data records does.
+ * </p>
+ */
+class TelegramBufferPool {
+
+    static final int BUFFER_SIZE = 256;
+
+    private final ArrayBlockingQueue<byte[]> buffers;
+    private final ArrayBlockingQueue<WMBusMessage> messages;
+    private final AtomicLong misses = new AtomicLong();
+
+    TelegramBufferPool(int capacity) {
+        this.buffers = new ArrayBlockingQueue<>(capacity);
+        this.messages = new ArrayBlockingQueue<>(capacity);
+        for (int i = 0; i < capacity; i++) {
+            this.buffers.offer(new byte[BUFFER_SIZE]);
+            this.messages.offer(new WMBusMessage(this));
+        }
+    }
+
+    byte[] acquire() {
+        byte[] buffer = buffers.poll();
+        if (buffer == null) {
+            misses.incrementAndGet();
+            buffer = new byte[BUFFER_SIZE];
+        }
+        return buffer;
+    }
+
+    void release(byte[] buffer) {
+        buffers.offer(buffer);
+    }
+
+    /*
+     * Returns an empty message of this pool, filled by the caller.
+     */
+    WMBusMessage acquireMessage() {
+        WMBusMessage message = messages.poll();
+        if (message == null) {
+            message = new WMBusMessage(this);
+        }
+        return message;
+    }
+
+    void recycle(WMBusMessage message) {
+        messages.offer(message);
+    }
+
+    /**
+     * Returns the number of buffers currently in the pool.
+     */
+    int available() {
+        return buffers.size();
+    }
+
+    /**
+     * Returns how often the pool was empty and a buffer had to be allocated.
+     */
+    long misses() {
+        return misses.get();
+    }
+
+}
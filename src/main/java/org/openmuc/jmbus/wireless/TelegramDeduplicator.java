@@ -0,0 +1,206 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus.wireless;
+
+import java.util.Arrays;
+
+import org.openmuc.jmbus.SecondaryAddress;
+
+/**
+ * Detects repeated receptions of the same telegram, e.g. via a repeater, within a time window.
+ * <p>
+ * A telegram is identified by its link layer address, its access number and a hash of the frame from the CI-field on.
+ * The bits a repeater changes, the hop counter of the configuration field and the hop count bit of the ELL
+ * communication control field, are left out of the hash, so a repeated copy matches the original. The seen telegrams
+ * are stored in a ring of time buckets, each an open addressing hash table of primitive arrays. A bucket is cleared
+ * when it is reused, so entries expire after the window without any per entry bookkeeping. If a bucket is full, further
+ * telegrams are not recorded.
+ * </p>
+ * <p>
+ * Not thread safe, used by the receiver thread only.
+ * </p>
+ */
+class TelegramDeduplicator {
+
+    private static final int NUMBER_OF_BUCKETS = 4;
+    private static final int BUCKET_CAPACITY = 1024;
+    private static final int MAX_ENTRIES = BUCKET_CAPACITY / 4 * 3;
+
+    static final int ADDRESS_OFFSET = 2;
+    static final int CI_OFFSET = 10;
+    private static final int UNKNOWN_ACCESS_NUMBER = 0x100;
+
+    private final long bucketNanos;
+    private final long origin = System.nanoTime();
+
+    private final long[][] addresses = new long[NUMBER_OF_BUCKETS][BUCKET_CAPACITY];
+    private final long[][] fingerprints = new long[NUMBER_OF_BUCKETS][BUCKET_CAPACITY];
+    private final int[] sizes = new int[NUMBER_OF_BUCKETS];
+    private final long[] epochs = new long[NUMBER_OF_BUCKETS];
+
+    private volatile long hits;
+    private volatile long misses;
+
+    TelegramDeduplicator(long windowMillis) {
+        if (windowMillis <= 0) {
+            throw new IllegalArgumentException("Deduplication window must be positive.");
+        }
+        this.bucketNanos = Math.max(1, windowMillis * 1000000L / (NUMBER_OF_BUCKETS - 1));
+        Arrays.fill(epochs, -1);
+    }
+
+    /**
+     * Checks if the telegram was seen within the window and records it otherwise.
+     *
+     * @param frame
+     *            the buffer holding the frame starting with the L-field.
+     * @param length
+     *            the length of the frame.
+     * @return <code>true</code> if the telegram is a duplicate.
+     */
+    boolean isDuplicate(byte[] frame, int length) {
+        return isDuplicate(frame, length, System.nanoTime() - origin);
+    }
+
+    /*
+     * elapsedNanos: time since the creation of the deduplicator.
+     */
+    boolean isDuplicate(byte[] frame, int length, long elapsedNanos) {
+        if (length <= CI_OFFSET) {
+            misses++;
+            return false;
+        }
+
+        long address = SecondaryAddress.pack(frame, ADDRESS_OFFSET);
+        long fingerprint = fingerprint(frame, length);
+        int hash = hash(address, fingerprint);
+
+        long epoch = elapsedNanos / bucketNanos;
+        for (int i = 0; i < NUMBER_OF_BUCKETS; i++) {
+            long bucketEpoch = epochs[i];
+            if (bucketEpoch >= 0 && epoch - bucketEpoch < NUMBER_OF_BUCKETS
+                    && contains(i, hash, address, fingerprint)) {
+                hits++;
+                return true;
+            }
+        }
+
+        misses++;
+        insert(bucketFor(epoch), hash, address, fingerprint);
+        return false;
+    }
+
+    long getHits() {
+        return hits;
+    }
+
+    long getMisses() {
+        return misses;
+    }
+
+    private int bucketFor(long epoch) {
+        int bucket = (int) (epoch % NUMBER_OF_BUCKETS);
+        if (epochs[bucket] != epoch) {
+            epochs[bucket] = epoch;
+            Arrays.fill(fingerprints[bucket], 0);
+            sizes[bucket] = 0;
+        }
+        return bucket;
+    }
+
+    private boolean contains(int bucket, int hash, long address, long fingerprint) {
+        long[] bucketAddresses = addresses[bucket];
+        long[] bucketFingerprints = fingerprints[bucket];
+
+        for (int i = hash;; i = (i + 1) & (BUCKET_CAPACITY - 1)) {
+            long f = bucketFingerprints[i];
+            if (f == 0) {
+                return false;
+            }
+            if (f == fingerprint && bucketAddresses[i] == address) {
+                return true;
+            }
+        }
+    }
+
+    private void insert(int bucket, int hash, long address, long fingerprint) {
+        if (sizes[bucket] >= MAX_ENTRIES) {
+            return;
+        }
+
+        long[] bucketFingerprints = fingerprints[bucket];
+        int i = hash;
+        while (bucketFingerprints[i] != 0) {
+            i = (i + 1) & (BUCKET_CAPACITY - 1);
+        }
+        bucketFingerprints[i] = fingerprint;
+        addresses[bucket][i] = address;
+        sizes[bucket]++;
+    }
+
+    /*
+     * Access number in bits 32 - 40, FNV-1a hash of the frame from the CI-field on in bits 0 - 31. Bit 48 is always set
+     * to distinguish a fingerprint from an empty slot.
+     */
+    static long fingerprint(byte[] frame, int length) {
+        int repeaterOffset;
+        int repeaterBits;
+        switch (frame[CI_OFFSET] & 0xff) {
+        case 0x7a: /* short header, hop counter in bits 0 - 1 of the configuration field */
+            repeaterOffset = CI_OFFSET + 3;
+            repeaterBits = 0x03;
+            break;
+        case 0x72: /* long header */
+            repeaterOffset = CI_OFFSET + 11;
+            repeaterBits = 0x03;
+            break;
+        case 0x8d: /* ELL, hop count bit of the communication control field */
+            repeaterOffset = CI_OFFSET + 1;
+            repeaterBits = 0x10;
+            break;
+        default:
+            repeaterOffset = -1;
+            repeaterBits = 0;
+        }
+
+        int payloadHash = 0x811C9DC5;
+        for (int i = CI_OFFSET; i < length; i++) {
+            int b = frame[i] & 0xff;
+            if (i == repeaterOffset) {
+                b &= ~repeaterBits;
+            }
+            payloadHash ^= b;
+            payloadHash *= 0x01000193;
+        }
+
+        return 1L << 48 | ((long) accessNumber(frame, length) << 32) | (payloadHash & 0xffffffffL);
+    }
+
+    private static int accessNumber(byte[] frame, int length) {
+        int ciField = frame[CI_OFFSET] & 0xff;
+        int offset;
+        switch (ciField) {
+        case 0x7a: /* short header */
+            offset = CI_OFFSET + 1;
+            break;
+        case 0x8d: /* ELL */
+            offset = CI_OFFSET + 2;
+            break;
+        case 0x72: /* long header */
+            offset = CI_OFFSET + 9;
+            break;
+        default:
+            return UNKNOWN_ACCESS_NUMBER;
+        }
+        return offset < length ? frame[offset] & 0xff : UNKNOWN_ACCESS_NUMBER;
+    }
+
+    private static int hash(long address, long fingerprint) {
+        long h = (address ^ fingerprint) * 0x9E3779B97F4A7C15L;
+        return (int) (h >>> 40) & (BUCKET_CAPACITY - 1);
+    }
+
+}
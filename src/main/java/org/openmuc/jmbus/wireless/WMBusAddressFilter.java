@@ -0,0 +1,115 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus.wireless;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+import org.openmuc.jmbus.SecondaryAddress;
+
+/**
+ * Immutable set of link layer addresses used to drop telegrams of foreign meters before they are decoded.
+ * <p>
+ * The eight address bytes of the frame (manufacturer, ID, version and device type) are compared as one
+ * <code>long</code> against a sorted array, a telegram is checked without creating any object. To change the set at
+ * runtime a new filter is passed to {@link WMBusConnection#setAddressFilter(WMBusAddressFilter)}.
+ * </p>
+ */
+public class WMBusAddressFilter {
+
+    private static final int ADDRESS_OFFSET = 2;
+    private static final int ADDRESS_LENGTH = 8;
+
+    private final long[] addresses;
+    private final boolean allow;
+
+    private WMBusAddressFilter(long[] addresses, boolean allow) {
+        this.addresses = addresses;
+        this.allow = allow;
+    }
+
+    /**
+     * Creates a filter accepting only the telegrams of the given meters.
+     *
+     * @param addresses
+     *            the secondary addresses of the meters.
+     * @return the filter.
+     */
+    public static WMBusAddressFilter allow(Collection<SecondaryAddress> addresses) {
+        return new WMBusAddressFilter(toSortedArray(addresses), true);
+    }
+
+    /**
+     * Creates a filter dropping the telegrams of the given meters.
+     *
+     * @param addresses
+     *            the secondary addresses of the meters.
+     * @return the filter.
+     */
+    public static WMBusAddressFilter deny(Collection<SecondaryAddress> addresses) {
+        return new WMBusAddressFilter(toSortedArray(addresses), false);
+    }
+
+    /**
+     * Checks if a telegram passes the filter.
+     *
+     * @param frame
+     *            the buffer holding the frame starting with the L-field.
+     * @param length
+     *            the length of the frame.
+     * @return <code>true</code> if the telegram should be decoded. Frames too short to hold an address are accepted.
+     */
+    public boolean accepts(byte[] frame, int length) {
+        if (length < ADDRESS_OFFSET + ADDRESS_LENGTH) {
+            return true;
+        }
+        return accepts(SecondaryAddress.pack(frame, ADDRESS_OFFSET));
+    }
+
+    /**
+     * Checks if the telegrams of a meter pass the filter.
+     *
+     * @param address
+     *            the secondary address of the meter.
+     * @return <code>true</code> if the telegrams should be decoded.
+     */
+    public boolean accepts(SecondaryAddress address) {
+        return accepts(address.asWMBusLlHeaderLong());
+    }
+
+    boolean accepts(long address) {
+        return (Arrays.binarySearch(addresses, address) >= 0) == allow;
+    }
+
+    /**
+     * Returns the number of addresses in the filter.
+     *
+     * @return the number of addresses.
+     */
+    public int size() {
+        return addresses.length;
+    }
+
+    /**
+     * Returns if only the telegrams of the addresses in the filter are accepted.
+     *
+     * @return <code>true</code> for an allow list, <code>false</code> for a deny list.
+     */
+    public boolean isAllowList() {
+        return allow;
+    }
+
+    private static long[] toSortedArray(Collection<SecondaryAddress> secondaryAddresses) {
+        long[] addresses = new long[secondaryAddresses.size()];
+        int i = 0;
+        for (SecondaryAddress secondaryAddress : secondaryAddresses) {
+            addresses[i++] = secondaryAddress.asWMBusLlHeaderLong();
+        }
+        Arrays.sort(addresses);
+        return addresses;
+    }
+
+}
@@ -0,0 +1,562 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus.wireless;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.openmuc.jmbus.SecondaryAddress;
+import org.openmuc.jmbus.wireless.WMBusConnection.WMBusSerialBuilder;
+
+/**
+ * Merges the messages of several wireless M-Bus connections, e.g. transceivers in different modes or at different
+ * positions, into one listener.
+ * <p>
+ * A telegram received by several transceivers is passed to the listener only once. The first reception is held for
+ * the hold time, the copy with the best RSSI received within that time is delivered. Copies received within a further
+ * hold time after the delivery are dropped as well. A telegram is identified by its link layer address, its access
+ * number and its payload.
+ * </p>
+ * <p>
+ * Discarded bytes and stopped listening events of the connections are passed on directly. The listener is notified
+ * by a single thread, the messages are passed on in the order of their first reception.
+ * </p>
+ *
+ * <pre>
+ * WMBusAggregator aggregator = WMBusAggregator.open(listener, 500);
+ * aggregator.addConnection("S", new WMBusSerialBuilder(WMBusManufacturer.AMBER, null, "/dev/ttyUSB0")
+ *         .setMode(WMBusMode.S));
+ * aggregator.addConnection("T", new WMBusSerialBuilder(WMBusManufacturer.IMST, null, "/dev/ttyUSB1"));
+ * </pre>
+ */
+public class WMBusAggregator implements AutoCloseable {
+
+    /**
+     * The maximal number of connections of an aggregator.
+     */
+    public static final int MAX_RECEIVERS = 64;
+
+    private final WMBusListener listener;
+    private final long holdNanos;
+
+    private final List<Receiver> receivers = new ArrayList<>();
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private final Map<Pending, Pending> pending = new HashMap<>();
+    private final ArrayDeque<Pending> deliveries = new ArrayDeque<>();
+    private final ArrayDeque<Pending> expiries = new ArrayDeque<>();
+    private final Pending probe = new Pending();
+    private final Thread notifier;
+
+    private long deliveredMessages;
+    private boolean closed;
+
+    /**
+     * Per connection counters of an aggregator.
+     */
+    public static class ReceiverStatistics {
+
+        private final String name;
+        private final long receptions;
+        private final long uniqueContributions;
+        private final long selectedCopies;
+        private final long discards;
+
+        ReceiverStatistics(String name, long receptions, long uniqueContributions, long selectedCopies,
+                long discards) {
+            this.name = name;
+            this.receptions = receptions;
+            this.uniqueContributions = uniqueContributions;
+            this.selectedCopies = selectedCopies;
+            this.discards = discards;
+        }
+
+        /**
+         * Returns the name the connection was added with.
+         *
+         * @return the name.
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Returns the number of messages received by the connection, including duplicates.
+         *
+         * @return the number of receptions.
+         */
+        public long getReceptions() {
+            return receptions;
+        }
+
+        /**
+         * Returns the number of telegrams which were received by this connection only.
+         *
+         * @return the number of unique contributions.
+         */
+        public long getUniqueContributions() {
+            return uniqueContributions;
+        }
+
+        /**
+         * Returns the number of telegrams passed on in the copy of this connection.
+         *
+         * @return the number of selected copies.
+         */
+        public long getSelectedCopies() {
+            return selectedCopies;
+        }
+
+        /**
+         * Returns the number of times the connection discarded noisy data.
+         *
+         * @return the number of discards.
+         */
+        public long getDiscards() {
+            return discards;
+        }
+
+        @Override
+        public String toString() {
+            return new StringBuilder().append(name)
+                    .append(": receptions: ")
+                    .append(receptions)
+                    .append(", unique: ")
+                    .append(uniqueContributions)
+                    .append(", selected: ")
+                    .append(selectedCopies)
+                    .append(", discards: ")
+                    .append(discards)
+                    .toString();
+        }
+    }
+
+    /*
+     * Telegram seen within the last two hold times. Also used as its own key. The fingerprint is 0 for telegrams which
+     * are too short to be identified.
+     */
+    private static class Pending {
+        long address;
+        long fingerprint;
+        long deadline;
+        long receivedBy;
+        Receiver bestReceiver;
+        WMBusMessage message;
+
+        @Override
+        public int hashCode() {
+            long h = (address ^ fingerprint) * 0x9E3779B97F4A7C15L;
+            return (int) (h >>> 32);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Pending)) {
+                return false;
+            }
+            Pending other = (Pending) obj;
+            return address == other.address && fingerprint == other.fingerprint;
+        }
+    }
+
+    private class Receiver implements WMBusListener {
+
+        private final String name;
+        private final long bit;
+        private WMBusConnection connection;
+
+        private volatile long receptions;
+        private volatile long uniqueContributions;
+        private volatile long selectedCopies;
+        private volatile long discards;
+
+        Receiver(String name, int index) {
+            this.name = name;
+            this.bit = 1L << index;
+        }
+
+        @Override
+        public void newMessage(WMBusMessage message) {
+            receive(this, message);
+        }
+
+        @Override
+        public void discardedBytes(byte[] bytes) {
+            discards++;
+            listener.discardedBytes(bytes);
+        }
+
+        @Override
+        public void stoppedListening(IOException cause) {
+            listener.stoppedListening(cause);
+        }
+
+        ReceiverStatistics statistics() {
+            return new ReceiverStatistics(name, receptions, uniqueContributions, selectedCopies, discards);
+        }
+    }
+
+    /**
+     * Creates an aggregator without connections and starts the thread notifying the listener.
+     *
+     * @param listener
+     *            the listener receiving the merged messages.
+     * @param holdMillis
+     *            the time in milliseconds the first reception of a telegram waits for copies of other connections.
+     * @return the aggregator.
+     */
+    public static WMBusAggregator open(WMBusListener listener, long holdMillis) {
+        WMBusAggregator aggregator = new WMBusAggregator(listener, holdMillis);
+        aggregator.notifier.start();
+        return aggregator;
+    }
+
+    /*
+     * The notifier is started by open() once the aggregator is fully constructed.
+     */
+    private WMBusAggregator(WMBusListener listener, long holdMillis) {
+        if (holdMillis <= 0) {
+            throw new IllegalArgumentException("Hold time must be positive.");
+        }
+        this.listener = listener;
+        this.holdNanos = TimeUnit.MILLISECONDS.toNanos(holdMillis);
+
+        this.notifier = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                notifyListener();
+            }
+        }, "jmbus-wmbus-aggregator");
+    }
+
+    /**
+     * Builds and opens a connection which passes its messages to this aggregator. The listener of the builder is
+     * replaced.
+     *
+     * @param name
+     *            the name of the connection used in the statistics.
+     * @param builder
+     *            the builder of the connection.
+     * @return the opened connection.
+     * @throws IOException
+     *             if the connection could not be opened.
+     * @throws IllegalStateException
+     *             if the aggregator is closed or already has {@link #MAX_RECEIVERS} connections.
+     */
+    public WMBusConnection addConnection(String name, WMBusSerialBuilder builder) throws IOException {
+        Receiver receiver = newReceiver(name);
+        WMBusConnection connection = builder.setListener(receiver).build();
+        synchronized (receivers) {
+            receiver.connection = connection;
+        }
+        return connection;
+    }
+
+    /*
+     * Registers a receiver without connection. The returned listener is notified by the connection.
+     */
+    WMBusListener addReceiver(String name) {
+        return newReceiver(name);
+    }
+
+    private Receiver newReceiver(String name) {
+        synchronized (receivers) {
+            if (isClosed()) {
+                throw new IllegalStateException("Aggregator is closed.");
+            }
+            if (receivers.size() == MAX_RECEIVERS) {
+                throw new IllegalStateException("Aggregator has already " + MAX_RECEIVERS + " connections.");
+            }
+            Receiver receiver = new Receiver(name, receivers.size());
+            receivers.add(receiver);
+            return receiver;
+        }
+    }
+
+    /**
+     * Stores a pair of secondary address and cryptographic key in all connections.
+     *
+     * @param address
+     *            the secondary address.
+     * @param key
+     *            the cryptographic key.
+     * @see WMBusConnection#addKey(SecondaryAddress, byte[])
+     */
+    public void addKey(SecondaryAddress address, byte[] key) {
+        for (WMBusConnection connection : connections()) {
+            connection.addKey(address, key);
+        }
+    }
+
+    /**
+     * Removes the stored key for the given secondary address from all connections.
+     *
+     * @param address
+     *            the secondary address for which to remove the stored key.
+     * @see WMBusConnection#removeKey(SecondaryAddress)
+     */
+    public void removeKey(SecondaryAddress address) {
+        for (WMBusConnection connection : connections()) {
+            connection.removeKey(address);
+        }
+    }
+
+    /**
+     * Sets the address filter of all connections.
+     *
+     * @param addressFilter
+     *            the filter, <code>null</code> accepts all telegrams.
+     * @see WMBusConnection#setAddressFilter(WMBusAddressFilter)
+     */
+    public void setAddressFilter(WMBusAddressFilter addressFilter) {
+        for (WMBusConnection connection : connections()) {
+            connection.setAddressFilter(addressFilter);
+        }
+    }
+
+    /**
+     * Returns the counters of every connection in the order they were added.
+     *
+     * @return the statistics of the connections.
+     */
+    public List<ReceiverStatistics> getReceiverStatistics() {
+        synchronized (receivers) {
+            List<ReceiverStatistics> statistics = new ArrayList<>(receivers.size());
+            for (Receiver receiver : receivers) {
+                statistics.add(receiver.statistics());
+            }
+            return Collections.unmodifiableList(statistics);
+        }
+    }
+
+    /**
+     * Returns the number of messages passed to the listener.
+     *
+     * @return the number of delivered messages.
+     */
+    public long getDeliveredMessages() {
+        lock.lock();
+        try {
+            return deliveredMessages;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Closes all connections and passes the held messages to the listener.
+     */
+    @Override
+    public void close() throws IOException {
+        IOException exception = null;
+        for (WMBusConnection connection : connections()) {
+            try {
+                connection.close();
+            } catch (IOException e) {
+                exception = e;
+            }
+        }
+
+        lock.lock();
+        try {
+            closed = true;
+            changed.signal();
+        } finally {
+            lock.unlock();
+        }
+
+        if (Thread.currentThread() != notifier) {
+            boolean interrupted = false;
+            while (notifier.isAlive()) {
+                try {
+                    notifier.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        if (exception != null) {
+            throw exception;
+        }
+    }
+
+    private boolean isClosed() {
+        lock.lock();
+        try {
+            return closed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private List<WMBusConnection> connections() {
+        synchronized (receivers) {
+            List<WMBusConnection> connections = new ArrayList<>(receivers.size());
+            for (Receiver receiver : receivers) {
+                if (receiver.connection != null) {
+                    connections.add(receiver.connection);
+                }
+            }
+            return connections;
+        }
+    }
+
+    private void receive(Receiver receiver, WMBusMessage message) {
+        byte[] frame = message.buffer();
+        int length = Math.min((frame[0] & 0xff) + 1, frame.length);
+        receiver.receptions++;
+
+        // too short to be identified, passed on without deduplication
+        boolean identifiable = length > TelegramDeduplicator.CI_OFFSET;
+        long address = identifiable ? SecondaryAddress.pack(frame, TelegramDeduplicator.ADDRESS_OFFSET) : 0;
+        long fingerprint = identifiable ? TelegramDeduplicator.fingerprint(frame, length) : 0;
+        WMBusMessage replaced = null;
+
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+
+            Pending entry = null;
+            if (identifiable) {
+                probe.address = address;
+                probe.fingerprint = fingerprint;
+                entry = pending.get(probe);
+            }
+
+            if (entry == null) {
+                entry = new Pending();
+                entry.address = address;
+                entry.fingerprint = fingerprint;
+                entry.deadline = System.nanoTime() + (identifiable ? holdNanos : 0);
+                entry.receivedBy = receiver.bit;
+                entry.bestReceiver = receiver;
+                entry.message = message.retain();
+                if (identifiable) {
+                    pending.put(entry, entry);
+                }
+                deliveries.add(entry);
+                changed.signal();
+                return;
+            }
+
+            entry.receivedBy |= receiver.bit;
+            if (entry.message != null && isStronger(message, entry.message)) {
+                replaced = entry.message;
+                entry.message = message.retain();
+                entry.bestReceiver = receiver;
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        if (replaced != null) {
+            replaced.release();
+        }
+    }
+
+    private static boolean isStronger(WMBusMessage message, WMBusMessage current) {
+        Integer rssi = message.getRssi();
+        Integer currentRssi = current.getRssi();
+        return rssi != null && (currentRssi == null || rssi > currentRssi);
+    }
+
+    private void notifyListener() {
+        List<WMBusMessage> due = new ArrayList<>();
+
+        while (true) {
+            boolean stop;
+
+            lock.lock();
+            try {
+                while (!closed && !isDue(deliveries.peek()) && !isDue(expiries.peek())) {
+                    long now = System.nanoTime();
+                    long wait = Long.MAX_VALUE;
+                    if (!deliveries.isEmpty()) {
+                        wait = deliveries.peek().deadline - now;
+                    }
+                    if (!expiries.isEmpty()) {
+                        wait = Math.min(wait, expiries.peek().deadline - now);
+                    }
+
+                    if (wait == Long.MAX_VALUE) {
+                        changed.awaitUninterruptibly();
+                    }
+                    else {
+                        try {
+                            changed.awaitNanos(wait);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            closed = true;
+                        }
+                    }
+                }
+                stop = closed;
+
+                while (!deliveries.isEmpty() && (closed || isDue(deliveries.peek()))) {
+                    Pending entry = deliveries.poll();
+                    due.add(entry.message);
+                    entry.message = null;
+                    entry.bestReceiver.selectedCopies++;
+                    deliveredMessages++;
+                    if (entry.fingerprint != 0) {
+                        // remember the telegram to drop late copies
+                        entry.deadline += holdNanos;
+                        expiries.add(entry);
+                    }
+                }
+
+                while (!expiries.isEmpty() && (closed || isDue(expiries.peek()))) {
+                    expire(expiries.poll());
+                }
+            } finally {
+                lock.unlock();
+            }
+
+            for (WMBusMessage message : due) {
+                try {
+                    listener.newMessage(message);
+                } catch (RuntimeException e) {
+                    Thread thread = Thread.currentThread();
+                    thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+                } finally {
+                    message.release();
+                }
+            }
+            due.clear();
+
+            if (stop) {
+                return;
+            }
+        }
+    }
+
+    private void expire(Pending entry) {
+        pending.remove(entry);
+        if (Long.bitCount(entry.receivedBy) == 1) {
+            entry.bestReceiver.uniqueContributions++;
+        }
+    }
+
+    private static boolean isDue(Pending entry) {
+        return entry != null && entry.deadline - System.nanoTime() <= 0;
+    }
+
+}
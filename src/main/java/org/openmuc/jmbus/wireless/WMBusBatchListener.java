@@ -0,0 +1,45 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus.wireless;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Wireless M-Bus listener which receives the messages in batches.
+ * <p>
+ * A batch is passed on as soon as it reaches the maximal batch size, the first message of the batch waited for the
+ * maximal linger time, or an other event (discarded bytes, stopped listening) has to be delivered.
+ * </p>
+ * 
+ * @see WMBusConnection.WMBusSerialBuilder#setBatching(int, long)
+ */
+public interface WMBusBatchListener extends WMBusListener {
+
+    /**
+     * Received new wireless M-Bus messages.
+     * <p>
+     * The list is reused for the next batch and must not be kept or modified. Messages of a connection with pooled
+     * buffers have to be retained to be used after this method returned.
+     * </p>
+     * 
+     * @param messages
+     *            the messages in the order they were received.
+     */
+    void newMessages(List<WMBusMessage> messages);
+
+    /**
+     * Passes a single message as batch to {@link #newMessages(List)}.
+     * 
+     * @param message
+     *            the message.
+     */
+    @Override
+    default void newMessage(WMBusMessage message) {
+        newMessages(Collections.singletonList(message));
+    }
+
+}
@@ -8,6 +8,8 @@ package org.openmuc.jmbus.wireless;
 import java.io.IOException;
 import java.text.MessageFormat;
 
+import org.openmuc.jmbus.LatestValueStore;
+import org.openmuc.jmbus.MBusMetrics;
 import org.openmuc.jmbus.SecondaryAddress;
 import org.openmuc.jmbus.transportlayer.SerialBuilder;
 import org.openmuc.jrxtx.DataBits;
@@ -50,11 +52,40 @@ public interface WMBusConnection extends AutoCloseable {
      */
     void removeKey(SecondaryAddress address);
 
+    /**
+     * Returns a snapshot of the counters of this connection.
+     * 
+     * @return the statistics.
+     */
+    WMBusStatistics getStatistics();
+
+    /**
+     * Sets the filter applied to the link layer address of received telegrams before they are decoded. The filter can
+     * be replaced at any time, the receiver uses the new filter for the next telegram.
+     * 
+     * @param addressFilter
+     *            the filter, <code>null</code> accepts all telegrams.
+     * 
+     * @see WMBusStatistics#getFilteredMessages()
+     */
+    void setAddressFilter(WMBusAddressFilter addressFilter);
+
     class WMBusSerialBuilder extends SerialBuilder<WMBusConnection, WMBusSerialBuilder> {
 
         private WMBusManufacturer wmBusManufacturer;
         private WMBusMode mode;
         private WMBusListener listener;
+        private int bufferPoolSize;
+        private int dispatchQueueCapacity = AbstractWMBusConnection.DEFAULT_DISPATCH_QUEUE_CAPACITY;
+        private DispatchPolicy dispatchPolicy = DispatchPolicy.BLOCK;
+        private int decodeWorkers;
+        private boolean orderedDelivery = true;
+        private int maxBatchSize = 1;
+        private long maxLingerMillis;
+        private long deduplicationWindowMillis;
+        private WMBusAddressFilter addressFilter;
+        private LatestValueStore latestValueStore;
+        private MBusMetrics metrics;
 
         public WMBusSerialBuilder(WMBusManufacturer wmBusManufacturer, WMBusListener listener, String serialPortName) {
             super(serialPortName);
@@ -95,6 +126,156 @@ public interface WMBusConnection extends AutoCloseable {
             return self();
         }
 
+        /**
+         * Enables pooled receive buffers. Received messages are then only valid until
+         * {@link WMBusListener#newMessage(WMBusMessage)} returns, unless the listener calls
+         * {@link WMBusMessage#retain()}. Disabled by default.
+         * <p>
+         * The frame buffers and the messages, including their variable data structure, are recycled and the secondary
+         * addresses are shared per meter, so receiving telegrams does not allocate in steady state. Decoding the data
+         * records still allocates the records.
+         * </p>
+         * 
+         * @param bufferPoolSize
+         *            the number of preallocated buffers, 0 disables pooling.
+         * @return the builder.
+         */
+        public WMBusSerialBuilder setBufferPoolSize(int bufferPoolSize) {
+            if (bufferPoolSize < 0) {
+                throw new IllegalArgumentException("Buffer pool size must not be negative.");
+            }
+            this.bufferPoolSize = bufferPoolSize;
+            return self();
+        }
+
+        /**
+         * Sets the capacity of the queue between the receiver and the listener. Default is 1024.
+         * 
+         * @param dispatchQueueCapacity
+         *            the number of events the queue can hold.
+         * @return the builder.
+         */
+        public WMBusSerialBuilder setDispatchQueueCapacity(int dispatchQueueCapacity) {
+            if (dispatchQueueCapacity <= 0) {
+                throw new IllegalArgumentException("Dispatch queue capacity must be positive.");
+            }
+            this.dispatchQueueCapacity = dispatchQueueCapacity;
+            return self();
+        }
+
+        /**
+         * Sets the policy applied if the listener can not keep up and the dispatch queue is full. Default is
+         * {@link DispatchPolicy#BLOCK}.
+         * 
+         * @param dispatchPolicy
+         *            the dispatch policy.
+         * @return the builder.
+         */
+        public WMBusSerialBuilder setDispatchPolicy(DispatchPolicy dispatchPolicy) {
+            this.dispatchPolicy = dispatchPolicy;
+            return self();
+        }
+
+        /**
+         * Decodes the received messages on a pool of worker threads instead of the receiver thread. The workers also
+         * decode the variable data structure of the messages, including the decryption. Messages which can not be
+         * decoded, e.g. because of a missing key, are passed to the listener undecoded. By default the receiver thread
+         * decodes the message header only.
+         * 
+         * @param decodeWorkers
+         *            the number of worker threads, 0 decodes on the receiver thread.
+         * @param orderedDelivery
+         *            if <code>true</code> the messages are passed to the listener in the order of reception, otherwise
+         *            as soon as they are decoded.
+         * @return the builder.
+         */
+        public WMBusSerialBuilder setDecodeWorkers(int decodeWorkers, boolean orderedDelivery) {
+            if (decodeWorkers < 0) {
+                throw new IllegalArgumentException("Number of decode workers must not be negative.");
+            }
+            this.decodeWorkers = decodeWorkers;
+            this.orderedDelivery = orderedDelivery;
+            return self();
+        }
+
+        /**
+         * Configures the batches passed to a {@link WMBusBatchListener}. Has no effect for other listeners. By default
+         * every message is passed on its own.
+         * 
+         * @param maxBatchSize
+         *            the maximal number of messages in a batch.
+         * @param maxLingerMillis
+         *            the maximal time in milliseconds the first message of a batch waits for further messages.
+         * @return the builder.
+         */
+        public WMBusSerialBuilder setBatching(int maxBatchSize, long maxLingerMillis) {
+            if (maxBatchSize <= 0 || maxLingerMillis < 0) {
+                throw new IllegalArgumentException("Batch size must be positive and linger time not negative.");
+            }
+            this.maxBatchSize = maxBatchSize;
+            this.maxLingerMillis = maxLingerMillis;
+            return self();
+        }
+
+        /**
+         * Drops repeated receptions of a telegram, e.g. via a repeater, before it is decoded. A telegram is identified
+         * by its link layer address, access number and payload. Disabled by default.
+         * 
+         * @param windowMillis
+         *            the time in milliseconds a telegram is remembered, 0 disables deduplication.
+         * @return the builder.
+         * @see WMBusStatistics#getDuplicateHits()
+         */
+        public WMBusSerialBuilder setDeduplicationWindow(long windowMillis) {
+            if (windowMillis < 0) {
+                throw new IllegalArgumentException("Deduplication window must not be negative.");
+            }
+            this.deduplicationWindowMillis = windowMillis;
+            return self();
+        }
+
+        /**
+         * Sets the filter applied to the link layer address of received telegrams before they are decoded. By default
+         * all telegrams are accepted.
+         * 
+         * @param addressFilter
+         *            the filter, <code>null</code> accepts all telegrams.
+         * @return the builder.
+         * @see WMBusConnection#setAddressFilter(WMBusAddressFilter)
+         */
+        public WMBusSerialBuilder setAddressFilter(WMBusAddressFilter addressFilter) {
+            this.addressFilter = addressFilter;
+            return self();
+        }
+
+        /**
+         * Stores the values of every received message which can be decoded in the given store. The variable data
+         * structure is then decoded before the message is passed to the listener, on the decode workers if configured,
+         * otherwise on the receiver thread.
+         * 
+         * @param latestValueStore
+         *            the store, may be shared with other connections.
+         * @return the builder.
+         */
+        public WMBusSerialBuilder setLatestValueStore(LatestValueStore latestValueStore) {
+            this.latestValueStore = latestValueStore;
+            return self();
+        }
+
+        /**
+         * Reports the received bytes and frames, discarded partial frames, failed decodings and decryptions and the
+         * depth of the listener queue to the given metrics. By default nothing is reported.
+         * 
+         * @param metrics
+         *            the metrics, may be shared with other connections.
+         * @return the builder.
+         * @see org.openmuc.jmbus.CountingMetrics
+         */
+        public WMBusSerialBuilder setMetrics(MBusMetrics metrics) {
+            this.metrics = metrics;
+            return self();
+        }
+
         @Override
         public WMBusConnection build() throws IOException {
             AbstractWMBusConnection wmBusConnection;
@@ -113,6 +294,17 @@ public interface WMBusConnection extends AutoCloseable {
                 throw new RuntimeException("Unknown Manufacturer.");
             }
 
+            wmBusConnection.setDispatchQueue(dispatchQueueCapacity, dispatchPolicy);
+            wmBusConnection.setDecodeWorkers(decodeWorkers, orderedDelivery);
+            wmBusConnection.setBatching(maxBatchSize, maxLingerMillis);
+            wmBusConnection.setDeduplicationWindow(deduplicationWindowMillis);
+            wmBusConnection.setAddressFilter(addressFilter);
+            wmBusConnection.setLatestValueStore(latestValueStore);
+            wmBusConnection.setMetrics(metrics);
+            if (bufferPoolSize > 0) {
+                wmBusConnection.setBufferPool(new TelegramBufferPool(bufferPoolSize));
+            }
+
             wmBusConnection.open();
             return wmBusConnection;
         }
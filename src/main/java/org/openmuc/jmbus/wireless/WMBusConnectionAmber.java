@@ -5,15 +5,11 @@
  */
 package org.openmuc.jmbus.wireless;
 
-import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
-import java.io.InterruptedIOException;
 import java.nio.ByteBuffer;
 import java.text.MessageFormat;
-import java.util.Arrays;
 
-import org.openmuc.jmbus.DecodingException;
 import org.openmuc.jmbus.transportlayer.TransportLayer;
 
 /**
@@ -21,91 +17,42 @@ import org.openmuc.jmbus.transportlayer.TransportLayer;
  */
 class WMBusConnectionAmber extends AbstractWMBusConnection {
 
-    private class MessageReceiverImpl extends MessageReceiver {
+    private class MessageReceiverImpl extends FramingMessageReceiver {
 
         private static final int MBUS_BL_CONTROL = 0x44;
+        private static final int MIN_LENGTH = 11; // C-field, address, CI-field and RSSI
 
         private int discardCount = 0;
-        private final TransportLayer transportLayer;
 
         public MessageReceiverImpl(TransportLayer transportLayer, WMBusListener listener) {
-            super(listener);
-            this.transportLayer = transportLayer;
+            super(WMBusConnectionAmber.this, transportLayer, listener);
         }
 
         @Override
-        public void run() {
-
-            try {
-
-                while (!isClosed()) {
-                    task();
-                }
-
-            } catch (final IOException e) {
-                if (isClosed()) {
-                    return;
-                }
-                super.notifyStoppedListening(e);
-
-            } finally {
-                close();
-                super.shutdown();
-            }
-
+        protected String vendor() {
+            return "AMBER";
         }
 
-        private void task() throws IOException {
-
-            ByteBuffer discardBuffer = ByteBuffer.allocate(100);
-
-            int b0, b1;
-            DataInputStream is = getInputStream();
-            while (true) {
-                try {
-                    this.transportLayer.setTimeout(0);
-                    b0 = is.read();
-                    this.transportLayer.setTimeout(MESSAGE_FRAGEMENT_TIMEOUT);
-                    b1 = is.read();
-
-                    if ((b1 ^ MBUS_BL_CONTROL) == 0) {
-                        break;
-                    }
-
-                    if (discardBuffer.capacity() - discardBuffer.position() < 2) {
-                        discard(discardBuffer.array(), 0, discardBuffer.position());
-                        discardBuffer.clear();
-                    }
-                    discardBuffer.put((byte) b0);
-                    discardBuffer.put((byte) b1);
-                } catch (InterruptedIOException e) {
-                    continue;
-                }
-            }
-
-            int len = (b0 & 0xff) + 1;
-            byte[] data = new byte[2 + len];
-
-            data[0] = (byte) b0;
-            data[1] = (byte) b1;
-
-            int readLength = len - 2;
-            int actualLength = is.read(data, 2, readLength);
-
-            if (readLength != actualLength) {
-                discard(data, 0, actualLength);
-                return;
-            }
-
-            notifyListener(data);
+        @Override
+        protected int headerLength() {
+            return 2;
+        }
 
-            if (discardBuffer.position() > 0) {
-                discard(discardBuffer.array(), 0, discardBuffer.position());
+        /*
+         * The L-field includes the attached RSSI byte.
+         */
+        @Override
+        protected int frameLength(byte[] buffer, int offset) {
+            int lField = buffer[offset] & 0xff;
+            if ((buffer[offset + 1] & 0xff) != MBUS_BL_CONTROL || lField < MIN_LENGTH) {
+                return INVALID_HEADER;
             }
+            return lField + 1;
         }
 
-        private void notifyListener(final byte[] data) {
-            int rssi = data[data.length - 1] & 0xff;
+        @Override
+        protected void handleFrame(byte[] buffer, int offset, int length) {
+            int rssi = buffer[offset + length - 1] & 0xff;
             final Integer signalStrengthInDBm;
             int rssiOffset = 74;
             if (rssi >= 128) {
@@ -115,21 +62,19 @@ class WMBusConnectionAmber extends AbstractWMBusConnection {
                 signalStrengthInDBm = (rssi / 2) - rssiOffset;
             }
 
+            int messageLength = length - 1;
+            byte[] data = newFrameBuffer(messageLength);
+            System.arraycopy(buffer, offset, data, 0, messageLength);
             data[0] = (byte) (data[0] - 1);
 
-            try {
-                super.notifyNewMessage(WMBusMessage.decode(data, signalStrengthInDBm, keyMap));
-            } catch (DecodingException e) {
-                super.notifyDiscarded(data);
-            }
+            notifyNewFrame(data, messageLength, signalStrengthInDBm);
         }
 
-        private void discard(byte[] data, int offset, int length) {
-            discardCount++;
-            final byte[] discardedBytes = Arrays.copyOfRange(data, offset, offset + length);
-
-            super.notifyDiscarded(discardedBytes);
+        @Override
+        protected void discard(byte[] data, int offset, int length) {
+            super.discard(data, offset, length);
 
+            discardCount++;
             if (discardCount >= 5) {
                 try {
                     reset();
@@ -5,16 +5,10 @@
  */
 package org.openmuc.jmbus.wireless;
 
-import java.io.DataInputStream;
 import java.io.IOException;
-import java.io.InterruptedIOException;
 import java.nio.ByteBuffer;
 import java.text.MessageFormat;
-import java.util.Arrays;
 
-import javax.xml.bind.DatatypeConverter;
-
-import org.openmuc.jmbus.DecodingException;
 import org.openmuc.jmbus.transportlayer.TransportLayer;
 
 /**
@@ -22,73 +16,54 @@ import org.openmuc.jmbus.transportlayer.TransportLayer;
  */
 class WMBusConnectionImst extends AbstractWMBusConnection {
 
-    private class MessageReceiverImpl extends MessageReceiver {
+    private class MessageReceiverImpl extends FramingMessageReceiver {
 
         private static final byte MBUS_BL_CONTROL = 0x44;
-        private final TransportLayer transportLayer;
+        private static final int MIN_PAYLOAD_LENGTH = 10; // C-field, address and CI-field
 
         public MessageReceiverImpl(TransportLayer transportLayer, WMBusListener listener) {
-            super(listener);
-            this.transportLayer = transportLayer;
+            super(WMBusConnectionImst.this, transportLayer, listener);
         }
 
         @Override
-        public void run() {
-            try {
-
-                while (!isClosed()) {
-                    try {
-                        task();
-                    } catch (InterruptedIOException e) {
-                        // ignore a timeout..
-                    } catch (HciMessageException e) {
-                        super.notifyDiscarded(e.getData());
-                    }
-                }
-
-            } catch (IOException e) {
-                if (isClosed()) {
-                    return;
-                }
-
-                super.notifyStoppedListening(e);
-            } finally {
-                close();
-                super.shutdown();
-            }
+        protected String vendor() {
+            return "IMST";
         }
 
-        private void task() throws IOException {
-            HciMessage hciMessage = readHciMsg();
+        @Override
+        protected int headerLength() {
+            return Const.HCI_HEADER_LENGTH;
+        }
 
-            final byte[] wmbusMessage = hciMessage.getPayload();
-            final int signalStrengthInDBm = hciMessage.getRSSI();
-            try {
-                super.notifyNewMessage(WMBusMessage.decode(wmbusMessage, signalStrengthInDBm, keyMap));
-            } catch (DecodingException e) {
-                super.notifyDiscarded(wmbusMessage);
-            }
+        @Override
+        protected int frameLength(byte[] buffer, int offset) {
+            return HciMessage.frameLength(buffer, offset);
         }
 
-        private HciMessage readHciMsg() throws IOException {
-            while (true) {
-                HciMessage hciMessage = HciMessage.decode(this.transportLayer);
+        @Override
+        protected void handleFrame(byte[] buffer, int offset, int length) {
+            if (HciMessage.endpointId(buffer, offset) != Const.RADIOLINK_ID) {
+                // e.g. the response to the configuration
+                return;
+            }
 
-                if (hciMessage.getPayload().length <= 1) {
-                    continue;
-                }
+            int payloadLength = HciMessage.payloadLength(buffer, offset);
+            if (payloadLength == 0) {
+                return;
+            }
 
-                if (hciMessage.getPayload()[1] == MBUS_BL_CONTROL) {
-                    return hciMessage;
-                }
-                else {
-                    discard(hciMessage);
-                }
+            if (payloadLength < MIN_PAYLOAD_LENGTH || HciMessage.payloadByte(buffer, offset, 0) != MBUS_BL_CONTROL) {
+                byte[] payload = new byte[payloadLength + 1];
+                HciMessage.copyPayload(buffer, offset, payload);
+                super.notifyDiscarded(payload);
+                return;
             }
-        }
 
-        private void discard(HciMessage hciMessage) {
-            super.notifyDiscarded(hciMessage.payload);
+            final int signalStrengthInDBm = HciMessage.rssi(buffer, offset);
+
+            byte[] wmbusMessage = newFrameBuffer(payloadLength + 1);
+            int messageLength = HciMessage.copyPayload(buffer, offset, wmbusMessage);
+            notifyNewFrame(wmbusMessage, messageLength, signalStrengthInDBm);
         }
     }
 
@@ -186,6 +161,7 @@ class WMBusConnectionImst extends AbstractWMBusConnection {
 
         // ControlField
         public static final byte RESERVED = 0x00; // 0b0000
+        public static final byte RESERVED_BIT = 0x01; // 0b0001
         public static final byte TIMESTAMP_ATTACHED = 0x02; // 0b0010
         public static final byte RSSI_ATTACHED = 0x04; // 0b0100
         public static final byte CRC16_ATTACHED = 0x08; // 0b1000 (FCS)
@@ -266,116 +242,83 @@ class WMBusConnectionImst extends AbstractWMBusConnection {
      */
     private static class HciMessage {
 
-        private final byte controlField;;
-        private final byte endpointID;
-        private final byte msgId;
-        private final int length;
-
-        private final byte[] payload;
-        private final int timeStamp;
-        private final int rSSI;
-        private final int fCS;
-
-        private HciMessage(byte controlField, byte endpointID, byte msgId, int length, byte[] payload, int timeStamp,
-                int rSSI, int fCS) {
-            this.controlField = controlField;
-            this.endpointID = endpointID;
-            this.msgId = msgId;
-            this.length = length;
-            this.payload = payload;
-            this.timeStamp = timeStamp;
-            this.rSSI = rSSI;
-            this.fCS = fCS;
-        }
+        private static final int PAYLOAD_OFFSET = Const.HCI_HEADER_LENGTH;
 
-        public static HciMessage decode(TransportLayer transportLayer) throws IOException {
-            DataInputStream is = transportLayer.getInputStream();
-            byte b0, b1;
-
-            transportLayer.setTimeout(0);
-            b0 = is.readByte();
-            if (b0 != Const.START_OF_FRAME) {
-                String msg = String.format("First byte does not start with %02X.", Const.START_OF_FRAME);
-                throw new IOException(msg);
+        /**
+         * Returns the length of the HCI message starting at the given offset, or
+         * {@link FramingMessageReceiver#INVALID_HEADER} if the header is not valid.
+         */
+        public static int frameLength(byte[] buffer, int offset) {
+            if (buffer[offset] != Const.START_OF_FRAME) {
+                return FramingMessageReceiver.INVALID_HEADER;
             }
 
-            transportLayer.setTimeout(MESSAGE_FRAGEMENT_TIMEOUT);
-            // this may time out.
-            b1 = is.readByte();
-
-            byte controlField = (byte) ((b1 >> 4) & 0x0F);
-            byte endpointId = (byte) (b1 & 0x0F);
-
-            byte msgId = is.readByte();
-            int length = is.readUnsignedByte();
-
-            byte[] payload = readPayload(is, length);
+            byte controlField = controlField(buffer, offset);
+            byte endpointId = endpointId(buffer, offset);
+            if ((controlField & Const.RESERVED_BIT) != 0 || endpointId < Const.DEVMGMT_ID
+                    || endpointId > Const.HWTEST_ID) {
+                return FramingMessageReceiver.INVALID_HEADER;
+            }
 
-            int timeStamp = 0;
+            int length = PAYLOAD_OFFSET + payloadLength(buffer, offset);
             if ((controlField & Const.TIMESTAMP_ATTACHED) == Const.TIMESTAMP_ATTACHED) {
-                timeStamp = is.readInt();
+                length += 4;
             }
-
-            int rSSI = 0;
             if ((controlField & Const.RSSI_ATTACHED) == Const.RSSI_ATTACHED) {
-                double b = -100.0 - (4000.0 / 150.0);
-                double m = 80.0 / 150.0;
-                rSSI = (int) (m * is.readUnsignedByte() + b);
+                length += 1;
             }
-
-            int fCS = 0;
             if ((controlField & Const.CRC16_ATTACHED) == Const.CRC16_ATTACHED) {
-                fCS = is.readUnsignedShort();
+                length += 2;
             }
+            return length;
+        }
 
-            return new HciMessage(controlField, endpointId, msgId, length, payload, timeStamp, rSSI, fCS);
+        /**
+         * Copies the payload of a complete HCI message to the given buffer, preceded by the payload length. The result
+         * is a wireless M-Bus frame starting with the L-field.
+         * 
+         * @return the number of bytes copied.
+         */
+        public static int copyPayload(byte[] buffer, int offset, byte[] destination) {
+            int length = payloadLength(buffer, offset);
+            destination[0] = (byte) length;
+            System.arraycopy(buffer, offset + PAYLOAD_OFFSET, destination, 1, length);
+            return length + 1;
         }
 
-        private static byte[] readPayload(DataInputStream is, final int length) throws IOException {
-            byte[] payload = new byte[length + 1];
-            payload[0] = (byte) length;
+        public static int payloadLength(byte[] buffer, int offset) {
+            return buffer[offset + 3] & 0xff;
+        }
 
-            int readLength = is.read(payload, 1, length);
+        public static byte payloadByte(byte[] buffer, int offset, int index) {
+            return buffer[offset + PAYLOAD_OFFSET + index];
+        }
 
-            if (readLength != length) {
-                byte[] data = Arrays.copyOfRange(payload, 1, 1 + readLength);
-                throw new HciMessageException(data);
+        /**
+         * Returns the RSSI in dBm, or 0 if no RSSI is attached.
+         */
+        public static int rssi(byte[] buffer, int offset) {
+            byte controlField = controlField(buffer, offset);
+            if ((controlField & Const.RSSI_ATTACHED) != Const.RSSI_ATTACHED) {
+                return 0;
             }
 
-            return payload;
-        }
-
-        @Override
-        public String toString() {
-            return new StringBuilder().append("Control Field: ")
-                    .append(byteAsHexString(controlField))
-                    .append("\nEndpointID:    ")
-                    .append(byteAsHexString(endpointID))
-                    .append("\nMsg ID:        ")
-                    .append(byteAsHexString(msgId))
-                    .append("\nLength:        ")
-                    .append(length)
-                    .append("\nTimestamp:     ")
-                    .append(timeStamp)
-                    .append("\nRSSI:          ")
-                    .append(rSSI)
-                    .append("\nFCS:           ")
-                    .append(fCS)
-                    .append("\nPayload:\n")
-                    .append(DatatypeConverter.printHexBinary(payload))
-                    .toString();
-        }
+            int rssiOffset = offset + PAYLOAD_OFFSET + payloadLength(buffer, offset);
+            if ((controlField & Const.TIMESTAMP_ATTACHED) == Const.TIMESTAMP_ATTACHED) {
+                rssiOffset += 4;
+            }
 
-        private static String byteAsHexString(byte b) {
-            return String.format("%02X", b);
+            double b = -100.0 - (4000.0 / 150.0);
+            double m = 80.0 / 150.0;
+            return (int) (m * (buffer[rssiOffset] & 0xff) + b);
         }
 
-        public byte[] getPayload() {
-            return payload;
+        public static byte endpointId(byte[] buffer, int offset) {
+            return (byte) (buffer[offset + 1] & 0x0F);
         }
 
-        public int getRSSI() {
-            return rSSI;
+        private static byte controlField(byte[] buffer, int offset) {
+            return (byte) ((buffer[offset + 1] >> 4) & 0x0F);
         }
 
     }
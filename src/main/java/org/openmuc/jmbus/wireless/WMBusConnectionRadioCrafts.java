@@ -7,10 +7,7 @@ package org.openmuc.jmbus.wireless;
 
 import java.io.DataOutputStream;
 import java.io.IOException;
-import java.io.InterruptedIOException;
-import java.util.Arrays;
 
-import org.openmuc.jmbus.DecodingException;
 import org.openmuc.jmbus.transportlayer.TransportLayer;
 
 /*
@@ -26,114 +23,51 @@ import org.openmuc.jmbus.transportlayer.TransportLayer;
  */
 class WMBusConnectionRadioCrafts extends AbstractWMBusConnection {
 
-    private class MessageReceiverImpl extends MessageReceiver {
+    private class MessageReceiverImpl extends FramingMessageReceiver {
 
         /**
          * Indicates message from primary station, function send/no reply (SND -N
          */
         private static final byte CONTROL_BYTE = 0x44;
-        private final TransportLayer transportLayer;
-
-        private final byte[] discardBuffer = new byte[BUFFER_LENGTH];
-        private int bufferPointer = 0;
+        private static final int MIN_LENGTH = 11; // C-field, address, CI-field and RSSI
 
         public MessageReceiverImpl(TransportLayer transportLayer, WMBusListener listener) {
-            super(listener);
-            this.transportLayer = transportLayer;
+            super(WMBusConnectionRadioCrafts.this, transportLayer, listener);
         }
 
         @Override
-        public void run() {
-            try {
-
-                while (!isClosed()) {
-
-                    byte[] messageData = initMessageData();
-
-                    int len = messageData.length - 2;
-                    handleData(messageData, len);
-
-                }
-            } catch (final IOException e) {
-                if (!isClosed()) {
-                    super.notifyStoppedListening(e);
-                }
-
-            } finally {
-                close();
-                super.shutdown();
-            }
-
+        protected String vendor() {
+            return "RADIO_CRAFTS";
         }
 
-        private void handleData(byte[] messageData, int len) throws IOException {
-            try {
-                int numReadBytes = getInputStream().read(messageData, 2, len);
-
-                if (len == numReadBytes) {
-                    notifyListener(messageData);
-                }
-                else {
-                    discard(messageData, 0, numReadBytes + 2);
-                }
-            } catch (InterruptedIOException e) {
-                discard(messageData, 0, 2);
-            }
+        @Override
+        protected int headerLength() {
+            return 2;
         }
 
-        private byte[] initMessageData() throws IOException {
-            byte b0, b1;
-            while (true) {
-                this.transportLayer.setTimeout(0);
-                b0 = getInputStream().readByte();
-                this.transportLayer.setTimeout(MESSAGE_FRAGEMENT_TIMEOUT);
-
-                try {
-                    // this may time out.
-                    b1 = getInputStream().readByte();
-                } catch (InterruptedIOException e) {
-                    continue;
-                }
-
-                if (b1 == CONTROL_BYTE) {
-                    break;
-                }
-
-                discardBuffer[bufferPointer++] = b0;
-                discardBuffer[bufferPointer++] = b1;
-
-                if (bufferPointer - 2 >= discardBuffer.length) {
-                    discard(discardBuffer, 0, bufferPointer);
-                    bufferPointer = 0;
-                }
-
+        /*
+         * The L-field includes the attached RSSI byte.
+         */
+        @Override
+        protected int frameLength(byte[] buffer, int offset) {
+            int messageLength = buffer[offset] & 0xff;
+            if (buffer[offset + 1] != CONTROL_BYTE || messageLength < MIN_LENGTH) {
+                return INVALID_HEADER;
             }
-
-            int messageLength = b0 & 0xff;
-
-            final byte[] messageData = new byte[messageLength + 1];
-            messageData[0] = b0;
-            messageData[1] = b1;
-
-            return messageData;
+            return messageLength + 1;
         }
 
-        private void notifyListener(final byte[] messageBytes) {
-            messageBytes[0] = (byte) (messageBytes[0] - 1);
-            int rssi = messageBytes[messageBytes.length - 1] & 0xff;
-
+        @Override
+        protected void handleFrame(byte[] buffer, int offset, int length) {
+            int rssi = buffer[offset + length - 1] & 0xff;
             final int signalStrengthInDBm = (rssi * -1) / 2;
-            try {
-                super.notifyNewMessage(WMBusMessage.decode(messageBytes, signalStrengthInDBm, keyMap));
-            } catch (DecodingException e) {
-                super.notifyDiscarded(messageBytes);
-            }
-        }
 
-        private void discard(byte[] buffer, int offset, int length) {
-            final byte[] discardedBytes = Arrays.copyOfRange(buffer, offset, offset + length);
+            int messageLength = length - 1;
+            final byte[] messageBytes = newFrameBuffer(messageLength);
+            System.arraycopy(buffer, offset, messageBytes, 0, messageLength);
+            messageBytes[0] = (byte) (messageBytes[0] - 1);
 
-            super.notifyDiscarded(discardedBytes);
+            notifyNewFrame(messageBytes, messageLength, signalStrengthInDBm);
         }
 
     }
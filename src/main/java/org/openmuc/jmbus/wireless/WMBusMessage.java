@@ -6,9 +6,13 @@
 package org.openmuc.jmbus.wireless;
 
 import java.text.MessageFormat;
+import java.util.Arrays;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
 import org.openmuc.jmbus.DecodingException;
+import org.openmuc.jmbus.MBusMetrics;
+import org.openmuc.jmbus.MeterRegistry;
 import org.openmuc.jmbus.SecondaryAddress;
 import org.openmuc.jmbus.VariableDataStructure;
 
@@ -37,20 +41,60 @@ import org.openmuc.jmbus.VariableDataStructure;
  */
 public class WMBusMessage {
 
-    private final Integer signalStrengthInDBm;
+    private static final AtomicIntegerFieldUpdater<WMBusMessage> REF_COUNT_UPDATER = AtomicIntegerFieldUpdater
+            .newUpdater(WMBusMessage.class, "refCount");
 
-    private final byte[] buffer;
-    private final int controlField;
-    private final SecondaryAddress secondaryAddress;
+    /*
+     * The addresses of pooled messages, shared by all messages of a meter.
+     */
+    private static final MeterRegistry.Slot<SecondaryAddress> ADDRESS = MeterRegistry.getDefault()
+            .newSlot("wmbusAddress");
+
+    private Integer signalStrengthInDBm;
+
+    private byte[] buffer;
+    private int length;
+    private int controlField;
+    private SecondaryAddress secondaryAddress;
     private final VariableDataStructure vdr;
 
-    private WMBusMessage(Integer signalStrengthInDBm, byte[] buffer, int controlField,
+    private final TelegramBufferPool pool;
+    private volatile int refCount = 1;
+    private long queuedNanos;
+
+    /*
+     * Gives pooled messages access to the reuse of their variable data structure.
+     */
+    private static class PooledVariableDataStructure extends VariableDataStructure {
+
+        PooledVariableDataStructure() {
+            super(null, 0, 0, null, null);
+        }
+
+        void reuse(byte[] buffer, int length, SecondaryAddress secondaryAddress,
+                Map<SecondaryAddress, byte[]> keyMap, MBusMetrics metrics) {
+            super.reuse(buffer, 10, length - 9, secondaryAddress, keyMap, metrics);
+        }
+    }
+
+    private WMBusMessage(Integer signalStrengthInDBm, byte[] buffer, int length, int controlField,
             SecondaryAddress secondaryAddress, VariableDataStructure vdr) {
         this.signalStrengthInDBm = signalStrengthInDBm;
         this.buffer = buffer;
+        this.length = length;
         this.controlField = controlField;
         this.secondaryAddress = secondaryAddress;
         this.vdr = vdr;
+        this.pool = null;
+    }
+
+    /*
+     * An empty message of a pool, filled by decode and recycled together with its buffer.
+     */
+    WMBusMessage(TelegramBufferPool pool) {
+        this.vdr = new PooledVariableDataStructure();
+        this.pool = pool;
+        this.refCount = 0;
     }
 
     /*
@@ -58,31 +102,150 @@ public class WMBusMessage {
      */
     static WMBusMessage decode(byte[] buffer, Integer signalStrengthInDBm, Map<SecondaryAddress, byte[]> keyMap)
             throws DecodingException {
+        return decode(buffer, buffer.length, signalStrengthInDBm, keyMap, null);
+    }
+
+    /*
+     * Decodes a message held in a buffer of the given pool. The buffer is returned to the pool when the message is
+     * released.
+     */
+    static WMBusMessage decode(byte[] buffer, int bufferLength, Integer signalStrengthInDBm,
+            Map<SecondaryAddress, byte[]> keyMap, TelegramBufferPool pool) throws DecodingException {
+        return decode(buffer, bufferLength, signalStrengthInDBm, keyMap, pool, MBusMetrics.NO_OP);
+    }
+
+    /*
+     * The variable data structure of the message reports to the given metrics when it is decoded.
+     */
+    static WMBusMessage decode(byte[] buffer, int bufferLength, Integer signalStrengthInDBm,
+            Map<SecondaryAddress, byte[]> keyMap, TelegramBufferPool pool, MBusMetrics metrics)
+            throws DecodingException {
         int length = buffer[0] & 0xff;
 
-        if (length > (buffer.length - 1)) {
+        if (length > (bufferLength - 1)) {
             String msg = MessageFormat.format(
-                    "Byte buffer has only a length of {0} while the specified length field is {1}.", buffer.length,
+                    "Byte buffer has only a length of {0} while the specified length field is {1}.", bufferLength,
                     length);
             throw new DecodingException(msg);
         }
 
         int controlField = buffer[1] & 0xff;
+        if (pool != null) {
+            WMBusMessage message = pool.acquireMessage();
+            message.signalStrengthInDBm = signalStrengthInDBm;
+            message.buffer = buffer;
+            message.length = bufferLength;
+            message.controlField = controlField;
+            message.secondaryAddress = internedAddress(buffer);
+            ((PooledVariableDataStructure) message.vdr).reuse(buffer, length, message.secondaryAddress, keyMap,
+                    metrics);
+            message.queuedNanos = 0;
+            message.refCount = 1;
+            return message;
+        }
+
         SecondaryAddress secondaryAddress = SecondaryAddress.newFromWMBusLlHeader(buffer, 2);
-        VariableDataStructure vdr = new VariableDataStructure(buffer, 10, length - 9, secondaryAddress, keyMap);
+        VariableDataStructure vdr = new VariableDataStructure(buffer, 10, length - 9, secondaryAddress, keyMap,
+                metrics);
+
+        return new WMBusMessage(signalStrengthInDBm, buffer, bufferLength, controlField, secondaryAddress, vdr);
+    }
 
-        return new WMBusMessage(signalStrengthInDBm, buffer, controlField, secondaryAddress, vdr);
+    private static SecondaryAddress internedAddress(byte[] buffer) {
+        MeterRegistry meterRegistry = MeterRegistry.getDefault();
+        long packed = SecondaryAddress.pack(buffer, 2);
+        SecondaryAddress secondaryAddress = meterRegistry.get(packed, ADDRESS);
+        if (secondaryAddress == null) {
+            secondaryAddress = SecondaryAddress.newFromLong(packed, false);
+            meterRegistry.put(packed, ADDRESS, secondaryAddress);
+        }
+        return secondaryAddress;
     }
 
     /**
      * Get the message as binary large object (byte array).
+     * <p>
+     * If the message uses a pooled buffer, a copy of the message bytes is returned.
+     * </p>
      * 
      * @return the byte array representation of the message.
      */
     public byte[] asBlob() {
+        if (pool == null) {
+            return buffer;
+        }
+        return Arrays.copyOf(buffer, length);
+    }
+
+    /**
+     * Keeps the message beyond {@link WMBusListener#newMessage(WMBusMessage)}.
+     * <p>
+     * If the connection uses pooled buffers, the buffer of a message is reused as soon as the listener returned. A
+     * listener which hands the message to another thread or stores it has to retain it and {@link #release()} it when
+     * it is done. For messages without pooled buffer this method has no effect.
+     * </p>
+     * 
+     * @return this message.
+     * @throws IllegalStateException
+     *             if the message has already been released.
+     */
+    public WMBusMessage retain() {
+        if (pool == null) {
+            return this;
+        }
+
+        int count;
+        do {
+            count = refCount;
+            if (count <= 0) {
+                throw new IllegalStateException("Message has already been released.");
+            }
+        } while (!REF_COUNT_UPDATER.compareAndSet(this, count, count + 1));
+
+        return this;
+    }
+
+    /**
+     * Releases a message retained with {@link #retain()}. The buffer and the message are returned to the pool once the
+     * last reference has been released, afterwards neither the message nor its {@link VariableDataStructure} may be
+     * used.
+     * 
+     * @throws IllegalStateException
+     *             if the message has already been released.
+     */
+    public void release() {
+        if (pool == null) {
+            return;
+        }
+
+        int count = REF_COUNT_UPDATER.decrementAndGet(this);
+        if (count == 0) {
+            pool.release(buffer);
+            pool.recycle(this);
+        }
+        else if (count < 0) {
+            throw new IllegalStateException("Message has already been released.");
+        }
+    }
+
+    /*
+     * The buffer holding the message, starting with the L-field. Not copied, must not be modified.
+     */
+    byte[] buffer() {
         return buffer;
     }
 
+    /*
+     * The time the message was queued for the listener, 0 if the frame reception is not recorded.
+     */
+    long getQueuedNanos() {
+        return queuedNanos;
+    }
+
+    void setQueuedNanos(long queuedNanos) {
+        this.queuedNanos = queuedNanos;
+    }
+
     public int getControlField() {
         return controlField;
     }
@@ -0,0 +1,177 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus.wireless;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openmuc.jmbus.archive.ArchivedTelegram;
+import org.openmuc.jmbus.transportlayer.TransportLayer;
+import org.openmuc.jmbus.wireless.WMBusConnection.WMBusSerialBuilder;
+
+/**
+ * Plays archived wireless M-Bus frames back through a connection, e.g. to test decoder changes or to size the
+ * hardware.
+ * <p>
+ * The frames are encoded in the serial format of the configured stick and read by the receiver of the connection, so
+ * they take the same path as frames received by the stick: framing, address filter, deduplication, decoding and
+ * dispatching. The replay runs as fast as possible or with the original timing sped up by a factor. The report gives
+ * the throughput and the latency from passing a frame to the receiver until the listener is called.
+ * </p>
+ * <p>
+ * The listener is notified with an {@link EOFException} after the last frame.
+ * </p>
+ *
+ * <pre>
+ * List&lt;ArchivedTelegram&gt; telegrams = archive.scan(from, to);
+ * WMBusReplay.ReplayBuilder builder = new WMBusReplay.ReplayBuilder(WMBusManufacturer.AMBER, listener, telegrams)
+ *         .setSpeed(100);
+ * builder.setDecodeWorkers(4, true);
+ * try (WMBusReplay replay = builder.start()) {
+ *     replay.awaitCompletion(1, TimeUnit.MINUTES);
+ *     System.out.println(replay.getReport());
+ * }
+ * </pre>
+ */
+public class WMBusReplay implements AutoCloseable {
+
+    private final WMBusConnection connection;
+    private final ReplayLayer layer;
+    private final MeasuringListener listener;
+
+    /**
+     * Builder of a replay. All options of a serial connection except the serial port settings apply.
+     */
+    public static class ReplayBuilder extends WMBusSerialBuilder {
+
+        private final List<ArchivedTelegram> telegrams;
+        private WMBusManufacturer manufacturer;
+        private MeasuringListener measuringListener;
+        private double speed;
+        private ReplayLayer layer;
+
+        /**
+         * Creates a builder of a replay.
+         *
+         * @param manufacturer
+         *            the stick whose serial format and receiver are used.
+         * @param listener
+         *            the listener of the replayed messages.
+         * @param telegrams
+         *            the frames to replay in ascending order of their timestamps.
+         */
+        public ReplayBuilder(WMBusManufacturer manufacturer, WMBusListener listener,
+                List<ArchivedTelegram> telegrams) {
+            this(manufacturer, new MeasuringListener(listener), telegrams);
+        }
+
+        private ReplayBuilder(WMBusManufacturer manufacturer, MeasuringListener measuringListener,
+                List<ArchivedTelegram> telegrams) {
+            super(manufacturer, measuringListener, "replay");
+            this.manufacturer = manufacturer;
+            this.measuringListener = measuringListener;
+            this.telegrams = telegrams;
+        }
+
+        /**
+         * Sets the speed of the replay relative to the original timing, e.g. 10 replays the frames ten times faster
+         * than they were received. 0 replays the frames as fast as the receiver reads them, which is the default.
+         *
+         * @param speed
+         *            the speed factor, 0 for as fast as possible.
+         * @return the builder.
+         */
+        public ReplayBuilder setSpeed(double speed) {
+            if (speed < 0 || Double.isNaN(speed)) {
+                throw new IllegalArgumentException("Speed must not be negative.");
+            }
+            this.speed = speed;
+            return this;
+        }
+
+        @Override
+        public WMBusSerialBuilder setWmBusManufacturer(WMBusManufacturer wmBusManufacturer) {
+            this.manufacturer = wmBusManufacturer;
+            return super.setWmBusManufacturer(wmBusManufacturer);
+        }
+
+        @Override
+        public WMBusSerialBuilder setListener(WMBusListener connectionListener) {
+            this.measuringListener = new MeasuringListener(connectionListener);
+            return super.setListener(measuringListener);
+        }
+
+        @Override
+        protected TransportLayer buildTransportLayer() {
+            layer = new ReplayLayer(telegrams, StickFormat.forManufacturer(manufacturer), speed);
+            measuringListener.setLayer(layer);
+            return layer;
+        }
+
+        /**
+         * Opens the connection and starts the replay.
+         *
+         * @return the running replay.
+         * @throws IOException
+         *             if the connection could not be opened.
+         */
+        public WMBusReplay start() throws IOException {
+            WMBusConnection connection = build();
+            return new WMBusReplay(connection, layer, measuringListener);
+        }
+
+    }
+
+    private WMBusReplay(WMBusConnection connection, ReplayLayer layer, MeasuringListener listener) {
+        this.connection = connection;
+        this.layer = layer;
+        this.listener = listener;
+    }
+
+    /**
+     * Returns the connection the frames are replayed through, e.g. to add keys.
+     *
+     * @return the connection.
+     */
+    public WMBusConnection getConnection() {
+        return connection;
+    }
+
+    /**
+     * Waits until the listener has been notified about all replayed frames.
+     *
+     * @param timeout
+     *            the maximal time to wait.
+     * @param unit
+     *            the unit of the timeout.
+     * @return <code>true</code> if the replay completed, <code>false</code> if the timeout elapsed.
+     * @throws InterruptedException
+     *             if the current thread was interrupted while waiting.
+     */
+    public boolean awaitCompletion(long timeout, TimeUnit unit) throws InterruptedException {
+        return listener.awaitCompletion(timeout, unit);
+    }
+
+    /**
+     * Returns the throughput and the latencies measured so far.
+     *
+     * @return the report.
+     */
+    public WMBusReplayReport getReport() {
+        return listener.report(layer.getSkippedFrames());
+    }
+
+    /**
+     * Stops the replay and closes the connection.
+     */
+    @Override
+    public void close() throws IOException {
+        connection.close();
+    }
+
+}
@@ -0,0 +1,176 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus.wireless;
+
+import java.util.Arrays;
+
+/**
+ * Throughput, drop rate and latency of a replay or an emulated stick.
+ * <p>
+ * The latency of a message is the time from passing the frame to the receiver of the connection until the listener is
+ * called. It includes framing, filtering, decoding and the dispatch queue.
+ * </p>
+ *
+ * @see WMBusReplay#getReport()
+ * @see WMBusStickEmulator#getReport()
+ */
+public class WMBusReplayReport {
+
+    private final int emittedFrames;
+    private final int skippedFrames;
+    private final long deliveredMessages;
+    private final long discardedBytes;
+    private final long elapsedNanos;
+    private final long[] sortedLatencies;
+
+    WMBusReplayReport(int emittedFrames, int skippedFrames, long deliveredMessages, long discardedBytes,
+            long elapsedNanos, long[] latencies) {
+        this.emittedFrames = emittedFrames;
+        this.skippedFrames = skippedFrames;
+        this.deliveredMessages = deliveredMessages;
+        this.discardedBytes = discardedBytes;
+        this.elapsedNanos = elapsedNanos;
+        this.sortedLatencies = latencies;
+        Arrays.sort(sortedLatencies);
+    }
+
+    /**
+     * Returns the number of frames passed to the receiver.
+     *
+     * @return the number of frames.
+     */
+    public int getEmittedFrames() {
+        return emittedFrames;
+    }
+
+    /**
+     * Returns the number of frames skipped because they are wired frames or can not be passed on by the stick.
+     *
+     * @return the number of frames.
+     */
+    public int getSkippedFrames() {
+        return skippedFrames;
+    }
+
+    /**
+     * Returns the number of messages passed to the listener.
+     *
+     * @return the number of messages.
+     */
+    public long getDeliveredMessages() {
+        return deliveredMessages;
+    }
+
+    /**
+     * Returns the share of the emitted frames which did not reach the listener, e.g. because they were corrupted or
+     * dropped by a full dispatch queue.
+     *
+     * @return the drop rate between 0 and 1.
+     */
+    public double getDropRate() {
+        if (emittedFrames == 0) {
+            return 0;
+        }
+        return Math.max(0, emittedFrames - deliveredMessages) / (double) emittedFrames;
+    }
+
+    /**
+     * Returns the number of bytes the receiver discarded because they could not be framed or decoded.
+     *
+     * @return the number of bytes.
+     */
+    public long getDiscardedBytes() {
+        return discardedBytes;
+    }
+
+    /**
+     * Returns the time from the first frame until the listener got the last message, or until now if the stream has
+     * not ended.
+     *
+     * @return the elapsed time in nanoseconds.
+     */
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    /**
+     * Returns the number of messages passed to the listener per second.
+     *
+     * @return the throughput.
+     */
+    public double getMessagesPerSecond() {
+        return elapsedNanos == 0 ? 0 : deliveredMessages * 1e9 / elapsedNanos;
+    }
+
+    /**
+     * Returns the number of messages whose latency was measured.
+     *
+     * @return the number of latency samples.
+     */
+    public int getLatencySamples() {
+        return sortedLatencies.length;
+    }
+
+    /**
+     * Returns a percentile of the latencies.
+     *
+     * @param percentile
+     *            the percentile between 0 and 100, e.g. 99.9.
+     * @return the latency in nanoseconds, 0 if no latency was measured.
+     */
+    public long getLatencyNanos(double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("Percentile must be between 0 and 100.");
+        }
+        if (sortedLatencies.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(percentile / 100 * sortedLatencies.length) - 1;
+        return sortedLatencies[Math.max(0, index)];
+    }
+
+    /**
+     * Returns the mean of the latencies.
+     *
+     * @return the mean latency in nanoseconds, 0 if no latency was measured.
+     */
+    public long getMeanLatencyNanos() {
+        if (sortedLatencies.length == 0) {
+            return 0;
+        }
+        long sum = 0;
+        for (long latency : sortedLatencies) {
+            sum += latency;
+        }
+        return sum / sortedLatencies.length;
+    }
+
+    @Override
+    public String toString() {
+        return new StringBuilder().append("emitted frames: ")
+                .append(emittedFrames)
+                .append(", skipped frames: ")
+                .append(skippedFrames)
+                .append(", delivered messages: ")
+                .append(deliveredMessages)
+                .append(", drop rate: ")
+                .append(String.format("%.4f", getDropRate()))
+                .append(", discarded bytes: ")
+                .append(discardedBytes)
+                .append(", messages/s: ")
+                .append(String.format("%.1f", getMessagesPerSecond()))
+                .append(", latency mean/p50/p99/max (us): ")
+                .append(getMeanLatencyNanos() / 1000)
+                .append('/')
+                .append(getLatencyNanos(50) / 1000)
+                .append('/')
+                .append(getLatencyNanos(99) / 1000)
+                .append('/')
+                .append(getLatencyNanos(100) / 1000)
+                .toString();
+    }
+
+}
@@ -0,0 +1,143 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus.wireless;
+
+/**
+ * Snapshot of the counters of a wireless M-Bus connection.
+ *
+ * @see WMBusConnection#getStatistics()
+ */
+public class WMBusStatistics {
+
+    private final int queueCapacity;
+    private final int queueDepth;
+    private final int maxQueueDepth;
+    private final long receivedMessages;
+    private final long deliveredMessages;
+    private final long droppedMessages;
+    private final long duplicateHits;
+    private final long duplicateMisses;
+    private final long filteredMessages;
+
+    WMBusStatistics(int queueCapacity, int queueDepth, int maxQueueDepth, long receivedMessages,
+            long deliveredMessages, long droppedMessages, long duplicateHits, long duplicateMisses,
+            long filteredMessages) {
+        this.queueCapacity = queueCapacity;
+        this.queueDepth = queueDepth;
+        this.maxQueueDepth = maxQueueDepth;
+        this.receivedMessages = receivedMessages;
+        this.deliveredMessages = deliveredMessages;
+        this.droppedMessages = droppedMessages;
+        this.duplicateHits = duplicateHits;
+        this.duplicateMisses = duplicateMisses;
+        this.filteredMessages = filteredMessages;
+    }
+
+    /**
+     * Returns the capacity of the dispatch queue between receiver and listener.
+     *
+     * @return the queue capacity.
+     */
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    /**
+     * Returns the number of events currently waiting for the listener.
+     *
+     * @return the queue depth.
+     */
+    public int getQueueDepth() {
+        return queueDepth;
+    }
+
+    /**
+     * Returns the highest queue depth since the connection was opened.
+     *
+     * @return the maximal queue depth.
+     */
+    public int getMaxQueueDepth() {
+        return maxQueueDepth;
+    }
+
+    /**
+     * Returns the number of messages passed to the dispatch queue.
+     *
+     * @return the number of received messages.
+     */
+    public long getReceivedMessages() {
+        return receivedMessages;
+    }
+
+    /**
+     * Returns the number of messages passed to {@link WMBusListener#newMessage(WMBusMessage)}.
+     *
+     * @return the number of delivered messages.
+     */
+    public long getDeliveredMessages() {
+        return deliveredMessages;
+    }
+
+    /**
+     * Returns the number of messages dropped according to the {@link DispatchPolicy}.
+     *
+     * @return the number of dropped messages.
+     */
+    public long getDroppedMessages() {
+        return droppedMessages;
+    }
+
+    /**
+     * Returns the number of telegrams dropped as repeated reception. Always 0 if deduplication is disabled.
+     *
+     * @return the number of duplicates.
+     */
+    public long getDuplicateHits() {
+        return duplicateHits;
+    }
+
+    /**
+     * Returns the number of telegrams checked for duplicates and passed on. Always 0 if deduplication is disabled.
+     *
+     * @return the number of unique telegrams.
+     */
+    public long getDuplicateMisses() {
+        return duplicateMisses;
+    }
+
+    /**
+     * Returns the number of telegrams dropped by the {@link WMBusAddressFilter}.
+     *
+     * @return the number of filtered telegrams.
+     */
+    public long getFilteredMessages() {
+        return filteredMessages;
+    }
+
+    @Override
+    public String toString() {
+        return new StringBuilder().append("queue depth: ")
+                .append(queueDepth)
+                .append('/')
+                .append(queueCapacity)
+                .append(" (max ")
+                .append(maxQueueDepth)
+                .append("), received: ")
+                .append(receivedMessages)
+                .append(", delivered: ")
+                .append(deliveredMessages)
+                .append(", dropped: ")
+                .append(droppedMessages)
+                .append(", duplicates: ")
+                .append(duplicateHits)
+                .append('/')
+                .append(duplicateHits + duplicateMisses)
+                .append(", filtered: ")
+                .append(filteredMessages)
+                .toString();
+    }
+
+}
@@ -0,0 +1,284 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus.wireless;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openmuc.jmbus.transportlayer.TransportLayer;
+import org.openmuc.jmbus.wireless.WMBusConnection.WMBusSerialBuilder;
+
+/**
+ * Emulates a wireless M-Bus stick receiving synthetic telegrams, e.g. to benchmark the throughput and the drop rate
+ * of the receivers without hardware.
+ * <p>
+ * The emulated stick answers the configuration commands of the connection like the stick of the configured
+ * manufacturer and passes on frames only once it has been configured. A population of meters sends plain or encrypted
+ * telegrams, either as fast as the receiver reads them or every meter once per send interval. Noise between the
+ * frames and bit errors within the frames disturb the stream like a bad radio link. The keys of encrypted telegrams
+ * are added to the connection.
+ * </p>
+ * <p>
+ * The listener is notified with an {@link EOFException} after the last telegram.
+ * </p>
+ *
+ * <pre>
+ * WMBusStickEmulator.EmulatorBuilder builder = new WMBusStickEmulator.EmulatorBuilder(WMBusManufacturer.IMST,
+ *         listener).setPopulation(1000).setNumberOfTelegrams(100000).setEncrypted(true).setBitErrorRate(1e-5);
+ * builder.setDecodeWorkers(4, true);
+ * try (WMBusStickEmulator emulator = builder.start()) {
+ *     emulator.awaitCompletion(1, TimeUnit.MINUTES);
+ *     System.out.println(emulator.getReport());
+ * }
+ * </pre>
+ */
+public class WMBusStickEmulator implements AutoCloseable {
+
+    private final WMBusConnection connection;
+    private final SyntheticStickLayer layer;
+    private final MeasuringListener listener;
+
+    /**
+     * Builder of an emulated stick. All options of a serial connection except the serial port settings apply.
+     */
+    public static class EmulatorBuilder extends WMBusSerialBuilder {
+
+        private WMBusManufacturer manufacturer;
+        private MeasuringListener measuringListener;
+        private SyntheticStickLayer layer;
+
+        private int population = 100;
+        private int numberOfTelegrams = 10000;
+        private long sendIntervalNanos;
+        private boolean encrypted;
+        private double noiseProbability;
+        private double bitErrorRate;
+        private long seed;
+
+        /**
+         * Creates a builder of an emulated stick.
+         *
+         * @param manufacturer
+         *            the stick to emulate.
+         * @param listener
+         *            the listener of the received messages.
+         */
+        public EmulatorBuilder(WMBusManufacturer manufacturer, WMBusListener listener) {
+            this(manufacturer, new MeasuringListener(listener));
+        }
+
+        private EmulatorBuilder(WMBusManufacturer manufacturer, MeasuringListener measuringListener) {
+            super(manufacturer, measuringListener, "emulator");
+            this.manufacturer = manufacturer;
+            this.measuringListener = measuringListener;
+        }
+
+        /**
+         * Sets the number of meters sending telegrams. Default is 100.
+         *
+         * @param population
+         *            the number of meters.
+         * @return the builder.
+         */
+        public EmulatorBuilder setPopulation(int population) {
+            if (population < 1) {
+                throw new IllegalArgumentException("Population must be at least 1.");
+            }
+            this.population = population;
+            return this;
+        }
+
+        /**
+         * Sets the number of telegrams after which the stream ends. Default is 10000.
+         *
+         * @param numberOfTelegrams
+         *            the number of telegrams.
+         * @return the builder.
+         */
+        public EmulatorBuilder setNumberOfTelegrams(int numberOfTelegrams) {
+            if (numberOfTelegrams < 0) {
+                throw new IllegalArgumentException("Number of telegrams must not be negative.");
+            }
+            this.numberOfTelegrams = numberOfTelegrams;
+            return this;
+        }
+
+        /**
+         * Sets the interval in which every meter sends a telegram. The meters send in turn, so the stick receives a
+         * telegram every interval divided by the population. 0 passes the telegrams on as fast as the receiver reads
+         * them, which is the default.
+         *
+         * @param interval
+         *            the send interval.
+         * @param unit
+         *            the unit of the interval.
+         * @return the builder.
+         */
+        public EmulatorBuilder setSendInterval(long interval, TimeUnit unit) {
+            if (interval < 0) {
+                throw new IllegalArgumentException("Send interval must not be negative.");
+            }
+            this.sendIntervalNanos = unit.toNanos(interval);
+            return this;
+        }
+
+        /**
+         * Sets if the telegrams are encrypted with AES-CBC (security mode 5). Default is <code>false</code>.
+         *
+         * @param encrypted
+         *            <code>true</code> to encrypt the telegrams.
+         * @return the builder.
+         */
+        public EmulatorBuilder setEncrypted(boolean encrypted) {
+            this.encrypted = encrypted;
+            return this;
+        }
+
+        /**
+         * Sets the probability of up to 16 random bytes before a frame. Default is 0.
+         *
+         * @param probability
+         *            the probability between 0 and 1.
+         * @return the builder.
+         */
+        public EmulatorBuilder setNoise(double probability) {
+            this.noiseProbability = checkProbability(probability);
+            return this;
+        }
+
+        /**
+         * Sets the probability of a flipped bit in the bytes passed on by the stick. Default is 0.
+         *
+         * @param bitErrorRate
+         *            the probability between 0 and 1.
+         * @return the builder.
+         */
+        public EmulatorBuilder setBitErrorRate(double bitErrorRate) {
+            this.bitErrorRate = checkProbability(bitErrorRate);
+            return this;
+        }
+
+        /**
+         * Sets the seed of the random generator of the addresses, keys, values, noise and bit errors. Default is 0.
+         *
+         * @param seed
+         *            the seed.
+         * @return the builder.
+         */
+        public EmulatorBuilder setSeed(long seed) {
+            this.seed = seed;
+            return this;
+        }
+
+        private static double checkProbability(double probability) {
+            if (!(probability >= 0 && probability <= 1)) {
+                throw new IllegalArgumentException("Probability must be between 0 and 1.");
+            }
+            return probability;
+        }
+
+        @Override
+        public WMBusSerialBuilder setWmBusManufacturer(WMBusManufacturer wmBusManufacturer) {
+            this.manufacturer = wmBusManufacturer;
+            return super.setWmBusManufacturer(wmBusManufacturer);
+        }
+
+        @Override
+        public WMBusSerialBuilder setListener(WMBusListener connectionListener) {
+            this.measuringListener = new MeasuringListener(connectionListener);
+            return super.setListener(measuringListener);
+        }
+
+        @Override
+        protected TransportLayer buildTransportLayer() {
+            layer = new SyntheticStickLayer(StickFormat.forManufacturer(manufacturer), population, numberOfTelegrams,
+                    sendIntervalNanos, encrypted, noiseProbability, bitErrorRate, seed);
+            measuringListener.setLayer(layer);
+            return layer;
+        }
+
+        /**
+         * Opens the connection, which configures the emulated stick, and starts the telegram stream.
+         *
+         * @return the running emulator.
+         * @throws IOException
+         *             if the connection could not be opened or did not configure the stick.
+         */
+        public WMBusStickEmulator start() throws IOException {
+            WMBusConnection connection = build();
+            if (!layer.isConfigured()) {
+                connection.close();
+                throw new IOException("The connection did not configure the emulated stick.");
+            }
+            for (int i = 0; i < layer.getPopulation(); i++) {
+                byte[] key = layer.getKey(i);
+                if (key != null) {
+                    connection.addKey(layer.getAddress(i), key);
+                }
+            }
+            return new WMBusStickEmulator(connection, layer, measuringListener);
+        }
+
+    }
+
+    private WMBusStickEmulator(WMBusConnection connection, SyntheticStickLayer layer, MeasuringListener listener) {
+        this.connection = connection;
+        this.layer = layer;
+        this.listener = listener;
+    }
+
+    /**
+     * Returns the connection to the emulated stick.
+     *
+     * @return the connection.
+     */
+    public WMBusConnection getConnection() {
+        return connection;
+    }
+
+    /**
+     * Waits until the listener has been notified about all telegrams.
+     *
+     * @param timeout
+     *            the maximal time to wait.
+     * @param unit
+     *            the unit of the timeout.
+     * @return <code>true</code> if the stream completed, <code>false</code> if the timeout elapsed.
+     * @throws InterruptedException
+     *             if the current thread was interrupted while waiting.
+     */
+    public boolean awaitCompletion(long timeout, TimeUnit unit) throws InterruptedException {
+        return listener.awaitCompletion(timeout, unit);
+    }
+
+    /**
+     * Returns the throughput, the drop rate and the latencies measured so far.
+     *
+     * @return the report.
+     */
+    public WMBusReplayReport getReport() {
+        return listener.report(0);
+    }
+
+    /**
+     * Returns the number of frames in which at least one bit was flipped.
+     *
+     * @return the number of corrupted frames.
+     */
+    public int getCorruptedFrames() {
+        return layer.getCorruptedFrames();
+    }
+
+    /**
+     * Stops the stream and closes the connection.
+     */
+    @Override
+    public void close() throws IOException {
+        connection.close();
+    }
+
+}
@@ -0,0 +1,32 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("org.openmuc.jmbus.Decode")
+@Label("Variable Data Structure Decode")
+@Description("Decoding of the transport layer and the data records")
+@Category({ "jMBus", "Decoding" })
+class DecodeEvent extends Event {
+
+    @Label("CI-Field")
+    int ciField;
+
+    @Label("Encryption Mode")
+    String encryptionMode;
+
+    @Label("Data Records")
+    int dataRecords;
+
+    @Label("Success")
+    boolean success;
+
+}
@@ -0,0 +1,31 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("org.openmuc.jmbus.Decrypt")
+@Label("Variable Data Structure Decrypt")
+@Description("Decryption of the encrypted blocks")
+@Category({ "jMBus", "Decoding" })
+class DecryptEvent extends Event {
+
+    @Label("Encryption Mode")
+    String encryptionMode;
+
+    @Label("Length")
+    @DataAmount
+    int length;
+
+    @Label("Success")
+    boolean success;
+
+}
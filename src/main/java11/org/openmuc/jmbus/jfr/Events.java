@@ -0,0 +1,130 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus.jfr;
+
+import org.openmuc.jmbus.EncryptionMode;
+
+import jdk.jfr.EventType;
+
+/**
+ * Emits the JDK Flight Recorder events of jmbus. Used by the connections and the variable data structure.
+ * <p>
+ * This is the Java 11 version. The event types are looked up once, a disabled event costs a field read and no
+ * allocation.
+ * </p>
+ */
+public final class Events {
+
+    private static final EventType ROUND_TRIP = EventType.getEventType(RoundTripEvent.class);
+    private static final EventType FRAME_RECEPTION = EventType.getEventType(FrameReceptionEvent.class);
+    private static final EventType DECODE = EventType.getEventType(DecodeEvent.class);
+    private static final EventType DECRYPT = EventType.getEventType(DecryptEvent.class);
+    private static final EventType SCAN_STEP = EventType.getEventType(ScanStepEvent.class);
+
+    private Events() {
+    }
+
+    public static Object beginRoundTrip() {
+        if (!ROUND_TRIP.isEnabled()) {
+            return null;
+        }
+        RoundTripEvent event = new RoundTripEvent();
+        event.begin();
+        return event;
+    }
+
+    public static void endRoundTrip(Object event, int primaryAddress, int controlField, int ciField, int bytesSent,
+            int bytesReceived, String outcome) {
+        RoundTripEvent roundTrip = (RoundTripEvent) event;
+        roundTrip.end();
+        if (roundTrip.shouldCommit()) {
+            roundTrip.primaryAddress = primaryAddress;
+            roundTrip.controlField = controlField;
+            roundTrip.ciField = ciField;
+            roundTrip.bytesSent = bytesSent;
+            roundTrip.bytesReceived = bytesReceived;
+            roundTrip.outcome = outcome;
+            roundTrip.commit();
+        }
+    }
+
+    public static boolean isFrameReceptionEnabled() {
+        return FRAME_RECEPTION.isEnabled();
+    }
+
+    public static void frameReceived(String vendor, int length, Integer signalStrengthInDBm, long queueWaitNanos) {
+        FrameReceptionEvent event = new FrameReceptionEvent();
+        if (event.shouldCommit()) {
+            event.vendor = vendor;
+            event.length = length;
+            event.signalStrengthInDBm = signalStrengthInDBm == null ? 0 : signalStrengthInDBm;
+            event.queueWait = queueWaitNanos;
+            event.commit();
+        }
+    }
+
+    public static Object beginDecode() {
+        if (!DECODE.isEnabled()) {
+            return null;
+        }
+        DecodeEvent event = new DecodeEvent();
+        event.begin();
+        return event;
+    }
+
+    public static void endDecode(Object event, int ciField, EncryptionMode encryptionMode, int dataRecords,
+            boolean success) {
+        DecodeEvent decode = (DecodeEvent) event;
+        decode.end();
+        if (decode.shouldCommit()) {
+            decode.ciField = ciField;
+            decode.encryptionMode = encryptionMode == null ? null : encryptionMode.name();
+            decode.dataRecords = dataRecords;
+            decode.success = success;
+            decode.commit();
+        }
+    }
+
+    public static Object beginDecrypt() {
+        if (!DECRYPT.isEnabled()) {
+            return null;
+        }
+        DecryptEvent event = new DecryptEvent();
+        event.begin();
+        return event;
+    }
+
+    public static void endDecrypt(Object event, EncryptionMode encryptionMode, int length, boolean success) {
+        DecryptEvent decrypt = (DecryptEvent) event;
+        decrypt.end();
+        if (decrypt.shouldCommit()) {
+            decrypt.encryptionMode = encryptionMode == null ? null : encryptionMode.name();
+            decrypt.length = length;
+            decrypt.success = success;
+            decrypt.commit();
+        }
+    }
+
+    public static Object beginScanStep() {
+        if (!SCAN_STEP.isEnabled()) {
+            return null;
+        }
+        ScanStepEvent event = new ScanStepEvent();
+        event.begin();
+        return event;
+    }
+
+    public static void endScanStep(Object event, String wildcard, String outcome) {
+        ScanStepEvent scanStep = (ScanStepEvent) event;
+        scanStep.end();
+        if (scanStep.shouldCommit()) {
+            scanStep.wildcard = wildcard;
+            scanStep.outcome = outcome;
+            scanStep.commit();
+        }
+    }
+
+}
@@ -0,0 +1,38 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+@Name("org.openmuc.jmbus.FrameReception")
+@Label("Wireless M-Bus Frame Reception")
+@Description("Frame received by a stick and passed to the listener")
+@Category({ "jMBus", "Wireless" })
+class FrameReceptionEvent extends Event {
+
+    @Label("Vendor")
+    String vendor;
+
+    @Label("Length")
+    @DataAmount
+    int length;
+
+    @Label("RSSI")
+    @Description("Signal strength in dBm, 0 if unknown")
+    int signalStrengthInDBm;
+
+    @Label("Queue Wait")
+    @Description("Time from the reception until the listener was called")
+    @Timespan
+    long queueWait;
+
+}
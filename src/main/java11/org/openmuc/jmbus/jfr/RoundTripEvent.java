@@ -0,0 +1,41 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("org.openmuc.jmbus.RoundTrip")
+@Label("M-Bus Round Trip")
+@Description("Request to a wired slave and its response")
+@Category({ "jMBus", "Wired" })
+class RoundTripEvent extends Event {
+
+    @Label("Primary Address")
+    int primaryAddress;
+
+    @Label("C-Field")
+    int controlField;
+
+    @Label("CI-Field")
+    int ciField;
+
+    @Label("Bytes Sent")
+    @DataAmount
+    int bytesSent;
+
+    @Label("Bytes Received")
+    @DataAmount
+    int bytesReceived;
+
+    @Label("Outcome")
+    String outcome;
+
+}
@@ -0,0 +1,26 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("org.openmuc.jmbus.ScanStep")
+@Label("Secondary Address Scan Step")
+@Description("Selection of a wildcard address and the readout of the selected slave")
+@Category({ "jMBus", "Wired" })
+class ScanStepEvent extends Event {
+
+    @Label("Wildcard")
+    String wildcard;
+
+    @Label("Outcome")
+    String outcome;
+
+}
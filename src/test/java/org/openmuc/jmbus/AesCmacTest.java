@@ -0,0 +1,53 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus;
+
+import static javax.xml.bind.DatatypeConverter.parseHexBinary;
+import static org.junit.Assert.assertArrayEquals;
+
+import org.junit.Test;
+
+/**
+ * Test vectors from RFC 4493.
+ */
+public class AesCmacTest {
+
+    private static final byte[] KEY = parseHexBinary("2B7E151628AED2A6ABF7158809CF4F3C");
+    private static final byte[] MESSAGE = parseHexBinary("6BC1BEE22E409F96E93D7E117393172A"
+            + "AE2D8A571E03AC9C9EB76FAC45AF8E51" + "30C81C46A35CE411E5FBC1191A0A52EF" + "F69F2445DF4F9B17AD2B417BE66C3710");
+
+    @Test
+    public void emptyMessage() throws Exception {
+        assertMac("BB1D6929E95937287FA37D129B756746", 0);
+    }
+
+    @Test
+    public void oneBlock() throws Exception {
+        assertMac("070A16B46B4D4144F79BDD9DD04A287C", 16);
+    }
+
+    @Test
+    public void incompleteLastBlock() throws Exception {
+        assertMac("DFA66747DE9AE63030CA32611497C827", 40);
+    }
+
+    @Test
+    public void fourBlocks() throws Exception {
+        assertMac("51F0BEBF7E3B9D92FC49741779363CFE", 64);
+    }
+
+    @Test
+    public void reuseInstance() throws Exception {
+        AesCmac cmac = new AesCmac(KEY);
+        assertArrayEquals(parseHexBinary("DFA66747DE9AE63030CA32611497C827"), cmac.mac(MESSAGE, 0, 40));
+        assertArrayEquals(parseHexBinary("070A16B46B4D4144F79BDD9DD04A287C"), cmac.mac(MESSAGE, 0, 16));
+    }
+
+    private static void assertMac(String expected, int length) throws DecodingException {
+        assertArrayEquals(parseHexBinary(expected), new AesCmac(KEY).mac(MESSAGE, 0, length));
+    }
+
+}
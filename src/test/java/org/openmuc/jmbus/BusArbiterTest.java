@@ -0,0 +1,226 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openmuc.jmbus.transportlayer.SimulatedBus;
+import org.openmuc.jmbus.transportlayer.SimulatedSlave;
+
+public class BusArbiterTest {
+
+    private static final byte[] DATA_RECORDS = new byte[] { 0x04, 0x13, 0x78, 0x56, 0x34, 0x12 };
+
+    private SimulatedBus bus;
+    private MBusConnection connection;
+    private BusArbiter arbiter;
+
+    @Before
+    public void setUp() throws IOException {
+        bus = new SimulatedBus().setBaudrate(0).setResponseLatency(0, TimeUnit.MILLISECONDS);
+        bus.addSlaves(5, 10000000, "ABC", DeviceType.WATER_METER, DATA_RECORDS);
+        connection = MBusConnection.newSimulatedBuilder(bus).setTimeout(50).build();
+        arbiter = new BusArbiter(connection);
+    }
+
+    @After
+    public void tearDown() {
+        connection.close();
+    }
+
+    @Test
+    public void concurrentSecondaryAddressReads() throws Exception {
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            threads.add(new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < 5; i++) {
+                            for (SimulatedSlave slave : bus.getSlaves()) {
+                                SecondaryAddress address = slave.getSecondaryAddress();
+                                assertEquals(address, arbiter.read(address).getSecondaryAddress());
+                            }
+                        }
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    }
+                }
+            });
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+    }
+
+    @Test
+    public void priorityOrder() throws Exception {
+        final CountDownLatch holding = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        Thread holder = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    arbiter.execute(new BusArbiter.Transaction<Void>() {
+                        @Override
+                        public Void execute(MBusConnection connection) throws IOException {
+                            holding.countDown();
+                            try {
+                                release.await();
+                            } catch (InterruptedException e) {
+                                throw new InterruptedIOException();
+                            }
+                            return null;
+                        }
+                    });
+                } catch (IOException e) {
+                    // not expected
+                }
+            }
+        };
+        holder.start();
+        assertTrue(holding.await(5, TimeUnit.SECONDS));
+
+        final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+        List<Thread> threads = new ArrayList<>();
+        threads.add(enqueue("low", BusArbiter.LOW_PRIORITY, order));
+        threads.add(enqueue("normal 1", BusArbiter.NORMAL_PRIORITY, order));
+        threads.add(enqueue("high", BusArbiter.HIGH_PRIORITY, order));
+        threads.add(enqueue("normal 2", BusArbiter.NORMAL_PRIORITY, order));
+
+        release.countDown();
+        holder.join();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(Arrays.asList("high", "normal 1", "normal 2", "low"), order);
+    }
+
+    @Test
+    public void nestedTransactions() throws Exception {
+        final SecondaryAddress address = bus.getSlaves().get(2).getSecondaryAddress();
+        int numberOfRecords = arbiter.execute(new BusArbiter.Transaction<Integer>() {
+            @Override
+            public Integer execute(MBusConnection connection) throws IOException {
+                arbiter.read(address);
+                return arbiter.read(3).getDataRecords().size();
+            }
+        });
+        assertEquals(1, numberOfRecords);
+        assertEquals(0, arbiter.getQueueLength());
+    }
+
+    @Test
+    public void interruptedWhileWaiting() throws Exception {
+        final CountDownLatch holding = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        Thread holder = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    arbiter.execute(new BusArbiter.Transaction<Void>() {
+                        @Override
+                        public Void execute(MBusConnection connection) throws IOException {
+                            holding.countDown();
+                            try {
+                                release.await();
+                            } catch (InterruptedException e) {
+                                throw new InterruptedIOException();
+                            }
+                            return null;
+                        }
+                    });
+                } catch (IOException e) {
+                    // not expected
+                }
+            }
+        };
+        holder.start();
+        assertTrue(holding.await(5, TimeUnit.SECONDS));
+
+        final AtomicReference<IOException> failure = new AtomicReference<>();
+        Thread waiter = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    arbiter.read(1);
+                    fail("Expected an interruption.");
+                } catch (IOException e) {
+                    failure.set(e);
+                }
+            }
+        };
+        waiter.start();
+        awaitQueueLength(1);
+        waiter.interrupt();
+        waiter.join();
+
+        assertTrue(failure.get() instanceof InterruptedIOException);
+        assertEquals(0, arbiter.getQueueLength());
+
+        release.countDown();
+        holder.join();
+        assertEquals(1, arbiter.read(1).getDataRecords().size());
+    }
+
+    private Thread enqueue(final String name, final int priority, final List<String> order) throws Exception {
+        int queueLength = arbiter.getQueueLength();
+        Thread thread = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    arbiter.execute(priority, new BusArbiter.Transaction<Void>() {
+                        @Override
+                        public Void execute(MBusConnection connection) {
+                            order.add(name);
+                            return null;
+                        }
+                    });
+                } catch (IOException e) {
+                    // not expected
+                }
+            }
+        };
+        thread.start();
+        awaitQueueLength(queueLength + 1);
+        return thread;
+    }
+
+    private void awaitQueueLength(int queueLength) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (arbiter.getQueueLength() < queueLength) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("Thread did not queue.");
+            }
+            Thread.sleep(1);
+        }
+    }
+
+}
@@ -0,0 +1,163 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class CRC16Test {
+
+    private static final byte[] CHECK_DATA = "123456789".getBytes(StandardCharsets.US_ASCII);
+
+    @Test
+    public void checkValue() {
+        assertEquals(0xC2B7, CRC16.compute(CHECK_DATA, 0, CHECK_DATA.length));
+        assertArrayEquals(new byte[] { (byte) 0xB7, (byte) 0xC2 }, CRC16.calculateCrc16(CHECK_DATA));
+    }
+
+    @Test
+    public void tableMatchesBitwise() {
+        Random random = new Random(42);
+        byte[] data = new byte[300];
+        random.nextBytes(data);
+
+        for (int offset = 0; offset < 9; offset++) {
+            for (int length = 0; length < 100; length++) {
+                assertEquals(bitwiseCrc(data, offset, length), CRC16.compute(data, offset, length));
+            }
+        }
+    }
+
+    @Test
+    public void incrementalUpdate() {
+        CRC16 crc = new CRC16();
+        crc.update(CHECK_DATA, 0, 4);
+        crc.update(CHECK_DATA[4]);
+        crc.update(ByteBuffer.wrap(CHECK_DATA, 5, 4));
+        assertEquals(0xC2B7, crc.getValue());
+
+        crc.reset();
+        ByteBuffer direct = ByteBuffer.allocateDirect(CHECK_DATA.length);
+        direct.put(CHECK_DATA).flip();
+        crc.update(direct);
+        assertEquals(0xC2B7, crc.getValue());
+        assertEquals(direct.limit(), direct.position());
+    }
+
+    @Test
+    public void formatA() {
+        byte[] frame = newFrame(60);
+        byte[] raw = withFormatACrcs(frame);
+        byte[] buffer = new byte[raw.length + 3];
+        System.arraycopy(raw, 0, buffer, 3, raw.length);
+
+        int length = CRC16.validateAndStripFormatA(buffer, 3, raw.length);
+
+        assertEquals(frame.length, length);
+        assertArrayEquals(frame, Arrays.copyOfRange(buffer, 3, 3 + length));
+    }
+
+    @Test
+    public void formatAWrongCrc() {
+        byte[] raw = withFormatACrcs(newFrame(60));
+        raw[30] ^= 0x01;
+
+        assertEquals(-1, CRC16.validateAndStripFormatA(raw, 0, raw.length));
+    }
+
+    @Test
+    public void formatAIncomplete() {
+        byte[] raw = withFormatACrcs(newFrame(60));
+
+        assertEquals(-1, CRC16.validateAndStripFormatA(raw, 0, raw.length - 1));
+    }
+
+    @Test
+    public void formatBOneBlock() {
+        byte[] frame = newFrame(50);
+        byte[] raw = withFormatBCrcs(frame);
+
+        int length = CRC16.validateAndStripFormatB(raw, 0, raw.length);
+
+        assertEquals(frame.length, length);
+        assertArrayEquals(frame, Arrays.copyOf(raw, length));
+    }
+
+    @Test
+    public void formatBThreeBlocks() {
+        byte[] frame = newFrame(200);
+        byte[] raw = withFormatBCrcs(frame);
+
+        int length = CRC16.validateAndStripFormatB(raw, 0, raw.length);
+
+        assertEquals(frame.length, length);
+        assertArrayEquals(frame, Arrays.copyOf(raw, length));
+    }
+
+    @Test
+    public void formatBWrongCrc() {
+        byte[] raw = withFormatBCrcs(newFrame(200));
+        raw[150] ^= 0x01;
+
+        assertEquals(-1, CRC16.validateAndStripFormatB(raw, 0, raw.length));
+    }
+
+    private static byte[] newFrame(int length) {
+        byte[] frame = new byte[length];
+        new Random(length).nextBytes(frame);
+        frame[0] = (byte) (length - 1);
+        return frame;
+    }
+
+    private static byte[] withFormatACrcs(byte[] frame) {
+        ByteBuffer raw = ByteBuffer.allocate(frame.length + 2 * (1 + (frame.length - 10 + 15) / 16));
+        int blockSize = 10;
+        for (int i = 0; i < frame.length; i += blockSize, blockSize = 16) {
+            int size = Math.min(blockSize, frame.length - i);
+            raw.put(frame, i, size).putShort((short) bitwiseCrc(frame, i, size));
+        }
+        return raw.array();
+    }
+
+    private static byte[] withFormatBCrcs(byte[] frame) {
+        int firstEnd = Math.min(frame.length, 126);
+        int crcs = frame.length > 126 ? 2 : 1;
+        ByteBuffer raw = ByteBuffer.allocate(frame.length + 2 * crcs);
+        raw.put((byte) (frame.length - 1 + 2 * crcs)).put(frame, 1, firstEnd - 1);
+        raw.putShort((short) bitwiseCrc(raw.array(), 0, firstEnd));
+        if (crcs == 2) {
+            raw.put(frame, firstEnd, frame.length - firstEnd)
+                    .putShort((short) bitwiseCrc(frame, firstEnd, frame.length - firstEnd));
+        }
+        return raw.array();
+    }
+
+    private static int bitwiseCrc(byte[] bytes, int offset, int length) {
+        int crcVal = 0;
+        for (int j = offset; j < offset + length; j++) {
+            for (int i = 0x80; i != 0; i >>= 1) {
+                if ((crcVal & 0x8000) != 0) {
+                    crcVal = (crcVal << 1) ^ 0x3D65;
+                }
+                else {
+                    crcVal = crcVal << 1;
+                }
+                if ((bytes[j] & i) != 0) {
+                    crcVal ^= 0x3D65;
+                }
+            }
+        }
+        return (crcVal ^ 0xFFFF) & 0xFFFF;
+    }
+
+}
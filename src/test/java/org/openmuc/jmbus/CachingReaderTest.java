@@ -0,0 +1,207 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openmuc.jmbus.transportlayer.SimulatedBus;
+
+public class CachingReaderTest {
+
+    private static final byte[] DATA_RECORDS = new byte[] { 0x04, 0x13, 0x78, 0x56, 0x34, 0x12 };
+
+    private SimulatedBus bus;
+    private MBusConnection connection;
+    private CountingMetrics metrics;
+    private BusArbiter arbiter;
+
+    @Before
+    public void setUp() throws IOException {
+        bus = new SimulatedBus().setBaudrate(0).setResponseLatency(0, TimeUnit.MILLISECONDS);
+        bus.addSlaves(3, 10000000, "ABC", DeviceType.WATER_METER, DATA_RECORDS);
+        connection = MBusConnection.newSimulatedBuilder(bus).setTimeout(50).build();
+        metrics = new CountingMetrics();
+        connection.setMetrics(metrics);
+        arbiter = new BusArbiter(connection);
+    }
+
+    @After
+    public void tearDown() {
+        connection.close();
+    }
+
+    @Test
+    public void timeToLive() throws Exception {
+        SecondaryAddress address = bus.getSlaves().get(1).getSecondaryAddress();
+        try (CachingReader reader = new CachingReader.ReaderBuilder(arbiter).setTimeToLive(1, TimeUnit.HOURS)
+                .setTimeToLive(3, 0, TimeUnit.SECONDS)
+                .build()) {
+            VariableDataStructure vds = reader.read(1);
+            assertSame(vds, reader.read(1));
+            assertEquals(1, metrics.getFramesSent());
+
+            // cached by secondary address independently, the selection and REQ_UD2
+            assertEquals(address, reader.read(address).getSecondaryAddress());
+            reader.read(address);
+            assertEquals(3, metrics.getFramesSent());
+
+            // no caching for meter 3
+            reader.read(3);
+            reader.read(3);
+            assertEquals(5, metrics.getFramesSent());
+
+            reader.invalidate(1);
+            reader.read(1);
+            assertEquals(6, metrics.getFramesSent());
+
+            assertEquals(2, reader.getHits());
+            assertEquals(5, reader.getMisses());
+            assertEquals(0, reader.getCoalesced());
+        }
+    }
+
+    @Test
+    public void concurrentReadsAreCoalesced() throws Exception {
+        final CachingReader reader = new CachingReader.ReaderBuilder(arbiter).build();
+        final CountDownLatch holding = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        Thread holder = holdBus(holding, release);
+        assertTrue(holding.await(5, TimeUnit.SECONDS));
+
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        final List<VariableDataStructure> results = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            threads.add(new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        VariableDataStructure vds = reader.read(2);
+                        synchronized (results) {
+                            results.add(vds);
+                        }
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    }
+                }
+            });
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        long deadline = System.currentTimeMillis() + 5000;
+        while (reader.getMisses() + reader.getCoalesced() < 5) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("Reads did not start.");
+            }
+            Thread.sleep(1);
+        }
+
+        release.countDown();
+        holder.join();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+        assertEquals(1, metrics.getFramesSent());
+        assertEquals(1, reader.getMisses());
+        assertEquals(4, reader.getCoalesced());
+        for (VariableDataStructure vds : results) {
+            assertSame(results.get(0), vds);
+        }
+        reader.close();
+    }
+
+    @Test
+    public void staleWhileRevalidate() throws Exception {
+        try (CachingReader reader = new CachingReader.ReaderBuilder(arbiter).setTimeToLive(0, TimeUnit.SECONDS)
+                .setStaleWhileRevalidate(1, TimeUnit.HOURS)
+                .build()) {
+            VariableDataStructure first = reader.read(1);
+            assertSame(first, reader.read(1));
+            assertEquals(1, reader.getStaleHits());
+
+            long deadline = System.currentTimeMillis() + 5000;
+            while (metrics.getFramesReceived() < 2) {
+                if (System.currentTimeMillis() > deadline) {
+                    fail("Meter was not read again.");
+                }
+                Thread.sleep(1);
+            }
+            VariableDataStructure revalidated;
+            do {
+                revalidated = reader.read(1);
+            } while (revalidated == first && System.currentTimeMillis() < deadline);
+
+            assertTrue(revalidated != first);
+            assertEquals(1, reader.getMisses());
+        }
+    }
+
+    @Test
+    public void failuresAreNotCached() throws Exception {
+        try (CachingReader reader = new CachingReader.ReaderBuilder(arbiter).build()) {
+            try {
+                reader.read(9);
+                fail("Expected a timeout.");
+            } catch (NoMessageException e) {
+                // expected
+            }
+            try {
+                reader.read(9);
+                fail("Expected a timeout.");
+            } catch (NoMessageException e) {
+                // expected
+            }
+            assertEquals(2, reader.getMisses());
+            assertEquals(2, metrics.getTimeouts());
+        }
+    }
+
+    private Thread holdBus(final CountDownLatch holding, final CountDownLatch release) {
+        Thread holder = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    arbiter.execute(new BusArbiter.Transaction<Void>() {
+                        @Override
+                        public Void execute(MBusConnection connection) throws IOException {
+                            holding.countDown();
+                            try {
+                                release.await();
+                            } catch (InterruptedException e) {
+                                throw new InterruptedIOException();
+                            }
+                            return null;
+                        }
+                    });
+                } catch (IOException e) {
+                    // not expected
+                }
+            }
+        };
+        holder.start();
+        return holder;
+    }
+
+}
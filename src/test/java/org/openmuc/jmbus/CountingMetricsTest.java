@@ -0,0 +1,196 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus;
+
+import static javax.xml.bind.DatatypeConverter.parseHexBinary;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.openmuc.jmbus.transportlayer.SimulatedBus;
+import org.openmuc.jmbus.wireless.WMBusConnection.WMBusSerialBuilder.WMBusManufacturer;
+import org.openmuc.jmbus.wireless.WMBusListener;
+import org.openmuc.jmbus.wireless.WMBusMessage;
+import org.openmuc.jmbus.wireless.WMBusStickEmulator;
+
+public class CountingMetricsTest {
+
+    // volume, flow temperature
+    private static final byte[] DATA_RECORDS = new byte[] { 0x04, 0x13, 0x78, 0x56, 0x34, 0x12, 0x02, 0x5b, 0x15,
+            0x00 };
+
+    private static final byte[] ENCRYPTED_SHORT_HEADER = parseHexBinary(
+            "7ACB5030055E861434F34A14AE2B9973AEE9811E32578336455E9AC7E7EF960B2253CA7F2BB6632C35E3DD95D66FE96C699A298A53");
+    private static final SecondaryAddress LINK_LAYER_ADDRESS = SecondaryAddress
+            .newFromWMBusLlHeader(parseHexBinary("2423759468372507"), 0);
+
+    @Test
+    public void wiredRequests() throws Exception {
+        SimulatedBus bus = new SimulatedBus().setBaudrate(0).setResponseLatency(0, TimeUnit.MILLISECONDS);
+        bus.addSlaves(3, 10000000, "ABC", DeviceType.WATER_METER, DATA_RECORDS);
+
+        CountingMetrics metrics = new CountingMetrics();
+        try (MBusConnection connection = MBusConnection.newSimulatedBuilder(bus).setTimeout(20).build()) {
+            connection.setMetrics(metrics);
+
+            connection.linkReset(2);
+            connection.read(2);
+            try {
+                connection.read(9);
+                fail("Expected a timeout.");
+            } catch (NoMessageException e) {
+                // expected
+            }
+        }
+
+        assertEquals(3, metrics.getFramesSent());
+        assertEquals(15, metrics.getBytesSent());
+        assertEquals(2, metrics.getFramesReceived());
+        // single character and RSP_UD with 10 bytes of data records
+        assertEquals(1 + 31, metrics.getBytesReceived());
+        assertEquals(1, metrics.getTimeouts());
+        assertEquals(0, metrics.getDecodingFailures());
+
+        assertEquals(2, metrics.getRequestLatencies(2).getCount());
+        assertNull(metrics.getRequestLatencies(9));
+        assertEquals(1, metrics.getRequestLatencies().size());
+    }
+
+    @Test
+    public void latenciesBySecondaryAddress() throws Exception {
+        SimulatedBus bus = new SimulatedBus().setBaudrate(0).setResponseLatency(0, TimeUnit.MILLISECONDS);
+        bus.addSlaves(2, 10000000, "ABC", DeviceType.WATER_METER, DATA_RECORDS);
+        SecondaryAddress first = bus.getSlaves().get(0).getSecondaryAddress();
+        SecondaryAddress second = bus.getSlaves().get(1).getSecondaryAddress();
+
+        CountingMetrics metrics = new CountingMetrics();
+        try (MBusConnection connection = MBusConnection.newSimulatedBuilder(bus).setTimeout(20).build()) {
+            connection.setMetrics(metrics);
+            connection.read(first);
+            connection.read(first);
+            connection.read(second);
+        }
+
+        assertEquals(2, metrics.getRequestLatencies(first).getCount());
+        assertEquals(1, metrics.getRequestLatencies(second).getCount());
+        assertEquals(2, metrics.getSecondaryRequestLatencies().size());
+        // only the two selections
+        assertEquals(2, metrics.getRequestLatencies(0xfd).getCount());
+    }
+
+    @Test
+    public void collidingAnswers() throws Exception {
+        SimulatedBus bus = new SimulatedBus().setBaudrate(0).setResponseLatency(0, TimeUnit.MILLISECONDS);
+        bus.addSlaves(2, 10000000, "ABC", DeviceType.WATER_METER, DATA_RECORDS);
+
+        CountingMetrics metrics = new CountingMetrics();
+        byte[] wildcard = new byte[] { 0x0f, 0x00, 0x00, 0x10, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff };
+        try (MBusConnection connection = MBusConnection.newSimulatedBuilder(bus).setTimeout(20).build()) {
+            connection.setMetrics(metrics);
+            connection.selectComponent(SecondaryAddress.newFromLongHeader(wildcard, 0));
+            try {
+                connection.read(0xfd);
+                fail("Expected a collision.");
+            } catch (IOException e) {
+                // expected
+            }
+        }
+
+        // the bus drops the bits which collided, so the answer is shorter than its length field
+        assertEquals(1, metrics.getPartialMessages());
+        // only the selection was answered
+        assertEquals(1, metrics.getRequestLatencies(0xfd).getCount());
+    }
+
+    @Test
+    public void decryptionFailures() throws Exception {
+        CountingMetrics metrics = new CountingMetrics();
+
+        decodeEncrypted(new HashMap<SecondaryAddress, byte[]>(), metrics);
+        Map<SecondaryAddress, byte[]> keyMap = new HashMap<>();
+        keyMap.put(LINK_LAYER_ADDRESS, "HalloWorldTestPX".getBytes());
+        decodeEncrypted(keyMap, metrics);
+
+        assertEquals(2, metrics.getDecryptionFailures());
+        assertEquals(2, metrics.getDecodingFailures(0x7a));
+        assertEquals(2, metrics.getDecodingFailures());
+
+        keyMap.put(LINK_LAYER_ADDRESS, "HalloWorldTestPW".getBytes());
+        new VariableDataStructure(ENCRYPTED_SHORT_HEADER.clone(), 0, ENCRYPTED_SHORT_HEADER.length,
+                LINK_LAYER_ADDRESS, keyMap, metrics).decode();
+        assertEquals(2, metrics.getDecryptionFailures());
+    }
+
+    @Test
+    public void wirelessReceiver() throws Exception {
+        CountingMetrics metrics = new CountingMetrics();
+        WMBusStickEmulator.EmulatorBuilder builder = new WMBusStickEmulator.EmulatorBuilder(WMBusManufacturer.AMBER,
+                new IgnoringListener()).setPopulation(10).setNumberOfTelegrams(500);
+        builder.setMetrics(metrics);
+
+        try (WMBusStickEmulator emulator = builder.start()) {
+            assertTrue(emulator.awaitCompletion(10, TimeUnit.SECONDS));
+        }
+
+        assertEquals(500, metrics.getFramesReceived());
+        assertTrue(metrics.getBytesReceived() >= 500 * 25);
+        assertTrue(metrics.getMaxListenerQueueDepth() >= 1);
+        assertEquals(0, metrics.getDecodingFailures());
+    }
+
+    @Test
+    public void latencyHistogram() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getPercentileNanos(99));
+
+        for (int i = 0; i < 99; i++) {
+            histogram.record(1000);
+        }
+        histogram.record(1000000);
+
+        assertEquals(100, histogram.getCount());
+        assertEquals((99 * 1000 + 1000000) / 100, histogram.getMeanNanos());
+        // 1000 ns are in the bucket from 512 to 1023 ns
+        assertEquals(1023, histogram.getPercentileNanos(50));
+        assertEquals(1023, histogram.getPercentileNanos(99));
+        assertEquals((1 << 20) - 1, histogram.getPercentileNanos(100));
+    }
+
+    private static void decodeEncrypted(Map<SecondaryAddress, byte[]> keyMap, MBusMetrics metrics) {
+        VariableDataStructure vds = new VariableDataStructure(ENCRYPTED_SHORT_HEADER.clone(), 0,
+                ENCRYPTED_SHORT_HEADER.length, LINK_LAYER_ADDRESS, keyMap, metrics);
+        try {
+            vds.decode();
+            fail("Expected a decoding exception.");
+        } catch (DecodingException e) {
+            // expected
+        }
+    }
+
+    private static class IgnoringListener implements WMBusListener {
+
+        @Override
+        public void newMessage(WMBusMessage message) {
+        }
+
+        @Override
+        public void discardedBytes(byte[] bytes) {
+        }
+
+        @Override
+        public void stoppedListening(IOException cause) {
+        }
+
+    }
+
+}
@@ -0,0 +1,128 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.openmuc.jmbus.FrameRecorder.RecordedFrame;
+import org.openmuc.jmbus.VerboseMessage.MessageDirection;
+import org.openmuc.jmbus.transportlayer.SimulatedBus;
+
+public class FrameRecorderTest {
+
+    private static final byte[] DATA_RECORDS = new byte[] { 0x04, 0x13, 0x78, 0x56, 0x34, 0x12 };
+
+    @Test
+    public void ringBuffer() {
+        FrameRecorder recorder = new FrameRecorder(3);
+        byte[] buffer = new byte[MBusMessage.MAX_MESSAGE_SIZE + 10];
+        for (int i = 0; i < 5; i++) {
+            buffer[0] = (byte) i;
+            recorder.record(i % 2 == 0 ? MessageDirection.SEND : MessageDirection.RECEIVE, i % 2, buffer, 0, i + 1);
+        }
+
+        List<RecordedFrame> frames = recorder.getFrames();
+        assertEquals(3, frames.size());
+        for (int i = 0; i < 3; i++) {
+            RecordedFrame frame = frames.get(i);
+            assertEquals(i + 3, frame.getFrame().length);
+            assertEquals(i + 2, frame.getFrame()[0]);
+        }
+        assertEquals(MessageDirection.SEND, frames.get(0).getDirection());
+        assertEquals(MessageDirection.RECEIVE, frames.get(1).getDirection());
+
+        List<RecordedFrame> oddFrames = recorder.getFrames(1);
+        assertEquals(1, oddFrames.size());
+        assertEquals(3, oddFrames.get(0).getFrame()[0]);
+
+        recorder.record(MessageDirection.RECEIVE, 0, buffer, 0, buffer.length);
+        assertEquals(MBusMessage.MAX_MESSAGE_SIZE, recorder.getFrames().get(2).getFrame().length);
+
+        recorder.clear();
+        assertTrue(recorder.getFrames().isEmpty());
+    }
+
+    @Test
+    public void requestsAreRecorded() throws Exception {
+        SimulatedBus bus = new SimulatedBus().setBaudrate(0).setResponseLatency(0, TimeUnit.MILLISECONDS);
+        bus.addSlaves(1, 10000000, "ABC", DeviceType.WATER_METER, DATA_RECORDS);
+
+        try (MBusConnection connection = MBusConnection.newSimulatedBuilder(bus).setTimeout(20).build()) {
+            connection.read(1);
+
+            List<RecordedFrame> frames = connection.getFrameRecorder().getFrames(1);
+            assertEquals(2, frames.size());
+            assertEquals(MessageDirection.SEND, frames.get(0).getDirection());
+            assertArrayEquals(new byte[] { 0x10, 0x7b, 0x01, 0x7c, 0x16 }, frames.get(0).getFrame());
+            assertEquals(MessageDirection.RECEIVE, frames.get(1).getDirection());
+            assertEquals(0x68, frames.get(1).getFrame()[0]);
+            assertEquals(21 + DATA_RECORDS.length, frames.get(1).getFrame().length);
+        }
+    }
+
+    @Test
+    public void framesAreAttachedToUndecodableResponse() throws Exception {
+        SimulatedBus bus = new SimulatedBus().setBaudrate(0).setResponseLatency(0, TimeUnit.MILLISECONDS);
+        // a 32 bit value with only one data byte
+        bus.addSlaves(1, 10000000, "ABC", DeviceType.WATER_METER, new byte[] { 0x04, 0x13, 0x78 });
+
+        try (MBusConnection connection = MBusConnection.newSimulatedBuilder(bus).setTimeout(20).build()) {
+            try {
+                connection.read(1);
+                fail("Expected an undecodable answer.");
+            } catch (IOException e) {
+                assertTrue(e.getCause() instanceof DecodingException);
+                List<RecordedFrame> frames = ((DecodingException) e.getCause()).getRecordedFrames();
+                assertEquals(2, frames.size());
+                assertEquals(MessageDirection.SEND, frames.get(0).getDirection());
+                assertEquals(MessageDirection.RECEIVE, frames.get(1).getDirection());
+                assertEquals(21 + 3, frames.get(1).getFrame().length);
+            }
+        }
+    }
+
+    @Test
+    public void framesAreAttachedToExceptions() throws Exception {
+        SimulatedBus bus = new SimulatedBus().setBaudrate(0).setResponseLatency(0, TimeUnit.MILLISECONDS);
+        bus.addSlaves(2, 10000000, "ABC", DeviceType.WATER_METER, DATA_RECORDS);
+
+        byte[] wildcard = new byte[] { 0x0f, 0x00, 0x00, 0x10, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff };
+        try (MBusConnection connection = MBusConnection.newSimulatedBuilder(bus).setTimeout(20).build()) {
+            connection.selectComponent(SecondaryAddress.newFromLongHeader(wildcard, 0));
+            try {
+                connection.read(0xfd);
+                fail("Expected a garbled answer.");
+            } catch (PartialMessageException e) {
+                List<RecordedFrame> frames = e.getRecordedFrames();
+                // selection, its acknowledgement, REQ_UD2 and the garbled answer
+                assertEquals(4, frames.size());
+                assertEquals(MessageDirection.RECEIVE, frames.get(3).getDirection());
+                assertEquals(0xfd, frames.get(3).getPrimaryAddress());
+            } catch (MessageCollisionException e) {
+                assertEquals(4, e.getRecordedFrames().size());
+            }
+
+            connection.setFrameRecorder(null);
+            try {
+                connection.read(0xfd);
+                fail("Expected a garbled answer.");
+            } catch (PartialMessageException e) {
+                assertTrue(e.getRecordedFrames().isEmpty());
+            } catch (MessageCollisionException e) {
+                assertTrue(e.getRecordedFrames().isEmpty());
+            }
+        }
+    }
+
+}
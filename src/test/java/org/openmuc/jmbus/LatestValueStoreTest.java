@@ -0,0 +1,99 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.openmuc.jmbus.DataRecord.DataValueType;
+
+public class LatestValueStoreTest {
+
+    private static final byte[] RSP_UD = new byte[] { (byte) 0x68, (byte) 0x40, (byte) 0x40, (byte) 0x68, (byte) 0x08,
+            (byte) 0x00, (byte) 0x72, (byte) 0x71, (byte) 0x22, (byte) 0x23, (byte) 0x10, (byte) 0x65, (byte) 0x32,
+            (byte) 0x18, (byte) 0x0E, (byte) 0x17, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x0C, (byte) 0x22,
+            (byte) 0x22, (byte) 0x37, (byte) 0x00, (byte) 0x00, (byte) 0x04, (byte) 0x6D, (byte) 0x30, (byte) 0x10,
+            (byte) 0xDA, (byte) 0x19, (byte) 0x06, (byte) 0xFD, (byte) 0x0C, (byte) 0x18, (byte) 0x00, (byte) 0x0E,
+            (byte) 0x00, (byte) 0x22, (byte) 0x03, (byte) 0x0D, (byte) 0xFD, (byte) 0x0B, (byte) 0x05, (byte) 0x36,
+            (byte) 0x31, (byte) 0x54, (byte) 0x54, (byte) 0x57, (byte) 0x32, (byte) 0x6C, (byte) 0xFF, (byte) 0xFF,
+            (byte) 0x02, (byte) 0xFA, (byte) 0x3D, (byte) 0x00, (byte) 0x01, (byte) 0x01, (byte) 0x7C, (byte) 0x06,
+            (byte) 0x54, (byte) 0x54, (byte) 0x41, (byte) 0x42, (byte) 0x20, (byte) 0x25, (byte) 0x61, (byte) 0x43,
+            (byte) 0x16 };
+
+    @Test
+    public void latestNumericValues() throws Exception {
+        LatestValueStore store = LatestValueStore.onHeap(10, 8);
+        VariableDataStructure vds = decode();
+
+        assertTrue(store.update(vds.getSecondaryAddress(), vds, 1000L));
+
+        List<DataRecord> numeric = new ArrayList<>();
+        for (DataRecord dataRecord : vds.getDataRecords()) {
+            if (dataRecord.getDataValueType() != DataValueType.STRING
+                    && dataRecord.getDataValueType() != DataValueType.NONE) {
+                numeric.add(dataRecord);
+            }
+        }
+
+        LatestValueStore.Snapshot snapshot = store.newSnapshot();
+        assertTrue(store.read(vds.getSecondaryAddress(), snapshot));
+        assertEquals(1000L, snapshot.getTimestamp());
+        assertEquals(numeric.size(), snapshot.getCount());
+        for (int i = 0; i < numeric.size(); i++) {
+            DataRecord dataRecord = numeric.get(i);
+            assertEquals(dataRecord.getDescription(), snapshot.getDescriptor(i).getDescription());
+            assertEquals(dataRecord.getScaledDataValue(), snapshot.getScaledValue(i));
+        }
+    }
+
+    @Test
+    public void sameMeterFromWiredAndWireless() throws Exception {
+        LatestValueStore store = LatestValueStore.offHeap(10, 8);
+        VariableDataStructure vds = decode();
+        store.update(vds.getSecondaryAddress(), vds, 1000L);
+        store.update(vds.getSecondaryAddress(), vds, 2000L);
+
+        long linkLayerAddress = vds.getSecondaryAddress().asWMBusLlHeaderLong();
+        SecondaryAddress wireless = SecondaryAddress.newFromLong(linkLayerAddress, false);
+
+        LatestValueStore.Snapshot snapshot = store.newSnapshot();
+        assertTrue(store.read(wireless, snapshot));
+        assertEquals(2000L, snapshot.getTimestamp());
+        assertEquals(1, store.size());
+    }
+
+    @Test
+    public void descriptorsAreShared() throws Exception {
+        LatestValueStore store = LatestValueStore.onHeap(2, 8);
+        VariableDataStructure vds = decode();
+        SecondaryAddress other = SecondaryAddress.from(1, "LSE", 1, DeviceType.WATER_METER);
+
+        store.update(vds.getSecondaryAddress(), vds, 1000L);
+        store.update(other, vds, 1000L);
+        assertFalse(store.update(SecondaryAddress.from(2, "LSE", 1, DeviceType.WATER_METER), vds, 1000L));
+
+        LatestValueStore.Snapshot first = store.newSnapshot();
+        LatestValueStore.Snapshot second = store.newSnapshot();
+        store.read(vds.getSecondaryAddress(), first);
+        store.read(other, second);
+        assertEquals(first.getDescriptorId(0), second.getDescriptorId(0));
+        assertSame(first.getDescriptor(0), second.getDescriptor(0));
+        assertFalse(store.read(SecondaryAddress.from(2, "LSE", 1, DeviceType.WATER_METER), first));
+    }
+
+    private static VariableDataStructure decode() throws DecodingException {
+        VariableDataStructure vds = MBusMessage.decode(RSP_UD, RSP_UD.length).getVariableDataResponse();
+        vds.decode();
+        return vds;
+    }
+
+}
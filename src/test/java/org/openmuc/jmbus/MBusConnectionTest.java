@@ -13,10 +13,12 @@ import org.junit.Test;
 import org.junit.rules.ExpectedException;
 import org.junit.runner.RunWith;
 import org.openmuc.jmbus.MBusConnection.MBusSerialBuilder;
+import org.openmuc.jmbus.transportlayer.SimulatedBus;
 
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.assertEquals;
 
@@ -51,6 +53,33 @@ public class MBusConnectionTest {
         mBusConnection.close();
     }
 
+    @Test
+    public void readSecondaryAddress_sameMeter_shouldNotSelectAgain() throws IOException {
+        SimulatedBus bus = new SimulatedBus().setBaudrate(0).setResponseLatency(0, TimeUnit.MILLISECONDS);
+        bus.addSlaves(2, 10000000, "ABC", DeviceType.WATER_METER, new byte[] { 0x04, 0x13, 0x78, 0x56, 0x34, 0x12 });
+        SecondaryAddress first = bus.getSlaves().get(0).getSecondaryAddress();
+        SecondaryAddress second = bus.getSlaves().get(1).getSecondaryAddress();
+
+        CountingMetrics metrics = new CountingMetrics();
+        try (MBusConnection connection = MBusConnection.newSimulatedBuilder(bus).setTimeout(20).build()) {
+            connection.setMetrics(metrics);
+
+            // selection and REQ_UD2, then only REQ_UD2
+            assertEquals(first, connection.read(first).getSecondaryAddress());
+            assertEquals(first, connection.read(first).getSecondaryAddress());
+            assertEquals(3, metrics.getFramesSent());
+
+            // selecting the second meter deselects the first one
+            assertEquals(second, connection.read(second).getSecondaryAddress());
+            assertEquals(5, metrics.getFramesSent());
+
+            // a link reset of all meters resets the selection
+            connection.linkReset(0xfd);
+            assertEquals(second, connection.read(second).getSecondaryAddress());
+            assertEquals(8, metrics.getFramesSent());
+        }
+    }
+
     public Object testParserData() {
         Object[] p1 = { MessagesData.testMsg4, 0, 9 };
         Object[] p2 = { MessagesData.testMsg5, 5, 10 };
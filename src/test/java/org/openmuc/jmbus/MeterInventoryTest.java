@@ -0,0 +1,163 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.openmuc.jmbus.transportlayer.SimulatedBus;
+
+public class MeterInventoryTest {
+
+    private static final byte[] DATA_RECORDS = new byte[] { 0x04, 0x13, 0x78, 0x56, 0x34, 0x12 };
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void updateGrowAndReopen() throws Exception {
+        Path path = folder.getRoot().toPath().resolve("meters.inv");
+        try (MeterInventory inventory = newInventory(path)) {
+            for (int i = 0; i < 10; i++) {
+                inventory.update(address(i), i < 5 ? "/dev/ttyUSB0" : "/dev/ttyUSB1", i + 1, i % 2 == 0, 2400,
+                        1000000L * i, i);
+            }
+            // an unknown primary address keeps the known one and its frame count bit
+            inventory.update(address(3), "/dev/ttyUSB0", -1, true, 2400, 5, 3);
+
+            assertTrue(inventory.remove(address(0)));
+            assertFalse(inventory.remove(address(0)));
+            assertEquals(9, inventory.size());
+        }
+
+        try (MeterInventory inventory = newInventory(path)) {
+            assertEquals(9, inventory.size());
+            assertNull(inventory.get(address(0)));
+            assertEquals(4, inventory.getMeters("/dev/ttyUSB0").size());
+            assertEquals(5, inventory.getMeters("/dev/ttyUSB1").size());
+
+            MeterInventory.Entry meter = inventory.get(address(3));
+            assertEquals(address(3), meter.getSecondaryAddress());
+            assertEquals("/dev/ttyUSB0", meter.getBusName());
+            assertEquals(4, meter.getPrimaryAddress());
+            assertFalse(meter.getFrameCountBit());
+            assertEquals(2400, meter.getBaudrate());
+            assertEquals(5, meter.getLatencyNanos());
+
+            meter = inventory.get(address(9));
+            assertEquals(10, meter.getPrimaryAddress());
+            assertFalse(meter.getFrameCountBit());
+            assertEquals(9, meter.getLayoutFingerprint());
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void foreignFile() throws Exception {
+        Path path = folder.getRoot().toPath().resolve("foreign");
+        Files.write(path, new byte[100]);
+        newInventory(path);
+    }
+
+    @Test
+    public void connectionKeepsInventory() throws Exception {
+        SimulatedBus bus = new SimulatedBus().setBaudrate(0).setResponseLatency(0, TimeUnit.MILLISECONDS);
+        bus.addSlaves(2, 10000000, "ABC", DeviceType.WATER_METER, DATA_RECORDS);
+        Path path = folder.getRoot().toPath().resolve("meters.inv");
+
+        try (MeterInventory inventory = newInventory(path);
+                MBusConnection connection = MBusConnection.newSimulatedBuilder(bus).setTimeout(20).build()) {
+            connection.setMeterInventory(inventory);
+            VariableDataStructure vds = connection.read(1);
+            connection.read(2);
+            connection.read(2);
+
+            List<MeterInventory.Entry> meters = inventory.getMeters(connection.getBusName());
+            assertEquals(2, meters.size());
+            MeterInventory.Entry meter = inventory.get(vds.getSecondaryAddress());
+            assertEquals(1, meter.getPrimaryAddress());
+            assertTrue(meter.getFrameCountBit());
+            assertEquals(MeterInventory.layoutFingerprint(vds), meter.getLayoutFingerprint());
+            assertTrue(meter.getLatencyNanos() > 0);
+            assertFalse(inventory.get(meters.get(1).getSecondaryAddress()).getFrameCountBit());
+        }
+
+        // after a restart the next request to each meter toggles the frame count bit
+        try (MeterInventory inventory = newInventory(path);
+                MBusConnection connection = MBusConnection.newSimulatedBuilder(bus).setTimeout(20).build()) {
+            connection.setMeterInventory(inventory);
+            connection.read(1);
+            connection.read(2);
+
+            List<MeterInventory.Entry> meters = inventory.getMeters("simulated");
+            assertFalse(meters.get(0).getFrameCountBit());
+            assertTrue(meters.get(1).getFrameCountBit());
+        }
+    }
+
+    @Test
+    public void failedUpdateKeepsReading() throws Exception {
+        SimulatedBus bus = new SimulatedBus().setBaudrate(0).setResponseLatency(0, TimeUnit.MILLISECONDS);
+        bus.addSlaves(2, 10000000, "ABC", DeviceType.WATER_METER, DATA_RECORDS);
+        Path path = folder.getRoot().toPath().resolve("meters.inv");
+        CountingMetrics metrics = new CountingMetrics();
+
+        try (MeterInventory inventory = new MeterInventory.InventoryBuilder(path).setInitialCapacity(1).build();
+                MBusConnection connection = MBusConnection.newSimulatedBuilder(bus).setTimeout(20).build()) {
+            connection.setMetrics(metrics);
+            connection.setMeterInventory(inventory);
+            connection.read(1);
+
+            // the file can no longer be extended for the second meter
+            Files.delete(path);
+            Files.createDirectory(path);
+
+            VariableDataStructure vds = connection.read(2);
+            assertEquals(1, vds.getDataRecords().size());
+            assertEquals(1, metrics.getInventoryUpdateFailures());
+            assertEquals(1, inventory.size());
+        }
+    }
+
+    @Test
+    public void layoutFingerprint() throws Exception {
+        byte[] otherRecords = new byte[] { 0x04, 0x14, 0x78, 0x56, 0x34, 0x12 };
+        byte[] otherValues = new byte[] { 0x04, 0x13, 0x00, 0x00, 0x00, 0x01 };
+
+        assertEquals(fingerprint(DATA_RECORDS), fingerprint(otherValues));
+        assertNotEquals(fingerprint(DATA_RECORDS), fingerprint(otherRecords));
+    }
+
+    private static long fingerprint(byte[] dataRecords) throws Exception {
+        // CI-field 0x78, no header
+        byte[] buffer = new byte[dataRecords.length + 1];
+        buffer[0] = 0x78;
+        System.arraycopy(dataRecords, 0, buffer, 1, dataRecords.length);
+        VariableDataStructure vds = new VariableDataStructure(buffer, 0, buffer.length, null, null);
+        vds.decode();
+        return MeterInventory.layoutFingerprint(vds);
+    }
+
+    private static MeterInventory newInventory(Path path) throws IOException {
+        return new MeterInventory.InventoryBuilder(path).setInitialCapacity(4).build();
+    }
+
+    private static SecondaryAddress address(int i) {
+        return SecondaryAddress.from(20000000 + i, "XYZ", 1, DeviceType.HEAT_METER);
+    }
+
+}
@@ -0,0 +1,106 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+public class MeterRegistryTest {
+
+    @Test
+    public void slots() {
+        MeterRegistry registry = new MeterRegistry();
+        MeterRegistry.Slot<String> name = registry.newSlot("name");
+        MeterRegistry.IntSlot accessNumber = registry.newIntSlot("accessNumber");
+
+        assertFalse(registry.contains(42L));
+        assertNull(registry.get(42L, name));
+        assertEquals(-1, registry.getInt(42L, accessNumber, -1));
+
+        registry.put(42L, name, "meter");
+        registry.putInt(42L, accessNumber, 0xe1);
+
+        // registered after the meter was added
+        MeterRegistry.Slot<Long> late = registry.newSlot("late");
+        assertNull(registry.get(42L, late));
+        registry.put(42L, late, 7L);
+
+        assertTrue(registry.contains(42L));
+        assertEquals("meter", registry.get(42L, name));
+        assertEquals(0xe1, registry.getInt(42L, accessNumber, -1));
+        assertEquals(Long.valueOf(7L), registry.get(42L, late));
+        assertEquals(1, registry.size());
+
+        assertTrue(registry.remove(42L));
+        assertFalse(registry.remove(42L));
+        assertNull(registry.get(42L, name));
+        assertEquals(0, registry.size());
+    }
+
+    @Test
+    public void resizeAndRemove() {
+        MeterRegistry registry = new MeterRegistry();
+        MeterRegistry.IntSlot slot = registry.newIntSlot("value");
+
+        for (int i = 0; i < 10000; i++) {
+            registry.putInt(address(i), slot, i);
+        }
+        assertEquals(10000, registry.size());
+
+        for (int i = 0; i < 10000; i += 3) {
+            assertTrue(registry.remove(address(i)));
+        }
+        for (int i = 0; i < 10000; i++) {
+            assertEquals(i % 3 == 0 ? -1 : i, registry.getInt(address(i), slot, -1));
+        }
+        assertEquals(6666, registry.size());
+    }
+
+    @Test(timeout = 10000)
+    public void concurrentReadsAndWrites() throws Exception {
+        final MeterRegistry registry = new MeterRegistry();
+        final MeterRegistry.Slot<Integer> slot = registry.newSlot("value");
+        final AtomicBoolean failed = new AtomicBoolean();
+
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final int offset = t * 100000;
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 5000; i++) {
+                        registry.put(address(offset + i), slot, i);
+                        Integer value = registry.get(address(offset + i), slot);
+                        if (value == null || value != i) {
+                            failed.set(true);
+                        }
+                        if (i % 2 == 1) {
+                            registry.remove(address(offset + i - 1));
+                        }
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertFalse(failed.get());
+        assertEquals(threads.length * 2500, registry.size());
+    }
+
+    private static long address(int i) {
+        return SecondaryAddress.from(i, "LSE", 1, DeviceType.WATER_METER).asLong();
+    }
+
+}
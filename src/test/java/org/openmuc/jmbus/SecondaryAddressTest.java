@@ -3,8 +3,12 @@ package org.openmuc.jmbus;
 import org.junit.Test;
 
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 public class SecondaryAddressTest {
 
@@ -91,4 +95,50 @@ public class SecondaryAddressTest {
         assertEquals(DeviceType.WARM_WATER_METER, fromLongHeader.getDeviceType());
         assertEquals(16277644, fromLongHeader.getDeviceId().intValue());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void packedRepresentation() {
+        final byte[] buffer = {0x2c, 0x44, 0x65, 0x32, (byte) 0x82, 0x18, 0x51, 0x58, 0x2c, 0x06, 0x7a};
+        final SecondaryAddress address = SecondaryAddress.newFromWMBusLlHeader(buffer, 2);
+
+        assertEquals(0x653282185158_2c06L, address.asLong());
+        assertEquals(address.asLong(), SecondaryAddress.pack(buffer, 2));
+        assertEquals(address, SecondaryAddress.newFromLong(address.asLong(), false));
+        assertEquals(address.asLong(), address.asWMBusLlHeaderLong());
+        assertEquals("LSE", address.getManufacturerId());
+        assertEquals(58511882, address.getDeviceId().intValue());
+        assertEquals(0x2c, address.getVersion());
+        assertEquals(DeviceType.getInstance(0x06), address.getDeviceType());
+        assertArrayEquals(Arrays.copyOfRange(buffer, 2, 10), address.asByteArray());
+    }
+
+    @Test
+    public void longHeaderToWMBusLlHeader() {
+        final byte[] llHeader = {0x65, 0x32, (byte) 0x82, 0x18, 0x51, 0x58, 0x2c, 0x06};
+        final byte[] longHeader = {(byte) 0x82, 0x18, 0x51, 0x58, 0x65, 0x32, 0x2c, 0x06};
+        final SecondaryAddress fromLongHeader = SecondaryAddress.newFromLongHeader(longHeader, 0);
+
+        assertEquals(SecondaryAddress.pack(llHeader, 0), fromLongHeader.asWMBusLlHeaderLong());
+        assertEquals("LSE", fromLongHeader.getManufacturerId());
+        assertEquals(58511882, fromLongHeader.getDeviceId().intValue());
+    }
+
+    @Test
+    public void manufacturerIdIsInterned() {
+        final byte[] buffer = {81, 37, 115, 20, -26, 29, -60, 6};
+
+        assertSame(SecondaryAddress.newFromLongHeader(buffer, 0).getManufacturerId(),
+                SecondaryAddress.newFromLongHeader(buffer, 0).getManufacturerId());
+    }
+
+    @Test
+    public void compareToIsConsistentWithEquals() {
+        final SecondaryAddress low = SecondaryAddress.newFromLong(0x0100000000000000L, false);
+        final SecondaryAddress high = SecondaryAddress.newFromLong(0xff00000000000000L, false);
+
+        assertTrue(low.compareTo(high) < 0);
+        assertTrue(high.compareTo(low) > 0);
+        assertEquals(0, low.compareTo(SecondaryAddress.newFromLong(0x0100000000000000L, true)));
+        assertEquals(low, SecondaryAddress.newFromLong(0x0100000000000000L, true));
+    }
+}
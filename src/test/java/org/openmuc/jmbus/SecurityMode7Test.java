@@ -0,0 +1,187 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus;
+
+import static javax.xml.bind.DatatypeConverter.parseHexBinary;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class SecurityMode7Test {
+
+    private static final byte[] MASTER_KEY = parseHexBinary("000102030405060708090A0B0C0D0E0F");
+    private static final byte[] LINK_LAYER_ADDRESS = parseHexBinary("9315785634120307");
+    private static final int MESSAGE_COUNTER = 0x00000108;
+
+    /* 8 digit BCD volume 12345678 * 10^-3 m^3 */
+    private static final byte[] PLAIN_DATA = parseHexBinary("2F2F0C13785634122F2F2F2F2F2F2F2F");
+
+    @Test
+    public void decryptAndVerify() throws Exception {
+        byte[] telegram = newTelegram(MASTER_KEY, false);
+
+        VariableDataStructure vds = decode(telegram, MASTER_KEY);
+
+        assertEquals(EncryptionMode.AES_CBC_IV_0, vds.getEncryptionMode());
+        assertEquals(0x42, vds.getAccessNumber());
+        assertEquals(1, vds.getDataRecords().size());
+        assertEquals(12345.678, vds.getDataRecords().get(0).getScaledDataValue(), 0.0001);
+    }
+
+    /*
+     * Generated independently of this library with the AES-CMAC and AES-CBC of OpenSSL, following the OMS definitions
+     * of KDF-A and the AFL MAC: meter 12345678, master key 000102...0F, message counter 0x108.
+     */
+    @Test
+    public void independentVector() throws Exception {
+        byte[] telegram = parseHexBinary("30449315785634120307900F002C2508010000E1B53CA9B321811D7A42001007101E1A76E1D8"
+                + "DF60FED474DA0FFEFEEF32");
+
+        KeyDerivationCache.DerivedKeys keys = new KeyDerivationCache().deriveKeys(
+                SecondaryAddress.newFromWMBusLlHeader(telegram, 2), MASTER_KEY, telegram, 4, MESSAGE_COUNTER);
+        assertArrayEquals(parseHexBinary("4B8B82EACCCE2CB563F7EEA81BD0E890"), keys.getEncryptionKey());
+        assertArrayEquals(parseHexBinary("13E043DBECB1C6C30544AE88878F7072"), keys.getMacKey());
+
+        VariableDataStructure vds = decode(telegram, MASTER_KEY);
+        assertEquals(0x42, vds.getAccessNumber());
+        assertEquals(12345.678, vds.getDataRecords().get(0).getScaledDataValue(), 0.0001);
+    }
+
+    @Test
+    public void decryptRepeatedTelegram() throws Exception {
+        byte[] telegram = newTelegram(MASTER_KEY, false);
+
+        decode(telegram, MASTER_KEY);
+        VariableDataStructure vds = decode(telegram, MASTER_KEY);
+
+        assertEquals(12345.678, vds.getDataRecords().get(0).getScaledDataValue(), 0.0001);
+    }
+
+    @Test(expected = DecodingException.class)
+    public void wrongMac() throws Exception {
+        decode(newTelegram(MASTER_KEY, true), MASTER_KEY);
+    }
+
+    @Test(expected = DecodingException.class)
+    public void missingMac() throws Exception {
+        decode(newTelegram(MASTER_KEY, false, false, -1), MASTER_KEY);
+    }
+
+    @Test
+    public void messageLength() throws Exception {
+        VariableDataStructure vds = decode(newTelegram(MASTER_KEY, false, true, 22), MASTER_KEY);
+
+        assertEquals(12345.678, vds.getDataRecords().get(0).getScaledDataValue(), 0.0001);
+    }
+
+    @Test(expected = DecodingException.class)
+    public void wrongMessageLength() throws Exception {
+        decode(newTelegram(MASTER_KEY, false, true, 21), MASTER_KEY);
+    }
+
+    @Test(expected = DecodingException.class)
+    public void wrongKey() throws Exception {
+        byte[] wrongKey = Arrays.copyOf(MASTER_KEY, MASTER_KEY.length);
+        wrongKey[15] ^= 0x01;
+
+        decode(newTelegram(MASTER_KEY, false), wrongKey);
+    }
+
+    private static VariableDataStructure decode(byte[] telegram, byte[] key) throws DecodingException {
+        SecondaryAddress address = SecondaryAddress.newFromWMBusLlHeader(telegram, 2);
+        Map<SecondaryAddress, byte[]> keyMap = new HashMap<>();
+        keyMap.put(address, key);
+
+        VariableDataStructure vds = new VariableDataStructure(telegram, 10, telegram.length - 10, address, keyMap);
+        vds.decode();
+        return vds;
+    }
+
+    private static byte[] newTelegram(byte[] masterKey, boolean corruptMac) throws Exception {
+        return newTelegram(masterKey, corruptMac, true, -1);
+    }
+
+    /*
+     * A negative message length leaves the AFL message length field out.
+     */
+    private static byte[] newTelegram(byte[] masterKey, boolean corruptMac, boolean withMac, int messageLength)
+            throws Exception {
+        byte[] counter = ByteBuffer.allocate(4).putInt(Integer.reverseBytes(MESSAGE_COUNTER)).array();
+
+        byte[] kdfInput = new byte[16];
+        System.arraycopy(counter, 0, kdfInput, 1, 4);
+        System.arraycopy(LINK_LAYER_ADDRESS, 2, kdfInput, 5, 4);
+        Arrays.fill(kdfInput, 9, 16, (byte) 0x07);
+
+        AesCmac masterCmac = new AesCmac(masterKey);
+        kdfInput[0] = 0x00;
+        byte[] encryptionKey = masterCmac.mac(kdfInput, 0, 16);
+        kdfInput[0] = 0x01;
+        byte[] macKey = masterCmac.mac(kdfInput, 0, 16);
+
+        byte[] encrypted = AesCrypt.newAesCrypt(encryptionKey, new byte[16]).encrypt(PLAIN_DATA, PLAIN_DATA.length);
+
+        ByteBuffer tpl = ByteBuffer.allocate(6 + encrypted.length)
+                .put((byte) 0x7a) // CI short header
+                .put((byte) 0x42) // access number
+                .put((byte) 0x00) // status
+                .put((byte) 0x10) // configuration field: 1 encrypted block
+                .put((byte) 0x07) // configuration field: security mode 7
+                .put((byte) 0x10) // configuration field extension: KDF-A
+                .put(encrypted);
+
+        byte messageControl = 0x25; // message counter present, AES-CMAC-128 8 bytes
+        byte[] length = new byte[0];
+        if (messageLength >= 0) {
+            length = new byte[] { (byte) messageLength, (byte) (messageLength >> 8) };
+        }
+        byte[] macInput = ByteBuffer.allocate(1 + 4 + length.length + tpl.capacity())
+                .put(messageControl)
+                .put(counter)
+                .put(length)
+                .put(tpl.array())
+                .array();
+        byte[] mac = new byte[0];
+        if (withMac) {
+            mac = Arrays.copyOf(new AesCmac(macKey).mac(macInput, 0, macInput.length), 8);
+        }
+        if (corruptMac) {
+            mac[0] ^= 0x01;
+        }
+
+        // message control and message counter present
+        int fragmentationControl = 0x2800;
+        if (withMac) {
+            fragmentationControl |= 0x0400;
+        }
+        if (messageLength >= 0) {
+            fragmentationControl |= 0x1000;
+        }
+        int aflLength = 2 + 1 + 4 + mac.length + length.length;
+
+        ByteBuffer telegram = ByteBuffer.allocate(10 + 2 + aflLength + tpl.capacity());
+        telegram.put((byte) (telegram.capacity() - 1))
+                .put((byte) 0x44)
+                .put(LINK_LAYER_ADDRESS)
+                .put((byte) 0x90) // CI AFL
+                .put((byte) aflLength)
+                .put((byte) fragmentationControl)
+                .put((byte) (fragmentationControl >> 8))
+                .put(messageControl)
+                .put(counter)
+                .put(mac)
+                .put(length)
+                .put(tpl.array());
+        return telegram.array();
+    }
+
+}
@@ -45,4 +45,25 @@ public class VariableDataStructureTest {
 
     }
 
+    @Test
+    public void decodeTwice() throws Exception {
+        SecondaryAddress linkLayerSecondaryAddress = SecondaryAddress
+                .newFromWMBusLlHeader(DatatypeConverter.parseHexBinary("2423759468372507"), 0);
+
+        Map<SecondaryAddress, byte[]> keyMap = new HashMap<>();
+        keyMap.put(linkLayerSecondaryAddress, "HalloWorldTestPW".getBytes());
+
+        byte[] encrypt = DatatypeConverter.parseHexBinary(
+                "7ACB5030055E861434F34A14AE2B9973AEE9811E32578336455E9AC7E7EF960B2253CA7F2BB6632C35E3DD95D66FE96C699A298A53");
+
+        VariableDataStructure vds = new VariableDataStructure(encrypt, 0, encrypt.length, linkLayerSecondaryAddress,
+                keyMap);
+        vds.decode();
+        int numberOfRecords = vds.getDataRecords().size();
+        vds.decode();
+
+        assertEquals(numberOfRecords, vds.getDataRecords().size());
+        assertEquals(12, vds.getDataRecords().get(0).getDataLength());
+    }
+
 }
@@ -0,0 +1,166 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus.archive;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.openmuc.jmbus.DeviceType;
+import org.openmuc.jmbus.SecondaryAddress;
+
+public class TelegramArchiveTest {
+
+    private static final int SEGMENT_SIZE = 8192;
+    private static final int NUMBER_OF_METERS = 5;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void scanByTimeAndAddress() throws Exception {
+        Path directory = folder.getRoot().toPath();
+        try (TelegramArchive archive = newArchive(directory)) {
+            appendTelegrams(archive, 0, 1000);
+
+            assertTrue(archive.getNumberOfSegments() > 1);
+            assertScans(archive, 1000);
+        }
+    }
+
+    @Test
+    public void reopen() throws Exception {
+        Path directory = folder.getRoot().toPath();
+        try (TelegramArchive archive = newArchive(directory)) {
+            appendTelegrams(archive, 0, 500);
+        }
+
+        try (TelegramArchive archive = newArchive(directory)) {
+            assertScans(archive, 500);
+            appendTelegrams(archive, 500, 1000);
+            assertScans(archive, 1000);
+        }
+    }
+
+    @Test
+    public void retention() throws Exception {
+        Path directory = folder.getRoot().toPath();
+        try (TelegramArchive archive = new TelegramArchive.ArchiveBuilder(directory).setSegmentSize(SEGMENT_SIZE)
+                .setRetention(100, TimeUnit.SECONDS)
+                .build()) {
+            appendTelegrams(archive, 0, 1000);
+
+            List<ArchivedTelegram> telegrams = archive.scan(0, Long.MAX_VALUE);
+            assertTrue(telegrams.size() < 1000);
+            assertTrue(telegrams.get(0).getTimestamp() <= time(999) - 100_000);
+            assertEquals(time(999), telegrams.get(telegrams.size() - 1).getTimestamp());
+            assertEquals(archive.getNumberOfSegments(), directory.toFile().list().length);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void timestampBeforeLast() throws Exception {
+        try (TelegramArchive archive = newArchive(folder.getRoot().toPath())) {
+            archive.append(2000, 1, null, true, new byte[] { 1 }, 0, 1);
+            archive.append(1000, 1, null, true, new byte[] { 1 }, 0, 1);
+        }
+    }
+
+    @Test
+    public void clockSetBack() throws Exception {
+        long future = System.currentTimeMillis() + TimeUnit.HOURS.toMillis(1);
+        try (TelegramArchive archive = newArchive(folder.getRoot().toPath())) {
+            archive.append(future, 1, null, true, new byte[] { 1 }, 0, 1);
+            archive.appendWired(SecondaryAddress.from(12345678, "ABC", 1, DeviceType.WATER_METER), new byte[] { 2, 3 }, 0, 2);
+
+            List<ArchivedTelegram> telegrams = archive.scan(0, Long.MAX_VALUE);
+            assertEquals(2, telegrams.size());
+            assertEquals(future, telegrams.get(1).getTimestamp());
+            assertEquals(ByteBuffer.wrap(new byte[] { 2, 3 }), telegrams.get(1).getFrame());
+        }
+    }
+
+    private static TelegramArchive newArchive(Path directory) throws Exception {
+        return new TelegramArchive.ArchiveBuilder(directory).setSegmentSize(SEGMENT_SIZE).build();
+    }
+
+    private static void appendTelegrams(TelegramArchive archive, int from, int to) throws Exception {
+        for (int i = from; i < to; i++) {
+            byte[] frame = frame(i);
+            archive.append(time(i), address(i), i % 2 == 0 ? -i % 100 : null, i % 3 == 0, frame, 0, frame.length);
+        }
+    }
+
+    private static void assertScans(TelegramArchive archive, int count) {
+        List<ArchivedTelegram> all = archive.scan(0, Long.MAX_VALUE);
+        assertEquals(count, all.size());
+        for (int i = 0; i < count; i++) {
+            assertTelegram(i, all.get(i));
+        }
+
+        List<ArchivedTelegram> range = archive.scan(time(100), time(199));
+        assertEquals(100, range.size());
+        assertTelegram(100, range.get(0));
+        assertTelegram(199, range.get(99));
+
+        for (int meter = 0; meter < NUMBER_OF_METERS; meter++) {
+            List<ArchivedTelegram> telegrams = archive.scan(address(meter), time(50), time(count - 50));
+            int j = 0;
+            for (int i = 50; i <= count - 50; i++) {
+                if (i % NUMBER_OF_METERS == meter) {
+                    assertTelegram(i, telegrams.get(j++));
+                }
+            }
+            assertEquals(j, telegrams.size());
+        }
+
+        assertTrue(archive.scan(address(0), time(count), Long.MAX_VALUE).isEmpty());
+        assertTrue(archive.scan(12345L, 0, Long.MAX_VALUE).isEmpty());
+    }
+
+    private static void assertTelegram(int i, ArchivedTelegram telegram) {
+        assertEquals(time(i), telegram.getTimestamp());
+        assertEquals(address(i), telegram.getAddress());
+        assertEquals(i % 3 == 0, telegram.isWired());
+        if (i % 2 == 0) {
+            assertEquals(Integer.valueOf(-i % 100), telegram.getRssi());
+        }
+        else {
+            assertNull(telegram.getRssi());
+        }
+
+        ByteBuffer frame = telegram.getFrame();
+        byte[] bytes = new byte[frame.remaining()];
+        frame.get(bytes);
+        assertArrayEquals(frame(i), bytes);
+    }
+
+    private static long time(int i) {
+        return 1_500_000_000_000L + i * 1000L;
+    }
+
+    private static long address(int i) {
+        return 0x2423_7177_1122_3344L + i % NUMBER_OF_METERS;
+    }
+
+    private static byte[] frame(int i) {
+        byte[] frame = new byte[20 + i % 40];
+        for (int j = 0; j < frame.length; j++) {
+            frame[j] = (byte) (i + j);
+        }
+        return frame;
+    }
+
+}
@@ -0,0 +1,130 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus.transportlayer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.openmuc.jmbus.Bcd;
+import org.openmuc.jmbus.DataRecord;
+import org.openmuc.jmbus.DeviceType;
+import org.openmuc.jmbus.MBusConnection;
+import org.openmuc.jmbus.SecondaryAddress;
+import org.openmuc.jmbus.VariableDataStructure;
+
+public class SimulatedBusTest {
+
+    // volume 0x12345678 l, flow temperature 21 °C
+    private static final byte[] DATA_RECORDS = new byte[] { 0x04, 0x13, 0x78, 0x56, 0x34, 0x12, 0x02, 0x5b, 0x15,
+            0x00 };
+
+    private static final int TIMEOUT = 20;
+
+    @Test
+    public void readByPrimaryAddress() throws Exception {
+        SimulatedBus bus = newBus();
+        bus.addSlaves(3, 10000000, "ABC", DeviceType.WATER_METER, DATA_RECORDS);
+
+        try (MBusConnection connection = MBusConnection.newSimulatedBuilder(bus).setTimeout(TIMEOUT).build()) {
+            connection.linkReset(2);
+            VariableDataStructure data = connection.read(2);
+
+            assertEquals(bus.getSlaves().get(1).getSecondaryAddress(), data.getSecondaryAddress());
+            assertEquals(0, data.getAccessNumber());
+
+            List<DataRecord> records = data.getDataRecords();
+            assertEquals(2, records.size());
+            assertEquals(0x12345678L, records.get(0).getDataValue());
+            assertEquals(21L, records.get(1).getDataValue());
+
+            assertEquals(1, connection.read(2).getAccessNumber());
+        }
+    }
+
+    @Test
+    public void readSelectedSlave() throws Exception {
+        SimulatedBus bus = newBus();
+        bus.addSlaves(5, 10000000, "ABC", DeviceType.WATER_METER, DATA_RECORDS);
+        SimulatedSlave slave = bus.getSlaves().get(3);
+
+        try (MBusConnection connection = MBusConnection.newSimulatedBuilder(bus).setTimeout(TIMEOUT).build()) {
+            connection.selectComponent(slave.getSecondaryAddress());
+            assertTrue(slave.isSelected());
+
+            VariableDataStructure data = connection.read(0xfd);
+            assertEquals(slave.getSecondaryAddress(), data.getSecondaryAddress());
+
+            connection.deselectComponent();
+            assertFalse(slave.isSelected());
+        }
+    }
+
+    @Test
+    public void readCollidingSlaves() throws Exception {
+        SimulatedBus bus = newBus();
+        bus.addSlaves(2, 10000000, "ABC", DeviceType.WATER_METER, DATA_RECORDS);
+
+        byte[] wildcard = new byte[] { 0x0f, 0x00, 0x00, 0x10, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff };
+        try (MBusConnection connection = MBusConnection.newSimulatedBuilder(bus).setTimeout(TIMEOUT).build()) {
+            connection.selectComponent(SecondaryAddress.newFromLongHeader(wildcard, 0));
+            for (SimulatedSlave slave : bus.getSlaves()) {
+                assertTrue(slave.isSelected());
+            }
+
+            try {
+                connection.read(0xfd);
+                fail("Expected a collision.");
+            } catch (IOException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void scan() throws Exception {
+        SimulatedBus bus = newBus();
+        bus.addSlaves(3, 10000000, "ABC", DeviceType.WATER_METER, DATA_RECORDS);
+        // collides with the first slave in the last digit
+        SecondaryAddress colliding = SecondaryAddress.from(Bcd.from(10000010), "ABC", 1, DeviceType.WATER_METER);
+        bus.addSlave(new SimulatedSlave(0, colliding, DATA_RECORDS));
+
+        MBusConnection connection = MBusConnection.newSimulatedBuilder(bus).setTimeout(TIMEOUT).build();
+        List<SecondaryAddress> found = connection.scan("ffffffff", null);
+
+        assertEquals(4, found.size());
+        for (SimulatedSlave slave : bus.getSlaves()) {
+            assertTrue(found.contains(slave.getSecondaryAddress()));
+        }
+    }
+
+    @Test
+    public void baudrateTiming() throws Exception {
+        SimulatedBus bus = new SimulatedBus().setBaudrate(9600).setResponseLatency(5, TimeUnit.MILLISECONDS);
+        bus.addSlaves(1, 10000000, "ABC", DeviceType.WATER_METER, DATA_RECORDS);
+
+        try (MBusConnection connection = MBusConnection.newSimulatedBuilder(bus).setTimeout(200).build()) {
+            long start = System.nanoTime();
+            connection.read(1);
+            long elapsed = System.nanoTime() - start;
+
+            // 5 bytes request, 31 bytes response with 11 bits per byte
+            long expected = TimeUnit.MILLISECONDS.toNanos(5) + 36 * bus.getByteNanos();
+            assertTrue(elapsed >= expected);
+        }
+    }
+
+    private static SimulatedBus newBus() {
+        return new SimulatedBus().setBaudrate(0).setResponseLatency(0, TimeUnit.MILLISECONDS);
+    }
+
+}
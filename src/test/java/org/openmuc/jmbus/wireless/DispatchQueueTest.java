@@ -0,0 +1,125 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus.wireless;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Collections;
+
+import org.junit.Test;
+import org.openmuc.jmbus.DecodingException;
+import org.openmuc.jmbus.SecondaryAddress;
+
+public class DispatchQueueTest {
+
+    private static final byte[] FRAME = new byte[] { (byte) 0x2c, (byte) 0x44, (byte) 0x65, (byte) 0x32, (byte) 0x82,
+            (byte) 0x18, (byte) 0x51, (byte) 0x58, (byte) 0x2c, (byte) 0x06, (byte) 0x7a, (byte) 0xe1, (byte) 0x00,
+            (byte) 0x00, (byte) 0x00, (byte) 0x04, (byte) 0x6d, (byte) 0x19, (byte) 0x06, (byte) 0xd9, (byte) 0x18,
+            (byte) 0x0c, (byte) 0x13, (byte) 0x34, (byte) 0x12, (byte) 0x00, (byte) 0x00, (byte) 0x42, (byte) 0x6c,
+            (byte) 0xbf, (byte) 0x1c, (byte) 0x4c, (byte) 0x13, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00,
+            (byte) 0x32, (byte) 0x6c, (byte) 0xff, (byte) 0xff, (byte) 0x01, (byte) 0xfd, (byte) 0x73, (byte) 0x00 };
+
+    @Test
+    public void dropNewest() throws Exception {
+        DispatchQueue queue = new DispatchQueue(4, DispatchPolicy.DROP_NEWEST);
+        WMBusMessage[] messages = putMessages(queue, 6);
+
+        assertNextMessages(queue, messages, 0, 4);
+        assertStatistics(queue, 6, 4, 2);
+    }
+
+    @Test
+    public void dropOldest() throws Exception {
+        DispatchQueue queue = new DispatchQueue(4, DispatchPolicy.DROP_OLDEST);
+        WMBusMessage[] messages = putMessages(queue, 6);
+
+        assertNextMessages(queue, messages, 2, 4);
+        assertStatistics(queue, 6, 4, 2);
+    }
+
+    @Test
+    public void sample() throws Exception {
+        DispatchQueue queue = new DispatchQueue(8, DispatchPolicy.SAMPLE);
+        WMBusMessage[] messages = putMessages(queue, 14);
+
+        // 6 below the high watermark, then every fourth: 6, 10
+        assertNextMessages(queue, messages, 0, 6);
+        DispatchQueue.Event event = new DispatchQueue.Event();
+        assertTrue(queue.take(event));
+        assertSame(messages[6], event.payload);
+        assertTrue(queue.take(event));
+        assertSame(messages[10], event.payload);
+        assertStatistics(queue, 14, 8, 6);
+    }
+
+    @Test
+    public void stoppedListeningIsNeverDropped() throws Exception {
+        DispatchQueue queue = new DispatchQueue(2, DispatchPolicy.DROP_NEWEST);
+        putMessages(queue, 2);
+        IOException cause = new IOException();
+        queue.put(DispatchQueue.STOPPED_LISTENING, cause);
+        queue.close();
+
+        DispatchQueue.Event event = new DispatchQueue.Event();
+        assertTrue(queue.take(event));
+        assertTrue(queue.take(event));
+        assertEquals(DispatchQueue.STOPPED_LISTENING, event.type);
+        assertSame(cause, event.payload);
+        assertFalse(queue.take(event));
+    }
+
+    @Test(timeout = 5000)
+    public void blockUntilTaken() throws Exception {
+        final DispatchQueue queue = new DispatchQueue(1, DispatchPolicy.BLOCK);
+        final WMBusMessage[] messages = putMessages(queue, 1);
+
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                queue.put(DispatchQueue.NEW_MESSAGE, messages[0]);
+            }
+        });
+        producer.start();
+        producer.join(100);
+        assertTrue(producer.isAlive());
+
+        DispatchQueue.Event event = new DispatchQueue.Event();
+        assertTrue(queue.take(event));
+        producer.join();
+        assertStatistics(queue, 2, 1, 0);
+    }
+
+    private static WMBusMessage[] putMessages(DispatchQueue queue, int numberOfMessages) throws DecodingException {
+        WMBusMessage[] messages = new WMBusMessage[numberOfMessages];
+        for (int i = 0; i < numberOfMessages; i++) {
+            messages[i] = WMBusMessage.decode(FRAME, null, Collections.<SecondaryAddress, byte[]> emptyMap());
+            queue.put(DispatchQueue.NEW_MESSAGE, messages[i]);
+        }
+        return messages;
+    }
+
+    private static void assertNextMessages(DispatchQueue queue, WMBusMessage[] messages, int from, int count)
+            throws InterruptedException {
+        DispatchQueue.Event event = new DispatchQueue.Event();
+        for (int i = from; i < from + count; i++) {
+            assertTrue(queue.take(event));
+            assertEquals(DispatchQueue.NEW_MESSAGE, event.type);
+            assertSame(messages[i], event.payload);
+        }
+    }
+
+    private static void assertStatistics(DispatchQueue queue, long received, int maxDepth, long dropped) {
+        WMBusStatistics statistics = queue.statistics(0, 0, 0);
+        assertEquals(received, statistics.getReceivedMessages());
+        assertEquals(maxDepth, statistics.getMaxQueueDepth());
+        assertEquals(dropped, statistics.getDroppedMessages());
+    }
+
+}
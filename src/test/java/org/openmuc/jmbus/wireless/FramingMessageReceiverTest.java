@@ -0,0 +1,435 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus.wireless;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.openmuc.jmbus.MBusMetrics;
+import org.openmuc.jmbus.SecondaryAddress;
+import org.openmuc.jmbus.transportlayer.TransportLayer;
+
+public class FramingMessageReceiverTest {
+
+    /* L-field includes the RSSI byte appended by the stick */
+    private static final byte[] FRAME = new byte[] { (byte) 0x2d, (byte) 0x44, (byte) 0x65, (byte) 0x32, (byte) 0x82,
+            (byte) 0x18, (byte) 0x51, (byte) 0x58, (byte) 0x2c, (byte) 0x06, (byte) 0x7a, (byte) 0xe1, (byte) 0x00,
+            (byte) 0x00, (byte) 0x00, (byte) 0x04, (byte) 0x6d, (byte) 0x19, (byte) 0x06, (byte) 0xd9, (byte) 0x18,
+            (byte) 0x0c, (byte) 0x13, (byte) 0x34, (byte) 0x12, (byte) 0x00, (byte) 0x00, (byte) 0x42, (byte) 0x6c,
+            (byte) 0xbf, (byte) 0x1c, (byte) 0x4c, (byte) 0x13, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00,
+            (byte) 0x32, (byte) 0x6c, (byte) 0xff, (byte) 0xff, (byte) 0x01, (byte) 0xfd, (byte) 0x73, (byte) 0x00,
+            (byte) 0x20 };
+
+    @Test
+    public void resynchronizeAfterNoise() throws Exception {
+        byte[] noise = { 0x01, 0x44, 0x00, (byte) 0xff, 0x2d };
+        byte[] stream = concat(noise, FRAME, FRAME);
+
+        RecordingListener listener = new RecordingListener(2);
+        WMBusConnectionAmber connection = open(listener, Arrays.copyOfRange(stream, 0, 20),
+                Arrays.copyOfRange(stream, 20, 70), Arrays.copyOfRange(stream, 70, stream.length));
+        try {
+            assertTrue(listener.await());
+        } finally {
+            connection.close();
+        }
+
+        assertEquals(2, listener.messages.size());
+        WMBusMessage message = listener.messages.peek();
+        assertEquals(-58, message.getRssi().intValue());
+        assertEquals(FRAME.length - 1, message.asBlob().length);
+        assertEquals("LSE", message.getSecondaryAddress().getManufacturerId());
+        assertArrayEquals(noise, listener.discarded.peek());
+    }
+
+    @Test
+    public void discardPartialFrameOnTimeout() throws Exception {
+        byte[] partial = Arrays.copyOf(FRAME, 30);
+
+        RecordingListener listener = new RecordingListener(1);
+        WMBusConnectionAmber connection = open(listener, partial, null, FRAME);
+        try {
+            assertTrue(listener.await());
+        } finally {
+            connection.close();
+        }
+
+        assertEquals(1, listener.messages.size());
+        assertArrayEquals(partial, listener.discarded.peek());
+    }
+
+    @Test
+    public void filteredAddressIsNotDecoded() throws Exception {
+        byte[] otherMeter = Arrays.copyOf(FRAME, FRAME.length);
+        otherMeter[4]++;
+
+        RecordingListener listener = new RecordingListener(1);
+        WMBusConnectionAmber connection = new WMBusConnectionAmber(WMBusMode.T, listener,
+                new ChunkedTransportLayer(FRAME, otherMeter));
+        connection.setAddressFilter(WMBusAddressFilter
+                .deny(Collections.singleton(SecondaryAddress.newFromWMBusLlHeader(FRAME, 2))));
+        connection.open();
+        try {
+            assertTrue(listener.await());
+        } finally {
+            connection.close();
+        }
+
+        assertEquals(1, listener.messages.size());
+        assertEquals(otherMeter[4], listener.messages.peek().asBlob()[4]);
+        assertEquals(1, connection.getStatistics().getFilteredMessages());
+    }
+
+    @Test
+    public void pooledBuffersAreReused() throws Exception {
+        TelegramBufferPool pool = new TelegramBufferPool(4);
+        RecordingListener listener = new RecordingListener(3) {
+            @Override
+            public void newMessage(WMBusMessage message) {
+                if (messages.isEmpty()) {
+                    message.retain();
+                }
+                super.newMessage(message);
+            }
+        };
+
+        WMBusConnectionAmber connection = open(listener, pool, FRAME, FRAME, FRAME);
+        try {
+            assertTrue(listener.await());
+        } finally {
+            connection.close();
+        }
+
+        WMBusMessage retained = listener.messages.peek();
+        assertEquals("LSE", retained.getSecondaryAddress().getManufacturerId());
+        assertEquals(FRAME[2], retained.asBlob()[2]);
+        assertEquals(FRAME.length - 1, retained.asBlob().length);
+
+        awaitAvailable(pool, 3);
+        retained.release();
+        awaitAvailable(pool, 4);
+        assertEquals(0, pool.misses());
+    }
+
+    @Test
+    public void pooledMessagesAreRecycled() throws Exception {
+        TelegramBufferPool pool = new TelegramBufferPool(1);
+        byte[] buffer = pool.acquire();
+        System.arraycopy(FRAME, 0, buffer, 0, FRAME.length - 1);
+        buffer[0] = (byte) (buffer[0] - 1);
+
+        WMBusMessage first = WMBusMessage.decode(buffer, FRAME.length - 1, null,
+                Collections.<SecondaryAddress, byte[]> emptyMap(), pool);
+        first.getVariableDataResponse().decode();
+        SecondaryAddress address = first.getSecondaryAddress();
+        first.release();
+
+        buffer = pool.acquire();
+        System.arraycopy(FRAME, 0, buffer, 0, FRAME.length - 1);
+        buffer[0] = (byte) (buffer[0] - 1);
+        buffer[11] = 0x42; // access number
+
+        WMBusMessage second = WMBusMessage.decode(buffer, FRAME.length - 1, null,
+                Collections.<SecondaryAddress, byte[]> emptyMap(), pool);
+        assertSame(first, second);
+        assertSame(address, second.getSecondaryAddress());
+        assertTrue(second.getVariableDataResponse().getDataRecords().isEmpty());
+
+        second.getVariableDataResponse().decode();
+        assertEquals(0x42, second.getVariableDataResponse().getAccessNumber());
+        second.release();
+        assertEquals(0, pool.misses());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void releasedMessageCanNotBeRetained() throws Exception {
+        TelegramBufferPool pool = new TelegramBufferPool(1);
+        byte[] buffer = pool.acquire();
+        System.arraycopy(FRAME, 0, buffer, 0, FRAME.length - 1);
+        buffer[0] = (byte) (buffer[0] - 1);
+
+        WMBusMessage message = WMBusMessage.decode(buffer, FRAME.length - 1, null,
+                Collections.<SecondaryAddress, byte[]> emptyMap(), pool);
+        message.release();
+        message.retain();
+    }
+
+    @Test
+    public void decodeWorkersKeepOrder() throws Exception {
+        int numberOfFrames = 40;
+        byte[][] frames = new byte[numberOfFrames][];
+        for (int i = 0; i < numberOfFrames; i++) {
+            frames[i] = Arrays.copyOf(FRAME, FRAME.length);
+            frames[i][11] = (byte) i; // access number
+        }
+
+        RecordingListener listener = new RecordingListener(numberOfFrames);
+        WMBusConnectionAmber connection = new WMBusConnectionAmber(WMBusMode.T, listener,
+                new ChunkedTransportLayer(frames));
+        connection.setDecodeWorkers(4, true);
+        connection.open();
+        try {
+            assertTrue(listener.await());
+        } finally {
+            connection.close();
+        }
+
+        int accessNumber = 0;
+        for (WMBusMessage message : listener.messages) {
+            // already decoded by the workers
+            assertEquals(accessNumber++, message.getVariableDataResponse().getAccessNumber());
+        }
+    }
+
+    @Test
+    public void decodeWorkersSurviveFailingFrame() throws Exception {
+        int numberOfFrames = 40;
+        byte[][] frames = new byte[numberOfFrames][];
+        for (int i = 0; i < numberOfFrames; i++) {
+            frames[i] = Arrays.copyOf(FRAME, FRAME.length);
+            frames[i][11] = (byte) i; // access number
+        }
+        byte[] failing = frames[5];
+        failing[10] = 0x33; // CI-field which can not be decoded
+
+        TelegramBufferPool pool = new TelegramBufferPool(8);
+        final ConcurrentLinkedQueue<Integer> accessNumbers = new ConcurrentLinkedQueue<>();
+        RecordingListener listener = new RecordingListener(numberOfFrames - 1) {
+            @Override
+            public void newMessage(WMBusMessage message) {
+                // pooled messages are only valid until the listener returns
+                accessNumbers.add(message.getVariableDataResponse().getAccessNumber());
+                super.newMessage(message);
+            }
+        };
+        WMBusConnectionAmber connection = new WMBusConnectionAmber(WMBusMode.T, listener,
+                new ChunkedTransportLayer(frames));
+        connection.setDecodeWorkers(2, true);
+        connection.setBufferPool(pool);
+        connection.setMetrics(new MBusMetrics() {
+            @Override
+            public void decodingFailed(int ciField) {
+                throw new IllegalStateException("Failing metrics.");
+            }
+        });
+        connection.open();
+        try {
+            assertTrue(listener.await());
+        } finally {
+            connection.close();
+        }
+
+        int accessNumber = 0;
+        for (int received : accessNumbers) {
+            if (accessNumber == 5) {
+                accessNumber++;
+            }
+            assertEquals(accessNumber++, received);
+        }
+        assertEquals(1, listener.discarded.size());
+        assertEquals(0x33, listener.discarded.peek()[10]);
+        awaitAvailable(pool, 8);
+    }
+
+    @Test
+    public void batchListener() throws Exception {
+        byte[][] frames = new byte[10][];
+        Arrays.fill(frames, FRAME);
+
+        final List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<Integer>());
+        final CountDownLatch latch = new CountDownLatch(10);
+        WMBusBatchListener listener = new WMBusBatchListener() {
+            @Override
+            public void newMessages(List<WMBusMessage> messages) {
+                batchSizes.add(messages.size());
+                for (int i = 0; i < messages.size(); i++) {
+                    latch.countDown();
+                }
+            }
+
+            @Override
+            public void discardedBytes(byte[] bytes) {
+            }
+
+            @Override
+            public void stoppedListening(IOException cause) {
+            }
+        };
+
+        WMBusConnectionAmber connection = new WMBusConnectionAmber(WMBusMode.T, listener,
+                new ChunkedTransportLayer(concat(frames)));
+        connection.setBatching(4, 200);
+        connection.open();
+        try {
+            assertTrue(latch.await(5, TimeUnit.SECONDS));
+        } finally {
+            connection.close();
+        }
+
+        assertEquals(Arrays.asList(4, 4, 2), batchSizes);
+    }
+
+    private static void awaitAvailable(TelegramBufferPool pool, int expected) throws InterruptedException {
+        for (int i = 0; i < 100 && pool.available() != expected; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(expected, pool.available());
+    }
+
+    private static WMBusConnectionAmber open(WMBusListener listener, byte[]... chunks) throws IOException {
+        return open(listener, null, chunks);
+    }
+
+    private static WMBusConnectionAmber open(WMBusListener listener, TelegramBufferPool pool, byte[]... chunks)
+            throws IOException {
+        WMBusConnectionAmber connection = new WMBusConnectionAmber(WMBusMode.T, listener,
+                new ChunkedTransportLayer(chunks));
+        connection.setBufferPool(pool);
+        connection.open();
+        return connection;
+    }
+
+    private static byte[] concat(byte[]... arrays) {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        for (byte[] array : arrays) {
+            os.write(array, 0, array.length);
+        }
+        return os.toByteArray();
+    }
+
+    private static class RecordingListener implements WMBusListener {
+        private final CountDownLatch latch;
+        protected final ConcurrentLinkedQueue<WMBusMessage> messages = new ConcurrentLinkedQueue<>();
+        protected final ConcurrentLinkedQueue<byte[]> discarded = new ConcurrentLinkedQueue<>();
+
+        RecordingListener(int expectedMessages) {
+            this.latch = new CountDownLatch(expectedMessages);
+        }
+
+        boolean await() throws InterruptedException {
+            return latch.await(5, TimeUnit.SECONDS);
+        }
+
+        @Override
+        public void newMessage(WMBusMessage message) {
+            messages.add(message);
+            latch.countDown();
+        }
+
+        @Override
+        public void discardedBytes(byte[] bytes) {
+            discarded.add(bytes);
+        }
+
+        @Override
+        public void stoppedListening(IOException cause) {
+        }
+    }
+
+    /**
+     * Delivers one chunk per read. A <code>null</code> chunk and the end of the chunks are reported as timeout.
+     */
+    private static class ChunkedTransportLayer implements TransportLayer {
+        private final List<byte[]> chunks;
+        private final DataInputStream is;
+        private final DataOutputStream os = new DataOutputStream(new ByteArrayOutputStream());
+        private volatile boolean closed = true;
+
+        ChunkedTransportLayer(byte[]... chunks) {
+            this.chunks = Collections.synchronizedList(new ArrayList<>(Arrays.asList(chunks)));
+            this.is = new DataInputStream(new ChunkedInputStream());
+        }
+
+        @Override
+        public void open() {
+            closed = false;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+
+        @Override
+        public DataOutputStream getOutputStream() {
+            return os;
+        }
+
+        @Override
+        public DataInputStream getInputStream() {
+            return is;
+        }
+
+        @Override
+        public boolean isClosed() {
+            return closed;
+        }
+
+        @Override
+        public void setTimeout(int timeout) {
+        }
+
+        @Override
+        public int getTimeout() {
+            return 0;
+        }
+
+        private class ChunkedInputStream extends InputStream {
+            private byte[] current = new byte[0];
+            private int position;
+
+            @Override
+            public int available() {
+                return current.length - position;
+            }
+
+            @Override
+            public int read() throws IOException {
+                byte[] b = new byte[1];
+                return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (position == current.length) {
+                    byte[] next = chunks.isEmpty() ? null : chunks.remove(0);
+                    if (next == null) {
+                        try {
+                            Thread.sleep(10);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        throw new InterruptedIOException("timeout");
+                    }
+                    current = next;
+                    position = 0;
+                }
+                int n = Math.min(len, current.length - position);
+                System.arraycopy(current, position, b, off, n);
+                position += n;
+                return n;
+            }
+        }
+    }
+
+}
@@ -8,9 +8,12 @@ package org.openmuc.jmbus.wireless;
 import static javax.xml.bind.DatatypeConverter.parseHexBinary;
 import static org.junit.Assert.assertEquals;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 
 import org.junit.Test;
+import org.openmuc.jmbus.DataRecord;
 import org.openmuc.jmbus.SecondaryAddress;
 
 public class ShortTelegramTest {
@@ -46,6 +49,48 @@ public class ShortTelegramTest {
         assertEquals(13, wmBusDataMessage.getVariableDataResponse().getDataRecords().size());
     }
 
+    @Test
+    public void extendedLinkLayerInPooledBuffer() throws Exception {
+        byte[] frame = parseHexBinary(
+                "5C442D2C06357260190C8D207B70032F21271D7802F9FF15011104061765000004EEFF07BFA8000004EEFF08D24F00000414B1FB000002FD170000026CE919426CFF184406F76400004414E8FA0000043B0B0000000259DB11025D1C0B5B");
+        // another meter than in testShortKamstrup, whose records must not be known there
+        frame[4] ^= 0x01;
+        byte[] buffer = new byte[TelegramBufferPool.BUFFER_SIZE];
+        System.arraycopy(frame, 0, buffer, 0, frame.length);
+
+        WMBusMessage message = WMBusMessage.decode(buffer, frame.length, 0, new HashMap<SecondaryAddress, byte[]>(),
+                new TelegramBufferPool(1));
+        message.getVariableDataResponse().decode();
+
+        assertEquals(13, message.getVariableDataResponse().getDataRecords().size());
+    }
+
+    @Test
+    public void shortFrameDoesNotChangeEarlierMessages() throws Exception {
+        byte[] packetLong = parseHexBinary(
+                "5C442D2C06357260190C8D207B70032F21271D7802F9FF15011104061765000004EEFF07BFA8000004EEFF08D24F00000414B1FB000002FD170000026CE919426CFF184406F76400004414E8FA0000043B0B0000000259DB11025D1C0B5B");
+        byte[] packetShort = parseHexBinary(
+                "3F442D2C06357260190C8D207C71032F21255C79DD829283011117650000BFA80000D24F0000B1FB00000000E919FF18F7640000E8FA00000B000000DB111C0B5B");
+        // another meter than in the other tests
+        packetLong[4] ^= 0x02;
+        packetShort[4] ^= 0x02;
+
+        WMBusMessage longMessage = WMBusMessage.decode(packetLong, 0, new HashMap<SecondaryAddress, byte[]>());
+        longMessage.getVariableDataResponse().decode();
+        List<DataRecord> longRecords = new ArrayList<>(longMessage.getVariableDataResponse().getDataRecords());
+
+        WMBusMessage first = WMBusMessage.decode(packetShort, 0, new HashMap<SecondaryAddress, byte[]>());
+        first.getVariableDataResponse().decode();
+        List<DataRecord> firstRecords = new ArrayList<>(first.getVariableDataResponse().getDataRecords());
+
+        WMBusMessage second = WMBusMessage.decode(packetShort, 0, new HashMap<SecondaryAddress, byte[]>());
+        second.getVariableDataResponse().decode();
+
+        assertEquals(longRecords, longMessage.getVariableDataResponse().getDataRecords());
+        assertEquals(firstRecords, first.getVariableDataResponse().getDataRecords());
+        assertEquals(13, second.getVariableDataResponse().getDataRecords().size());
+    }
+
     @Test
     public void testShortKamstrupNew() throws Exception {
 
@@ -0,0 +1,95 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus.wireless;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class TelegramDeduplicatorTest {
+
+    private static final long MILLIS = 1000000L;
+
+    private static final byte[] FRAME = new byte[] { (byte) 0x2c, (byte) 0x44, (byte) 0x65, (byte) 0x32, (byte) 0x82,
+            (byte) 0x18, (byte) 0x51, (byte) 0x58, (byte) 0x2c, (byte) 0x06, (byte) 0x7a, (byte) 0xe1, (byte) 0x00,
+            (byte) 0x00, (byte) 0x00, (byte) 0x04, (byte) 0x6d, (byte) 0x19, (byte) 0x06, (byte) 0xd9, (byte) 0x18,
+            (byte) 0x0c, (byte) 0x13, (byte) 0x34, (byte) 0x12, (byte) 0x00, (byte) 0x00, (byte) 0x42, (byte) 0x6c,
+            (byte) 0xbf, (byte) 0x1c, (byte) 0x4c, (byte) 0x13, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00,
+            (byte) 0x32, (byte) 0x6c, (byte) 0xff, (byte) 0xff, (byte) 0x01, (byte) 0xfd, (byte) 0x73, (byte) 0x00 };
+
+    @Test
+    public void repeatedTelegramWithinWindow() {
+        TelegramDeduplicator deduplicator = new TelegramDeduplicator(3000);
+
+        assertFalse(deduplicator.isDuplicate(FRAME, FRAME.length, 0));
+        assertTrue(deduplicator.isDuplicate(FRAME, FRAME.length, 500 * MILLIS));
+        assertTrue(deduplicator.isDuplicate(FRAME, FRAME.length, 2500 * MILLIS));
+
+        assertEquals(2, deduplicator.getHits());
+        assertEquals(1, deduplicator.getMisses());
+    }
+
+    @Test
+    public void expiresAfterWindow() {
+        TelegramDeduplicator deduplicator = new TelegramDeduplicator(3000);
+
+        assertFalse(deduplicator.isDuplicate(FRAME, FRAME.length, 0));
+        assertFalse(deduplicator.isDuplicate(FRAME, FRAME.length, 5000 * MILLIS));
+    }
+
+    @Test
+    public void repeatedCopyIsDuplicate() {
+        TelegramDeduplicator deduplicator = new TelegramDeduplicator(3000);
+        // hop counter in the configuration field of the short header
+        byte[] repeated = Arrays.copyOf(FRAME, FRAME.length);
+        repeated[13] |= 0x01;
+
+        assertFalse(deduplicator.isDuplicate(FRAME, FRAME.length, 0));
+        assertTrue(deduplicator.isDuplicate(repeated, repeated.length, 100 * MILLIS));
+
+        // hop count bit in the communication control field of the ELL
+        byte[] ell = new byte[] { 0x1a, 0x44, 0x65, 0x32, (byte) 0x82, 0x18, 0x51, 0x58, 0x2c, 0x06, (byte) 0x8d,
+                0x20, 0x35, 0x01, 0x02, 0x03, 0x04, 0x55, 0x66, 0x7a, 0x35, 0x00, 0x00, 0x00, 0x0c, 0x13, 0x34 };
+        byte[] repeatedEll = Arrays.copyOf(ell, ell.length);
+        repeatedEll[11] |= 0x10;
+
+        assertFalse(deduplicator.isDuplicate(ell, ell.length, 0));
+        assertTrue(deduplicator.isDuplicate(repeatedEll, repeatedEll.length, 100 * MILLIS));
+
+        // any other change of the configuration field is a different telegram
+        byte[] other = Arrays.copyOf(FRAME, FRAME.length);
+        other[13] |= 0x10;
+        assertFalse(deduplicator.isDuplicate(other, other.length, 100 * MILLIS));
+    }
+
+    @Test
+    public void otherAccessNumberIsNoDuplicate() {
+        TelegramDeduplicator deduplicator = new TelegramDeduplicator(3000);
+        byte[] next = Arrays.copyOf(FRAME, FRAME.length);
+        next[11]++;
+
+        assertFalse(deduplicator.isDuplicate(FRAME, FRAME.length, 0));
+        assertFalse(deduplicator.isDuplicate(next, next.length, 0));
+    }
+
+    @Test
+    public void otherMeterIsNoDuplicate() {
+        TelegramDeduplicator deduplicator = new TelegramDeduplicator(3000);
+
+        for (int i = 0; i < 500; i++) {
+            byte[] frame = Arrays.copyOf(FRAME, FRAME.length);
+            frame[4] = (byte) i;
+            frame[5] = (byte) (i >> 8);
+            assertFalse(deduplicator.isDuplicate(frame, frame.length, i * MILLIS));
+        }
+        assertEquals(0, deduplicator.getHits());
+    }
+
+}
@@ -0,0 +1,75 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus.wireless;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+import org.openmuc.jmbus.SecondaryAddress;
+
+public class WMBusAddressFilterTest {
+
+    private static final byte[] FRAME = new byte[] { (byte) 0x2c, (byte) 0x44, (byte) 0x65, (byte) 0x32, (byte) 0x82,
+            (byte) 0x18, (byte) 0x51, (byte) 0x58, (byte) 0x2c, (byte) 0x06, (byte) 0x7a, (byte) 0xe1, (byte) 0x00 };
+
+    @Test
+    public void allowList() {
+        List<SecondaryAddress> addresses = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            byte[] frame = Arrays.copyOf(FRAME, FRAME.length);
+            frame[4] = (byte) (i * 2);
+            addresses.add(SecondaryAddress.newFromWMBusLlHeader(frame, 2));
+        }
+        WMBusAddressFilter filter = WMBusAddressFilter.allow(addresses);
+        assertEquals(100, filter.size());
+        assertTrue(filter.isAllowList());
+
+        byte[] frame = Arrays.copyOf(FRAME, FRAME.length);
+        for (int i = 0; i < 200; i++) {
+            frame[4] = (byte) i;
+            assertEquals(i % 2 == 0, filter.accepts(frame, frame.length));
+        }
+    }
+
+    @Test
+    public void denyList() {
+        SecondaryAddress address = SecondaryAddress.newFromWMBusLlHeader(FRAME, 2);
+        WMBusAddressFilter filter = WMBusAddressFilter.deny(Collections.singleton(address));
+
+        assertFalse(filter.accepts(FRAME, FRAME.length));
+        assertFalse(filter.accepts(address));
+
+        byte[] otherMeter = Arrays.copyOf(FRAME, FRAME.length);
+        otherMeter[9]++;
+        assertTrue(filter.accepts(otherMeter, otherMeter.length));
+    }
+
+    @Test
+    public void longHeaderAddress() {
+        byte[] longHeader = new byte[] { FRAME[4], FRAME[5], FRAME[6], FRAME[7], FRAME[2], FRAME[3], FRAME[8],
+                FRAME[9] };
+        WMBusAddressFilter filter = WMBusAddressFilter
+                .allow(Collections.singleton(SecondaryAddress.newFromLongHeader(longHeader, 0)));
+
+        assertTrue(filter.accepts(FRAME, FRAME.length));
+    }
+
+    @Test
+    public void shortFrameIsAccepted() {
+        WMBusAddressFilter filter = WMBusAddressFilter.allow(Collections.<SecondaryAddress> emptyList());
+
+        assertTrue(filter.accepts(FRAME, 6));
+        assertFalse(filter.accepts(FRAME, FRAME.length));
+    }
+
+}
@@ -0,0 +1,106 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus.wireless;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.Test;
+import org.openmuc.jmbus.SecondaryAddress;
+import org.openmuc.jmbus.wireless.WMBusAggregator.ReceiverStatistics;
+
+public class WMBusAggregatorTest {
+
+    private static final byte[] FRAME = new byte[] { (byte) 0x2c, (byte) 0x44, (byte) 0x65, (byte) 0x32, (byte) 0x82,
+            (byte) 0x18, (byte) 0x51, (byte) 0x58, (byte) 0x2c, (byte) 0x06, (byte) 0x7a, (byte) 0xe1, (byte) 0x00,
+            (byte) 0x00, (byte) 0x00, (byte) 0x04, (byte) 0x6d, (byte) 0x19, (byte) 0x06, (byte) 0xd9, (byte) 0x18,
+            (byte) 0x0c, (byte) 0x13, (byte) 0x34, (byte) 0x12, (byte) 0x00, (byte) 0x00, (byte) 0x42, (byte) 0x6c,
+            (byte) 0xbf, (byte) 0x1c, (byte) 0x4c, (byte) 0x13, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00,
+            (byte) 0x32, (byte) 0x6c, (byte) 0xff, (byte) 0xff, (byte) 0x01, (byte) 0xfd, (byte) 0x73, (byte) 0x00 };
+
+    @Test(timeout = 5000)
+    public void bestCopyIsDelivered() throws Exception {
+        CollectingListener listener = new CollectingListener();
+        WMBusAggregator aggregator = WMBusAggregator.open(listener, 100);
+        WMBusListener s = aggregator.addReceiver("S");
+        WMBusListener t = aggregator.addReceiver("T");
+
+        s.newMessage(message(FRAME, -80));
+        t.newMessage(message(FRAME, -60));
+        s.newMessage(message(FRAME, -70));
+
+        byte[] other = Arrays.copyOf(FRAME, FRAME.length);
+        other[11]++;
+        s.newMessage(message(other, -90));
+        s.discardedBytes(new byte[] { 0x01 });
+
+        // wait for delivery and expiry
+        Thread.sleep(400);
+        aggregator.close();
+
+        assertEquals(2, listener.messages.size());
+        assertEquals(Integer.valueOf(-60), listener.messages.get(0).getRssi());
+        assertEquals(Integer.valueOf(-90), listener.messages.get(1).getRssi());
+        assertEquals(2, aggregator.getDeliveredMessages());
+
+        List<ReceiverStatistics> statistics = aggregator.getReceiverStatistics();
+        assertStatistics(statistics.get(0), "S", 3, 1, 1, 1);
+        assertStatistics(statistics.get(1), "T", 1, 0, 1, 0);
+    }
+
+    @Test(timeout = 5000)
+    public void lateCopyIsDropped() throws Exception {
+        CollectingListener listener = new CollectingListener();
+        WMBusAggregator aggregator = WMBusAggregator.open(listener, 100);
+        WMBusListener s = aggregator.addReceiver("S");
+        WMBusListener t = aggregator.addReceiver("T");
+
+        s.newMessage(message(FRAME, -80));
+        Thread.sleep(150);
+        t.newMessage(message(FRAME, -60));
+        aggregator.close();
+
+        assertEquals(1, listener.messages.size());
+        assertEquals(Integer.valueOf(-80), listener.messages.get(0).getRssi());
+    }
+
+    private static WMBusMessage message(byte[] frame, int rssi) throws Exception {
+        return WMBusMessage.decode(frame, rssi, Collections.<SecondaryAddress, byte[]> emptyMap());
+    }
+
+    private static void assertStatistics(ReceiverStatistics statistics, String name, long receptions, long unique,
+            long selected, long discards) {
+        assertEquals(name, statistics.getName());
+        assertEquals(receptions, statistics.getReceptions());
+        assertEquals(unique, statistics.getUniqueContributions());
+        assertEquals(selected, statistics.getSelectedCopies());
+        assertEquals(discards, statistics.getDiscards());
+    }
+
+    private static class CollectingListener implements WMBusListener {
+
+        final List<WMBusMessage> messages = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void newMessage(WMBusMessage message) {
+            messages.add(message);
+        }
+
+        @Override
+        public void discardedBytes(byte[] bytes) {
+        }
+
+        @Override
+        public void stoppedListening(IOException cause) {
+        }
+    }
+
+}
@@ -0,0 +1,149 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus.wireless;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.openmuc.jmbus.SecondaryAddress;
+import org.openmuc.jmbus.archive.ArchivedTelegram;
+import org.openmuc.jmbus.archive.TelegramArchive;
+import org.openmuc.jmbus.wireless.WMBusConnection.WMBusSerialBuilder.WMBusManufacturer;
+
+public class WMBusReplayTest {
+
+    private static final byte[] FRAME = new byte[] { (byte) 0x2c, (byte) 0x44, (byte) 0x65, (byte) 0x32, (byte) 0x82,
+            (byte) 0x18, (byte) 0x51, (byte) 0x58, (byte) 0x2c, (byte) 0x06, (byte) 0x7a, (byte) 0xe1, (byte) 0x00,
+            (byte) 0x00, (byte) 0x00, (byte) 0x04, (byte) 0x6d, (byte) 0x19, (byte) 0x06, (byte) 0xd9, (byte) 0x18,
+            (byte) 0x0c, (byte) 0x13, (byte) 0x34, (byte) 0x12, (byte) 0x00, (byte) 0x00, (byte) 0x42, (byte) 0x6c,
+            (byte) 0xbf, (byte) 0x1c, (byte) 0x4c, (byte) 0x13, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00,
+            (byte) 0x32, (byte) 0x6c, (byte) 0xff, (byte) 0xff, (byte) 0x01, (byte) 0xfd, (byte) 0x73, (byte) 0x00 };
+
+    private static final int NUMBER_OF_FRAMES = 500;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void replayAmber() throws Exception {
+        replayAsFastAsPossible(WMBusManufacturer.AMBER);
+    }
+
+    @Test
+    public void replayImst() throws Exception {
+        replayAsFastAsPossible(WMBusManufacturer.IMST);
+    }
+
+    @Test
+    public void replayRadioCrafts() throws Exception {
+        replayAsFastAsPossible(WMBusManufacturer.RADIO_CRAFTS);
+    }
+
+    @Test
+    public void pacedReplayWithDecodeWorkers() throws Exception {
+        List<ArchivedTelegram> telegrams = archive(20, 100);
+
+        CollectingListener listener = new CollectingListener();
+        WMBusReplay.ReplayBuilder builder = new WMBusReplay.ReplayBuilder(WMBusManufacturer.AMBER, listener,
+                telegrams);
+        builder.setSpeed(10);
+        builder.setDecodeWorkers(2, true);
+        try (WMBusReplay replay = builder.start()) {
+            assertTrue(replay.awaitCompletion(10, TimeUnit.SECONDS));
+
+            WMBusReplayReport report = replay.getReport();
+            // one wired frame
+            assertEquals(19, report.getDeliveredMessages());
+            // 19 gaps of 100 ms at ten times the speed
+            assertTrue(report.getElapsedNanos() >= TimeUnit.MILLISECONDS.toNanos(190));
+        }
+
+        assertEquals(19, listener.messages.size());
+        assertTrue(listener.stopCause instanceof EOFException);
+    }
+
+    private void replayAsFastAsPossible(WMBusManufacturer manufacturer) throws Exception {
+        List<ArchivedTelegram> telegrams = archive(NUMBER_OF_FRAMES, 1000);
+
+        CollectingListener listener = new CollectingListener();
+        WMBusReplayReport report;
+        try (WMBusReplay replay = new WMBusReplay.ReplayBuilder(manufacturer, listener, telegrams).start()) {
+            assertTrue(replay.awaitCompletion(10, TimeUnit.SECONDS));
+            report = replay.getReport();
+        }
+
+        // one wired frame
+        assertEquals(NUMBER_OF_FRAMES - 1, report.getEmittedFrames());
+        assertEquals(1, report.getSkippedFrames());
+        assertEquals(NUMBER_OF_FRAMES - 1, report.getDeliveredMessages());
+        assertEquals(NUMBER_OF_FRAMES - 1, report.getLatencySamples());
+        assertTrue(report.getLatencyNanos(100) >= report.getLatencyNanos(50));
+
+        assertEquals(NUMBER_OF_FRAMES - 1, listener.messages.size());
+        assertTrue(listener.discarded.isEmpty());
+        assertTrue(listener.stopCause instanceof EOFException);
+
+        WMBusMessage message = listener.messages.get(1);
+        assertArrayEquals(frame(1), message.asBlob());
+        assertEquals(rssi(1), message.getRssi().intValue());
+    }
+
+    private List<ArchivedTelegram> archive(int numberOfFrames, long gapMillis) throws IOException {
+        TelegramArchive archive = new TelegramArchive.ArchiveBuilder(folder.getRoot().toPath()).build();
+        for (int i = 0; i < numberOfFrames; i++) {
+            byte[] frame = frame(i);
+            long address = SecondaryAddress.newFromWMBusLlHeader(frame, 2).asWMBusLlHeaderLong();
+            archive.append(i * gapMillis, address, rssi(i), i == numberOfFrames / 2, frame, 0, frame.length);
+        }
+        archive.close();
+        return archive.scan(0, Long.MAX_VALUE);
+    }
+
+    private static byte[] frame(int i) {
+        byte[] frame = Arrays.copyOf(FRAME, FRAME.length);
+        frame[4] = (byte) i;
+        frame[11] = (byte) (i >> 8);
+        return frame;
+    }
+
+    private static int rssi(int i) {
+        return -100 + i % 50;
+    }
+
+    private static class CollectingListener implements WMBusListener {
+        final List<WMBusMessage> messages = Collections.synchronizedList(new ArrayList<WMBusMessage>());
+        final List<byte[]> discarded = Collections.synchronizedList(new ArrayList<byte[]>());
+        volatile IOException stopCause;
+
+        @Override
+        public void newMessage(WMBusMessage message) {
+            messages.add(message);
+        }
+
+        @Override
+        public void discardedBytes(byte[] bytes) {
+            discarded.add(bytes);
+        }
+
+        @Override
+        public void stoppedListening(IOException cause) {
+            stopCause = cause;
+        }
+    }
+
+}
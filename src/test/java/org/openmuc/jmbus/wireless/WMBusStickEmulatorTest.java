@@ -0,0 +1,131 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus.wireless;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.openmuc.jmbus.DataRecord;
+import org.openmuc.jmbus.wireless.WMBusConnection.WMBusSerialBuilder.WMBusManufacturer;
+
+public class WMBusStickEmulatorTest {
+
+    private static final int NUMBER_OF_TELEGRAMS = 2000;
+
+    @Test
+    public void plainAmber() throws Exception {
+        emulateUndisturbed(WMBusManufacturer.AMBER, false);
+    }
+
+    @Test
+    public void encryptedImst() throws Exception {
+        emulateUndisturbed(WMBusManufacturer.IMST, true);
+    }
+
+    @Test
+    public void encryptedRadioCrafts() throws Exception {
+        emulateUndisturbed(WMBusManufacturer.RADIO_CRAFTS, true);
+    }
+
+    @Test
+    public void noiseAndBitErrors() throws Exception {
+        for (WMBusManufacturer manufacturer : WMBusManufacturer.values()) {
+            CollectingListener listener = new CollectingListener();
+            WMBusStickEmulator.EmulatorBuilder builder = new WMBusStickEmulator.EmulatorBuilder(manufacturer,
+                    listener);
+            builder.setNumberOfTelegrams(NUMBER_OF_TELEGRAMS).setNoise(0.05).setBitErrorRate(1e-4).setSeed(42);
+
+            WMBusReplayReport report;
+            int corruptedFrames;
+            try (WMBusStickEmulator emulator = builder.start()) {
+                assertTrue(emulator.awaitCompletion(10, TimeUnit.SECONDS));
+                report = emulator.getReport();
+                corruptedFrames = emulator.getCorruptedFrames();
+            }
+
+            assertEquals(NUMBER_OF_TELEGRAMS, report.getEmittedFrames());
+            assertTrue(corruptedFrames > 0);
+            assertTrue(report.getDiscardedBytes() > 0);
+            assertTrue(report.getDropRate() > 0);
+            assertTrue(report.getDropRate() < 0.5);
+            assertTrue(listener.stopCause instanceof EOFException);
+        }
+    }
+
+    @Test
+    public void pacedSendInterval() throws Exception {
+        CollectingListener listener = new CollectingListener();
+        WMBusStickEmulator.EmulatorBuilder builder = new WMBusStickEmulator.EmulatorBuilder(WMBusManufacturer.AMBER,
+                listener);
+        // a telegram every 10 ms
+        builder.setPopulation(10).setNumberOfTelegrams(21).setSendInterval(100, TimeUnit.MILLISECONDS);
+
+        try (WMBusStickEmulator emulator = builder.start()) {
+            assertTrue(emulator.awaitCompletion(10, TimeUnit.SECONDS));
+
+            WMBusReplayReport report = emulator.getReport();
+            assertEquals(21, report.getDeliveredMessages());
+            assertTrue(report.getElapsedNanos() >= TimeUnit.MILLISECONDS.toNanos(200));
+        }
+    }
+
+    private static void emulateUndisturbed(WMBusManufacturer manufacturer, boolean encrypted) throws Exception {
+        CollectingListener listener = new CollectingListener();
+        WMBusStickEmulator.EmulatorBuilder builder = new WMBusStickEmulator.EmulatorBuilder(manufacturer, listener)
+                .setPopulation(50)
+                .setNumberOfTelegrams(NUMBER_OF_TELEGRAMS)
+                .setEncrypted(encrypted);
+
+        WMBusReplayReport report;
+        try (WMBusStickEmulator emulator = builder.start()) {
+            assertTrue(emulator.awaitCompletion(10, TimeUnit.SECONDS));
+            report = emulator.getReport();
+        }
+
+        assertEquals(NUMBER_OF_TELEGRAMS, report.getEmittedFrames());
+        assertEquals(NUMBER_OF_TELEGRAMS, report.getDeliveredMessages());
+        assertEquals(0, report.getDropRate(), 0);
+        assertEquals(0, report.getDiscardedBytes());
+        assertEquals(NUMBER_OF_TELEGRAMS, report.getLatencySamples());
+        assertTrue(listener.stopCause instanceof EOFException);
+
+        WMBusMessage message = listener.messages.get(7);
+        message.getVariableDataResponse().decode();
+        List<DataRecord> records = message.getVariableDataResponse().getDataRecords();
+        assertEquals(2, records.size());
+        assertEquals(DataRecord.Description.VOLUME, records.get(0).getDescription());
+        assertEquals(DataRecord.Description.FLOW_TEMPERATURE, records.get(1).getDescription());
+    }
+
+    private static class CollectingListener implements WMBusListener {
+        final List<WMBusMessage> messages = Collections.synchronizedList(new ArrayList<WMBusMessage>());
+        volatile IOException stopCause;
+
+        @Override
+        public void newMessage(WMBusMessage message) {
+            messages.add(message);
+        }
+
+        @Override
+        public void discardedBytes(byte[] bytes) {
+            // counted by the report
+        }
+
+        @Override
+        public void stoppedListening(IOException cause) {
+            stopCause = cause;
+        }
+    }
+
+}